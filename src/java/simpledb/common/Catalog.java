@@ -1,6 +1,8 @@
 package simpledb.common;
 
 import simpledb.common.Type;
+import simpledb.index.BitmapIndex;
+import simpledb.index.SecondaryIndex;
 import simpledb.storage.DbFile;
 import simpledb.storage.HeapFile;
 import simpledb.storage.TupleDesc;
@@ -25,6 +27,9 @@ public class Catalog {
     private HashMap<Integer, String> idToNameMap;
     private HashMap<Integer, String> idToPkeyFieldMap;
     private HashMap<String, Integer> nameToIdMap;
+    private HashMap<Integer, List<SecondaryIndex>> idToIndexesMap;
+    private HashMap<Integer, DbFile> idToIndexFileMap;
+    private HashMap<Integer, List<BitmapIndex>> idToBitmapIndexesMap;
 
     /**
      * Constructor. Creates a new, empty catalog.
@@ -34,6 +39,9 @@ public class Catalog {
         this.idToNameMap = new HashMap<>();
         this.idToPkeyFieldMap = new HashMap<>();
         this.nameToIdMap = new HashMap<>();
+        this.idToIndexesMap = new HashMap<>();
+        this.idToIndexFileMap = new HashMap<>();
+        this.idToBitmapIndexesMap = new HashMap<>();
     }
 
     /**
@@ -47,6 +55,10 @@ public class Catalog {
      */
     public void addTable(DbFile file, String name, String pkeyField) {
         idToFileMap.put(file.getId(), file);
+        for (SecondaryIndex index : getIndexes(file.getId()))
+            idToIndexFileMap.remove(index.getFile().getId());
+        idToIndexesMap.remove(file.getId());
+        idToBitmapIndexesMap.remove(file.getId());
         if (name != null && !name.isEmpty()) {
             idToNameMap.put(file.getId(), name);
             nameToIdMap.put(name, file.getId());
@@ -95,19 +107,101 @@ public class Catalog {
     }
 
     /**
-     * Returns the DbFile that can be used to read the contents of the specified table.
+     * Returns the DbFile that can be used to read the contents of the specified table, or of the
+     * specified secondary index file.
      * 
      * @param tableid The id of the table, as specified by the DbFile.getId() function passed to
-     *        addTable
+     *        addTable, or the id of the file of an index passed to addIndex
      */
     public DbFile getDatabaseFile(int tableid) throws NoSuchElementException {
         if (idToFileMap.containsKey(tableid)) {
             return idToFileMap.get(tableid);
+        } else if (idToIndexFileMap.containsKey(tableid)) {
+            return idToIndexFileMap.get(tableid);
         } else {
             throw new NoSuchElementException();
         }
     }
 
+    /**
+     * Attach a secondary index to a table. The index's file can be looked up by its id with
+     * getDatabaseFile, so that its pages can be read, but it is not a table and is not returned by
+     * tableIdIterator; the index is then kept up to date as tuples are inserted into and deleted
+     * from the table through the BufferPool. Replacing the table with addTable drops its indexes.
+     * 
+     * @param index the index to add
+     */
+    public void addIndex(SecondaryIndex index) {
+        idToIndexFileMap.put(index.getFile().getId(), index.getFile());
+        List<SecondaryIndex> indexes = new ArrayList<>(getIndexes(index.getTableId()));
+        indexes.add(index);
+        idToIndexesMap.put(index.getTableId(), Collections.unmodifiableList(indexes));
+    }
+
+    /**
+     * Detach a secondary index from its table, so that it is no longer kept up to date, and drop
+     * its file from the catalog.
+     * 
+     * @param index the index to remove
+     */
+    public void removeIndex(SecondaryIndex index) {
+        idToIndexFileMap.remove(index.getFile().getId());
+        List<SecondaryIndex> indexes = new ArrayList<>(getIndexes(index.getTableId()));
+        indexes.remove(index);
+        idToIndexesMap.put(index.getTableId(), Collections.unmodifiableList(indexes));
+    }
+
+    /**
+     * @return the secondary indexes of the specified table; empty if it has none
+     */
+    public List<SecondaryIndex> getIndexes(int tableid) {
+        return idToIndexesMap.getOrDefault(tableid, Collections.emptyList());
+    }
+
+    /**
+     * @return a secondary index on the specified field of the specified table, or null if there
+     *         is none
+     */
+    public SecondaryIndex getIndex(int tableid, int field) {
+        for (SecondaryIndex index : getIndexes(tableid)) {
+            if (index.getField() == field)
+                return index;
+        }
+        return null;
+    }
+
+    /**
+     * Attach a bitmap index to a table. Like a secondary index, it is then kept up to date as
+     * tuples are inserted into and deleted from the table through the BufferPool, and replacing
+     * the table with addTable drops it.
+     * 
+     * @param index the index to add
+     */
+    public void addBitmapIndex(BitmapIndex index) {
+        List<BitmapIndex> indexes = new ArrayList<>(getBitmapIndexes(index.getTableId()));
+        indexes.add(index);
+        idToBitmapIndexesMap.put(index.getTableId(), Collections.unmodifiableList(indexes));
+    }
+
+    /**
+     * @return the bitmap indexes of the specified table; empty if it has none
+     */
+    public List<BitmapIndex> getBitmapIndexes(int tableid) {
+        return idToBitmapIndexesMap.getOrDefault(tableid, Collections.emptyList());
+    }
+
+    /**
+     * @return a bitmap index on the specified field of the specified table, or null if there is
+     *         none
+     */
+    public BitmapIndex getBitmapIndex(int tableid, int field) {
+        for (BitmapIndex index : getBitmapIndexes(tableid)) {
+            if (index.getField() == field)
+                return index;
+        }
+        return null;
+    }
+
     public String getPrimaryKey(int tableid) {
         return idToPkeyFieldMap.get(tableid);
     }
@@ -126,6 +220,9 @@ public class Catalog {
         idToNameMap.clear();
         idToPkeyFieldMap.clear();
         nameToIdMap.clear();
+        idToIndexesMap.clear();
+        idToIndexFileMap.clear();
+        idToBitmapIndexesMap.clear();
     }
 
     /**
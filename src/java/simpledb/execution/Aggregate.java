@@ -102,6 +102,20 @@ public class Aggregate extends Operator {
     public void open() throws NoSuchElementException, DbException,
             TransactionAbortedException {
         // some code goes here
+        super.open();
+        aggregateIterator = computeAggregate();
+        aggregateIterator.open();
+    }
+
+    /**
+     * Computes the result of this aggregate by opening the child and merging
+     * every tuple it returns into an {@link Aggregator}. Subclasses that can
+     * find the result without reading every tuple override this.
+     *
+     * @return an iterator over the result tuples, as described in
+     *         {@link #fetchNext}
+     */
+    protected OpIterator computeAggregate() throws DbException, TransactionAbortedException {
         Type gfieldType = null;
         Type afieldType = this.child.getTupleDesc().getFieldType(this.afield);
 
@@ -124,7 +138,6 @@ public class Aggregate extends Operator {
             aggregator = new StringAggregator(this.gfield, gfieldType, this.afield, this.aop);
         }
 
-        super.open();
         this.child.open();
 
         while (this.child.hasNext()) {
@@ -132,8 +145,7 @@ public class Aggregate extends Operator {
             aggregator.mergeTupleIntoGroup(tup);
         }
 
-        aggregateIterator = aggregator.iterator();
-        aggregateIterator.open();
+        return aggregator.iterator();
     }
 
     /**
@@ -0,0 +1,71 @@
+package simpledb.execution;
+
+import java.util.List;
+
+import simpledb.index.BitmapIndex;
+import simpledb.storage.DbFileIterator;
+import simpledb.transaction.TransactionId;
+
+/**
+ * BitmapScan reads the tuples of a table that match a conjunction of
+ * predicates on fields with bitmap indexes. The bitmaps of the values
+ * matching each predicate are ORed, the results for the different fields
+ * ANDed, and only then are the remaining tuples fetched from the table, in
+ * table order. Apart from where the tuples come from, it behaves like a
+ * {@link SeqScan}: it returns the same TupleDesc, and accepts the same
+ * projection and runtime filters.
+ */
+public class BitmapScan extends SeqScan {
+
+    private static final long serialVersionUID = 1L;
+
+    private final TransactionId tid;
+    private final List<BitmapIndex> indexes;
+    private final List<IndexPredicate> preds;
+
+    /**
+     * Creates a bitmap scan over the specified table as a part of the
+     * specified transaction.
+     *
+     * @param tid
+     *            The transaction this scan is running as a part of.
+     * @param tableid
+     *            the table to scan.
+     * @param tableAlias
+     *            the alias of this table (see
+     *            {@link SeqScan#SeqScan(TransactionId, int, String)}).
+     * @param outFields
+     *            the indices (in the table's TupleDesc) of the fields to
+     *            return, in output order; null returns every field.
+     * @param indexes
+     *            bitmap indexes on the table, one per predicate
+     * @param preds
+     *            the predicate on the field of each index
+     */
+    public BitmapScan(TransactionId tid, int tableid, String tableAlias, int[] outFields,
+            List<BitmapIndex> indexes, List<IndexPredicate> preds) {
+        super(tid, tableid, tableAlias, outFields);
+        this.tid = tid;
+        this.indexes = indexes;
+        this.preds = preds;
+    }
+
+    /**
+     * @return the indexes this scan combines
+     */
+    public List<BitmapIndex> getIndexes() {
+        return indexes;
+    }
+
+    /**
+     * @return the predicate on the field of each index
+     */
+    public List<IndexPredicate> getIndexPredicates() {
+        return preds;
+    }
+
+    @Override
+    protected DbFileIterator fileIterator() {
+        return BitmapIndex.iterator(tid, indexes, preds);
+    }
+}
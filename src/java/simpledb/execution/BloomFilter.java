@@ -0,0 +1,99 @@
+package simpledb.execution;
+
+import simpledb.storage.Field;
+
+import java.util.Arrays;
+
+/**
+ * A Bloom filter over {@link Field} values. {@link #mightContain} never
+ * returns false for a field that was added, and returns true for a field that
+ * was not added with probability close to the false positive rate the filter
+ * was sized for.
+ * <p>
+ * HashEquiJoin builds one of these over the join keys of its build side and
+ * pushes it down to the probe side scan, so that tuples which cannot join are
+ * dropped before they reach any other operator.
+ */
+public class BloomFilter {
+
+    /** The false positive rate filters are sized for by default. */
+    public static final double DEFAULT_FPP = 0.01;
+
+    private final long[] bits;
+    private final int numBits;
+    private final int numHashes;
+
+    /**
+     * Create an empty filter sized for the given number of distinct values.
+     *
+     * @param expectedItems
+     *            the number of distinct values expected to be added
+     * @param fpp
+     *            the desired false positive rate, in (0, 1)
+     */
+    public BloomFilter(int expectedItems, double fpp) {
+        int n = Math.max(expectedItems, 1);
+        long m = (long) Math.ceil(-n * Math.log(fpp) / (Math.log(2) * Math.log(2)));
+        m = Math.max(64, Math.min(m, Integer.MAX_VALUE - 63));
+        this.numBits = (int) (((m + 63) / 64) * 64);
+        this.bits = new long[numBits / 64];
+        this.numHashes = Math.max(1, (int) Math.round((double) numBits / n * Math.log(2)));
+    }
+
+    public BloomFilter(int expectedItems) {
+        this(expectedItems, DEFAULT_FPP);
+    }
+
+    /** Add f to the filter. */
+    public void add(Field f) {
+        int h = f.hashCode();
+        int h1 = mix(h);
+        int h2 = mix(h1 ^ 0x5bd1e995);
+        for (int i = 0; i < numHashes; i++) {
+            int bit = ((h1 + i * h2) & Integer.MAX_VALUE) % numBits;
+            bits[bit >>> 6] |= 1L << bit;
+        }
+    }
+
+    /**
+     * @return false if f was definitely never added to the filter, true if it
+     *         may have been
+     */
+    public boolean mightContain(Field f) {
+        int h = f.hashCode();
+        int h1 = mix(h);
+        int h2 = mix(h1 ^ 0x5bd1e995);
+        for (int i = 0; i < numHashes; i++) {
+            int bit = ((h1 + i * h2) & Integer.MAX_VALUE) % numBits;
+            if ((bits[bit >>> 6] & (1L << bit)) == 0)
+                return false;
+        }
+        return true;
+    }
+
+    /** Remove every value from the filter. */
+    public void clear() {
+        Arrays.fill(bits, 0L);
+    }
+
+    /** @return the number of bits in the filter */
+    public int numBits() {
+        return numBits;
+    }
+
+    /** @return the number of hash functions applied to each value */
+    public int numHashes() {
+        return numHashes;
+    }
+
+    /** The murmur3 32-bit finalizer; spreads hash codes such as IntField's,
+     * which are just the value, over all bits. */
+    private static int mix(int h) {
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return h;
+    }
+}
@@ -15,6 +15,7 @@ public class Filter extends Operator {
     private static final long serialVersionUID = 1L;
     private Predicate p;
     private OpIterator child;
+    private transient PredicateCompiler.CompiledPredicate test;
 
     /**
      * Constructor accepts a predicate to apply and a child operator to read
@@ -44,6 +45,7 @@ public class Filter extends Operator {
     public void open() throws DbException, NoSuchElementException,
             TransactionAbortedException {
         // some code goes here
+        this.test = PredicateCompiler.compile(p);
         super.open();
         this.child.open();
     }
@@ -73,7 +75,7 @@ public class Filter extends Operator {
         // some code goes here
         while (this.child.hasNext()) {
             Tuple t = this.child.next();
-            if (p.filter(t)) {
+            if (test.test(t)) {
                 return t;
             }
         }
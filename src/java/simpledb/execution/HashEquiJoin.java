@@ -2,6 +2,7 @@ package simpledb.execution;
 
 import simpledb.transaction.TransactionAbortedException;
 import simpledb.common.DbException;
+import simpledb.storage.Field;
 import simpledb.storage.Tuple;
 import simpledb.storage.TupleDesc;
 
@@ -18,6 +19,9 @@ public class HashEquiJoin extends Operator {
     private final TupleDesc comboTD;
     transient private Tuple t1 = null;
     transient private Tuple t2 = null;
+    private int expectedBuildCardinality = 0;
+    transient private BloomFilter runtimeFilter = null;
+    transient private SeqScan probeScan = null;
 
     /**
      * Constructor. Accepts to children to join and the predicate to join them
@@ -37,6 +41,15 @@ public class HashEquiJoin extends Operator {
         comboTD = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
     }
 
+    /**
+     * Set the optimizer's estimate of the number of tuples child1 produces.
+     * Used to size the runtime filter pushed down to child2; if the build
+     * side turns out to be larger, the filter is sized from the actual count.
+     */
+    public void setExpectedBuildCardinality(int card) {
+        this.expectedBuildCardinality = card;
+    }
+
     public JoinPredicate getJoinPredicate() {
         return pred;
     }
@@ -65,17 +78,69 @@ public class HashEquiJoin extends Operator {
             t1 = child1.next();
             List<Tuple> list = map.computeIfAbsent(t1.getField(pred.getField1()), k -> new ArrayList<>());
             list.add(t1);
-            if (cnt++ == MAP_SIZE)
+            if (cnt++ == MAP_SIZE) {
+                fillRuntimeFilter();
                 return true;
+            }
         }
+        fillRuntimeFilter();
         return cnt > 0;
 
     }
 
+    /**
+     * Load the join keys of the current build chunk into the runtime filter
+     * on the probe side scan, creating and installing the filter the first
+     * time through. Probe tuples that cannot match any key in the chunk are
+     * then dropped by the scan itself.
+     */
+    private void fillRuntimeFilter() {
+        if (probeScan == null)
+            return;
+        if (runtimeFilter == null) {
+            int expected = Math.min(Math.max(expectedBuildCardinality, map.size()), MAP_SIZE + 1);
+            runtimeFilter = new BloomFilter(expected);
+            probeScan.addRuntimeFilter(probeScan.getTupleDesc().fieldNameToIndex(getJoinField2Name()),
+                    runtimeFilter);
+        } else {
+            runtimeFilter.clear();
+        }
+        for (Object key : map.keySet())
+            runtimeFilter.add((Field) key);
+    }
+
+    /**
+     * Find the scan under op that produces the named field, looking only
+     * through operators that never keep a tuple whose field value does not
+     * also reach op's parent (filters, inner joins, sorts and projections).
+     *
+     * @return the scan, or null if there is none
+     */
+    private static SeqScan findProbeScan(OpIterator op, String fieldName) {
+        if (op instanceof SeqScan) {
+            try {
+                op.getTupleDesc().fieldNameToIndex(fieldName);
+                return (SeqScan) op;
+            } catch (NoSuchElementException e) {
+                return null;
+            }
+        }
+        if (op instanceof Filter || op instanceof Join || op instanceof HashEquiJoin
+                || op instanceof OrderBy || op instanceof Project) {
+            for (OpIterator child : ((Operator) op).getChildren()) {
+                SeqScan s = findProbeScan(child, fieldName);
+                if (s != null)
+                    return s;
+            }
+        }
+        return null;
+    }
+
     public void open() throws DbException, NoSuchElementException,
             TransactionAbortedException {
         child1.open();
         child2.open();
+        probeScan = findProbeScan(child2, getJoinField2Name());
         loadMap();
         super.open();
     }
@@ -88,10 +153,18 @@ public class HashEquiJoin extends Operator {
         this.t2=null;
         this.listIt=null;
         this.map.clear();
+        if (probeScan != null && runtimeFilter != null)
+            probeScan.removeRuntimeFilter(runtimeFilter);
+        this.probeScan = null;
+        this.runtimeFilter = null;
     }
 
     public void rewind() throws DbException, TransactionAbortedException {
         child1.rewind();
+        this.listIt = null;
+        // load the chunk (and so refill the runtime filter) before rewinding
+        // child2, which may rebuild a nested join over the filtered scan
+        loadMap();
         child2.rewind();
     }
 
@@ -118,17 +191,8 @@ public class HashEquiJoin extends Operator {
     private Tuple processList() {
         t1 = listIt.next();
 
-        int td1n = t1.getTupleDesc().numFields();
-        int td2n = t2.getTupleDesc().numFields();
-
-        // set fields in combined tuple
-        Tuple t = new Tuple(comboTD);
-        for (int i = 0; i < td1n; i++)
-            t.setField(i, t1.getField(i));
-        for (int i = 0; i < td2n; i++)
-            t.setField(td1n + i, t2.getField(i));
-        return t;
-
+        return PredicateCompiler.concat(comboTD, t1, t1.getTupleDesc().numFields(),
+                t2, t2.getTupleDesc().numFields());
     }
 
     protected Tuple fetchNext() throws TransactionAbortedException, DbException {
@@ -151,9 +215,10 @@ public class HashEquiJoin extends Operator {
 
         }
 
-        // child2 is done: advance child1
-        child2.rewind();
+        // child2 is done: advance child1, then rewind child2 against the
+        // runtime filter of the new chunk
         if (loadMap()) {
+            child2.rewind();
             return fetchNext();
         }
 
@@ -0,0 +1,56 @@
+package simpledb.execution;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.storage.HeapFile;
+import simpledb.storage.IntField;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.storage.TupleIterator;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * HeapCount computes an ungrouped COUNT over a whole heap table. Since fields
+ * are never null, that is the number of tuples in the table, which
+ * {@link HeapFile#countTuples} reads from the slot bitmaps in the page
+ * headers without decoding any tuples.
+ */
+public class HeapCount extends Aggregate {
+
+    private static final long serialVersionUID = 1L;
+
+    private final TransactionId tid;
+    private final int tableid;
+
+    /**
+     * Constructor.
+     *
+     * @param tid        the transaction this count runs as a part of
+     * @param tableid    the heap table to count
+     * @param tableAlias the alias of the table, used in the output field name
+     * @param afield     the counted column
+     */
+    public HeapCount(TransactionId tid, int tableid, String tableAlias, int afield) {
+        super(new SeqScan(tid, tableid, tableAlias), afield, Aggregator.NO_GROUPING, Aggregator.Op.COUNT);
+        this.tid = tid;
+        this.tableid = tableid;
+    }
+
+    @Override
+    protected OpIterator computeAggregate() throws DbException, TransactionAbortedException {
+        int count = ((HeapFile) Database.getCatalog().getDatabaseFile(tableid)).countTuples(tid);
+        TupleDesc td = getTupleDesc();
+        List<Tuple> result = new ArrayList<>();
+        // like Aggregate, an empty input has no result tuple
+        if (count > 0) {
+            Tuple t = new Tuple(td);
+            t.setField(0, new IntField(count));
+            result.add(t);
+        }
+        return new TupleIterator(td, result);
+    }
+}
@@ -1,19 +1,42 @@
 package simpledb.execution;
 
+import simpledb.common.Type;
+import simpledb.index.CompositeKey;
 import simpledb.storage.Field;
+import simpledb.storage.StringField;
 
 import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Objects;
 
 /**
- * IndexPredicate compares a field which has index on it against a given value
+ * IndexPredicate compares a field which has index on it against a given value,
+ * a range of values, or a list of values.
+ * <p>
+ * Every predicate that an index can search describes a range of keys, given by
+ * {@link #getLowerBound} and {@link #getUpperBound}; an IN list describes one
+ * single-key range per value, visited in key order.
  * @see IndexOpIterator
  */
 public class IndexPredicate implements Serializable {
-	
+
     private static final long serialVersionUID = 1L;
-	
+
+    /** Orders fields of the same type by their values */
+    public static final Comparator<Field> KEY_ORDER = (a, b) ->
+            a.compare(Predicate.Op.LESS_THAN, b) ? -1 : a.compare(Predicate.Op.EQUALS, b) ? 0 : 1;
+
     private final Predicate.Op op;
     private final Field fieldvalue;
+    private final Field lower;
+    private final boolean lowerInclusive;
+    private final Field upper;
+    private final boolean upperInclusive;
+    private final List<Field> values;
 
     /**
      * Constructor.
@@ -27,16 +50,204 @@ public class IndexPredicate implements Serializable {
     public IndexPredicate(Predicate.Op op, Field fvalue) {
         this.op = op;
         this.fieldvalue = fvalue;
+        this.values = null;
+        switch (op) {
+        case EQUALS:
+            lower = upper = fvalue;
+            lowerInclusive = upperInclusive = true;
+            break;
+        case GREATER_THAN:
+        case GREATER_THAN_OR_EQ:
+            lower = fvalue;
+            lowerInclusive = op == Predicate.Op.GREATER_THAN_OR_EQ;
+            upper = null;
+            upperInclusive = false;
+            break;
+        case LESS_THAN:
+        case LESS_THAN_OR_EQ:
+            lower = null;
+            lowerInclusive = false;
+            upper = fvalue;
+            upperInclusive = op == Predicate.Op.LESS_THAN_OR_EQ;
+            break;
+        default:
+            lower = upper = null;
+            lowerInclusive = upperInclusive = false;
+        }
+    }
+
+    private IndexPredicate(Field lower, boolean lowerInclusive, Field upper, boolean upperInclusive,
+            List<Field> values) {
+        this.op = null;
+        this.fieldvalue = null;
+        this.lower = lower;
+        this.lowerInclusive = lowerInclusive;
+        this.upper = upper;
+        this.upperInclusive = upperInclusive;
+        this.values = values;
+    }
+
+    /**
+     * Create a predicate on the keys between two bounds.
+     *
+     * @param lower the smallest key, or null for no lower bound
+     * @param lowerInclusive whether keys equal to lower match
+     * @param upper the largest key, or null for no upper bound
+     * @param upperInclusive whether keys equal to upper match
+     */
+    public static IndexPredicate range(Field lower, boolean lowerInclusive, Field upper, boolean upperInclusive) {
+        return new IndexPredicate(lower, lower != null && lowerInclusive, upper, upper != null && upperInclusive,
+                null);
+    }
+
+    /**
+     * Create a predicate on the keys equal to any of a list of values.
+     *
+     * @param values the values to look up, in any order; duplicates are ignored
+     */
+    public static IndexPredicate in(Collection<? extends Field> values) {
+        List<Field> sorted = new ArrayList<>(values);
+        sorted.sort(KEY_ORDER);
+        List<Field> distinct = new ArrayList<>(sorted.size());
+        for (Field f : sorted) {
+            if (distinct.isEmpty() || KEY_ORDER.compare(distinct.get(distinct.size() - 1), f) != 0)
+                distinct.add(f);
+        }
+        Field lower = distinct.isEmpty() ? null : distinct.get(0);
+        Field upper = distinct.isEmpty() ? null : distinct.get(distinct.size() - 1);
+        return new IndexPredicate(lower, lower != null, upper, upper != null,
+                Collections.unmodifiableList(distinct));
     }
 
+    /**
+     * Create a predicate on the keys of a B+ tree with a {@link CompositeKey}
+     * whose leading fields equal the given values, and whose next field, if
+     * bounded, lies between two bounds. As normalized keys with the same
+     * leading fields are adjacent in key order, this is a single range.
+     *
+     * @param prefix the values of the leading key fields, most significant
+     *   first; may be empty
+     * @param lower the smallest value of the next key field, or null for no
+     *   lower bound
+     * @param lowerInclusive whether keys whose next field equals lower match
+     * @param upper the largest value of the next key field, or null for no
+     *   upper bound
+     * @param upperInclusive whether keys whose next field equals upper match
+     */
+    public static IndexPredicate prefix(List<? extends Field> prefix, Field lower, boolean lowerInclusive,
+            Field upper, boolean upperInclusive) {
+        String p = CompositeKey.encode(prefix);
+        // HIGH sorts after every encoded field, so p + HIGH is above every key
+        // starting with p
+        String lo = lower == null ? p
+                : lowerInclusive ? p + CompositeKey.encode(Collections.singletonList(lower))
+                : p + CompositeKey.encode(Collections.singletonList(lower)) + CompositeKey.HIGH;
+        String hi = upper == null ? p + CompositeKey.HIGH
+                : upperInclusive ? p + CompositeKey.encode(Collections.singletonList(upper)) + CompositeKey.HIGH
+                : p + CompositeKey.encode(Collections.singletonList(upper));
+        return range(lo.isEmpty() ? null : new StringField(lo, Type.STRING_LEN), true,
+                hi.length() == 1 ? null : new StringField(hi, Type.STRING_LEN), false);
+    }
+
+    /**
+     * Create a predicate on the keys of a B+ tree with a {@link CompositeKey}
+     * whose leading fields equal the given values.
+     *
+     * @see #prefix(List, Field, boolean, Field, boolean)
+     */
+    public static IndexPredicate prefix(List<? extends Field> prefix) {
+        return prefix(prefix, null, false, null, false);
+    }
+
+    /**
+     * @return the value of a single-operator predicate, or null for a range or
+     *   an IN list
+     */
     public Field getField() {
         return fieldvalue;
     }
 
+    /**
+     * @return the operator of a single-operator predicate, or null for a range
+     *   or an IN list
+     */
     public Predicate.Op getOp() {
         return op;
     }
 
+    /**
+     * @return the smallest matching key, or null if there is no lower bound
+     */
+    public Field getLowerBound() {
+        return lower;
+    }
+
+    public boolean isLowerInclusive() {
+        return lowerInclusive;
+    }
+
+    /**
+     * @return the largest matching key, or null if there is no upper bound
+     */
+    public Field getUpperBound() {
+        return upper;
+    }
+
+    public boolean isUpperInclusive() {
+        return upperInclusive;
+    }
+
+    /**
+     * @return the values of an IN list in key order without duplicates, or
+     *   null if this predicate is not an IN list
+     */
+    public List<Field> getValues() {
+        return values;
+    }
+
+    /**
+     * @return true if the keys this predicate matches are exactly the keys
+     *   between its bounds, so an index can find them with one range search
+     */
+    public boolean isRange() {
+        return values == null && (op == null || op != Predicate.Op.NOT_EQUALS && op != Predicate.Op.LIKE);
+    }
+
+    /**
+     * @param key a key of the indexed field
+     * @return true if key is below the lower bound of this predicate
+     */
+    public boolean belowLower(Field key) {
+        return lower != null && !key.compare(lowerInclusive ? Predicate.Op.GREATER_THAN_OR_EQ
+                : Predicate.Op.GREATER_THAN, lower);
+    }
+
+    /**
+     * @param key a key of the indexed field
+     * @return true if key is above the upper bound of this predicate
+     */
+    public boolean aboveUpper(Field key) {
+        return upper != null && !key.compare(upperInclusive ? Predicate.Op.LESS_THAN_OR_EQ
+                : Predicate.Op.LESS_THAN, upper);
+    }
+
+    /**
+     * @param key a key of the indexed field
+     * @return true if key satisfies this predicate
+     */
+    public boolean matches(Field key) {
+        if (op != null)
+            return key.compare(op, fieldvalue);
+        if (values != null) {
+            for (Field v : values) {
+                if (key.compare(Predicate.Op.EQUALS, v))
+                    return true;
+            }
+            return false;
+        }
+        return !belowLower(key) && !aboveUpper(key);
+    }
+
     /** Return true if the fieldvalue in the supplied predicate
         is satisfied by this predicate's fieldvalue and
         operator.
@@ -45,7 +256,11 @@ public class IndexPredicate implements Serializable {
     public boolean equals(IndexPredicate ipd) {
         if (ipd == null)
             return false;
-        return (op.equals(ipd.op) && fieldvalue.equals(ipd.fieldvalue));
+        if (op != null)
+            return (op.equals(ipd.op) && fieldvalue.equals(ipd.fieldvalue));
+        return ipd.op == null && Objects.equals(lower, ipd.lower) && lowerInclusive == ipd.lowerInclusive
+                && Objects.equals(upper, ipd.upper) && upperInclusive == ipd.upperInclusive
+                && Objects.equals(values, ipd.values);
     }
 
 }
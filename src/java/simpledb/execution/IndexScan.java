@@ -0,0 +1,90 @@
+package simpledb.execution;
+
+import simpledb.index.SecondaryIndex;
+import simpledb.storage.DbFileIterator;
+import simpledb.transaction.TransactionId;
+
+/**
+ * IndexScan reads the tuples of a table whose indexed field matches a
+ * predicate, by searching a secondary index and fetching each match from the
+ * table by its RecordId. Apart from where the tuples come from, it behaves
+ * like a {@link SeqScan}: it returns the same TupleDesc, and accepts the same
+ * projection and runtime filters. The tuples come back in ascending order of
+ * the indexed field, or descending order if the scan is reversed.
+ */
+public class IndexScan extends SeqScan {
+
+    private static final long serialVersionUID = 1L;
+
+    private final TransactionId tid;
+    private final SecondaryIndex index;
+    private final IndexPredicate ipred;
+    private final boolean reverse;
+
+    /**
+     * Creates an index scan over the specified table as a part of the
+     * specified transaction.
+     *
+     * @param tid
+     *            The transaction this scan is running as a part of.
+     * @param tableid
+     *            the table to scan.
+     * @param tableAlias
+     *            the alias of this table (see
+     *            {@link SeqScan#SeqScan(TransactionId, int, String)}).
+     * @param outFields
+     *            the indices (in the table's TupleDesc) of the fields to
+     *            return, in output order; null returns every field.
+     * @param index
+     *            a secondary index on the table
+     * @param ipred
+     *            the predicate on the indexed field
+     */
+    public IndexScan(TransactionId tid, int tableid, String tableAlias, int[] outFields,
+            SecondaryIndex index, IndexPredicate ipred) {
+        this(tid, tableid, tableAlias, outFields, index, ipred, false);
+    }
+
+    /**
+     * Creates an index scan that returns its tuples in ascending or
+     * descending order of the indexed field.
+     *
+     * @param reverse
+     *            if true, return the tuple with the largest value first
+     * @see #IndexScan(TransactionId, int, String, int[], SecondaryIndex, IndexPredicate)
+     */
+    public IndexScan(TransactionId tid, int tableid, String tableAlias, int[] outFields,
+            SecondaryIndex index, IndexPredicate ipred, boolean reverse) {
+        super(tid, tableid, tableAlias, outFields);
+        this.tid = tid;
+        this.index = index;
+        this.ipred = ipred;
+        this.reverse = reverse;
+    }
+
+    /**
+     * @return the index this scan searches
+     */
+    public SecondaryIndex getIndex() {
+        return index;
+    }
+
+    /**
+     * @return the predicate on the indexed field
+     */
+    public IndexPredicate getIndexPredicate() {
+        return ipred;
+    }
+
+    /**
+     * @return true if this scan returns the largest value first
+     */
+    public boolean isReverse() {
+        return reverse;
+    }
+
+    @Override
+    protected DbFileIterator fileIterator() {
+        return reverse ? index.reverseIterator(tid, ipred) : index.iterator(tid, ipred);
+    }
+}
@@ -17,6 +17,8 @@ public class Join extends Operator {
     private OpIterator child1;
     private OpIterator child2;
     private Tuple t1 = null;
+    private transient PredicateCompiler.CompiledJoinPredicate test;
+    private transient TupleDesc comboTD;
 
     /**
      * Constructor. Accepts two children to join and the predicate to join them
@@ -73,6 +75,8 @@ public class Join extends Operator {
     public void open() throws DbException, NoSuchElementException,
             TransactionAbortedException {
         // some code goes here
+        this.test = PredicateCompiler.compile(p, child1.getTupleDesc(), child2.getTupleDesc());
+        this.comboTD = getTupleDesc();
         super.open();
         this.child1.open();
         this.child2.open();
@@ -119,19 +123,9 @@ public class Join extends Operator {
 
             while (this.child2.hasNext()) {
                 Tuple t2 = this.child2.next();
-                if (p.filter(t1, t2)) {
-                    Tuple joinedTuple = new Tuple(getTupleDesc());
-                    int i = 0;
-
-                    for (; i < t1.getTupleDesc().numFields(); i++) {
-                        joinedTuple.setField(i, t1.getField(i));
-                    }
-
-                    for (int j = 0; j < t2.getTupleDesc().numFields(); j++, i++) {
-                        joinedTuple.setField(i, t2.getField(j));
-                    }
-
-                    return joinedTuple;
+                if (test.test(t1, t2)) {
+                    return PredicateCompiler.concat(comboTD, t1, t1.getTupleDesc().numFields(),
+                            t2, t2.getTupleDesc().numFields());
                 }
             }
 
@@ -0,0 +1,205 @@
+package simpledb.execution;
+
+import simpledb.common.DbException;
+import simpledb.storage.BufferPool;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+
+import java.io.*;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * Materialize caches the output of its child the first time it is read, so
+ * that rewinding replays the cached tuples instead of re-executing the child
+ * subtree. Tuples are kept in memory up to a budget; the rest are spilled to a
+ * temporary file that is deleted when the operator is closed.
+ * <p>
+ * This is meant to sit above the inner side of a join, which is rewound once
+ * per outer tuple (Join) or once per build chunk (HashEquiJoin). Tuples
+ * replayed from the spill file do not carry a RecordId.
+ */
+public class Materialize extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    /** Default in-memory budget, in pages of BufferPool.getPageSize() bytes. */
+    public static final int DEFAULT_BUDGET_PAGES = 50;
+
+    private OpIterator child;
+    private final int budgetBytes;
+
+    private transient List<Tuple> memory;
+    private transient File spillFile;
+    private transient DataOutputStream spillOut;
+    private transient DataInputStream spillIn;
+    private transient int numSpilled;
+    private transient boolean complete;
+    private transient int memoryPos;
+    private transient int spillPos;
+
+    /**
+     * Constructor.
+     *
+     * @param child
+     *            the operator whose output should be cached
+     * @param budgetBytes
+     *            the number of bytes of tuples to keep in memory before
+     *            spilling to disk
+     */
+    public Materialize(OpIterator child, int budgetBytes) {
+        this.child = child;
+        this.budgetBytes = budgetBytes;
+    }
+
+    public Materialize(OpIterator child) {
+        this(child, DEFAULT_BUDGET_PAGES * BufferPool.getPageSize());
+    }
+
+    public TupleDesc getTupleDesc() {
+        return child.getTupleDesc();
+    }
+
+    /** @return true once the child has been read to the end and is fully cached */
+    public boolean isComplete() {
+        return complete;
+    }
+
+    /** @return the number of cached tuples that were written to the spill file */
+    public int numSpilled() {
+        return numSpilled;
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        reset();
+        child.open();
+        super.open();
+    }
+
+    public void close() {
+        super.close();
+        child.close();
+        reset();
+    }
+
+    /**
+     * Replay the cached tuples from the start. If the child has not been read
+     * to the end yet, the remainder is read into the cache first.
+     */
+    public void rewind() throws DbException, TransactionAbortedException {
+        while (!complete) {
+            fetchNext();
+        }
+        // drop any tuple the parent looked ahead at
+        super.close();
+        super.open();
+        memoryPos = 0;
+        spillPos = 0;
+        closeQuietly(spillIn);
+        spillIn = null;
+    }
+
+    protected Tuple fetchNext() throws DbException, TransactionAbortedException {
+        if (!complete) {
+            if (child.hasNext()) {
+                Tuple t = child.next();
+                cache(t);
+                return t;
+            }
+            complete = true;
+            if (spillOut != null) {
+                try {
+                    spillOut.close();
+                } catch (IOException e) {
+                    throw new DbException("could not write materialized tuples: " + e.getMessage());
+                }
+                spillOut = null;
+            }
+            // the first pass has read everything; only rewind() replays it
+            memoryPos = memory.size();
+            spillPos = numSpilled;
+            return null;
+        }
+
+        if (memoryPos < memory.size())
+            return memory.get(memoryPos++);
+        if (spillPos < numSpilled) {
+            spillPos++;
+            return readSpilled();
+        }
+        return null;
+    }
+
+    private void cache(Tuple t) throws DbException {
+        if ((long) (memory.size() + 1) * getTupleDesc().getSize() <= budgetBytes) {
+            memory.add(t);
+            return;
+        }
+        try {
+            if (spillOut == null) {
+                spillFile = File.createTempFile("materialize", ".tmp");
+                spillFile.deleteOnExit();
+                spillOut = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(spillFile)));
+            }
+            for (int i = 0; i < getTupleDesc().numFields(); i++)
+                t.getField(i).serialize(spillOut);
+        } catch (IOException e) {
+            throw new DbException("could not spill materialized tuples: " + e.getMessage());
+        }
+        numSpilled++;
+    }
+
+    private Tuple readSpilled() throws DbException {
+        TupleDesc td = getTupleDesc();
+        try {
+            if (spillIn == null)
+                spillIn = new DataInputStream(new BufferedInputStream(new FileInputStream(spillFile)));
+            Tuple t = new Tuple(td);
+            for (int i = 0; i < td.numFields(); i++)
+                t.setField(i, td.getFieldType(i).parse(spillIn));
+            return t;
+        } catch (IOException | ParseException e) {
+            throw new DbException("could not read materialized tuples: " + e.getMessage());
+        }
+    }
+
+    private void reset() {
+        memory = new ArrayList<>();
+        closeQuietly(spillOut);
+        closeQuietly(spillIn);
+        spillOut = null;
+        spillIn = null;
+        if (spillFile != null)
+            spillFile.delete();
+        spillFile = null;
+        numSpilled = 0;
+        complete = false;
+        memoryPos = 0;
+        spillPos = 0;
+    }
+
+    private static void closeQuietly(Closeable c) {
+        if (c == null)
+            return;
+        try {
+            c.close();
+        } catch (IOException ignored) {
+        }
+    }
+
+    @Override
+    public OpIterator[] getChildren() {
+        return new OpIterator[] { this.child };
+    }
+
+    @Override
+    public void setChildren(OpIterator[] children) {
+        if (this.child != children[0]) {
+            this.child = children[0];
+        }
+    }
+}
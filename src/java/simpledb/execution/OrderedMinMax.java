@@ -0,0 +1,50 @@
+package simpledb.execution;
+
+import simpledb.common.DbException;
+import simpledb.storage.IntField;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.storage.TupleIterator;
+import simpledb.transaction.TransactionAbortedException;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * OrderedMinMax computes an ungrouped MIN or MAX over a child that returns its
+ * tuples sorted on the aggregate field: ascending for MIN, descending for MAX.
+ * The first tuple holds the answer, so only that tuple is read, e.g. the first
+ * entry at one end of a B+ tree.
+ */
+public class OrderedMinMax extends Aggregate {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Constructor.
+     *
+     * @param child  the tuples to aggregate, sorted on afield
+     * @param afield the column over which to compute the aggregate
+     * @param aop    Aggregator.Op.MIN or Aggregator.Op.MAX
+     */
+    public OrderedMinMax(OpIterator child, int afield, Aggregator.Op aop) {
+        super(child, afield, Aggregator.NO_GROUPING, aop);
+        if (aop != Aggregator.Op.MIN && aop != Aggregator.Op.MAX)
+            throw new IllegalArgumentException("only MIN and MAX can be read from sorted input");
+    }
+
+    @Override
+    protected OpIterator computeAggregate() throws DbException, TransactionAbortedException {
+        OpIterator child = getChildren()[0];
+        TupleDesc td = getTupleDesc();
+        List<Tuple> result = new ArrayList<>();
+        child.open();
+        // like Aggregate, an empty input has no result tuple
+        if (child.hasNext()) {
+            Tuple t = new Tuple(td);
+            t.setField(0, new IntField(((IntField) child.next().getField(aggregateField())).getValue()));
+            result.add(t);
+        }
+        return new TupleIterator(td, result);
+    }
+}
@@ -14,6 +14,7 @@ public class Predicate implements Serializable {
     private int field;
     private Op op;
     private Field operand;
+    private transient PredicateCompiler.CompiledPredicate compiled;
 
     /** Constants used for return codes in Field.compare */
     public enum Op implements Serializable {
@@ -106,7 +107,9 @@ public class Predicate implements Serializable {
      */
     public boolean filter(Tuple t) {
         // some code goes here
-        return t.getField(field).compare(op, operand);
+        if (compiled == null)
+            compiled = PredicateCompiler.compile(this);
+        return compiled.test(t);
     }
 
     /**
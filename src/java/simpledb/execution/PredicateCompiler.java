@@ -0,0 +1,149 @@
+package simpledb.execution;
+
+import simpledb.common.Type;
+import simpledb.storage.Field;
+import simpledb.storage.IntField;
+import simpledb.storage.StringField;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+
+import java.util.List;
+
+/**
+ * PredicateCompiler turns {@link Predicate}s and {@link JoinPredicate}s into
+ * evaluators specialized for their operator and field types. This is done
+ * once, when an operator is opened, so that the per-tuple path does not go
+ * through {@link Field#compare} and its switch on {@link Predicate.Op}:
+ * constants are unboxed up front, the operator is chosen once instead of per
+ * tuple, and integer comparisons are made directly on primitive values.
+ * Evaluators are plain lambdas rather than generated classes; Filter, Join and
+ * Predicate.filter each call them from one shared site, so the gain is the
+ * work saved per call rather than inlining.
+ */
+public final class PredicateCompiler {
+
+    /** A predicate over a single tuple, as produced by {@link #compile(Predicate)}. */
+    public interface CompiledPredicate {
+        boolean test(Tuple t);
+    }
+
+    /** A predicate over a pair of tuples, as produced by
+     * {@link #compile(JoinPredicate, TupleDesc, TupleDesc)}. */
+    public interface CompiledJoinPredicate {
+        boolean test(Tuple t1, Tuple t2);
+    }
+
+    private PredicateCompiler() {
+    }
+
+    /**
+     * Compile a predicate of the form "field op constant".
+     *
+     * @param p
+     *            the predicate to compile
+     * @return an evaluator equivalent to {@link Predicate#filter}
+     */
+    public static CompiledPredicate compile(Predicate p) {
+        final int f = p.getField();
+        final Predicate.Op op = p.getOp();
+        final Field operand = p.getOperand();
+
+        if (operand instanceof IntField) {
+            final int c = ((IntField) operand).getValue();
+            switch (op) {
+            case EQUALS:
+            case LIKE:
+                return t -> ((IntField) t.getField(f)).getValue() == c;
+            case NOT_EQUALS:
+                return t -> ((IntField) t.getField(f)).getValue() != c;
+            case GREATER_THAN:
+                return t -> ((IntField) t.getField(f)).getValue() > c;
+            case GREATER_THAN_OR_EQ:
+                return t -> ((IntField) t.getField(f)).getValue() >= c;
+            case LESS_THAN:
+                return t -> ((IntField) t.getField(f)).getValue() < c;
+            case LESS_THAN_OR_EQ:
+                return t -> ((IntField) t.getField(f)).getValue() <= c;
+            }
+        } else if (operand instanceof StringField) {
+            final String c = ((StringField) operand).getValue();
+            switch (op) {
+            case EQUALS:
+                return t -> ((StringField) t.getField(f)).getValue().equals(c);
+            case NOT_EQUALS:
+                return t -> !((StringField) t.getField(f)).getValue().equals(c);
+            case GREATER_THAN:
+                return t -> ((StringField) t.getField(f)).getValue().compareTo(c) > 0;
+            case GREATER_THAN_OR_EQ:
+                return t -> ((StringField) t.getField(f)).getValue().compareTo(c) >= 0;
+            case LESS_THAN:
+                return t -> ((StringField) t.getField(f)).getValue().compareTo(c) < 0;
+            case LESS_THAN_OR_EQ:
+                return t -> ((StringField) t.getField(f)).getValue().compareTo(c) <= 0;
+            case LIKE:
+                return t -> ((StringField) t.getField(f)).getValue().contains(c);
+            }
+        }
+        return t -> t.getField(f).compare(op, operand);
+    }
+
+    /**
+     * Compile a join predicate of the form "t1.field1 op t2.field2".
+     *
+     * @param p
+     *            the join predicate to compile
+     * @param td1
+     *            the TupleDesc of the tuples passed as the first argument
+     * @param td2
+     *            the TupleDesc of the tuples passed as the second argument
+     * @return an evaluator equivalent to {@link JoinPredicate#filter}
+     */
+    public static CompiledJoinPredicate compile(JoinPredicate p, TupleDesc td1, TupleDesc td2) {
+        final int f1 = p.getField1();
+        final int f2 = p.getField2();
+        final Predicate.Op op = p.getOperator();
+
+        if (td1.getFieldType(f1) == Type.INT_TYPE && td2.getFieldType(f2) == Type.INT_TYPE) {
+            switch (op) {
+            case EQUALS:
+            case LIKE:
+                return (t1, t2) -> ((IntField) t1.getField(f1)).getValue() == ((IntField) t2.getField(f2)).getValue();
+            case NOT_EQUALS:
+                return (t1, t2) -> ((IntField) t1.getField(f1)).getValue() != ((IntField) t2.getField(f2)).getValue();
+            case GREATER_THAN:
+                return (t1, t2) -> ((IntField) t1.getField(f1)).getValue() > ((IntField) t2.getField(f2)).getValue();
+            case GREATER_THAN_OR_EQ:
+                return (t1, t2) -> ((IntField) t1.getField(f1)).getValue() >= ((IntField) t2.getField(f2)).getValue();
+            case LESS_THAN:
+                return (t1, t2) -> ((IntField) t1.getField(f1)).getValue() < ((IntField) t2.getField(f2)).getValue();
+            case LESS_THAN_OR_EQ:
+                return (t1, t2) -> ((IntField) t1.getField(f1)).getValue() <= ((IntField) t2.getField(f2)).getValue();
+            }
+        }
+        return (t1, t2) -> t1.getField(f1).compare(op, t2.getField(f2));
+    }
+
+    /**
+     * Build the field mapping for a projection: entry i is the index of the
+     * input field that becomes output field i.
+     */
+    public static int[] compileProjection(List<Integer> fields) {
+        int[] out = new int[fields.size()];
+        for (int i = 0; i < out.length; i++)
+            out[i] = fields.get(i);
+        return out;
+    }
+
+    /**
+     * Concatenate two tuples into a tuple of the (already merged) TupleDesc
+     * comboTD, as produced by the join operators.
+     */
+    public static Tuple concat(TupleDesc comboTD, Tuple t1, int n1, Tuple t2, int n2) {
+        Tuple t = new Tuple(comboTD);
+        for (int i = 0; i < n1; i++)
+            t.setField(i, t1.getField(i));
+        for (int i = 0; i < n2; i++)
+            t.setField(n1 + i, t2.getField(i));
+        return t;
+    }
+}
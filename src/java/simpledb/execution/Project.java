@@ -17,6 +17,7 @@ public class Project extends Operator {
     private OpIterator child;
     private final TupleDesc td;
     private final List<Integer> outFieldIds;
+    private final int[] outFields;
 
     /**
      * Constructor accepts a child operator to read tuples to apply projection
@@ -35,6 +36,7 @@ public class Project extends Operator {
                    OpIterator child) {
         this.child = child;
         outFieldIds = fieldList;
+        outFields = PredicateCompiler.compileProjection(fieldList);
         String[] fieldAr = new String[fieldList.size()];
         TupleDesc childtd = child.getTupleDesc();
 
@@ -75,8 +77,8 @@ public class Project extends Operator {
         Tuple t = child.next();
         Tuple newTuple = new Tuple(td);
         newTuple.setRecordId(t.getRecordId());
-        for (int i = 0; i < td.numFields(); i++) {
-            newTuple.setField(i, t.getField(outFieldIds.get(i)));
+        for (int i = 0; i < outFields.length; i++) {
+            newTuple.setField(i, t.getField(outFields[i]));
         }
         return newTuple;
     }
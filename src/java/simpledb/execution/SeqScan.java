@@ -5,7 +5,9 @@ import simpledb.transaction.TransactionAbortedException;
 import simpledb.transaction.TransactionId;
 import simpledb.common.Type;
 import simpledb.common.DbException;
+import simpledb.storage.DbFile;
 import simpledb.storage.DbFileIterator;
+import simpledb.storage.HeapFile;
 import simpledb.storage.Tuple;
 import simpledb.storage.TupleDesc;
 
@@ -25,6 +27,11 @@ public class SeqScan implements OpIterator {
     private String tableAlias;
     private DbFileIterator iterator;
     private boolean isOpen;
+    private int[] outFields;
+    private TupleDesc td;
+    private transient Map<BloomFilter, Integer> runtimeFilters;
+    private final List<Predicate> pagePredicates = new ArrayList<>();
+    private transient Tuple nextTuple;
 
     /**
      * Creates a sequential scan over the specified table as a part of the
@@ -47,6 +54,34 @@ public class SeqScan implements OpIterator {
         this.tableid = tableid;
         this.tableAlias = tableAlias;
         this.isOpen = false;
+        this.outFields = null;
+        this.td = null;
+    }
+
+    /**
+     * Creates a sequential scan that only returns a subset of the columns of
+     * the table. Fields not listed in outFields are dropped as soon as a
+     * tuple is read from the underlying file, so operators above the scan
+     * only carry the columns the query actually references.
+     *
+     * @param tid
+     *            The transaction this scan is running as a part of.
+     * @param tableid
+     *            the table to scan.
+     * @param tableAlias
+     *            the alias of this table (see
+     *            {@link #SeqScan(TransactionId, int, String)}).
+     * @param outFields
+     *            the indices (in the table's TupleDesc) of the fields to
+     *            return, in output order; null returns every field.
+     */
+    public SeqScan(TransactionId tid, int tableid, String tableAlias, int[] outFields) {
+        this.tid = tid;
+        this.tableid = tableid;
+        this.tableAlias = tableAlias;
+        this.isOpen = false;
+        this.outFields = outFields == null ? null : outFields.clone();
+        this.td = null;
     }
 
     /**
@@ -84,20 +119,83 @@ public class SeqScan implements OpIterator {
         // some code goes here
         this.tableid = tableid;
         this.tableAlias = tableAlias;
+        this.outFields = null;
+        this.td = null;
+        this.pagePredicates.clear();
+        this.runtimeFilters = null;
         close();
     }
 
+    /**
+     * @return the indices (in the table's TupleDesc) of the fields returned
+     *         by this scan, or null if every field is returned.
+     */
+    public int[] getOutFields() {
+        return outFields == null ? null : outFields.clone();
+    }
+
     public SeqScan(TransactionId tid, int tableId) {
         this(tid, tableId, Database.getCatalog().getTableName(tableId));
     }
 
+    /**
+     * Install a runtime filter on this scan: tuples whose value in the given
+     * field is not in filter are dropped before they are returned. Used by
+     * {@link HashEquiJoin} to push the set of build side join keys down to
+     * the probe side. The filter is consulted on every read, so its contents
+     * may be changed while it is installed, as long as no tuple of the
+     * current pass has been returned yet.
+     *
+     * @param field
+     *            the index of the field in this scan's TupleDesc
+     * @param filter
+     *            the filter to apply
+     */
+    public void addRuntimeFilter(int field, BloomFilter filter) {
+        if (runtimeFilters == null)
+            runtimeFilters = new IdentityHashMap<>();
+        runtimeFilters.put(filter, outFields == null ? field : outFields[field]);
+    }
+
+    /** Remove a filter installed with {@link #addRuntimeFilter}. */
+    public void removeRuntimeFilter(BloomFilter filter) {
+        if (runtimeFilters != null)
+            runtimeFilters.remove(filter);
+    }
+
+    /**
+     * Let the scan skip pages of a heap file whose zone map shows they hold
+     * no tuple satisfying p. The scan does not apply p to the tuples it does
+     * return, so p must also be evaluated above the scan. Takes effect the
+     * next time the scan is opened.
+     *
+     * @param p
+     *            a predicate whose field is an index in the table's
+     *            TupleDesc, not this scan's
+     * @see HeapFile#iterator(TransactionId, List)
+     */
+    public void addPagePredicate(Predicate p) {
+        pagePredicates.add(p);
+    }
+
     public void open() throws DbException, TransactionAbortedException {
         // some code goes here
-        this.iterator = Database.getCatalog().getDatabaseFile(tableid).iterator(tid);
+        this.iterator = fileIterator();
         this.iterator.open();
         this.isOpen = true;
     }
 
+    /**
+     * @return an iterator over the tuples of the table this scan reads, before
+     *         runtime filters and projection are applied
+     */
+    protected DbFileIterator fileIterator() {
+        DbFile f = Database.getCatalog().getDatabaseFile(tableid);
+        if (!pagePredicates.isEmpty() && f instanceof HeapFile)
+            return ((HeapFile) f).iterator(tid, pagePredicates);
+        return f.iterator(tid);
+    }
+
     /**
      * Returns the TupleDesc with field names from the underlying HeapFile,
      * prefixed with the tableAlias string from the constructor. This prefix
@@ -109,14 +207,22 @@ public class SeqScan implements OpIterator {
      *         prefixed with the tableAlias string from the constructor.
      */
     public TupleDesc getTupleDesc() {
+        if (td == null) {
+            td = buildTupleDesc();
+        }
+        return td;
+    }
+
+    private TupleDesc buildTupleDesc() {
         TupleDesc originalTd = Database.getCatalog().getTupleDesc(tableid);
-        int numFields = originalTd.numFields();
+        int numFields = outFields == null ? originalTd.numFields() : outFields.length;
         Type[] typeAr = new Type[numFields];
         String[] fieldAr = new String[numFields];
 
         for (int i = 0; i < numFields; i++) {
-            typeAr[i] = originalTd.getFieldType(i);
-            fieldAr[i] = tableAlias + "." + originalTd.getFieldName(i);
+            int field = outFields == null ? i : outFields[i];
+            typeAr[i] = originalTd.getFieldType(field);
+            fieldAr[i] = tableAlias + "." + originalTd.getFieldName(field);
         }
 
         return new TupleDesc(typeAr, fieldAr);
@@ -126,21 +232,58 @@ public class SeqScan implements OpIterator {
         if (!isOpen) {
             throw new IllegalStateException("Iterator not open");
         }
-        return iterator.hasNext();
+        if (nextTuple == null) {
+            nextTuple = readNext();
+        }
+        return nextTuple != null;
+    }
+
+    /**
+     * Read the next tuple from the underlying file that passes every runtime
+     * filter, or null if the file is exhausted.
+     */
+    private Tuple readNext() throws DbException, TransactionAbortedException {
+        while (iterator.hasNext()) {
+            Tuple t = iterator.next();
+            if (runtimeFilters == null || passesRuntimeFilters(t)) {
+                return t;
+            }
+        }
+        return null;
+    }
+
+    private boolean passesRuntimeFilters(Tuple t) {
+        for (Map.Entry<BloomFilter, Integer> e : runtimeFilters.entrySet()) {
+            if (!e.getKey().mightContain(t.getField(e.getValue()))) {
+                return false;
+            }
+        }
+        return true;
     }
 
     public Tuple next() throws NoSuchElementException,
             TransactionAbortedException, DbException {
-        if (!isOpen) {
-            throw new IllegalStateException("Iterator not open");
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        Tuple t = nextTuple;
+        nextTuple = null;
+        if (outFields == null) {
+            return t;
+        }
+        Tuple projected = new Tuple(getTupleDesc());
+        projected.setRecordId(t.getRecordId());
+        for (int i = 0; i < outFields.length; i++) {
+            projected.setField(i, t.getField(outFields[i]));
         }
-        return iterator.next();
+        return projected;
     }
 
     public void close() {
         if (iterator != null) {
             iterator.close();
         }
+        this.nextTuple = null;
         this.isOpen = false;
     }
 
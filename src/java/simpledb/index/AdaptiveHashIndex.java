@@ -0,0 +1,139 @@
+package simpledb.index;
+
+import java.util.*;
+
+import simpledb.storage.Field;
+
+/**
+ * An in-memory hash table from hot keys of a BTreeFile to the leaf page and
+ * slot holding their first tuple, so that repeated equality searches can skip
+ * the descent from the root. It is built adaptively: a key is only added once
+ * it has been looked up by a descent HOT_THRESHOLD times, and the least
+ * recently used keys are dropped when it is full.
+ * <p>
+ * Entries are only hints. A search that finds one still locks the leaf and
+ * checks that it holds the key, and that no smaller leaf can (see
+ * {@link BTreeLeafPage#startsKey(int, Field)}), before trusting it. Entries
+ * pointing to a leaf are dropped when the leaf is split, merged, redistributed
+ * or freed, so a hint never names a page that is no longer a leaf of the tree.
+ *
+ * @see BTreeFile#hashLookup
+ */
+class AdaptiveHashIndex {
+
+	/** The number of descents for a key after which it is added. */
+	static final int HOT_THRESHOLD = 3;
+
+	/** The default maximum number of keys. */
+	static final int DEFAULT_CAPACITY = 4096;
+
+	/** Where the first tuple with a key was found. */
+	static final class Entry {
+		final BTreePageId leaf;
+		final int slot;
+
+		Entry(BTreePageId leaf, int slot) {
+			this.leaf = leaf;
+			this.slot = slot;
+		}
+	}
+
+	private final int capacity;
+	private final LinkedHashMap<Field, Entry> entries;
+	private final Map<BTreePageId, Set<Field>> keysByLeaf = new HashMap<>();
+	private final LinkedHashMap<Field, Integer> descents;
+	private long hits = 0;
+
+	AdaptiveHashIndex(int capacity) {
+		this.capacity = capacity;
+		this.entries = new LinkedHashMap<>(16, 0.75f, true);
+		// descents are counted for a bounded number of recently searched keys
+		this.descents = new LinkedHashMap<Field, Integer>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Field, Integer> eldest) {
+				return size() > AdaptiveHashIndex.this.capacity;
+			}
+		};
+	}
+
+	/**
+	 * @return the entry for key, or null if key is not hot
+	 */
+	synchronized Entry get(Field key) {
+		Entry e = entries.get(key);
+		if (e != null)
+			hits++;
+		return e;
+	}
+
+	/**
+	 * Count a descent from the root to find key.
+	 *
+	 * @return true if key has become hot and should be added
+	 */
+	synchronized boolean descended(Field key) {
+		int n = descents.merge(key, 1, Integer::sum);
+		return n >= HOT_THRESHOLD;
+	}
+
+	/**
+	 * Add or update the entry for key.
+	 */
+	synchronized void put(Field key, BTreePageId leaf, int slot) {
+		Entry old = entries.put(key, new Entry(leaf, slot));
+		if (old != null)
+			unlink(key, old.leaf);
+		keysByLeaf.computeIfAbsent(leaf, k -> new HashSet<>()).add(key);
+		descents.remove(key);
+		if (entries.size() > capacity) {
+			Map.Entry<Field, Entry> eldest = entries.entrySet().iterator().next();
+			entries.remove(eldest.getKey());
+			unlink(eldest.getKey(), eldest.getValue().leaf);
+		}
+	}
+
+	/**
+	 * Drop the entry for key, if it is still e.
+	 */
+	synchronized void remove(Field key, Entry e) {
+		if (entries.remove(key, e))
+			unlink(key, e.leaf);
+	}
+
+	/**
+	 * Drop every entry pointing to a leaf page, when its tuples move.
+	 */
+	synchronized void invalidate(BTreePageId leaf) {
+		Set<Field> keys = keysByLeaf.remove(leaf);
+		if (keys != null)
+			entries.keySet().removeAll(keys);
+	}
+
+	synchronized void clear() {
+		entries.clear();
+		keysByLeaf.clear();
+		descents.clear();
+	}
+
+	synchronized int size() {
+		return entries.size();
+	}
+
+	/**
+	 * @return the number of searches that found an entry
+	 */
+	synchronized long hits() {
+		return hits;
+	}
+
+	private void unlink(Field key, BTreePageId leaf) {
+		Set<Field> keys = keysByLeaf.get(leaf);
+		if (keys != null) {
+			keys.remove(key);
+			if (keys.isEmpty())
+				keysByLeaf.remove(leaf);
+		}
+	}
+}
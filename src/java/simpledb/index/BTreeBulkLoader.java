@@ -0,0 +1,408 @@
+package simpledb.index;
+
+import java.io.*;
+import java.text.ParseException;
+import java.util.*;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Permissions;
+import simpledb.common.Type;
+import simpledb.execution.IndexPredicate;
+import simpledb.execution.OpIterator;
+import simpledb.storage.BufferPool;
+import simpledb.storage.Field;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+/**
+ * Builds a BTreeFile bottom-up from an unsorted stream of tuples, instead of
+ * inserting them one at a time. The input is sorted on the key field, spilling
+ * sorted runs to temporary files when it does not fit in the sort budget, and
+ * then merged straight into leaf pages and the internal pages above them.
+ * <p>
+ * Since the number of tuples is known once the input has been read, the number
+ * of pages on every level is planned up front: each level is numbered
+ * contiguously after the one below it (so a scan of the leaves reads the file
+ * sequentially), and every page is written exactly once, with its parent and
+ * sibling pointers already set. Pages are filled to the given fill factor,
+ * leaving room for later inserts before pages have to split; pages at the end
+ * of a level are evened out so that no page but the root is less than half
+ * full.
+ * <p>
+ * The loader builds new indexes, as {@link SecondaryIndex#create} does; it is
+ * not a path for batch inserts into a tree that already holds tuples. The tree
+ * must be empty, and the transaction holds a write lock on its root pointer
+ * page while it is loaded. Like {@link BTreeFileEncoder}, pages are written
+ * directly to the file rather than through the BufferPool and are not logged:
+ * a load that fails leaves the tree empty again, but one that completes is not
+ * undone if the transaction later aborts. SecondaryIndex drops an index whose
+ * creating transaction aborts.
+ *
+ * @see BTreeFile#bulkLoad(TransactionId, OpIterator, double)
+ */
+public class BTreeBulkLoader {
+
+	/** The fraction of each page filled by default. */
+	public static final double DEFAULT_FILL_FACTOR = 0.9;
+
+	/** Default memory budget for sorting, in pages of BufferPool.getPageSize() bytes. */
+	public static final int DEFAULT_SORT_BUDGET_PAGES = 100;
+
+	private final BTreeFile bf;
+	private final TupleDesc td;
+	private final int keyField;
+	private final CompositeKey compositeKey;
+	private final Type keyType;
+	private final Comparator<Tuple> byKey;
+	private final double fillFactor;
+	private final int sortBudgetBytes;
+
+	private int numTuples;
+	private List<Tuple> memoryRun;
+	private final List<File> runs = new ArrayList<>();
+	private final List<Integer> runSizes = new ArrayList<>();
+
+	/**
+	 * Constructor.
+	 *
+	 * @param bf              - the empty B+ tree to load
+	 * @param fillFactor      - the fraction of each page to fill, between 0.5
+	 *                        and 1
+	 * @param sortBudgetBytes - the number of bytes of tuples to sort in memory
+	 *                        before spilling a sorted run to disk
+	 */
+	public BTreeBulkLoader(BTreeFile bf, double fillFactor, int sortBudgetBytes) {
+		if (fillFactor < 0.5 || fillFactor > 1.0)
+			throw new IllegalArgumentException("fill factor must be between 0.5 and 1, was " + fillFactor);
+		this.bf = bf;
+		this.td = bf.getTupleDesc();
+		this.keyField = bf.keyField();
+		this.compositeKey = bf.getCompositeKey();
+		this.keyType = bf.keyType();
+		this.byKey = Comparator.comparing(bf::key, IndexPredicate.KEY_ORDER);
+		this.fillFactor = fillFactor;
+		this.sortBudgetBytes = sortBudgetBytes;
+	}
+
+	public BTreeBulkLoader(BTreeFile bf, double fillFactor) {
+		this(bf, fillFactor, DEFAULT_SORT_BUDGET_PAGES * BufferPool.getPageSize());
+	}
+
+	/**
+	 * Load every tuple of source into the tree.
+	 *
+	 * @param tid    - the transaction id
+	 * @param source - the tuples to load, in any order; opened and closed here
+	 * @return the number of tuples loaded
+	 * @throws DbException if the tree is not empty or its file cannot be written;
+	 *                     unless the tree was not empty, it is left empty
+	 */
+	public int load(TransactionId tid, OpIterator source)
+			throws DbException, TransactionAbortedException {
+		if (!source.getTupleDesc().equals(td))
+			throw new DbException("tuple desc mismatch in bulk load");
+		try {
+			lockEmptyTree(tid);
+			try {
+				sortRuns(source);
+				if (numTuples > 0) {
+					Iterator<Tuple> sorted = runs.isEmpty() ? memoryRun.iterator() : new RunMerger();
+					build(sorted);
+				}
+			} catch (DbException | TransactionAbortedException | IOException | RuntimeException e) {
+				// leave the tree empty rather than half built
+				bf.discardAllPages();
+				throw e;
+			}
+		} catch (IOException e) {
+			throw new DbException("bulk load failed: " + e.getMessage());
+		} finally {
+			for (File run : runs)
+				run.delete();
+			runs.clear();
+			runSizes.clear();
+			memoryRun = null;
+		}
+		return numTuples;
+	}
+
+	/**
+	 * Lock the root pointer page, check that the tree holds no tuples, and drop
+	 * its pages from the BufferPool, since they are about to be overwritten.
+	 */
+	private void lockEmptyTree(TransactionId tid)
+			throws DbException, IOException, TransactionAbortedException {
+		BufferPool bp = Database.getBufferPool();
+		BTreePageId rootPtrId = BTreeRootPtrPage.getId(bf.getId());
+		bf.getRootPtrPage(tid, new HashMap<>());
+		BTreeRootPtrPage rootPtr = (BTreeRootPtrPage) bp.getPage(tid, rootPtrId, Permissions.READ_WRITE);
+		BTreePageId rootId = rootPtr.getRootId();
+		if (rootId != null && (rootId.pgcateg() != BTreePageId.LEAF
+				|| ((BTreeLeafPage) bp.getPage(tid, rootId, Permissions.READ_ONLY)).getNumTuples() > 0))
+			throw new DbException("bulk load requires an empty B+ tree");
+
+		bp.discardPage(rootPtrId);
+		for (int pgNo = 1; pgNo <= bf.numPages(); pgNo++) {
+			bp.discardPage(new BTreePageId(bf.getId(), pgNo, BTreePageId.LEAF));
+			bp.discardPage(new BTreePageId(bf.getId(), pgNo, BTreePageId.INTERNAL));
+			bp.discardPage(new BTreePageId(bf.getId(), pgNo, BTreePageId.HEADER));
+		}
+	}
+
+	/**
+	 * Read source into sorted runs of at most sortBudgetBytes each. If everything
+	 * fits in one run, it is kept in memory; otherwise every run is spilled.
+	 */
+	private void sortRuns(OpIterator source)
+			throws DbException, TransactionAbortedException, IOException {
+		int runCapacity = Math.max(1, sortBudgetBytes / td.getSize());
+		memoryRun = new ArrayList<>();
+		numTuples = 0;
+		source.open();
+		try {
+			while (source.hasNext()) {
+				if (memoryRun.size() == runCapacity)
+					spill();
+				memoryRun.add(source.next());
+				numTuples++;
+			}
+		} finally {
+			source.close();
+		}
+		if (!runs.isEmpty() && !memoryRun.isEmpty())
+			spill();
+		else
+			memoryRun.sort(byKey);
+	}
+
+	private void spill() throws IOException {
+		memoryRun.sort(byKey);
+		File run = File.createTempFile("btree-bulkload", ".run");
+		run.deleteOnExit();
+		runs.add(run);
+		runSizes.add(memoryRun.size());
+		try (DataOutputStream out = new DataOutputStream(
+				new BufferedOutputStream(new FileOutputStream(run)))) {
+			for (Tuple t : memoryRun) {
+				for (int i = 0; i < td.numFields(); i++)
+					t.getField(i).serialize(out);
+			}
+		}
+		memoryRun.clear();
+	}
+
+	/**
+	 * Merges the spilled runs into one sorted stream.
+	 */
+	private class RunMerger implements Iterator<Tuple> {
+		private final PriorityQueue<RunReader> heads;
+
+		RunMerger() throws IOException {
+			heads = new PriorityQueue<>(Math.max(1, runs.size()), (a, b) -> {
+				int cmp = byKey.compare(a.head, b.head);
+				// keep equal keys in input order
+				return cmp != 0 ? cmp : Integer.compare(a.run, b.run);
+			});
+			for (int i = 0; i < runs.size(); i++) {
+				RunReader r = new RunReader(i);
+				if (r.advance())
+					heads.add(r);
+			}
+		}
+
+		public boolean hasNext() {
+			return !heads.isEmpty();
+		}
+
+		public Tuple next() {
+			RunReader r = heads.poll();
+			if (r == null)
+				throw new NoSuchElementException();
+			Tuple t = r.head;
+			if (r.advance())
+				heads.add(r);
+			return t;
+		}
+	}
+
+	private class RunReader {
+		private final int run;
+		private final DataInputStream in;
+		private int remaining;
+		private Tuple head;
+
+		RunReader(int run) throws IOException {
+			this.run = run;
+			this.in = new DataInputStream(new BufferedInputStream(new FileInputStream(runs.get(run))));
+			this.remaining = runSizes.get(run);
+		}
+
+		/** Read the next tuple of this run into head; close the run at its end. */
+		boolean advance() {
+			try {
+				if (remaining == 0) {
+					in.close();
+					return false;
+				}
+				remaining--;
+				Tuple t = new Tuple(td);
+				for (int i = 0; i < td.numFields(); i++)
+					t.setField(i, td.getFieldType(i).parse(in));
+				head = t;
+				return true;
+			} catch (IOException | ParseException e) {
+				throw new RuntimeException("could not read sorted run: " + e.getMessage());
+			}
+		}
+	}
+
+	/**
+	 * Plan the number of pages on every level for numTuples tuples, then write
+	 * the leaves and internal pages while streaming the sorted tuples.
+	 */
+	private void build(Iterator<Tuple> sorted) throws DbException, IOException {
+		int maxTuples = new BTreeLeafPage(new BTreePageId(bf.getId(), 0, BTreePageId.LEAF),
+				BTreeLeafPage.createEmptyPageData(), keyField, compositeKey).getMaxTuples();
+		int maxEntries = BTreeInternalPage.getMaxFullEntries(keyType);
+
+		List<Level> levels = new ArrayList<>();
+		int firstPageNo = 1;
+		Level leaves = new Level(numTuples, pagesFor(numTuples, (int) (maxTuples * fillFactor),
+				maxTuples / 2, maxTuples), firstPageNo, BTreePageId.LEAF);
+		levels.add(leaves);
+		while (levels.get(levels.size() - 1).numPages > 1) {
+			Level below = levels.get(levels.size() - 1);
+			firstPageNo += below.numPages;
+			int n = below.numPages;
+			levels.add(new Level(n, pagesFor(n, (int) (maxEntries * fillFactor) + 1,
+					maxEntries / 2 + 1, maxEntries + 1), firstPageNo, BTreePageId.INTERNAL));
+		}
+		for (int l = 0; l + 1 < levels.size(); l++)
+			levels.get(l).parent = levels.get(l + 1);
+
+		List<Tuple> page = new ArrayList<>();
+		Field prevLast = null;
+		for (int j = 0; j < leaves.numPages; j++) {
+			page.clear();
+			for (int i = leaves.start(j); i < leaves.start(j + 1); i++)
+				page.add(sorted.next());
+			Field first = bf.key(page.get(0));
+			Field lowKey = j == 0 ? null : BTreeFile.separator(prevLast, first);
+			prevLast = bf.key(page.get(page.size() - 1));
+
+			BTreePageId pid = leaves.pageId(j);
+			BTreeLeafPage leaf = new BTreeLeafPage(pid, BTreeFileEncoder.convertToLeafPage(page,
+					BufferPool.getPageSize(), td.numFields(), typeArray(), byKey), keyField, compositeKey);
+			leaf.setParentId(leaves.parentId());
+			if (j > 0)
+				leaf.setLeftSiblingId(leaves.pageId(j - 1));
+			if (j + 1 < leaves.numPages)
+				leaf.setRightSiblingId(leaves.pageId(j + 1));
+			bf.writePage(leaf);
+			if (leaves.parent != null)
+				leaves.parent.add(pid, lowKey);
+		}
+
+		Level root = levels.get(levels.size() - 1);
+		byte[] rootPtrData = BTreeFileEncoder.convertToRootPtrPage(root.firstPageNo, root.category, 0);
+		bf.writePage(new BTreeRootPtrPage(BTreeRootPtrPage.getId(bf.getId()), rootPtrData));
+	}
+
+	/**
+	 * @return the number of pages to spread n items over, filling pages up to
+	 *         target items but keeping every page (when there is more than one)
+	 *         between min and max items
+	 */
+	private static int pagesFor(int n, int target, int min, int max) {
+		int pages = (n + Math.max(1, target) - 1) / Math.max(1, target);
+		while (pages > 1 && n / pages < min && (n + pages - 2) / (pages - 1) <= max)
+			pages--;
+		return pages;
+	}
+
+	private Type[] typeArray() {
+		Type[] types = new Type[td.numFields()];
+		for (int i = 0; i < types.length; i++)
+			types[i] = td.getFieldType(i);
+		return types;
+	}
+
+	/**
+	 * One level of the tree being built: n items (tuples or child pages) spread
+	 * evenly over numPages pages numbered from firstPageNo. Internal levels
+	 * collect their children as the level below writes them.
+	 */
+	private class Level {
+		final int n;
+		final int numPages;
+		final int firstPageNo;
+		final int category;
+		Level parent;
+
+		// for internal levels: children of the page being filled, and the key
+		// separating each from the child before it
+		private final List<BTreePageId> children = new ArrayList<>();
+		private final List<Field> lowKeys = new ArrayList<>();
+		private int added;
+		private int current;
+
+		Level(int n, int numPages, int firstPageNo, int category) {
+			this.n = n;
+			this.numPages = numPages;
+			this.firstPageNo = firstPageNo;
+			this.category = category;
+		}
+
+		/** @return the index of the first item on page j */
+		int start(int j) {
+			return (int) ((long) j * n / numPages);
+		}
+
+		BTreePageId pageId(int j) {
+			return new BTreePageId(bf.getId(), firstPageNo + j, category);
+		}
+
+		/** @return the page the next page written on the level below goes under */
+		BTreePageId parentId() {
+			if (parent == null)
+				return BTreeRootPtrPage.getId(bf.getId());
+			return parent.pageId(parent.current);
+		}
+
+		/**
+		 * Add a child page, written on the level below, to the page being filled,
+		 * and write that page once it has all its children.
+		 *
+		 * @param child  - the child page
+		 * @param lowKey - the key separating the child from the one before it, or
+		 *               null for the first page on the level below
+		 */
+		void add(BTreePageId child, Field lowKey) throws DbException, IOException {
+			children.add(child);
+			lowKeys.add(lowKey);
+			added++;
+			if (added < start(current + 1))
+				return;
+
+			List<BTreeEntry> entries = new ArrayList<>();
+			for (int i = 1; i < children.size(); i++)
+				entries.add(new BTreeEntry(lowKeys.get(i), children.get(i - 1), children.get(i)));
+			int childCategory = children.get(0).pgcateg();
+			BTreePageId pid = pageId(current);
+			BTreeInternalPage page = new BTreeInternalPage(pid, BTreeFileEncoder.convertToInternalPage(entries,
+					BufferPool.getPageSize(), keyType, childCategory), keyField, compositeKey);
+			page.setParentId(parentId());
+			bf.writePage(page);
+
+			Field pageLowKey = lowKeys.get(0);
+			children.clear();
+			lowKeys.clear();
+			current++;
+			if (parent != null)
+				parent.add(pid, pageLowKey);
+		}
+	}
+}
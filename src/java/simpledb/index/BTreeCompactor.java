@@ -0,0 +1,183 @@
+package simpledb.index;
+
+import java.io.IOException;
+import java.util.*;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Permissions;
+import simpledb.execution.Predicate.Op;
+import simpledb.storage.BufferPool;
+import simpledb.storage.Field;
+import simpledb.storage.Page;
+import simpledb.storage.PageId;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+/**
+ * Compacts a BTreeFile online, after deletes have left its leaves close to
+ * minimum occupancy and its freed pages scattered through the file. A pass
+ * walks the internal pages just above the leaves from left to right, and
+ * repacks the leaves under each one to the fill factor, freeing the leaves
+ * left over (see {@link BTreeFile#compactLeaves}); the free pages at the end
+ * of the file are then cut off (see {@link BTreeFile#truncateFreePages}).
+ * <p>
+ * Each step runs in a transaction of its own, under the same page locks as
+ * any writer: the internal pages on the path are locked READ_ONLY from the
+ * root down and the page above the leaves READ_WRITE, followed by its leaves.
+ * A step aborted to break a deadlock is retried from the same place. Between
+ * steps the pass only remembers a key: the next step goes to the right of
+ * every entry whose key is at most the smallest key bounding the last page
+ * on the right. Leaves are only repacked within one parent, so runs of
+ * sparse leaves that straddle two parents are left alone.
+ *
+ * @see BTreeFile#compactLeaves(TransactionId, Map, BTreeInternalPage, double)
+ */
+public class BTreeCompactor {
+
+	/** The fraction of each leaf filled by default. */
+	public static final double DEFAULT_FILL_FACTOR = 0.9;
+
+	private final BTreeFile bf;
+	private final double fillFactor;
+
+	private Field after = null;
+	private boolean done = false;
+	private int leavesFreed = 0;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param bf         - the B+ tree to compact
+	 * @param fillFactor - the fraction of each leaf to fill, between 0.5 and 1
+	 */
+	public BTreeCompactor(BTreeFile bf, double fillFactor) {
+		if (fillFactor < 0.5 || fillFactor > 1.0)
+			throw new IllegalArgumentException("fill factor must be between 0.5 and 1, was " + fillFactor);
+		this.bf = bf;
+		this.fillFactor = fillFactor;
+	}
+
+	public BTreeCompactor(BTreeFile bf) {
+		this(bf, DEFAULT_FILL_FACTOR);
+	}
+
+	/**
+	 * Compact the leaves under the next internal page of the pass, in a
+	 * transaction of its own.
+	 *
+	 * @return true if the pass has more pages to visit
+	 */
+	public boolean step() throws DbException {
+		if (done)
+			return false;
+		BufferPool bp = Database.getBufferPool();
+		TransactionId tid = new TransactionId();
+		Map<PageId, Page> dirtypages = new HashMap<>();
+		try {
+			Field[] bound = new Field[1];
+			BTreeInternalPage parent = findLeafParent(tid, dirtypages, bound);
+			if (parent != null) {
+				int freed = bf.compactLeaves(tid, dirtypages, parent, fillFactor);
+				if (freed > 0)
+					bp.markDirtied(tid, new ArrayList<>(dirtypages.values()));
+				leavesFreed += freed;
+			}
+			bp.transactionComplete(tid);
+			after = bound[0];
+			done = parent == null || after == null;
+			return !done;
+		} catch (TransactionAbortedException e) {
+			bp.transactionComplete(tid, false);
+			return true;
+		} catch (IOException | DbException | RuntimeException e) {
+			bp.transactionComplete(tid, false);
+			throw e instanceof DbException ? (DbException) e : new DbException("compaction failed: " + e);
+		}
+	}
+
+	/**
+	 * Cut the free pages off the end of the file, in a transaction of its own.
+	 *
+	 * @return the number of pages removed, or 0 if the transaction was aborted
+	 */
+	public int truncate() throws DbException {
+		BufferPool bp = Database.getBufferPool();
+		TransactionId tid = new TransactionId();
+		try {
+			int removed = bf.truncateFreePages(tid, new HashMap<>());
+			bp.transactionComplete(tid);
+			return removed;
+		} catch (TransactionAbortedException e) {
+			bp.transactionComplete(tid, false);
+			return 0;
+		} catch (IOException e) {
+			bp.transactionComplete(tid, false);
+			throw new DbException("truncation failed: " + e);
+		}
+	}
+
+	/**
+	 * Run the rest of the pass, and then truncate the file.
+	 *
+	 * @return the number of pages removed from the end of the file
+	 */
+	public int run() throws DbException {
+		while (step()) {
+		}
+		return truncate();
+	}
+
+	/**
+	 * Start a new pass from the left-most leaves.
+	 */
+	public void restart() {
+		after = null;
+		done = false;
+	}
+
+	/**
+	 * @return the number of leaves freed so far
+	 */
+	public int leavesFreed() {
+		return leavesFreed;
+	}
+
+	/**
+	 * Lock the path to the next internal page above the leaves, and that page.
+	 *
+	 * @param bound - set to the smallest key of an entry on the path to the
+	 *              right of the page, or null if it is the right-most one
+	 * @return the page locked READ_WRITE, or null if the root is a leaf
+	 */
+	private BTreeInternalPage findLeafParent(TransactionId tid, Map<PageId, Page> dirtypages, Field[] bound)
+			throws DbException, IOException, TransactionAbortedException {
+		BTreePageId pid = bf.getRootPtrPage(tid, dirtypages).getRootId();
+		bound[0] = null;
+		if (pid == null || pid.pgcateg() != BTreePageId.INTERNAL)
+			return null;
+
+		while (true) {
+			BTreeInternalPage page = (BTreeInternalPage) bf.getPage(tid, dirtypages, pid, Permissions.READ_ONLY);
+			BTreeEntry last = null;
+			BTreePageId child = null;
+			Iterator<BTreeEntry> it = page.iterator();
+			while (it.hasNext()) {
+				last = it.next();
+				if (after == null || last.getKey().compare(Op.GREATER_THAN, after)) {
+					child = last.getLeftChild();
+					bound[0] = last.getKey();
+					break;
+				}
+			}
+			if (last == null)
+				throw new DbException("Internal page has no entries: " + pid.toString());
+			if (child == null)
+				child = last.getRightChild();
+
+			if (child.pgcateg() == BTreePageId.LEAF)
+				return (BTreeInternalPage) bf.getPage(tid, dirtypages, pid, Permissions.READ_WRITE);
+			pid = child;
+		}
+	}
+}
@@ -5,7 +5,9 @@ import java.util.*;
 
 import simpledb.common.Database;
 import simpledb.common.Permissions;
+import simpledb.common.Type;
 import simpledb.execution.IndexPredicate;
+import simpledb.execution.OpIterator;
 import simpledb.execution.Predicate.Op;
 import simpledb.common.DbException;
 import simpledb.common.Debug;
@@ -29,12 +31,38 @@ import simpledb.transaction.TransactionId;
  * @see BTreeRootPtrPage#BTreeRootPtrPage
  * @author Becca Taft
  */
-public class BTreeFile implements DbFile {
+public class BTreeFile implements IndexFile {
 
 	private final File f;
 	private final TupleDesc td;
 	private final int tableid;
 	private final int keyField;
+	private final CompositeKey compositeKey;
+
+	/**
+	 * The number of times a reader retries a descent without waiting for
+	 * writers before falling back to lock coupling.
+	 */
+	static final int READER_RETRIES = 3;
+
+	/**
+	 * The number of pages the file grows by when it runs out of room. Pages of
+	 * an extent not yet handed out are kept in spareExtentPages and are not
+	 * counted by numPages().
+	 */
+	public static final int EXTENT_PAGES = 16;
+
+	private int spareExtentPages = 0;
+
+	// hints about the header pages, by position in the header page chain. A
+	// page's slots are always checked before they are used, so a stale hint can
+	// at worst leave a free page unused until the next page is freed.
+	private final BitSet fullHeaderPages = new BitSet();
+	private boolean allHeaderPagesFull = false;
+	private long pagesFreed = 0;
+
+	private final AdaptiveHashIndex hashIndex = new AdaptiveHashIndex(AdaptiveHashIndex.DEFAULT_CAPACITY);
+	private volatile ChangeBuffer changeBuffer = null;
 
 	/**
 	 * Constructs a B+ tree file backed by the specified file.
@@ -48,6 +76,26 @@ public class BTreeFile implements DbFile {
 		this.f = f;
 		this.tableid = f.getAbsoluteFile().hashCode();
 		this.keyField = key;
+		this.compositeKey = null;
+		this.td = td;
+	}
+
+	/**
+	 * Constructs a B+ tree file keyed on several fields, whose keys are
+	 * normalized as described in {@link CompositeKey}. Search keys and
+	 * predicates passed to the file must be normalized the same way, for
+	 * example with {@link IndexPredicate#prefix}.
+	 * 
+	 * @param f   - the file that stores the on-disk backing store for this B+ tree
+	 *            file.
+	 * @param key - the fields which index is keyed on
+	 * @param td  - the tuple descriptor of tuples in the file
+	 */
+	public BTreeFile(File f, CompositeKey key, TupleDesc td) {
+		this.f = f;
+		this.tableid = f.getAbsoluteFile().hashCode();
+		this.keyField = key.field(0);
+		this.compositeKey = key;
 		this.td = td;
 	}
 
@@ -121,14 +169,21 @@ public class BTreeFile implements DbFile {
 				}
 				Debug.log(1, "BTreeFile.readPage: read page %d", id.getPageNumber());
 				if (id.pgcateg() == BTreePageId.INTERNAL) {
-					return new BTreeInternalPage(id, pageBuf, keyField);
+					return new BTreeInternalPage(id, pageBuf, keyField, compositeKey);
 				} else if (id.pgcateg() == BTreePageId.LEAF) {
-					return new BTreeLeafPage(id, pageBuf, keyField);
+					BTreeLeafPage page = new BTreeLeafPage(id, pageBuf, keyField, compositeKey);
+					// leaves are only read by the BufferPool on behalf of a
+					// transaction holding a lock on them, so this is the
+					// transaction that may own buffered entries
+					if (changeBuffer != null) {
+						changeBuffer.merge(page);
+					}
+					return page;
 				} else { // id.pgcateg() == BTreePageId.HEADER
 					return new BTreeHeaderPage(id, pageBuf);
 				}
 			}
-		} catch (IOException e) {
+		} catch (IOException | DbException e) {
 			throw new RuntimeException(e);
 		}
 		// Close the file on success or error
@@ -150,28 +205,66 @@ public class BTreeFile implements DbFile {
 			rf.write(data);
 			rf.close();
 		} else {
-			rf.seek(BTreeRootPtrPage.getPageSize()
-					+ (long) (page.getId().getPageNumber() - 1) * BufferPool.getPageSize());
-			rf.write(data);
-			rf.close();
+			synchronized (this) {
+				// writing past the last page hands out the spare pages before it
+				int last = Math.max(numPages(), id.getPageNumber());
+				rf.seek(BTreeRootPtrPage.getPageSize()
+						+ (long) (page.getId().getPageNumber() - 1) * BufferPool.getPageSize());
+				rf.write(data);
+				rf.close();
+				spareExtentPages = filePages() - last;
+			}
+			if (changeBuffer != null && page instanceof BTreeLeafPage) {
+				changeBuffer.noteLeaf((BTreeLeafPage) page);
+			}
 		}
 	}
 
 	/**
 	 * Returns the number of pages in this BTreeFile.
 	 */
-	public int numPages() {
+	public synchronized int numPages() {
+		return filePages() - spareExtentPages;
+	}
+
+	/**
+	 * Returns the number of pages on disk, including spare extent pages
+	 */
+	private int filePages() {
 		// we only ever write full pages
 		return (int) ((f.length() - BTreeRootPtrPage.getPageSize()) / BufferPool.getPageSize());
 	}
 
 	/**
-	 * Returns the index of the field that this B+ tree is keyed on
+	 * Returns the index of the field that this B+ tree is keyed on, or the
+	 * first of its fields if it has a composite key
 	 */
 	public int keyField() {
 		return keyField;
 	}
 
+	/**
+	 * Returns the fields this B+ tree is keyed on, or null if it is keyed on
+	 * keyField() alone
+	 */
+	public CompositeKey getCompositeKey() {
+		return compositeKey;
+	}
+
+	/**
+	 * Returns the key of a tuple in this B+ tree
+	 */
+	public Field key(Tuple t) {
+		return compositeKey == null ? t.getField(keyField) : compositeKey.key(t);
+	}
+
+	/**
+	 * Returns the type of the keys of this B+ tree
+	 */
+	public Type keyType() {
+		return compositeKey == null ? td.getFieldType(keyField) : Type.STRING_TYPE;
+	}
+
 	/**
 	 * Recursive function which finds and locks the leaf page in the B+ tree
 	 * corresponding to
@@ -194,56 +287,408 @@ public class BTreeFile implements DbFile {
 	private BTreeLeafPage findLeafPage(TransactionId tid, Map<PageId, Page> dirtypages, BTreePageId pid,
 			Permissions perm, Field f)
 			throws DbException, TransactionAbortedException {
+		return findLeafPage(tid, dirtypages, pid, perm, f, true, null);
+	}
 
-		switch (pid.pgcateg())
-		{
-			case BTreePageId.LEAF:
-				return (BTreeLeafPage) getPage(tid, dirtypages, pid, perm);
+	/**
+	 * Finds and locks the leaf page corresponding to the left-most page possibly
+	 * containing the key field f, in one of two modes.
+	 * 
+	 * With crabbing, internal pages are locked READ_ONLY and the lock on each one
+	 * is released as soon as its child has been locked, so a descent only ever
+	 * holds two locks on the path and leaves only the leaf locked. Locks the
+	 * transaction already held before the descent, and pages it has dirtied, are
+	 * never released.
+	 * 
+	 * Without crabbing, every page on the path is locked with permission perm and
+	 * kept until the transaction completes. Writers use this when they must
+	 * modify internal pages, e.g. to split a full leaf.
+	 * 
+	 * @param crab     - whether to release internal page locks on the way down
+	 * @param newLocks - if not null, the ids of pages on the path this descent
+	 *                 locked for the first time (and still holds) are added to it
+	 * @see #findLeafPage(TransactionId, Map, BTreePageId, Permissions, Field)
+	 */
+	private BTreeLeafPage findLeafPage(TransactionId tid, Map<PageId, Page> dirtypages, BTreePageId pid,
+			Permissions perm, Field f, boolean crab, Set<PageId> newLocks)
+			throws DbException, TransactionAbortedException {
+		BufferPool bp = Database.getBufferPool();
+		BTreePageId releasable = null;
+
+		while (true) {
+			boolean held = dirtypages.containsKey(pid) || bp.holdsLock(tid, pid);
+
+			switch (pid.pgcateg())
+			{
+				case BTreePageId.LEAF:
+					BTreeLeafPage leaf = (BTreeLeafPage) getPage(tid, dirtypages, pid, perm);
+					if (releasable != null)
+						bp.releaseShared(tid, releasable);
+					if (!held && newLocks != null)
+						newLocks.add(pid);
+					return leaf;
+
+				case BTreePageId.INTERNAL:
+					Permissions internalPerm = crab ? Permissions.READ_ONLY : perm;
+					BTreeInternalPage page = (BTreeInternalPage) getPage(tid, dirtypages, pid, internalPerm);
+					if (releasable != null)
+						bp.releaseShared(tid, releasable);
+					releasable = null;
+
+					BTreePageId child = page.findChild(f);
+					if(child == null) {
+						throw new DbException("Internal page has no entries: " + pid.toString());
+					}
 
-			case BTreePageId.INTERNAL:
-				BTreeInternalPage page = (BTreeInternalPage) getPage(tid, dirtypages, pid, perm);
-				Iterator<BTreeEntry> iterator = page.iterator();
+					if (crab && !held && page.isDirty() == null)
+						releasable = pid;
+					else if (!held && newLocks != null)
+						newLocks.add(pid);
+					pid = child;
+					break;
 
-				if(iterator == null || !iterator.hasNext()) {
-					throw new DbException("Internal page has no entries: " + pid.toString());
-				}
+				default:
+					throw new DbException("Invalid page");
+			}
+		}
+	}
+
+	/**
+	 * Find and lock the left-most leaf page possibly containing the key field f
+	 * on behalf of a reader, without waiting for writers above the leaf level.
+	 * Used by the BTreeFile iterators.
+	 * 
+	 * The root pointer page and internal pages are read with
+	 * BufferPool.getPageNoWait, so a page that a writer has locked is read from
+	 * its last committed image, and no lock is kept on any of them. Only the
+	 * leaf is locked. Since the path may be stale by the time the leaf lock is
+	 * granted, the leaf is then checked against its current parent, as in a
+	 * B-link tree: if the parent routes f to the leaf's right sibling (the leaf
+	 * was split), the reader follows the right sibling pointer; if it routes f
+	 * anywhere else (the leaf was merged or redistributed), the descent is
+	 * retried. After READER_RETRIES failed descents the reader falls back to
+	 * lock coupling from the root.
+	 * 
+	 * @param tid - the transaction id
+	 * @param f   - the field to search for, or null for the left-most leaf
+	 * @return the left-most leaf page possibly containing the key field f
+	 */
+	BTreeLeafPage findLeafPage(TransactionId tid, Field f)
+			throws DbException, TransactionAbortedException {
+		BufferPool bp = Database.getBufferPool();
+		Map<PageId, Page> dirtypages = new HashMap<>();
+
+		for (int attempt = 0; attempt < READER_RETRIES; attempt++) {
+			BTreePageId pid = routeNoWait(tid, BTreeRootPtrPage.getId(tableid), f);
+			while (pid.pgcateg() == BTreePageId.INTERNAL) {
+				pid = routeNoWait(tid, pid, f);
+			}
 
-				if(f == null) {
-					return findLeafPage(tid, dirtypages, iterator.next().getLeftChild(), perm, f);
+			boolean held = bp.holdsLock(tid, pid);
+			BTreeLeafPage leaf = (BTreeLeafPage) getPage(tid, dirtypages, pid, Permissions.READ_ONLY);
+			while (true) {
+				BTreePageId routed = routeNoWait(tid, leaf.getParentId(), f);
+				if (leaf.getId().equals(routed)) {
+					return leaf;
+				}
+				if (!held) {
+					bp.releaseShared(tid, leaf.getId());
 				}
+				if (routed == null || !routed.equals(leaf.getRightSiblingId())) {
+					break;
+				}
+				// the leaf was split after the path was read; move right
+				held = bp.holdsLock(tid, routed);
+				leaf = (BTreeLeafPage) getPage(tid, dirtypages, routed, Permissions.READ_ONLY);
+			}
+		}
 
-				BTreeEntry entry = null;
+		BTreeRootPtrPage rootPtr = (BTreeRootPtrPage) getPage(tid, dirtypages,
+				BTreeRootPtrPage.getId(tableid), Permissions.READ_ONLY);
+		return findLeafPage(tid, dirtypages, rootPtr.getRootId(), Permissions.READ_ONLY, f);
+	}
 
-				while(iterator.hasNext()) {
-					entry = iterator.next();
+	/**
+	 * Look up the first tuple with key f in the adaptive hash index, for an
+	 * equality search, instead of descending from the root. If the key has an
+	 * entry, its leaf is locked READ_ONLY and checked to still start the key's
+	 * tuples, at the recorded slot or elsewhere on the page; otherwise the
+	 * lock is released (unless the transaction held it before) and the entry
+	 * is dropped.
+	 * 
+	 * @param tid - the transaction id
+	 * @param f   - the key to search for
+	 * @return an iterator over the leaf from the first tuple with key f, or
+	 *         null if the search must descend from the root
+	 * @see #noteDescent(BTreeLeafPage, Field)
+	 */
+	BTreeLeafPageIterator hashLookup(TransactionId tid, Field f)
+			throws DbException, TransactionAbortedException {
+		AdaptiveHashIndex.Entry e = hashIndex.get(f);
+		if (e == null) {
+			return null;
+		}
+		BufferPool bp = Database.getBufferPool();
+		boolean held = bp.holdsLock(tid, e.leaf);
+		BTreeLeafPage leaf = (BTreeLeafPage) bp.getPage(tid, e.leaf, Permissions.READ_ONLY);
+		int slot = leaf.startsKey(e.slot, f) ? e.slot : leaf.firstSlot(f);
+		if (slot < 0) {
+			if (!held) {
+				bp.releaseShared(tid, e.leaf);
+			}
+			hashIndex.remove(f, e);
+			return null;
+		}
+		if (slot != e.slot) {
+			// tuples moved within the leaf
+			hashIndex.put(f, e.leaf, slot);
+		}
+		return new BTreeLeafPageIterator(leaf, slot);
+	}
 
-					if(entry.getKey().compare(Op.GREATER_THAN_OR_EQ, f)) {
-						return findLeafPage(tid, dirtypages, entry.getLeftChild(), perm, f);
-					}
-				}
-				return findLeafPage(tid, dirtypages, entry.getRightChild(), perm, f);
+	/**
+	 * Record that an equality search for key f descended from the root to
+	 * leaf, adding f to the adaptive hash index once it is hot. Only leaves
+	 * without uncommitted changes are recorded, so that an entry never names a
+	 * page whose layout an abort could undo.
+	 */
+	void noteDescent(BTreeLeafPage leaf, Field f) {
+		if (hashIndex.descended(f) && leaf.isDirty() == null) {
+			int slot = leaf.firstSlot(f);
+			if (slot >= 0) {
+				hashIndex.put(f, leaf.getId(), slot);
+			}
+		}
+	}
+
+	/**
+	 * @return the number of equality searches that found their key in the
+	 *         adaptive hash index
+	 */
+	public long hashIndexHits() {
+		return hashIndex.hits();
+	}
 
-			default:
-				throw new DbException("Invalid page");
+	/**
+	 * Buffer inserts into leaves that are not in the BufferPool in a
+	 * {@link ChangeBuffer}, logged next to this file, instead of reading them.
+	 * Used by secondary indexes, whose entries arrive in random key order.
+	 */
+	void enableChangeBuffer() throws IOException {
+		changeBuffer = new ChangeBuffer(this, ChangeBuffer.DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * Buffer the insert of a tuple instead of reading the leaf it belongs on,
+	 * if the change buffer is enabled and the leaf is not in the BufferPool
+	 * and is known to have room for it. The leaf is found through the
+	 * internal pages without locking them, as in
+	 * {@link #findLeafPage(TransactionId, Field)}, and is then locked
+	 * READ_WRITE without being read; since the leaf cannot be split or merged
+	 * while it is locked, the route is checked once more after the lock is
+	 * granted.
+	 * 
+	 * @param tid - the transaction id
+	 * @param t   - the tuple to insert
+	 * @return true if the tuple was buffered, and false if it must be inserted
+	 *         with insertTuple
+	 */
+	boolean bufferInsert(TransactionId tid, Tuple t)
+			throws DbException, TransactionAbortedException {
+		if (changeBuffer == null || f.length() == 0) {
+			return false;
 		}
+		Field key = key(t);
+		BTreePageId leaf = routeToLeaf(tid, key);
+		if (leaf == null) {
+			return false;
+		}
+		BufferPool bp = Database.getBufferPool();
+		boolean held = bp.holdsLock(tid, leaf);
+		if (bp.lockPage(tid, leaf, Permissions.READ_WRITE) != null) {
+			return false;
+		}
+		if (!leaf.equals(routeToLeaf(tid, key)) || !changeBuffer.add(tid, leaf, t)) {
+			if (!held) {
+				bp.releaseExclusive(tid, leaf);
+			}
+			return false;
+		}
+		return true;
+	}
+
+	private BTreePageId routeToLeaf(TransactionId tid, Field f)
+			throws DbException, TransactionAbortedException {
+		BTreePageId pid = routeNoWait(tid, BTreeRootPtrPage.getId(tableid), f);
+		while (pid != null && pid.pgcateg() == BTreePageId.INTERNAL) {
+			pid = routeNoWait(tid, pid, f);
+		}
+		return pid;
 	}
 
 	/**
-	 * Convenience method to find a leaf page when there is no dirtypages HashMap.
-	 * Used by the BTreeFile iterator.
+	 * Merge committed entries of the change buffer into their leaves, by
+	 * reading each leaf in a transaction of its own.
 	 * 
-	 * @see #findLeafPage(TransactionId, Map, BTreePageId, Permissions, Field)
+	 * @param maxLeaves - the most leaves to merge
+	 * @return the number of leaves merged
+	 */
+	int mergeChanges(int maxLeaves) throws DbException {
+		if (changeBuffer == null) {
+			return 0;
+		}
+		BufferPool bp = Database.getBufferPool();
+		int merged = 0;
+		for (BTreePageId leaf : changeBuffer.leaves()) {
+			if (merged >= maxLeaves) {
+				break;
+			}
+			TransactionId tid = new TransactionId();
+			try {
+				bp.getPage(tid, leaf, Permissions.READ_ONLY);
+				bp.transactionComplete(tid);
+				merged++;
+			} catch (TransactionAbortedException e) {
+				bp.transactionComplete(tid, false);
+			}
+		}
+		return merged;
+	}
+
+	/**
+	 * Commit or abort the entries a transaction buffered in the change buffer.
+	 * Called by the BufferPool before the transaction's locks are released.
+	 */
+	void changesComplete(TransactionId tid, boolean commit) throws IOException {
+		if (changeBuffer != null) {
+			changeBuffer.transactionComplete(tid, commit);
+		}
+	}
+
+	/**
+	 * @return the number of inserts waiting in the change buffer
+	 */
+	public int bufferedChanges() {
+		return changeBuffer == null ? 0 : changeBuffer.size();
+	}
+
+	/**
+	 * Find and lock the right-most leaf page on behalf of a reader. Like
+	 * {@link #findLeafPage(TransactionId, Field)}, internal pages are read
+	 * without waiting and only the leaf is locked; the leaf is used if it still
+	 * has no right sibling and its parent still routes to it, and the descent is
+	 * retried otherwise. Used by the reverse iterators.
 	 * 
 	 * @param tid - the transaction id
-	 * @param pid - the current page being searched
-	 * @param f   - the field to search for
-	 * @return the left-most leaf page possibly containing the key field f
+	 * @return the right-most leaf page
+	 */
+	BTreeLeafPage findLastLeafPage(TransactionId tid)
+			throws DbException, TransactionAbortedException {
+		BufferPool bp = Database.getBufferPool();
+		Map<PageId, Page> dirtypages = new HashMap<>();
+
+		for (int attempt = 0; attempt < READER_RETRIES; attempt++) {
+			BTreePageId pid = routeNoWait(tid, BTreeRootPtrPage.getId(tableid), null, true);
+			while (pid != null && pid.pgcateg() == BTreePageId.INTERNAL) {
+				pid = routeNoWait(tid, pid, null, true);
+			}
+			if (pid == null) {
+				continue;
+			}
+
+			boolean held = bp.holdsLock(tid, pid);
+			BTreeLeafPage leaf = (BTreeLeafPage) getPage(tid, dirtypages, pid, Permissions.READ_ONLY);
+			if (leaf.getRightSiblingId() == null
+					&& leaf.getId().equals(routeNoWait(tid, leaf.getParentId(), null, true))) {
+				return leaf;
+			}
+			if (!held) {
+				bp.releaseShared(tid, leaf.getId());
+			}
+		}
+
+		BTreeRootPtrPage rootPtr = (BTreeRootPtrPage) getPage(tid, dirtypages,
+				BTreeRootPtrPage.getId(tableid), Permissions.READ_ONLY);
+		BTreePageId pid = rootPtr.getRootId();
+		while (pid.pgcateg() == BTreePageId.INTERNAL) {
+			BTreePageId child = ((BTreeInternalPage) getPage(tid, dirtypages, pid, Permissions.READ_ONLY)).lastChild();
+			if (child == null) {
+				throw new DbException("Internal page has no entries: " + pid.toString());
+			}
+			pid = child;
+		}
+		return (BTreeLeafPage) getPage(tid, dirtypages, pid, Permissions.READ_ONLY);
+	}
+
+	/**
+	 * Read the root pointer page or an internal page without waiting for other
+	 * transactions, and return the child that the key field f would be found
+	 * under.
 	 * 
+	 * @param tid - the transaction id
+	 * @param pid - the id of the root pointer page or of an internal page
+	 * @param f   - the field to search for, or null for the left-most child
+	 * @return the root page id or the child page id, or null if an internal page
+	 *         has no entries
+	 */
+	private BTreePageId routeNoWait(TransactionId tid, BTreePageId pid, Field f)
+			throws DbException, TransactionAbortedException {
+		return routeNoWait(tid, pid, f, false);
+	}
+
+	/**
+	 * @param last - if true, ignore f and return the right-most child
+	 * @see #routeNoWait(TransactionId, BTreePageId, Field)
 	 */
-	BTreeLeafPage findLeafPage(TransactionId tid, BTreePageId pid,
-			Field f)
+	private BTreePageId routeNoWait(TransactionId tid, BTreePageId pid, Field f, boolean last)
 			throws DbException, TransactionAbortedException {
-		return findLeafPage(tid, new HashMap<>(), pid, Permissions.READ_ONLY, f);
+		BufferPool bp = Database.getBufferPool();
+		if (bp.holdsLock(tid, pid)) {
+			Page p = bp.getPage(tid, pid, Permissions.READ_ONLY);
+			return route(p, f, last);
+		}
+		Page p = bp.getPageNoWait(tid, pid);
+		try {
+			return route(p, f, last);
+		} finally {
+			// only release after reading, so no writer modifies the page meanwhile
+			if (bp.holdsLock(tid, pid)) {
+				bp.releaseShared(tid, pid);
+			}
+		}
+	}
+
+	private static BTreePageId route(Page p, Field f, boolean last) {
+		if (p instanceof BTreeRootPtrPage) {
+			return ((BTreeRootPtrPage) p).getRootId();
+		}
+		BTreeInternalPage page = (BTreeInternalPage) p;
+		return last ? page.lastChild() : page.findChild(f);
+	}
+
+	/**
+	 * Choose the key to separate two adjacent leaf pages in their parent. For
+	 * string keys this is the shortest prefix of the right page's first key that
+	 * is still greater than the left page's last key, which keeps internal pages
+	 * small; otherwise it is the right page's first key.
+	 *
+	 * @param leftLast   - the last key on the left-hand page
+	 * @param rightFirst - the first key on the right-hand page
+	 * @return a key k with leftLast &lt; k &lt;= rightFirst, or rightFirst if
+	 *         the two are equal
+	 */
+	static Field separator(Field leftLast, Field rightFirst) {
+		if (!(rightFirst instanceof StringField))
+			return rightFirst;
+		String left = ((StringField) leftLast).getValue();
+		String right = ((StringField) rightFirst).getValue();
+		int shared = 0;
+		while (shared < left.length() && shared < right.length()
+				&& left.charAt(shared) == right.charAt(shared))
+			shared++;
+		if (shared + 1 >= right.length())
+			return rightFirst;
+		return new StringField(right.substring(0, shared + 1), Type.STRING_LEN);
 	}
 
 	/**
@@ -289,6 +734,7 @@ public class BTreeFile implements DbFile {
 		// tuple with the given key field should be inserted.
 
 		BTreeLeafPage newPage = (BTreeLeafPage) getEmptyPage(tid, dirtypages, BTreePageId.LEAF);
+		hashIndex.invalidate(page.getId());
 
 		int numOfTuples = page.getNumTuples();
 		int split = numOfTuples / 2;
@@ -321,13 +767,17 @@ public class BTreeFile implements DbFile {
 		newPage.setRightSiblingId(oldRightId);
 		page.setRightSiblingId(newPage.getId());
 
-		Field copyUpKey = newPage.iterator().next().getField(keyField);
+		Field copyUpKey = separator(key(page.reverseIterator().next()),
+				key(newPage.iterator().next()));
 
 		BTreeInternalPage parentPage = getParentWithEmptySlots(tid, dirtypages, page.getParentId(), copyUpKey);
 		BTreeEntry entry = new BTreeEntry(copyUpKey, page.getId(), newPage.getId());
 		
 		parentPage.insertEntry(entry);
-		updateParentPointers(tid, dirtypages, parentPage);
+		// only the two halves can have a new parent; the other children of
+		// parentPage are left alone rather than read
+		updateParentPointer(tid, dirtypages, parentPage.getId(), page.getId());
+		updateParentPointer(tid, dirtypages, parentPage.getId(), newPage.getId());
 
 		if (field.compare(Op.GREATER_THAN_OR_EQ, copyUpKey)) {
 			return newPage;	// insert left
@@ -391,7 +841,7 @@ public class BTreeFile implements DbFile {
 		}
 
 		int numEntries = entries.size();
-		int middleIndex = numEntries / 2;
+		int middleIndex = page.splitPoint();
 
 		BTreeEntry middleEntry = entries.get(middleIndex);
 		Field pushUpKey = entries.get(middleIndex).getKey();
@@ -591,11 +1041,25 @@ public class BTreeFile implements DbFile {
 			rootPtr.setRootId(rootId);
 		}
 
-		// find and lock the left-most leaf page corresponding to the key field,
-		// and split the leaf page if there are no more slots available
-		BTreeLeafPage leafPage = findLeafPage(tid, dirtypages, rootId, Permissions.READ_WRITE, t.getField(keyField));
+		// find and lock the left-most leaf page corresponding to the key field.
+		// Optimistically assume it has room: crab down holding only read locks
+		// on internal pages, so concurrent writers are not serialized at the root
+		Set<PageId> newLocks = new HashSet<>();
+		BTreeLeafPage leafPage = findLeafPage(tid, dirtypages, rootId, Permissions.READ_WRITE,
+				key(t), true, newLocks);
 		if (leafPage.getNumEmptySlots() == 0) {
-			leafPage = splitLeafPage(tid, dirtypages, leafPage, t.getField(keyField));
+			// the leaf must be split, which modifies its ancestors. Give up the
+			// leaf if this descent was the first to lock it, then retry holding
+			// write locks on the whole path, taken top-down like other writers
+			if (newLocks.contains(leafPage.getId())) {
+				dirtypages.remove(leafPage.getId());
+				Database.getBufferPool().unsafeReleasePage(tid, leafPage.getId());
+			}
+			leafPage = findLeafPage(tid, dirtypages, rootId, Permissions.READ_WRITE,
+					key(t), false, null);
+			if (leafPage.getNumEmptySlots() == 0) {
+				leafPage = splitLeafPage(tid, dirtypages, leafPage, key(t));
+			}
 		}
 
 		// insert the tuple into the leaf page
@@ -696,8 +1160,11 @@ public class BTreeFile implements DbFile {
 			// steal some tuples from it
 			if (leftSibling.getNumEmptySlots() >= maxEmptySlots) {
 				mergeLeafPages(tid, dirtypages, leftSibling, page, parent, leftEntry);
-			} else {
+			} else if (parent.canReplaceKey()) {
 				stealFromLeafPage(page, leftSibling, parent, leftEntry, false);
+				handleShrunkParent(tid, dirtypages, parent);
+			} else {
+				splitParentAndRetry(tid, dirtypages, page, parent, leftEntry.getKey());
 			}
 		} else if (rightSiblingId != null) {
 			BTreeLeafPage rightSibling = (BTreeLeafPage) getPage(tid, dirtypages, rightSiblingId,
@@ -706,12 +1173,60 @@ public class BTreeFile implements DbFile {
 			// steal some tuples from it
 			if (rightSibling.getNumEmptySlots() >= maxEmptySlots) {
 				mergeLeafPages(tid, dirtypages, page, rightSibling, parent, rightEntry);
-			} else {
+			} else if (parent.canReplaceKey()) {
 				stealFromLeafPage(page, rightSibling, parent, rightEntry, true);
+				handleShrunkParent(tid, dirtypages, parent);
+			} else {
+				splitParentAndRetry(tid, dirtypages, page, parent, rightEntry.getKey());
 			}
 		}
 	}
 
+	/**
+	 * Split the parent of a page that is less than half full when the parent has
+	 * no room for the longer separator that redistributing the page with a
+	 * sibling may need, then handle the page again under its new parent. Only
+	 * pages with variable-length keys run out of room this way.
+	 * 
+	 * @param tid        - the transaction id
+	 * @param dirtypages - the list of dirty pages which should be updated with all
+	 *                   new dirty pages
+	 * @param page       - the page which is less than half full
+	 * @param parent     - the parent of the page, which has no room to replace a
+	 *                   key
+	 * @param key        - the key of the parent entry pointing to the page
+	 * @see BTreeInternalPage#canReplaceKey()
+	 * 
+	 * @throws DbException
+	 * @throws IOException
+	 * @throws TransactionAbortedException
+	 */
+	private void splitParentAndRetry(TransactionId tid, Map<PageId, Page> dirtypages, BTreePage page,
+			BTreeInternalPage parent, Field key) throws DbException, IOException, TransactionAbortedException {
+		splitInternalPage(tid, dirtypages, parent, key);
+		handleMinOccupancyPage(tid, dirtypages, page);
+	}
+
+	/**
+	 * Handle a non-root parent that has become less than half full after a
+	 * redistribution between two of its children replaced a key with a shorter
+	 * one. Only pages with variable-length keys shrink this way.
+	 * 
+	 * @param tid        - the transaction id
+	 * @param dirtypages - the list of dirty pages which should be updated with all
+	 *                   new dirty pages
+	 * @param parent     - the parent whose key was replaced
+	 * 
+	 * @throws DbException
+	 * @throws IOException
+	 * @throws TransactionAbortedException
+	 */
+	private void handleShrunkParent(TransactionId tid, Map<PageId, Page> dirtypages, BTreeInternalPage parent)
+			throws DbException, IOException, TransactionAbortedException {
+		if (parent.getParentId().pgcateg() != BTreePageId.ROOT_PTR && parent.isLessThanHalfFull())
+			handleMinOccupancyPage(tid, dirtypages, parent);
+	}
+
 	/**
 	 * Steal tuples from a sibling and copy them to the given page so that both
 	 * pages are at least
@@ -736,6 +1251,9 @@ public class BTreeFile implements DbFile {
 		// that the tuples are evenly distributed. Be sure to update
 		// the corresponding parent entry.
 		
+		hashIndex.invalidate(page.getId());
+		hashIndex.invalidate(sibling.getId());
+
 		int totalTuples = page.getNumTuples() + sibling.getNumTuples();
 		int targetPage = totalTuples / 2;
 		int targetSibling = totalTuples - targetPage;
@@ -759,7 +1277,8 @@ public class BTreeFile implements DbFile {
 			
 			// Update parent entry key to be the first tuple in the right page (sibling)
 			if (sibling.getNumTuples() > 0) {
-				Field newKey = sibling.iterator().next().getField(keyField);
+				Field newKey = separator(key(page.reverseIterator().next()),
+						key(sibling.iterator().next()));
 				BTreeEntry newEntry = new BTreeEntry(newKey, entry.getLeftChild(), entry.getRightChild());
 				newEntry.setRecordId(entry.getRecordId());
 				parent.updateEntry(newEntry);
@@ -783,7 +1302,8 @@ public class BTreeFile implements DbFile {
 			
 			// Update parent entry key to be the first tuple in the right page (current page)
 			if (page.getNumTuples() > 0) {
-				Field newKey = page.iterator().next().getField(keyField);
+				Field newKey = separator(key(sibling.reverseIterator().next()),
+						key(page.iterator().next()));
 				BTreeEntry newEntry = new BTreeEntry(newKey, entry.getLeftChild(), entry.getRightChild());
 				newEntry.setRecordId(entry.getRecordId());
 				parent.updateEntry(newEntry);
@@ -827,26 +1347,31 @@ public class BTreeFile implements DbFile {
 		if (rightEntry != null)
 			rightSiblingId = rightEntry.getRightChild();
 
-		int maxEmptySlots = page.getMaxEntries() - page.getMaxEntries() / 2; // ceiling
 		if (leftSiblingId != null) {
 			BTreeInternalPage leftSibling = (BTreeInternalPage) getPage(tid, dirtypages, leftSiblingId,
 					Permissions.READ_WRITE);
 			// if the left sibling is at minimum occupancy, merge with it. Otherwise
 			// steal some entries from it
-			if (leftSibling.getNumEmptySlots() >= maxEmptySlots) {
+			if (page.canMergeWith(leftSibling)) {
 				mergeInternalPages(tid, dirtypages, leftSibling, page, parent, leftEntry);
-			} else {
+			} else if (parent.canReplaceKey()) {
 				stealFromLeftInternalPage(tid, dirtypages, page, leftSibling, parent, leftEntry);
+				handleShrunkParent(tid, dirtypages, parent);
+			} else {
+				splitParentAndRetry(tid, dirtypages, page, parent, leftEntry.getKey());
 			}
 		} else if (rightSiblingId != null) {
 			BTreeInternalPage rightSibling = (BTreeInternalPage) getPage(tid, dirtypages, rightSiblingId,
 					Permissions.READ_WRITE);
 			// if the right sibling is at minimum occupancy, merge with it. Otherwise
 			// steal some entries from it
-			if (rightSibling.getNumEmptySlots() >= maxEmptySlots) {
+			if (page.canMergeWith(rightSibling)) {
 				mergeInternalPages(tid, dirtypages, page, rightSibling, parent, rightEntry);
-			} else {
+			} else if (parent.canReplaceKey()) {
 				stealFromRightInternalPage(tid, dirtypages, page, rightSibling, parent, rightEntry);
+				handleShrunkParent(tid, dirtypages, parent);
+			} else {
+				splitParentAndRetry(tid, dirtypages, page, parent, rightEntry.getKey());
 			}
 		}
 	}
@@ -877,9 +1402,7 @@ public class BTreeFile implements DbFile {
 			BTreeInternalPage page, BTreeInternalPage leftSibling, BTreeInternalPage parent,
 			BTreeEntry parentEntry) throws DbException, TransactionAbortedException {
 		// Evenly redistribute entries by rotating keys through the parent.
-		int total = page.getNumEntries() + leftSibling.getNumEntries();
-		int target = total / 2; // desired number of entries on 'page'
-		int need = target - page.getNumEntries();
+		int need = page.entriesToBalance(leftSibling, true);
 		if (need <= 0) return; // already balanced or overfull
 
 		for (int i = 0; i < need; i++) {
@@ -939,9 +1462,7 @@ public class BTreeFile implements DbFile {
 			BTreeInternalPage page, BTreeInternalPage rightSibling, BTreeInternalPage parent,
 			BTreeEntry parentEntry) throws DbException, TransactionAbortedException {
 		// Evenly redistribute entries by rotating keys through the parent.
-		int total = page.getNumEntries() + rightSibling.getNumEntries();
-		int target = total / 2; // desired number of entries on 'page'
-		int need = target - page.getNumEntries();
+		int need = page.entriesToBalance(rightSibling, false);
 		if (need <= 0) return;
 
 		for (int i = 0; i < need; i++) {
@@ -1017,6 +1538,9 @@ public class BTreeFile implements DbFile {
 		// merging -
 		// deleteParentEntry() will be useful here
 		
+		hashIndex.invalidate(leftPage.getId());
+		hashIndex.invalidate(rightPage.getId());
+
 		// Move all tuples from right page to left page
 		Iterator<Tuple> rightIterator = rightPage.iterator();
 		List<Tuple> tuplesToMove = new ArrayList<>();
@@ -1161,8 +1685,7 @@ public class BTreeFile implements DbFile {
 		// the parent is below minimum occupancy, get some tuples from its siblings
 		// or merge with one of the siblings
 		parent.deleteKeyAndRightChild(parentEntry);
-		int maxEmptySlots = parent.getMaxEntries() - parent.getMaxEntries() / 2; // ceiling
-		if (parent.getNumEmptySlots() == parent.getMaxEntries()) {
+		if (parent.getNumEntries() == 0) {
 			// This was the last entry in the parent.
 			// In this case, the parent (root node) should be deleted, and the merged
 			// page will become the new root
@@ -1176,7 +1699,7 @@ public class BTreeFile implements DbFile {
 
 			// release the parent page for reuse
 			setEmptyPage(tid, dirtypages, parent.getId().getPageNumber());
-		} else if (parent.getNumEmptySlots() > maxEmptySlots) {
+		} else if (parent.isLessThanHalfFull()) {
 			handleMinOccupancyPage(tid, dirtypages, parent);
 		}
 	}
@@ -1266,11 +1789,20 @@ public class BTreeFile implements DbFile {
 		BTreePageId headerId = rootPtr.getHeaderId();
 		int emptyPageNo = 0;
 
+		long freed;
+		synchronized (this) {
+			freed = pagesFreed;
+			if (allHeaderPagesFull)
+				headerId = null;
+		}
+
 		if (headerId != null) {
 			BTreeHeaderPage headerPage = (BTreeHeaderPage) getPage(tid, dirtypages, headerId, Permissions.READ_ONLY);
 			int headerPageCount = 0;
-			// try to find a header page with an empty slot
-			while (headerPage != null && headerPage.getEmptySlot() == -1) {
+			// try to find a header page with an empty slot, skipping the ones
+			// known to be full
+			while (headerPage != null && (isHeaderPageFull(headerPageCount) || headerPage.getEmptySlot() == -1)) {
+				setHeaderPageFull(headerPageCount, freed);
 				headerId = headerPage.getNextPageId();
 				if (headerId != null) {
 					headerPage = (BTreeHeaderPage) getPage(tid, dirtypages, headerId, Permissions.READ_ONLY);
@@ -1286,6 +1818,11 @@ public class BTreeFile implements DbFile {
 				int emptySlot = headerPage.getEmptySlot();
 				headerPage.markSlotUsed(emptySlot, true);
 				emptyPageNo = headerPageCount * BTreeHeaderPage.getNumSlots() + emptySlot;
+			} else {
+				synchronized (this) {
+					if (freed == pagesFreed)
+						allHeaderPagesFull = true;
+				}
 			}
 		}
 
@@ -1293,12 +1830,16 @@ public class BTreeFile implements DbFile {
 		// or there are no free slots
 		if (headerId == null) {
 			synchronized (this) {
-				// create the new page
-				BufferedOutputStream bw = new BufferedOutputStream(
-						new FileOutputStream(f, true));
-				byte[] emptyData = BTreeInternalPage.createEmptyPageData();
-				bw.write(emptyData);
-				bw.close();
+				// grow the file by a whole extent at a time, rather than
+				// reopening it for every new page
+				if (spareExtentPages == 0) {
+					RandomAccessFile rf = new RandomAccessFile(f, "rw");
+					rf.setLength(BTreeRootPtrPage.getPageSize()
+							+ (long) (filePages() + EXTENT_PAGES) * BufferPool.getPageSize());
+					rf.close();
+					spareExtentPages = EXTENT_PAGES;
+				}
+				spareExtentPages--;
 				emptyPageNo = numPages();
 			}
 		}
@@ -1435,6 +1976,283 @@ public class BTreeFile implements DbFile {
 		BTreeHeaderPage headerPage = (BTreeHeaderPage) getPage(tid, dirtypages, headerId, Permissions.READ_WRITE);
 		int emptySlot = emptyPageNo - headerPageCount * BTreeHeaderPage.getNumSlots();
 		headerPage.markSlotUsed(emptySlot, false);
+
+		// a freed page keeps its old contents until it is reused
+		hashIndex.invalidate(new BTreePageId(tableid, emptyPageNo, BTreePageId.LEAF));
+
+		synchronized (this) {
+			pagesFreed++;
+			fullHeaderPages.clear(headerPageCount);
+			allHeaderPagesFull = false;
+		}
+	}
+
+	private synchronized boolean isHeaderPageFull(int headerPageCount) {
+		return fullHeaderPages.get(headerPageCount);
+	}
+
+	/**
+	 * Remember that a header page has no empty slots, unless a page was freed
+	 * since the caller started looking
+	 */
+	private synchronized void setHeaderPageFull(int headerPageCount, long freed) {
+		if (freed == pagesFreed)
+			fullHeaderPages.set(headerPageCount);
+	}
+
+	/**
+	 * Repack the tuples of the leaves under an internal page into as few of
+	 * them as the fill factor allows. The left-most leaves are refilled in key
+	 * order and the rest are freed; the parent's entries and the sibling
+	 * pointers at the end of the run are rewritten, and the parent is
+	 * rebalanced as after a merge if it falls below minimum occupancy. Nothing
+	 * is changed unless at least one leaf can be freed.
+	 *
+	 * @param tid        - the transaction id
+	 * @param dirtypages - the list of dirty pages which should be updated with all
+	 *                   new dirty pages
+	 * @param parent     - an internal page locked READ_WRITE
+	 * @param fillFactor - the fraction of each leaf to fill, between 0.5 and 1
+	 * @return the number of leaves freed
+	 * @see BTreeCompactor
+	 *
+	 * @throws DbException
+	 * @throws IOException
+	 * @throws TransactionAbortedException
+	 */
+	int compactLeaves(TransactionId tid, Map<PageId, Page> dirtypages, BTreeInternalPage parent,
+			double fillFactor)
+			throws DbException, IOException, TransactionAbortedException {
+		List<BTreeEntry> entries = new ArrayList<>();
+		Iterator<BTreeEntry> it = parent.iterator();
+		while (it.hasNext()) {
+			entries.add(it.next());
+		}
+		if (entries.isEmpty() || entries.get(0).getLeftChild().pgcateg() != BTreePageId.LEAF) {
+			return 0;
+		}
+
+		// count the tuples under read locks first, since most runs need no work
+		List<BTreePageId> children = new ArrayList<>();
+		children.add(entries.get(0).getLeftChild());
+		for (BTreeEntry e : entries) {
+			children.add(e.getRightChild());
+		}
+		int numTuples = 0;
+		int maxTuples = 0;
+		for (BTreePageId child : children) {
+			BTreeLeafPage leaf = (BTreeLeafPage) getPage(tid, dirtypages, child, Permissions.READ_ONLY);
+			numTuples += leaf.getNumTuples();
+			maxTuples = leaf.getMaxTuples();
+		}
+
+		int perPage = Math.max((int) (maxTuples * fillFactor), 1);
+		int keep = Math.max((numTuples + perPage - 1) / perPage, 1);
+		// no leaf is left less than half full, and only the root may have one child
+		while (keep > 1 && numTuples / keep < maxTuples / 2) {
+			keep--;
+		}
+		boolean isRoot = parent.getParentId().pgcateg() == BTreePageId.ROOT_PTR;
+		if (keep == 1 && !isRoot) {
+			keep = 2;
+		}
+		if (keep >= children.size()) {
+			return 0;
+		}
+
+		List<BTreeLeafPage> leaves = new ArrayList<>();
+		List<Tuple> tuples = new ArrayList<>(numTuples);
+		for (BTreePageId child : children) {
+			BTreeLeafPage leaf = (BTreeLeafPage) getPage(tid, dirtypages, child, Permissions.READ_WRITE);
+			hashIndex.invalidate(child);
+			List<Tuple> onLeaf = new ArrayList<>();
+			Iterator<Tuple> ti = leaf.iterator();
+			while (ti.hasNext()) {
+				onLeaf.add(ti.next());
+			}
+			for (Tuple t : onLeaf) {
+				leaf.deleteTuple(t);
+			}
+			tuples.addAll(onLeaf);
+			leaves.add(leaf);
+		}
+		int next = 0;
+		for (int i = 0; i < keep; i++) {
+			int share = numTuples / keep + (i < numTuples % keep ? 1 : 0);
+			for (int j = 0; j < share; j++) {
+				leaves.get(i).insertTuple(tuples.get(next++));
+			}
+		}
+
+		// the run now ends at its last kept leaf
+		BTreeLeafPage lastKept = leaves.get(keep - 1);
+		BTreePageId rightId = leaves.get(leaves.size() - 1).getRightSiblingId();
+		lastKept.setRightSiblingId(rightId);
+		if (rightId != null) {
+			BTreeLeafPage right = (BTreeLeafPage) getPage(tid, dirtypages, rightId, Permissions.READ_WRITE);
+			right.setLeftSiblingId(lastKept.getId());
+		}
+
+		for (int i = entries.size() - 1; i >= keep - 1; i--) {
+			parent.deleteKeyAndRightChild(entries.get(i));
+		}
+		// updateEntry keeps the page ordered at every step, so keys that move
+		// left are updated left to right, and keys that move right the other way
+		Field[] keys = new Field[keep - 1];
+		for (int i = 0; i < keep - 1; i++) {
+			Field leftLast = key(leaves.get(i).reverseIterator().next());
+			Field rightFirst = key(leaves.get(i + 1).iterator().next());
+			keys[i] = separator(leftLast, rightFirst);
+		}
+		for (int i = 0; i < keep - 1; i++) {
+			BTreeEntry e = entries.get(i);
+			if (!keys[i].compare(Op.GREATER_THAN, e.getKey())) {
+				e.setKey(keys[i]);
+				parent.updateEntry(e);
+			}
+		}
+		for (int i = keep - 2; i >= 0; i--) {
+			BTreeEntry e = entries.get(i);
+			if (keys[i].compare(Op.GREATER_THAN, e.getKey())) {
+				e.setKey(keys[i]);
+				parent.updateEntry(e);
+			}
+		}
+
+		for (int i = keep; i < leaves.size(); i++) {
+			setEmptyPage(tid, dirtypages, leaves.get(i).getId().getPageNumber());
+		}
+
+		if (parent.getNumEntries() == 0) {
+			// the root's leaves fit on one page, which becomes the root
+			BTreePageId rootPtrId = parent.getParentId();
+			BTreeRootPtrPage rootPtr = (BTreeRootPtrPage) getPage(tid, dirtypages, rootPtrId, Permissions.READ_WRITE);
+			leaves.get(0).setParentId(rootPtrId);
+			rootPtr.setRootId(leaves.get(0).getId());
+			setEmptyPage(tid, dirtypages, parent.getId().getPageNumber());
+		} else if (parent.isLessThanHalfFull()) {
+			handleMinOccupancyPage(tid, dirtypages, parent);
+		}
+		return leaves.size() - keep;
+	}
+
+	/**
+	 * Drop every page of this tree, on disk and in the BufferPool, leaving an
+	 * empty tree: a root pointer page and an empty root leaf. Only safe while no
+	 * other transaction can reach the tree, as when undoing a bulk load.
+	 *
+	 * @throws IOException
+	 */
+	void discardAllPages() throws IOException {
+		int pages;
+		synchronized (this) {
+			pages = f.length() == 0 ? 0 : filePages();
+			RandomAccessFile rf = new RandomAccessFile(f, "rw");
+			rf.setLength(0);
+			rf.write(BTreeFileEncoder.convertToRootPtrPage(1, BTreePageId.LEAF, 0));
+			rf.write(BTreeLeafPage.createEmptyPageData());
+			rf.close();
+			spareExtentPages = 0;
+			fullHeaderPages.clear();
+			allHeaderPagesFull = false;
+		}
+		hashIndex.clear();
+
+		// pages may be cached under whatever category they last had
+		BufferPool bp = Database.getBufferPool();
+		bp.discardPage(BTreeRootPtrPage.getId(tableid));
+		for (int pgNo = 1; pgNo <= pages; pgNo++) {
+			bp.discardPage(new BTreePageId(tableid, pgNo, BTreePageId.LEAF));
+			bp.discardPage(new BTreePageId(tableid, pgNo, BTreePageId.INTERNAL));
+			bp.discardPage(new BTreePageId(tableid, pgNo, BTreePageId.HEADER));
+		}
+	}
+
+	/**
+	 * Shrink the file by the free pages at its end, and by any spare extent
+	 * pages. The transaction locks the root pointer page and every header page
+	 * READ_WRITE, so no page can be allocated or freed meanwhile and the
+	 * header pages hold the committed state of every page. The file is cut
+	 * straight away, which is safe since the pages removed are free in that
+	 * committed state; their slots stay free in the header pages, and since
+	 * the lowest free page is always handed out first, reusing them grows the
+	 * file again one page at a time.
+	 *
+	 * @param tid        - the transaction id
+	 * @param dirtypages - the list of dirty pages which should be updated with all
+	 *                   new dirty pages
+	 * @return the number of free pages removed from the end of the file, not
+	 *         counting spare extent pages
+	 * @see BTreeCompactor
+	 *
+	 * @throws DbException
+	 * @throws IOException
+	 * @throws TransactionAbortedException
+	 */
+	int truncateFreePages(TransactionId tid, Map<PageId, Page> dirtypages)
+			throws DbException, IOException, TransactionAbortedException {
+		getRootPtrPage(tid, dirtypages);
+		BTreeRootPtrPage rootPtr = (BTreeRootPtrPage) getPage(tid, dirtypages, BTreeRootPtrPage.getId(tableid),
+				Permissions.READ_WRITE);
+		List<BTreeHeaderPage> headers = new ArrayList<>();
+		BTreePageId headerId = rootPtr.getHeaderId();
+		while (headerId != null) {
+			BTreeHeaderPage headerPage = (BTreeHeaderPage) getPage(tid, dirtypages, headerId, Permissions.READ_WRITE);
+			headers.add(headerPage);
+			headerId = headerPage.getNextPageId();
+		}
+
+		int slots = BTreeHeaderPage.getNumSlots();
+		int oldPages;
+		int pages;
+		int last;
+		synchronized (this) {
+			oldPages = filePages();
+			pages = numPages();
+			last = pages;
+			while (last > 1 && last / slots < headers.size()
+					&& !headers.get(last / slots).isSlotUsed(last % slots)) {
+				last--;
+			}
+			if (last == oldPages) {
+				return 0;
+			}
+			RandomAccessFile rf = new RandomAccessFile(f, "rw");
+			rf.setLength(BTreeRootPtrPage.getPageSize() + (long) last * BufferPool.getPageSize());
+			rf.close();
+			spareExtentPages = 0;
+		}
+
+		// freed pages may still be cached, under whatever category they last had
+		BufferPool bp = Database.getBufferPool();
+		for (int pgNo = last + 1; pgNo <= oldPages; pgNo++) {
+			bp.discardPage(new BTreePageId(tableid, pgNo, BTreePageId.LEAF));
+			bp.discardPage(new BTreePageId(tableid, pgNo, BTreePageId.INTERNAL));
+			bp.discardPage(new BTreePageId(tableid, pgNo, BTreePageId.HEADER));
+		}
+		return pages - last;
+	}
+
+	/**
+	 * Load the tuples of source into this B+ tree, which must be empty, building
+	 * it bottom-up instead of inserting one tuple at a time. Pages are filled to
+	 * the given fill factor. This is meant for building a new index, as
+	 * {@link SecondaryIndex#create} does; inserts into a tree that already holds
+	 * tuples go through {@link #insertTuple}. Pages are written directly to the
+	 * file rather than through the BufferPool, so while a failed load leaves the
+	 * tree empty, a load that completes is not undone if the transaction aborts;
+	 * SecondaryIndex drops an index whose creating transaction aborts.
+	 * 
+	 * @param tid        - the transaction id
+	 * @param source     - the tuples to load, in any order
+	 * @param fillFactor - the fraction of each page to fill, between 0.5 and 1
+	 * @return the number of tuples loaded
+	 * @see BTreeBulkLoader
+	 */
+	public int bulkLoad(TransactionId tid, OpIterator source, double fillFactor)
+			throws DbException, TransactionAbortedException {
+		hashIndex.clear();
+		return new BTreeBulkLoader(this, fillFactor).load(tid, source);
 	}
 
 	/**
@@ -1451,6 +2269,21 @@ public class BTreeFile implements DbFile {
 		return new BTreeSearchIterator(this, tid, ipred);
 	}
 
+	/**
+	 * Get the tuples matching an IndexPredicate in descending key order, by
+	 * walking the leaves from right to left. This method will acquire a read
+	 * lock on the affected pages of the file, and may block until the lock can
+	 * be acquired.
+	 * 
+	 * @param tid   - the transaction id
+	 * @param ipred - the index predicate value to filter on, or null for all
+	 *              tuples
+	 * @return an iterator for the filtered tuples, largest key first
+	 */
+	public DbFileIterator reverseIndexIterator(TransactionId tid, IndexPredicate ipred) {
+		return new BTreeReverseSearchIterator(this, tid, ipred);
+	}
+
 	/**
 	 * Get an iterator for all tuples in this B+ tree file in sorted order. This
 	 * method
@@ -1493,10 +2326,7 @@ class BTreeFileIterator extends AbstractDbFileIterator {
 	 * Open this iterator by getting an iterator on the first leaf page
 	 */
 	public void open() throws DbException, TransactionAbortedException {
-		BTreeRootPtrPage rootPtr = (BTreeRootPtrPage) Database.getBufferPool().getPage(
-				tid, BTreeRootPtrPage.getId(f.getId()), Permissions.READ_ONLY);
-		BTreePageId root = rootPtr.getRootId();
-		curp = f.findLeafPage(tid, root, null);
+		curp = f.findLeafPage(tid, null);
 		it = curp.iterator();
 	}
 
@@ -1549,7 +2379,121 @@ class BTreeFileIterator extends AbstractDbFileIterator {
 
 /**
  * Helper class that implements the DbFileIterator for search tuples on a
- * B+ Tree File
+ * B+ Tree File in descending key order. It starts at the leaf holding the
+ * predicate's upper bound, or at the right-most leaf, reads each leaf with
+ * BTreeLeafPage.reverseIterator() and follows the left sibling pointers until
+ * it passes the lower bound.
+ */
+class BTreeReverseSearchIterator extends AbstractDbFileIterator {
+
+	Iterator<Tuple> it = null;
+	BTreeLeafPage curp = null;
+
+	final TransactionId tid;
+	final BTreeFile f;
+	final IndexPredicate ipred;
+
+	/**
+	 * Constructor for this iterator
+	 * 
+	 * @param f     - the BTreeFile containing the tuples
+	 * @param tid   - the transaction id
+	 * @param ipred - the predicate to filter on, or null for all tuples
+	 */
+	public BTreeReverseSearchIterator(BTreeFile f, TransactionId tid, IndexPredicate ipred) {
+		this.f = f;
+		this.tid = tid;
+		this.ipred = ipred;
+	}
+
+	/**
+	 * Open this iterator by finding the last leaf page that can hold a matching
+	 * key
+	 */
+	public void open() throws DbException, TransactionAbortedException {
+		if (ipred != null && ipred.getValues() != null && ipred.getValues().isEmpty())
+			return;
+		Field upper = ipred == null ? null : ipred.getUpperBound();
+		if (upper == null) {
+			curp = f.findLastLeafPage(tid);
+			it = curp.reverseIterator();
+			return;
+		}
+
+		// keys equal to the bound may continue on the leaves to the right
+		curp = f.findLeafPage(tid, upper);
+		BTreePageId nextp = curp.getRightSiblingId();
+		while (nextp != null) {
+			BTreeLeafPage next = (BTreeLeafPage) Database.getBufferPool().getPage(tid,
+					nextp, Permissions.READ_ONLY);
+			Iterator<Tuple> first = next.iterator();
+			if (!first.hasNext() || ipred.aboveUpper(f.key(first.next())))
+				break;
+			curp = next;
+			nextp = curp.getRightSiblingId();
+		}
+		it = curp.reverseIterator(upper, ipred.isUpperInclusive());
+	}
+
+	/**
+	 * Read the next tuple either from the current page if it has more tuples
+	 * matching the predicate or from the previous page by following the left
+	 * sibling pointer.
+	 * 
+	 * @return the next tuple matching the predicate, or null if none exists
+	 */
+	@Override
+	protected Tuple readNext() throws TransactionAbortedException, DbException {
+		while (it != null) {
+			while (it.hasNext()) {
+				Tuple t = it.next();
+				Field key = f.key(t);
+				if (ipred == null || ipred.matches(key))
+					return t;
+				if (ipred.belowLower(key)) {
+					it = null;
+					return null;
+				}
+			}
+
+			BTreePageId prevp = curp.getLeftSiblingId();
+			if (prevp == null) {
+				it = null;
+			} else {
+				curp = (BTreeLeafPage) Database.getBufferPool().getPage(tid,
+						prevp, Permissions.READ_ONLY);
+				it = curp.reverseIterator();
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * rewind this iterator back to the beginning of the tuples
+	 */
+	public void rewind() throws DbException, TransactionAbortedException {
+		close();
+		open();
+	}
+
+	/**
+	 * close the iterator
+	 */
+	public void close() {
+		super.close();
+		it = null;
+		curp = null;
+	}
+}
+
+/**
+ * Helper class that implements the DbFileIterator for search tuples on a
+ * B+ Tree File. Predicates with a lower bound start at the first leaf that can
+ * hold it, and predicates with an upper bound stop at the first key above it.
+ * An IN list is searched one value at a time in key order, continuing on the
+ * current leaf when the next value is there and descending from the root
+ * otherwise. Equality searches for hot keys start from the file's adaptive
+ * hash index instead of the root.
  */
 class BTreeSearchIterator extends AbstractDbFileIterator {
 
@@ -1560,6 +2504,11 @@ class BTreeSearchIterator extends AbstractDbFileIterator {
 	final BTreeFile f;
 	final IndexPredicate ipred;
 
+	/** the range being searched: ipred itself, or one value of an IN list */
+	IndexPredicate range = null;
+	/** the position of the next value of an IN list */
+	int nextValue = 0;
+
 	/**
 	 * Constructor for this iterator
 	 * 
@@ -1578,16 +2527,65 @@ class BTreeSearchIterator extends AbstractDbFileIterator {
 	 * for the given predicate operation
 	 */
 	public void open() throws DbException, TransactionAbortedException {
-		BTreeRootPtrPage rootPtr = (BTreeRootPtrPage) Database.getBufferPool().getPage(
-				tid, BTreeRootPtrPage.getId(f.getId()), Permissions.READ_ONLY);
-		BTreePageId root = rootPtr.getRootId();
-		if (ipred.getOp() == Op.EQUALS || ipred.getOp() == Op.GREATER_THAN
-				|| ipred.getOp() == Op.GREATER_THAN_OR_EQ) {
-			curp = f.findLeafPage(tid, root, ipred.getField());
+		List<Field> values = ipred.getValues();
+		if (values == null) {
+			range = ipred;
+		} else if (values.isEmpty()) {
+			return;
 		} else {
-			curp = f.findLeafPage(tid, root, null);
+			range = new IndexPredicate(Op.EQUALS, values.get(0));
+			nextValue = 1;
 		}
-		it = curp.iterator();
+		seek(range.isRange() ? range.getLowerBound() : null, range.isLowerInclusive());
+	}
+
+	/**
+	 * Position the iterator at the first key at or after key, searching from
+	 * the root; a null key starts at the first leaf
+	 */
+	private void seek(Field key, boolean inclusive) throws DbException, TransactionAbortedException {
+		boolean point = range.getOp() == Op.EQUALS;
+		if (point) {
+			BTreeLeafPageIterator hit = f.hashLookup(tid, key);
+			if (hit != null) {
+				curp = hit.p;
+				it = hit;
+				return;
+			}
+		}
+		curp = f.findLeafPage(tid, key);
+		// skip the smaller keys on the first leaf by binary search
+		it = key == null ? curp.iterator() : curp.iterator(key, inclusive);
+		if (point)
+			f.noteDescent(curp, key);
+	}
+
+	/**
+	 * Move on to the next value of an IN list that t is not already past,
+	 * skipping the values that are not in the tree
+	 * 
+	 * @param t - the first tuple past the current value, or null if the
+	 *          current leaf has no more tuples
+	 * @return true if t belongs to the new value, and false otherwise
+	 */
+	private boolean nextRange(Tuple t) throws DbException, TransactionAbortedException {
+		List<Field> values = ipred.getValues();
+		Field key = t == null ? null : f.key(t);
+		while (values != null && nextValue < values.size()) {
+			Field v = values.get(nextValue++);
+			range = new IndexPredicate(Op.EQUALS, v);
+			if (key != null && range.matches(key))
+				return true;
+			if (key == null || range.belowLower(key)) {
+				if (curp.lowerBound(v) < curp.getNumTuples())
+					it = curp.iterator(v, true);
+				else
+					seek(v, true);
+				return false;
+			}
+		}
+		it = null;
+		return false;
 	}
 
 	/**
@@ -1604,17 +2602,18 @@ class BTreeSearchIterator extends AbstractDbFileIterator {
 
 			while (it.hasNext()) {
 				Tuple t = it.next();
-				if (t.getField(f.keyField()).compare(ipred.getOp(), ipred.getField())) {
+				Field key = f.key(t);
+				if (!range.isRange()) {
+					if (range.matches(key))
+						return t;
+				} else if (range.aboveUpper(key)) {
+					// past the end of this range: stop, or go on to the next value
+					if (nextRange(t))
+						return t;
+					if (it == null)
+						return null;
+				} else if (!range.belowLower(key)) {
 					return t;
-				} else if (ipred.getOp() == Op.LESS_THAN || ipred.getOp() == Op.LESS_THAN_OR_EQ) {
-					// if the predicate was not satisfied and the operation is less than, we have
-					// hit the end
-					return null;
-				} else if (ipred.getOp() == Op.EQUALS &&
-						t.getField(f.keyField()).compare(Op.GREATER_THAN, ipred.getField())) {
-					// if the tuple is now greater than the field passed in and the operation
-					// is equals, we have reached the end
-					return null;
 				}
 			}
 
@@ -234,6 +234,8 @@ public class BTreeFileEncoder {
 		// pointerbytes: one extra child pointer, parent pointer, child page category
 		int internalpointerbytes = 2 * BTreeLeafPage.INDEX_SIZE + 1; 
 		int nentries = (npagebytes * 8 - internalpointerbytes * 8 - 1) /  (nentrybytes * 8 + 1);  //floor comes for free
+		// string keys are stored compactly, but make sure even the longest ones fit
+		nentries = Math.min(nentries, BTreeInternalPage.getMaxFullEntries(keyType));
 
 		List<List<BTreeEntry>> entries = new ArrayList<>();
 
@@ -503,6 +505,19 @@ public class BTreeFileEncoder {
 	public static byte[] convertToLeafPage(List<Tuple> tuples, int npagebytes,
 			int numFields, Type[] typeAr, int keyField)
 					throws IOException {
+		return convertToLeafPage(tuples, npagebytes, numFields, typeAr, new TupleComparator(keyField));
+	}
+
+	/**
+	 * Convert a set of tuples to a byte array in the format of a BTreeLeafPage,
+	 * in the order of a B+ tree's keys
+	 * 
+	 * @param byKey - orders the tuples by their keys
+	 * @see #convertToLeafPage(List, int, int, Type[], int)
+	 */
+	static byte[] convertToLeafPage(List<Tuple> tuples, int npagebytes,
+			int numFields, Type[] typeAr, Comparator<Tuple> byKey)
+					throws IOException {
 		int nrecbytes = 0;
 		for (int i = 0; i < numFields ; i++) {
 			nrecbytes += typeAr[i].getLen();
@@ -522,7 +537,7 @@ public class BTreeFileEncoder {
 		DataOutputStream dos = new DataOutputStream(baos);
 
 		// write out the pointers and the header of the page,
-		// then sort the tuples on the keyField and write out the tuples.
+		// then sort the tuples on their keys and write out the tuples.
 		//
 		// in the header, write a 1 for bits that correspond to records we've
 		// written and 0 for empty slots.
@@ -551,7 +566,7 @@ public class BTreeFileEncoder {
 		if (i % 8 > 0)
 			dos.writeByte(headerbyte);
 
-		tuples.sort(new TupleComparator(keyField));
+		tuples.sort(byKey);
 		for(int t = 0; t < recordcount; t++) {
 			TupleDesc td = tuples.get(t).getTupleDesc();
 			for(int j = 0; j < td.numFields(); j++) {
@@ -621,6 +636,11 @@ public class BTreeFileEncoder {
 	public static byte[] convertToInternalPage(List<BTreeEntry> entries, int npagebytes,
 			Type keyType, int childPageCategory)
 					throws IOException {
+		if (BTreeInternalPage.hasCompactKeys(keyType)) {
+			List<BTreeEntry> sorted = new ArrayList<>(entries);
+			sorted.sort(new EntryComparator());
+			return BTreeInternalPage.createCompactPageData(sorted, keyType, childPageCategory);
+		}
 		int nentrybytes = keyType.getLen() + BTreeInternalPage.INDEX_SIZE;
 		// pointerbytes: one extra child pointer, parent pointer, child page category
 		int pointerbytes = 2 * BTreeLeafPage.INDEX_SIZE + 1; 
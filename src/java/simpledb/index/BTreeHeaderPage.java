@@ -10,6 +10,8 @@ import simpledb.storage.Page;
 import simpledb.transaction.TransactionId;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.util.Arrays;
 
 /**
@@ -30,6 +32,12 @@ public class BTreeHeaderPage implements Page {
 	final byte[] header;
 	final int numSlots;
 
+	// the header viewed as little-endian words, so bit j of a word is slot j of
+	// the word's first slot
+	private final ByteBuffer words;
+	// no byte before this one has an empty slot; only kept in memory
+	private int firstFreeByte = 0;
+
 	private int nextPage; // next header page or 0
 	private int prevPage; // previous header page or 0
 
@@ -71,6 +79,7 @@ public class BTreeHeaderPage implements Page {
 
 		dis.close();
 
+		words = ByteBuffer.wrap(header).order(ByteOrder.LITTLE_ENDIAN);
 		setBeforeImage();
 	}
 
@@ -79,6 +88,7 @@ public class BTreeHeaderPage implements Page {
 	 */
 	public void init() {
         Arrays.fill(header, (byte) 0xFF);
+        firstFreeByte = header.length;
 	}
 
 	/**
@@ -292,24 +302,34 @@ public class BTreeHeaderPage implements Page {
 		Debug.log(1, "BTreeHeaderPage.setSlot: setting slot %d to %b", i, value);
 		if(value)
 			header[headerbyte] |= 1 << headerbit;
-		else
+		else {
 			header[headerbyte] &= (0xFF ^ (1 << headerbit));
+			firstFreeByte = Math.min(firstFreeByte, headerbyte);
+		}
 	}
 
 	/**
-	 * get the index of the first empty slot
+	 * get the index of the first empty slot. The header is scanned a word at a
+	 * time, starting after the bytes already known to be full.
 	 * @return the index of the first empty slot or -1 if none exists
 	 */
 	public int getEmptySlot() {
-		for (int i=0; i<header.length; i++) {
-			if((int) header[i] != 0xFF) {
-				for(int j = 0; j < 8; j++) {
-					if(!isSlotUsed(i*8 + j)) {
-						return i*8 + j;
-					}
-				}
+		int i = firstFreeByte;
+		for (; i + Long.BYTES <= header.length; i += Long.BYTES) {
+			long word = words.getLong(i);
+			if (word != -1L) {
+				int slot = i * 8 + Long.numberOfTrailingZeros(~word);
+				firstFreeByte = slot / 8;
+				return slot;
+			}
+		}
+		for (; i < header.length; i++) {
+			if (header[i] != (byte) 0xFF) {
+				firstFreeByte = i;
+				return i * 8 + Integer.numberOfTrailingZeros(~header[i]);
 			}
 		}
+		firstFreeByte = header.length;
 		return -1;
 	}
 }
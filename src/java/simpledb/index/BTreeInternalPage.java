@@ -13,6 +13,7 @@ import simpledb.storage.BufferPool;
 import simpledb.storage.Field;
 import simpledb.storage.IntField;
 import simpledb.storage.RecordId;
+import simpledb.storage.StringField;
 
 /**
  * Each instance of BTreeInternalPage stores data for one page of a BTreeFile and 
@@ -30,6 +31,24 @@ public class BTreeInternalPage extends BTreePage {
 	
 	private int childCategory; // either leaf or internal
 
+	// whether keys are stored in the variable-length, front-coded layout
+	private final boolean compact;
+
+	// used slots in key order (slot 0, which only holds a child, first);
+	// rebuilt lazily after the header changes
+	private int[] slotDir;
+
+	// bytes used by entries in the compact layout; recomputed lazily after
+	// the keys change
+	private int usedBytes = -1;
+
+	/** Smallest entry in the compact layout: a child pointer and a key that
+	 * repeats the previous key, i.e. just its two length bytes. */
+	private static final int MIN_COMPACT_ENTRY_SIZE = INDEX_SIZE + 2;
+
+	/** Largest entry in the compact layout. */
+	static final int MAX_COMPACT_ENTRY_SIZE = INDEX_SIZE + 2 + Type.STRING_LEN;
+
 	public void checkRep(Field lowerBound, Field upperBound, boolean checkOccupancy, int depth) {
 		Field prev = lowerBound;
 		assert(this.getId().pgcateg() == BTreePageId.INTERNAL);
@@ -43,7 +62,7 @@ public class BTreeInternalPage extends BTreePage {
 
         assert null == upperBound || null == prev || (prev.compare(Op.LESS_THAN_OR_EQ, upperBound));
 
-        assert !checkOccupancy || depth <= 0 || (getNumEntries() >= getMaxEntries() / 2);
+        assert !checkOccupancy || depth <= 0 || !isUnderfull();
 	}
 	
 	/**
@@ -62,6 +81,14 @@ public class BTreeInternalPage extends BTreePage {
 	 * <p>
 	 *      ceiling((no. entry slots + 1) / 8)
 	 * <p>
+	 * String keys are almost never needed in full to separate two subtrees, so
+	 * pages keyed on a string field use a compact layout instead: after the
+	 * header, each used slot in key order stores its child pointer and (except
+	 * slot 0) its key, front-coded against the previous key as one byte for the
+	 * length of the prefix it shares with it, one byte for the length of the rest,
+	 * and the rest. The number of slots is sized for the smallest possible
+	 * entries, and {@link #getNumEmptySlots()} also accounts for the bytes left.
+	 * <p>
 	 * @see Database#getCatalog
 	 * @see Catalog#getTupleDesc
 	 * @see BufferPool#getPageSize()
@@ -71,7 +98,19 @@ public class BTreeInternalPage extends BTreePage {
 	 * @param key - the field which the index is keyed on
 	 */
 	public BTreeInternalPage(BTreePageId id, byte[] data, int key) throws IOException {
-		super(id, key);
+		this(id, data, key, null);
+	}
+
+	/**
+	 * Create a BTreeInternalPage of a tree that may be keyed on several fields.
+	 *
+	 * @param compositeKey - the fields the index is keyed on, or null if it is
+	 *            keyed on key alone
+	 * @see #BTreeInternalPage(BTreePageId, byte[], int)
+	 */
+	BTreeInternalPage(BTreePageId id, byte[] data, int key, CompositeKey compositeKey) throws IOException {
+		super(id, key, compositeKey);
+		this.compact = hasCompactKeys(keyType());
 		this.numSlots = getMaxEntries() + 1;
 		DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
 
@@ -92,6 +131,13 @@ public class BTreeInternalPage extends BTreePage {
 			header[i] = dis.readByte();
 
 		keys = new Field[numSlots];
+		children = new int[numSlots];
+		if (compact) {
+			readCompactEntries(dis);
+			dis.close();
+			setBeforeImage();
+			return;
+		}
 		try{
 			// allocate and read the keys of this page
 			// start from 1 because the first key slot is not used
@@ -103,7 +149,6 @@ public class BTreeInternalPage extends BTreePage {
 			e.printStackTrace();
 		}
 
-		children = new int[numSlots];
 		try{
 			// allocate and read the child pointers of this page
 			for (int i=0; i<children.length; i++)
@@ -120,20 +165,39 @@ public class BTreeInternalPage extends BTreePage {
 	 * Retrieve the maximum number of entries this page can hold. (The number of keys)
  	 */
 	public int getMaxEntries() {        
-		int keySize = td.getFieldType(keyField).getLen();
-		int bitsPerEntryIncludingHeader = keySize * 8 + INDEX_SIZE * 8 + 1;
+		return getMaxEntries(keyType());
+	}
+
+	/**
+	 * Retrieve the maximum number of entries a page keyed on the given type can
+	 * hold.
+	 */
+	static int getMaxEntries(Type keyType) {
+		int entrySize = hasCompactKeys(keyType) ? MIN_COMPACT_ENTRY_SIZE : keyType.getLen() + INDEX_SIZE;
+		int bitsPerEntryIncludingHeader = entrySize * 8 + 1;
 		// extraBits are: one parent pointer, 1 byte for child page category, 
 		// one extra child pointer (node with m entries has m+1 pointers to children), 1 bit for extra header
 		int extraBits = 2 * INDEX_SIZE * 8 + 8 + 1;
         return (BufferPool.getPageSize()*8 - extraBits) / bitsPerEntryIncludingHeader;
 	}
 
+	/**
+	 * @return true if pages keyed on the given type use the compact layout
+	 */
+	static boolean hasCompactKeys(Type keyType) {
+		return keyType == Type.STRING_TYPE;
+	}
+
 	/**
 	 * Computes the number of bytes in the header of a B+ internal page with each entry occupying entrySize bytes
 	 * @return the number of bytes in the header
 	 */
 	private int getHeaderSize() {        
-		int slotsPerPage = getMaxEntries() + 1;
+		return getHeaderSize(getMaxEntries());
+	}
+
+	private static int getHeaderSize(int maxEntries) {
+		int slotsPerPage = maxEntries + 1;
 		int hb = (slotsPerPage / 8);
 		if (hb * 8 < slotsPerPage) hb++;
 
@@ -149,7 +213,7 @@ public class BTreeInternalPage extends BTreePage {
 			{
 				oldDataRef = oldData;
 			}
-			return new BTreeInternalPage(pid,oldDataRef,keyField);
+			return new BTreeInternalPage(pid,oldDataRef,keyField,compositeKey);
 		} catch (IOException e) {
 			e.printStackTrace();
 			//should never happen -- we parsed it OK before!
@@ -172,7 +236,7 @@ public class BTreeInternalPage extends BTreePage {
 		// if associated bit is not set, read forward to the next key, and
 		// return null.
 		if (!isSlotUsed(slotId)) {
-			for (int i=0; i<td.getFieldType(keyField).getLen(); i++) {
+			for (int i=0; i<keyType().getLen(); i++) {
 				try {
 					dis.readByte();
 				} catch (IOException e) {
@@ -185,7 +249,7 @@ public class BTreeInternalPage extends BTreePage {
 		// read the key field
 		Field f = null;
 		try {
-			f = td.getFieldType(keyField).parse(dis);
+			f = keyType().parse(dis);
 		} catch (java.text.ParseException e) {
 			e.printStackTrace();
 			throw new NoSuchElementException("parsing error!");
@@ -266,6 +330,17 @@ public class BTreeInternalPage extends BTreePage {
             }
         }
 
+		if (compact) {
+			try {
+				writeCompactEntries(dos, slotDirectory(), keys, children);
+				dos.write(new byte[compactCapacity(header.length) - usedBytes()]);
+				dos.flush();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+			return baos.toByteArray();
+		}
+
 		// create the keys
 		// start from 1 because the first key slot is not used
 		// since a node with m keys has m+1 pointers
@@ -273,7 +348,7 @@ public class BTreeInternalPage extends BTreePage {
 
 			// empty slot
 			if (!isSlotUsed(i)) {
-				for (int j=0; j<td.getFieldType(keyField).getLen(); j++) {
+				for (int j=0; j<keyType().getLen(); j++) {
 					try {
 						dos.writeByte(0);
 					} catch (IOException e) {
@@ -320,7 +395,7 @@ public class BTreeInternalPage extends BTreePage {
 
 		// padding
 		int zerolen = BufferPool.getPageSize() - (INDEX_SIZE + 1 + header.length + 
-				td.getFieldType(keyField).getLen() * (keys.length - 1) + INDEX_SIZE * children.length); 
+				keyType().getLen() * (keys.length - 1) + INDEX_SIZE * children.length); 
 		byte[] zeroes = new byte[zerolen];
 		try {
 			dos.write(zeroes, 0, zerolen);
@@ -434,7 +509,14 @@ public class BTreeInternalPage extends BTreePage {
 			}	
 		}
 		children[rid.getTupleNumber()] = e.getRightChild().getPageNumber();
+		Field oldKey = keys[rid.getTupleNumber()];
 		keys[rid.getTupleNumber()] = e.getKey();
+		usedBytes = -1;
+		if (compact && usedBytes() > compactCapacity(header.length)) {
+			keys[rid.getTupleNumber()] = oldKey;
+			usedBytes = -1;
+			throw new DbException("not enough room on page for updated key " + e.getKey());
+		}
 	}
 
 	/**
@@ -445,7 +527,7 @@ public class BTreeInternalPage extends BTreePage {
 	 * @param e The entry to add.
 	 */
 	public void insertEntry(BTreeEntry e) throws DbException {
-		if (!e.getKey().getType().equals(td.getFieldType(keyField)))
+		if (!e.getKey().getType().equals(keyType()))
 			throw new DbException("key field type mismatch, in insertEntry");
 
 		if(e.getLeftChild().getTableId() != pid.getTableId() || e.getRightChild().getTableId() != pid.getTableId())
@@ -460,8 +542,11 @@ public class BTreeInternalPage extends BTreePage {
 		else if(e.getLeftChild().pgcateg() != childCategory || e.getRightChild().pgcateg() != childCategory)
 			throw new DbException("child page category mismatch in insertEntry");
 
+		if (compact && getNumEmptySlots() == 0)
+			throw new DbException("called insertEntry on page with no room for another key.");
+
 		// if this is the first entry, add it and return
-		if(getNumEmptySlots() == getMaxEntries()) {
+		if(countEmptySlots() == getMaxEntries()) {
 			children[0] = e.getLeftChild().getPageNumber();
 			children[1] = e.getRightChild().getPageNumber();
 			keys[1] = e.getKey();
@@ -566,13 +651,22 @@ public class BTreeInternalPage extends BTreePage {
 	 * Returns the number of entries (keys) currently stored on this page
 	 */
 	public int getNumEntries() {
-		return numSlots - getNumEmptySlots() - 1;
+		return numSlots - countEmptySlots() - 1;
 	}
 	
 	/**
-	 * Returns the number of empty slots on this page.
+	 * Returns the number of empty slots on this page. With the compact layout,
+	 * this is at most the number of largest possible entries that still fit, so
+	 * an entry can always be inserted while it is not zero.
 	 */
 	public int getNumEmptySlots() {
+		int cnt = countEmptySlots();
+		if (compact)
+			cnt = Math.min(cnt, (compactCapacity(header.length) - usedBytes()) / MAX_COMPACT_ENTRY_SIZE);
+		return cnt;
+	}
+
+	private int countEmptySlots() {
 		int cnt = 0;
 		// start from 1 because the first key slot is not used
 		// since a node with m keys has m+1 pointers
@@ -582,6 +676,272 @@ public class BTreeInternalPage extends BTreePage {
 		return cnt;
 	}
 
+	/**
+	 * @return true if this page is less than half full: fewer than half of its
+	 *         entries are used, or with the compact layout, fewer than half of its
+	 *         bytes
+	 */
+	public boolean isLessThanHalfFull() {
+		if (compact)
+			return usedBytes() < compactCapacity(header.length) / 2;
+		int maxEmptySlots = getMaxEntries() - getMaxEntries() / 2; // ceiling
+		return getNumEmptySlots() > maxEmptySlots;
+	}
+
+	/**
+	 * @return true if this page is below the minimum occupancy of a non-root
+	 *         page: fewer than half of its entries are used, or with the compact
+	 *         layout, fewer than half of its bytes less two largest entries. Since
+	 *         entries differ in size, a split or redistribution by bytes may leave
+	 *         a compact page up to that much short of half full.
+	 */
+	public boolean isUnderfull() {
+		if (compact)
+			return usedBytes() < compactCapacity(header.length) / 2 - 2 * MAX_COMPACT_ENTRY_SIZE;
+		return getNumEntries() < getMaxEntries() / 2;
+	}
+
+	/**
+	 * @param sibling - a sibling of this page with the same parent
+	 * @return true if this page and the sibling may be merged into one page,
+	 *         together with the parent key between them
+	 */
+	public boolean canMergeWith(BTreeInternalPage sibling) {
+		if (compact)
+			// the pulled down parent key adds at most one entry, and there must be
+			// room for a largest entry before each insert
+			return usedBytes() + sibling.usedBytes() + 2 * MAX_COMPACT_ENTRY_SIZE
+					<= compactCapacity(header.length);
+		// the sibling is at minimum occupancy
+		int maxEmptySlots = getMaxEntries() - getMaxEntries() / 2; // ceiling
+		return sibling.getNumEmptySlots() >= maxEmptySlots;
+	}
+
+	/**
+	 * @return true if any key on this page may be replaced by another one, as
+	 *         when redistributing between two of its children. Always true unless
+	 *         keys have variable length.
+	 */
+	public boolean canReplaceKey() {
+		// a longer key grows by at most STRING_LEN bytes, and the key after it
+		// may share less with it, growing by at most as much again
+		return !compact || compactCapacity(header.length) - usedBytes() >= 2 * Type.STRING_LEN;
+	}
+
+	/**
+	 * @param sibling       - a sibling of this page with more entries to spare
+	 * @param siblingOnLeft - whether the sibling is this page's left sibling
+	 * @return the number of entries to move from the sibling to this page so
+	 *         that the two are evenly full
+	 */
+	public int entriesToBalance(BTreeInternalPage sibling, boolean siblingOnLeft) {
+		if (!compact)
+			return (getNumEntries() + sibling.getNumEntries()) / 2 - getNumEntries();
+		int target = (usedBytes() + sibling.usedBytes()) / 2;
+		int[] size = sibling.entrySizes();
+		int moved = 0;
+		int bytes = usedBytes();
+		while (moved < size.length - 1) {
+			bytes += size[siblingOnLeft ? size.length - 1 - moved : moved];
+			if (bytes > target)
+				break;
+			moved++;
+		}
+		return moved;
+	}
+
+	/**
+	 * Choose the entry whose key is pushed up to the parent when this page is
+	 * split; the entries after it move to the new page. With the compact layout,
+	 * this is the shortest key that leaves each half at least half of the bytes
+	 * less one largest entry, so both halves are about evenly full and the
+	 * parent gets a short separator.
+	 * 
+	 * @return the index of that entry in iteration order
+	 */
+	public int splitPoint() {
+		int numEntries = getNumEntries();
+		if (!compact)
+			return numEntries / 2;
+
+		List<byte[]> pageKeys = new ArrayList<>(numEntries);
+		Iterator<BTreeEntry> it = iterator();
+		while (it.hasNext())
+			pageKeys.add(keyBytes(it.next().getKey()));
+		int[] size = entrySizes();
+
+		int total = usedBytes();
+		int min = total / 2 - MAX_COMPACT_ENTRY_SIZE;
+		int best = -1;
+		int balanced = -1;
+		int balancedGap = 0;
+		int left = INDEX_SIZE;
+		for (int i = 0; i < numEntries; left += size[i++]) {
+			if (i == 0 || i == numEntries - 1)
+				continue;
+			// the key after the pushed up one is no longer front-coded against it
+			int right = total - left - size[i] + INDEX_SIZE
+					+ sharedPrefix(pageKeys.get(i), pageKeys.get(i + 1));
+			if (balanced == -1 || Math.abs(left - right) < balancedGap) {
+				balanced = i;
+				balancedGap = Math.abs(left - right);
+			}
+			if (left < min || right < min)
+				continue;
+			if (best == -1 || pageKeys.get(i).length < pageKeys.get(best).length)
+				best = i;
+		}
+		if (best != -1)
+			return best;
+		return balanced == -1 ? numEntries / 2 : balanced;
+	}
+
+	/**
+	 * @return the number of bytes each entry on this page takes in the compact
+	 *         layout, in iteration order; the leftmost child pointer is not
+	 *         counted
+	 */
+	private int[] entrySizes() {
+		int[] size = new int[getNumEntries()];
+		byte[] prev = new byte[0];
+		int e = 0;
+		for (int i : slotDirectory()) {
+			if (i == 0)
+				continue;
+			byte[] k = keyBytes(keys[i]);
+			size[e++] = INDEX_SIZE + 2 + k.length - sharedPrefix(prev, k);
+			prev = k;
+		}
+		return size;
+	}
+
+	/**
+	 * @return the number of entries that always fit on an empty page keyed on
+	 *         the given type, however long their keys
+	 */
+	static int getMaxFullEntries(Type keyType) {
+		if (!hasCompactKeys(keyType))
+			return getMaxEntries(keyType);
+		int capacity = compactCapacity(getHeaderSize(getMaxEntries(keyType)));
+		return (capacity - INDEX_SIZE) / MAX_COMPACT_ENTRY_SIZE;
+	}
+
+	/**
+	 * Create the data of a page in the compact layout holding the given entries,
+	 * which must be sorted and fit on one page.
+	 * 
+	 * @see #getMaxFullEntries(Type)
+	 */
+	static byte[] createCompactPageData(List<BTreeEntry> entries, Type keyType, int childPageCategory)
+			throws IOException {
+		int n = entries.size() + 1;
+		byte[] header = new byte[getHeaderSize(getMaxEntries(keyType))];
+		Field[] keys = new Field[n];
+		int[] children = new int[n];
+		int[] dir = new int[n];
+		children[0] = entries.get(0).getLeftChild().getPageNumber();
+		for (int e = 0; e < entries.size(); e++) {
+			keys[e + 1] = entries.get(e).getKey();
+			children[e + 1] = entries.get(e).getRightChild().getPageNumber();
+		}
+		for (int i = 0; i < n; i++) {
+			dir[i] = i;
+			header[i / 8] |= 1 << (i % 8);
+		}
+
+		ByteArrayOutputStream baos = new ByteArrayOutputStream(BufferPool.getPageSize());
+		DataOutputStream dos = new DataOutputStream(baos);
+		dos.writeInt(0); // parent pointer
+		dos.writeByte((byte) childPageCategory);
+		dos.write(header);
+		writeCompactEntries(dos, dir, keys, children);
+		dos.write(new byte[BufferPool.getPageSize() - dos.size()]);
+		dos.flush();
+		return baos.toByteArray();
+	}
+
+	/**
+	 * @return the number of bytes available to entries in the compact layout
+	 */
+	private static int compactCapacity(int headerSize) {
+		// parent pointer and child page category come first
+		return BufferPool.getPageSize() - INDEX_SIZE - 1 - headerSize;
+	}
+
+	/**
+	 * @return the number of bytes the entries on this page take in the compact
+	 *         layout
+	 */
+	private int usedBytes() {
+		if (usedBytes < 0) {
+			int bytes = 0;
+			byte[] prev = new byte[0];
+			for (int i : slotDirectory()) {
+				bytes += INDEX_SIZE;
+				if (i == 0)
+					continue;
+				byte[] k = keyBytes(keys[i]);
+				bytes += 2 + k.length - sharedPrefix(prev, k);
+				prev = k;
+			}
+			usedBytes = bytes;
+		}
+		return usedBytes;
+	}
+
+	private void readCompactEntries(DataInputStream dis) throws IOException {
+		byte[] prev = new byte[0];
+		for (int i = 0; i < numSlots; i++) {
+			if (!isSlotUsed(i)) {
+				children[i] = -1;
+				continue;
+			}
+			children[i] = dis.readInt();
+			// slot 0 only holds a child
+			if (i == 0)
+				continue;
+			int shared = dis.readUnsignedByte();
+			int rest = dis.readUnsignedByte();
+			byte[] k = Arrays.copyOf(prev, shared + rest);
+			dis.readFully(k, shared, rest);
+			keys[i] = new StringField(new String(k), Type.STRING_LEN);
+			prev = k;
+		}
+	}
+
+	private static void writeCompactEntries(DataOutputStream dos, int[] slots, Field[] keys, int[] children)
+			throws IOException {
+		byte[] prev = new byte[0];
+		for (int i : slots) {
+			dos.writeInt(children[i]);
+			if (i == 0)
+				continue;
+			byte[] k = keyBytes(keys[i]);
+			int shared = sharedPrefix(prev, k);
+			dos.writeByte(shared);
+			dos.writeByte(k.length - shared);
+			dos.write(k, shared, k.length - shared);
+			prev = k;
+		}
+	}
+
+	/** The bytes of a string key, one per character as StringField.serialize writes them. */
+	private static byte[] keyBytes(Field key) {
+		String s = ((StringField) key).getValue();
+		byte[] b = new byte[s.length()];
+		for (int i = 0; i < b.length; i++)
+			b[i] = (byte) s.charAt(i);
+		return b;
+	}
+
+	private static int sharedPrefix(byte[] a, byte[] b) {
+		int n = Math.min(a.length, b.length);
+		int i = 0;
+		while (i < n && a[i] == b[i])
+			i++;
+		return i;
+	}
+
 	/**
 	 * Returns true if associated slot on this page is filled.
 	 */
@@ -599,6 +959,8 @@ public class BTreeInternalPage extends BTreePage {
 		int headerbyte = (i - headerbit) / 8;
 
 		Debug.log(1, "BTreeInternalPage.setSlot: setting slot %d to %b", i, value);
+		slotDir = null;
+		usedBytes = -1;
 		if(value)
 			header[headerbyte] |= 1 << headerbit;
 		else
@@ -613,6 +975,65 @@ public class BTreeInternalPage extends BTreePage {
 		return new BTreeInternalPageIterator(this);
 	}
 	
+	/**
+	 * Binary search for the child page that may contain key: the left child of
+	 * the first entry whose key is greater than or equal to key, or the right
+	 * child of the last entry if every key is smaller. A null key returns the
+	 * leftmost child.
+	 * @return the child page id, or null if the page has no entries
+	 */
+	public BTreePageId findChild(Field key) {
+		int[] dir = slotDirectory();
+		if (dir.length < 2)
+			return null;
+		int pos = dir.length - 1;
+		if (key == null) {
+			pos = 0;
+		} else {
+			// keys live in dir[1..]; find the first one >= key
+			int lo = 1, hi = dir.length;
+			while (lo < hi) {
+				int mid = (lo + hi) >>> 1;
+				if (keys[dir[mid]].compare(Op.LESS_THAN, key))
+					lo = mid + 1;
+				else
+					hi = mid;
+			}
+			if (lo < dir.length)
+				pos = lo - 1;
+		}
+		return new BTreePageId(pid.getTableId(), children[dir[pos]], childCategory);
+	}
+
+	/**
+	 * @return the id of the right-most child of this page, or null if the page
+	 *         has no entries
+	 */
+	public BTreePageId lastChild() {
+		int[] dir = slotDirectory();
+		if (dir.length < 2)
+			return null;
+		return new BTreePageId(pid.getTableId(), children[dir[dir.length - 1]], childCategory);
+	}
+
+	/**
+	 * @return the slots in use on this page, in key order
+	 */
+	private int[] slotDirectory() {
+		int[] dir = slotDir;
+		if (dir == null) {
+			int n = 0;
+			int[] slots = new int[numSlots];
+			for (int i = 0; i < numSlots; i++) {
+				if (isSlotUsed(i))
+					slots[n++] = i;
+			}
+			dir = Arrays.copyOf(slots, n);
+			slotDir = dir;
+		}
+		return dir;
+	}
+
 	/**
 	 * @return a reverse iterator over all entries on this page (calling remove on this iterator throws an UnsupportedOperationException)
 	 * (note that this iterator shouldn't return entries in empty slots!)
@@ -765,8 +1186,14 @@ class BTreeInternalPageReverseIterator implements Iterator<BTreeEntry> {
 			while (true) {
 				int entry = curEntry--;
 				Field key = p.getKey(entry);
-				BTreePageId childId = p.getChildId(entry - 1);
-				if(key != null && childId != null) {
+				if(key == null)
+					continue;
+				// the left child is in the closest used slot before this one
+				int prev = entry - 1;
+				while(prev > 0 && !p.isSlotUsed(prev))
+					prev--;
+				BTreePageId childId = p.getChildId(prev);
+				if(childId != null) {
 					nextToReturn = new BTreeEntry(key, childId, nextChildId);
 					nextToReturn.setRecordId(new RecordId(p.pid, entry));
 					nextChildId = childId;
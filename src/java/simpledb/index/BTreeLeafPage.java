@@ -27,6 +27,9 @@ public class BTreeLeafPage extends BTreePage {
 	private int leftSibling; // leaf node or 0
 	private int rightSibling; // leaf node or 0
 
+	// used slots in key order; rebuilt lazily after the header changes
+	private int[] slotDir;
+
 	public void checkRep(int fieldid, Field lowerBound, Field upperBound, boolean checkoccupancy, int depth) {
 		Field prev = lowerBound;
 		assert(this.getId().pgcateg() == BTreePageId.LEAF);
@@ -34,8 +37,9 @@ public class BTreeLeafPage extends BTreePage {
 		Iterator<Tuple> it = this.iterator();
 		while (it.hasNext()) {
 			Tuple t = it.next();
-			assert(null == prev || prev.compare(Predicate.Op.LESS_THAN_OR_EQ, t.getField(fieldid)));
-			prev = t.getField(fieldid);
+			Field key = compositeKey == null ? t.getField(fieldid) : key(t);
+			assert(null == prev || prev.compare(Predicate.Op.LESS_THAN_OR_EQ, key));
+			prev = key;
 			assert(t.getRecordId().getPageId().equals(this.getId()));
 		}
 
@@ -66,7 +70,18 @@ public class BTreeLeafPage extends BTreePage {
 	 * @param key - the field which the index is keyed on
 	 */
 	public BTreeLeafPage(BTreePageId id, byte[] data, int key) throws IOException {
-		super(id, key);
+		this(id, data, key, null);
+	}
+
+	/**
+	 * Create a BTreeLeafPage of a tree that may be keyed on several fields.
+	 *
+	 * @param compositeKey - the fields the index is keyed on, or null if it is
+	 *            keyed on key alone
+	 * @see #BTreeLeafPage(BTreePageId, byte[], int)
+	 */
+	BTreeLeafPage(BTreePageId id, byte[] data, int key, CompositeKey compositeKey) throws IOException {
+		super(id, key, compositeKey);
 		this.numSlots = getMaxTuples();
 		DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
 
@@ -140,7 +155,7 @@ public class BTreeLeafPage extends BTreePage {
 			{
 				oldDataRef = oldData;
 			}
-			return new BTreeLeafPage(pid,oldDataRef,keyField);
+			return new BTreeLeafPage(pid,oldDataRef,keyField,compositeKey);
 		} catch (IOException e) {
 			e.printStackTrace();
 			//should never happen -- we parsed it OK before!
@@ -326,16 +341,9 @@ public class BTreeLeafPage extends BTreePage {
 			throw new DbException("called addTuple on page with no empty slots.");
 
 		// find the last key less than or equal to the key being inserted
-		int lessOrEqKey = -1;
-		Field key = t.getField(keyField);
-		for (int i=0; i<numSlots; i++) {
-			if(isSlotUsed(i)) {
-				if(tuples[i].getField(keyField).compare(Predicate.Op.LESS_THAN_OR_EQ, key))
-					lessOrEqKey = i;
-				else
-					break;	
-			}
-		}
+		int[] dir = slotDirectory();
+		int pos = upperBound(key(t));
+		int lessOrEqKey = pos == 0 ? -1 : dir[pos - 1];
 
 		// shift records back or forward to fill empty slot and make room for new record
 		// while keeping records in sorted order
@@ -472,6 +480,7 @@ public class BTreeLeafPage extends BTreePage {
 		int headerbyte = (i - headerbit) / 8;
 
 		Debug.log(1, "BTreeLeafPage.setSlot: setting slot %d to %b", i, value);
+		slotDir = null;
 		if(value)
 			header[headerbyte] |= 1 << headerbit;
 		else
@@ -486,6 +495,103 @@ public class BTreeLeafPage extends BTreePage {
 		return new BTreeLeafPageIterator(this);
 	}
 
+	/**
+	 * @return an iterator over the tuples on this page whose key is greater than
+	 * or equal to key (if inclusive) or strictly greater than key (otherwise), in
+	 * key order. The starting point is found by binary search.
+	 */
+	public Iterator<Tuple> iterator(Field key, boolean inclusive) {
+		int[] dir = slotDirectory();
+		int pos = inclusive ? lowerBound(key) : upperBound(key);
+		return new BTreeLeafPageIterator(this, pos < dir.length ? dir[pos] : numSlots);
+	}
+
+	/**
+	 * Binary search for the first tuple whose key is greater than or equal to key.
+	 * @return the position of that tuple in key order (0 for the first tuple on
+	 * the page), or getNumTuples() if every key is smaller
+	 */
+	public int lowerBound(Field key) {
+		int[] dir = slotDirectory();
+		int lo = 0, hi = dir.length;
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if (key(tuples[dir[mid]]).compare(Predicate.Op.LESS_THAN, key))
+				lo = mid + 1;
+			else
+				hi = mid;
+		}
+		return lo;
+	}
+
+	/**
+	 * Binary search for the first tuple whose key is strictly greater than key.
+	 * @return the position of that tuple in key order (0 for the first tuple on
+	 * the page), or getNumTuples() if no key is greater
+	 */
+	public int upperBound(Field key) {
+		int[] dir = slotDirectory();
+		int lo = 0, hi = dir.length;
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if (key(tuples[dir[mid]]).compare(Predicate.Op.LESS_THAN_OR_EQ, key))
+				lo = mid + 1;
+			else
+				hi = mid;
+		}
+		return lo;
+	}
+
+	/**
+	 * Check whether a slot holds the first tuple with a key, on the left-most
+	 * leaf that can hold it: the slot is in use, its key is key, and the
+	 * nearest used slot before it has a smaller key (or there is none, and
+	 * this is the left-most leaf). Used to validate adaptive hash index hints.
+	 * @return true if a search for key should start at slot
+	 */
+	public boolean startsKey(int slot, Field key) {
+		if (slot < 0 || slot >= numSlots || !isSlotUsed(slot)
+				|| !key(tuples[slot]).equals(key))
+			return false;
+		for (int i = slot - 1; i >= 0; i--) {
+			if (isSlotUsed(i))
+				return key(tuples[i]).compare(Predicate.Op.LESS_THAN, key);
+		}
+		return leftSibling == 0;
+	}
+
+	/**
+	 * @return the slot of the first tuple with a key, if this page holds key
+	 * and is the left-most leaf that can hold it (see
+	 * {@link #startsKey(int, Field)}), and -1 otherwise
+	 */
+	public int firstSlot(Field key) {
+		int[] dir = slotDirectory();
+		int pos = lowerBound(key);
+		if (pos == dir.length || !key(tuples[dir[pos]]).equals(key)
+				|| pos == 0 && leftSibling != 0)
+			return -1;
+		return dir[pos];
+	}
+
+	/**
+	 * @return the slots in use on this page, in key order
+	 */
+	private int[] slotDirectory() {
+		int[] dir = slotDir;
+		if (dir == null) {
+			int n = 0;
+			int[] slots = new int[numSlots];
+			for (int i = 0; i < numSlots; i++) {
+				if (isSlotUsed(i))
+					slots[n++] = i;
+			}
+			dir = Arrays.copyOf(slots, n);
+			slotDir = dir;
+		}
+		return dir;
+	}
+
 	/**
 	 * @return a reverse iterator over all tuples on this page (calling remove on this iterator throws an UnsupportedOperationException)
 	 * (note that this iterator shouldn't return tuples in empty slots!)
@@ -494,6 +600,17 @@ public class BTreeLeafPage extends BTreePage {
 		return new BTreeLeafPageReverseIterator(this);
 	}
 
+	/**
+	 * @return an iterator over the tuples on this page whose key is less than or
+	 * equal to key (if inclusive) or strictly less than key (otherwise), in
+	 * descending key order. The starting point is found by binary search.
+	 */
+	public Iterator<Tuple> reverseIterator(Field key, boolean inclusive) {
+		int[] dir = slotDirectory();
+		int pos = inclusive ? upperBound(key) : lowerBound(key);
+		return new BTreeLeafPageReverseIterator(this, pos > 0 ? dir[pos - 1] : -1);
+	}
+
 	/**
 	 * protected method used by the iterator to get the ith tuple out of this page
 	 * @param i - the index of the tuple
@@ -520,54 +637,6 @@ public class BTreeLeafPage extends BTreePage {
 	}
 }
 
-/**
- * Helper class that implements the Java Iterator for tuples on a BTreeLeafPage.
- */
-class BTreeLeafPageIterator implements Iterator<Tuple> {
-	int curTuple = 0;
-	Tuple nextToReturn = null;
-	final BTreeLeafPage p;
-
-	public BTreeLeafPageIterator(BTreeLeafPage p) {
-		this.p = p;
-	}
-
-	public boolean hasNext() {
-		if (nextToReturn != null)
-			return true;
-
-		try {
-			while (true) {
-				nextToReturn = p.getTuple(curTuple++);
-				if(nextToReturn != null)
-					return true;
-			}
-		} catch(NoSuchElementException e) {
-			return false;
-		}
-	}
-
-	public Tuple next() {
-		Tuple next = nextToReturn;
-
-		if (next == null) {
-			if (hasNext()) {
-				next = nextToReturn;
-				nextToReturn = null;
-				return next;
-			} else
-				throw new NoSuchElementException();
-		} else {
-			nextToReturn = null;
-			return next;
-		}
-	}
-
-	public void remove() {
-		throw new UnsupportedOperationException();
-	}
-}
-
 /**
  * Helper class that implements the Java Iterator for tuples on a BTreeLeafPage in reverse.
  */
@@ -581,6 +650,11 @@ class BTreeLeafPageReverseIterator implements Iterator<Tuple> {
 		this.curTuple = p.getMaxTuples() - 1;
 	}
 
+	public BTreeLeafPageReverseIterator(BTreeLeafPage p, int startSlot) {
+		this.p = p;
+		this.curTuple = startSlot;
+	}
+
 	public boolean hasNext() {
 		if (nextToReturn != null)
 			return true;
@@ -0,0 +1,59 @@
+package simpledb.index;
+
+import simpledb.storage.Tuple;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Helper class that implements the Java Iterator for tuples on a BTreeLeafPage.
+ */
+class BTreeLeafPageIterator implements Iterator<Tuple> {
+	int curTuple = 0;
+	Tuple nextToReturn = null;
+	final BTreeLeafPage p;
+
+	public BTreeLeafPageIterator(BTreeLeafPage p) {
+		this.p = p;
+	}
+
+	public BTreeLeafPageIterator(BTreeLeafPage p, int startSlot) {
+		this.p = p;
+		this.curTuple = startSlot;
+	}
+
+	public boolean hasNext() {
+		if (nextToReturn != null)
+			return true;
+
+		try {
+			while (true) {
+				nextToReturn = p.getTuple(curTuple++);
+				if(nextToReturn != null)
+					return true;
+			}
+		} catch(NoSuchElementException e) {
+			return false;
+		}
+	}
+
+	public Tuple next() {
+		Tuple next = nextToReturn;
+
+		if (next == null) {
+			if (hasNext()) {
+				next = nextToReturn;
+				nextToReturn = null;
+				return next;
+			} else
+				throw new NoSuchElementException();
+		} else {
+			nextToReturn = null;
+			return next;
+		}
+	}
+
+	public void remove() {
+		throw new UnsupportedOperationException();
+	}
+}
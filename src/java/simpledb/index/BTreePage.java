@@ -5,7 +5,9 @@ import simpledb.common.Database;
 import simpledb.common.DbException;
 import simpledb.common.Type;
 import simpledb.storage.BufferPool;
+import simpledb.storage.Field;
 import simpledb.storage.Page;
+import simpledb.storage.Tuple;
 import simpledb.storage.TupleDesc;
 import simpledb.transaction.TransactionId;
 
@@ -26,6 +28,7 @@ public abstract class BTreePage implements Page {
 	protected final BTreePageId pid;
 	protected final TupleDesc td;
 	protected final int keyField;
+	protected final CompositeKey compositeKey;
 
 	protected int parent; // parent is always internal node or 0 for root node
 	protected byte[] oldData;
@@ -55,11 +58,39 @@ public abstract class BTreePage implements Page {
 	 * @param key - the field which the index is keyed on
 	 */
 	public BTreePage(BTreePageId id, int key) {
+		this(id, key, null);
+	}
+
+	/**
+	 * Create a page of a B+ tree that may be keyed on several fields.
+	 *
+	 * @param id - the id of this page
+	 * @param key - the field which the index is keyed on, or the first of
+	 *            compositeKey's fields
+	 * @param compositeKey - the fields the index is keyed on, or null if it is
+	 *            keyed on key alone
+	 */
+	protected BTreePage(BTreePageId id, int key, CompositeKey compositeKey) {
 		this.pid = id;
 		this.keyField = key;
+		this.compositeKey = compositeKey;
 		this.td = Database.getCatalog().getTupleDesc(id.getTableId());
 	}
 
+	/**
+	 * @return the key of a tuple in this tree
+	 */
+	Field key(Tuple t) {
+		return compositeKey == null ? t.getField(keyField) : compositeKey.key(t);
+	}
+
+	/**
+	 * @return the type of the keys of this tree
+	 */
+	Type keyType() {
+		return compositeKey == null ? td.getFieldType(keyField) : Type.STRING_TYPE;
+	}
+
 	/**
 	 * @return the PageId associated with this page.
 	 */
@@ -5,6 +5,7 @@ import simpledb.common.DbException;
 import simpledb.common.Type;
 import simpledb.execution.IndexPredicate;
 import simpledb.execution.OpIterator;
+import simpledb.storage.DbFile;
 import simpledb.storage.DbFileIterator;
 import simpledb.storage.Tuple;
 import simpledb.storage.TupleDesc;
@@ -15,7 +16,9 @@ import java.util.*;
 
 /**
  * BTreeScan is an operator which reads tuples in sorted order 
- * according to a predicate
+ * according to a predicate, in ascending or (for a BTreeFile) descending
+ * key order. It can also scan a HashFile, whose tuples come back in no
+ * particular order.
  */
 public class BTreeScan implements OpIterator {
 
@@ -24,7 +27,9 @@ public class BTreeScan implements OpIterator {
 	private boolean isOpen = false;
 	private final TransactionId tid;
 	private TupleDesc myTd;
+	private int[] outFields;
 	private IndexPredicate ipred = null;
+	private final boolean reverse;
 	private transient DbFileIterator it;
 	private String tablename;
 	private String alias;
@@ -49,9 +54,41 @@ public class BTreeScan implements OpIterator {
 	 *            in sorted order
 	 */
 	public BTreeScan(TransactionId tid, int tableid, String tableAlias, IndexPredicate ipred) {
+		this(tid, tableid, tableAlias, ipred, false);
+	}
+
+	/**
+	 * Creates a B+ tree scan that returns its tuples in ascending or
+	 * descending key order.
+	 * 
+	 * @param reverse
+	 *            if true, return the largest key first; the table must then
+	 *            be a BTreeFile
+	 * @see #BTreeScan(TransactionId, int, String, IndexPredicate)
+	 */
+	public BTreeScan(TransactionId tid, int tableid, String tableAlias, IndexPredicate ipred, boolean reverse) {
+		this(tid, tableid, tableAlias, null, ipred, reverse);
+	}
+
+	/**
+	 * Creates a B+ tree scan that only returns a subset of the columns of the
+	 * table, like {@link simpledb.execution.SeqScan#SeqScan(TransactionId, int, String, int[])}.
+	 * 
+	 * @param outFields
+	 *            the indices (in the table's TupleDesc) of the fields to
+	 *            return, in output order; null returns every field.
+	 * @see #BTreeScan(TransactionId, int, String, IndexPredicate, boolean)
+	 */
+	public BTreeScan(TransactionId tid, int tableid, String tableAlias, int[] outFields, IndexPredicate ipred,
+			boolean reverse) {
 		this.tid = tid;
 		this.ipred = ipred;
+		this.reverse = reverse;
 		reset(tableid,tableAlias);
+		if (outFields != null) {
+			this.outFields = outFields.clone();
+			myTd = buildTupleDesc(tableid, tableAlias);
+		}
 	}
 
 	/**
@@ -63,6 +100,13 @@ public class BTreeScan implements OpIterator {
 		return this.tablename;
 	}
 
+	/**
+	 * @return true if this scan returns the largest key first
+	 */
+	public boolean isReverse() {
+		return reverse;
+	}
+
 	/**
 	 * @return Return the alias of the table this operator scans. 
 	 * */
@@ -72,7 +116,16 @@ public class BTreeScan implements OpIterator {
 	}
 
 	/**
-	 * Reset the tableid, and tableAlias of this operator.
+	 * @return the indices (in the table's TupleDesc) of the fields returned
+	 *         by this scan, or null if every field is returned.
+	 */
+	public int[] getOutFields() {
+		return outFields == null ? null : outFields.clone();
+	}
+
+	/**
+	 * Reset the tableid, and tableAlias of this operator. The scan returns
+	 * every field of the new table.
 	 * @param tableid
 	 *            the table to scan.
 	 * @param tableAlias
@@ -87,23 +140,33 @@ public class BTreeScan implements OpIterator {
 		this.isOpen=false;
 		this.alias = tableAlias;
 		this.tablename = Database.getCatalog().getTableName(tableid);
-		if(ipred == null) {
+		if (reverse) {
+			DbFile f = Database.getCatalog().getDatabaseFile(tableid);
+			if (!(f instanceof BTreeFile))
+				throw new IllegalArgumentException("only a BTreeFile can be scanned in reverse");
+			this.it = ((BTreeFile) f).reverseIndexIterator(tid, ipred);
+		}
+		else if(ipred == null) {
 			this.it = Database.getCatalog().getDatabaseFile(tableid).iterator(tid);
 		}
 		else {
-			this.it = ((BTreeFile) Database.getCatalog().getDatabaseFile(tableid)).indexIterator(tid, ipred);
+			this.it = ((IndexFile) Database.getCatalog().getDatabaseFile(tableid)).indexIterator(tid, ipred);
 		}
-		myTd = Database.getCatalog().getTupleDesc(tableid);
-		String[] newNames = new String[myTd.numFields()];
-		Type[] newTypes = new Type[myTd.numFields()];
-		for (int i = 0; i < myTd.numFields(); i++) {
-			String name = myTd.getFieldName(i);
-			Type t = myTd.getFieldType(i);
-
-			newNames[i] = tableAlias + "." + name;
-			newTypes[i] = t;
+		this.outFields = null;
+		myTd = buildTupleDesc(tableid, tableAlias);
+	}
+
+	private TupleDesc buildTupleDesc(int tableid, String tableAlias) {
+		TupleDesc td = Database.getCatalog().getTupleDesc(tableid);
+		int numFields = outFields == null ? td.numFields() : outFields.length;
+		String[] newNames = new String[numFields];
+		Type[] newTypes = new Type[numFields];
+		for (int i = 0; i < numFields; i++) {
+			int field = outFields == null ? i : outFields[i];
+			newNames[i] = tableAlias + "." + td.getFieldName(field);
+			newTypes[i] = td.getFieldType(field);
 		}
-		myTd = new TupleDesc(newTypes, newNames);
+		return new TupleDesc(newTypes, newNames);
 	}
 
 	public BTreeScan(TransactionId tid, int tableid, IndexPredicate ipred) {
@@ -142,7 +205,14 @@ public class BTreeScan implements OpIterator {
 		if (!isOpen)
 			throw new IllegalStateException("iterator is closed");
 
-		return it.next();
+		Tuple t = it.next();
+		if (outFields == null)
+			return t;
+		Tuple projected = new Tuple(myTd);
+		projected.setRecordId(t.getRecordId());
+		for (int i = 0; i < outFields.length; i++)
+			projected.setField(i, t.getField(outFields[i]));
+		return projected;
 	}
 
 	public void close() {
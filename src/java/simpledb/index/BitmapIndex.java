@@ -0,0 +1,423 @@
+package simpledb.index;
+
+import java.io.*;
+import java.text.ParseException;
+import java.util.*;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Permissions;
+import simpledb.common.Type;
+import simpledb.execution.IndexPredicate;
+import simpledb.execution.Predicate.Op;
+import simpledb.execution.SeqScan;
+import simpledb.storage.*;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+/**
+ * BitmapIndex maps each distinct value of one field of a HeapFile table to
+ * the set of tuples holding it, as a {@link RoaringBitmap} of their
+ * positions in the table (page number times slots per page, plus slot). It is
+ * meant for fields with few distinct values, which no B+ tree makes selective
+ * on its own: predicates on several such fields are combined by ANDing and
+ * ORing bitmaps, and only the heap pages of the tuples left are read.
+ * <p>
+ * Indexes are registered with {@link simpledb.common.Catalog#addBitmapIndex}
+ * and kept up to date by BufferPool.insertTuple and BufferPool.deleteTuple.
+ * An insert sets its bit straight away, so the inserting transaction finds
+ * the tuple, and other transactions wait for its page lock when they fetch
+ * it. A delete only clears its bit when the transaction commits, and an
+ * abort clears the bits of its inserts, so the bitmaps always cover every
+ * committed tuple; since a bit may also name a slot that is empty or holds
+ * another value, fetched tuples are checked against the predicates.
+ * <p>
+ * The bitmaps are held in memory. The changes of committed transactions are
+ * appended to a log next to the index file and forced before the commit
+ * completes, and folded into the file by {@link #checkpoint}, which runs at
+ * the first commit after the log reaches CHECKPOINT_RECORDS records. Opening
+ * the index reads the file and replays the log.
+ *
+ * @see SecondaryIndex
+ */
+public class BitmapIndex {
+
+	/** The suffix of the log file, appended to the name of the index file. */
+	static final String LOG_SUFFIX = ".log";
+
+	/** The number of logged changes after which the log is checkpointed. */
+	static final int CHECKPOINT_RECORDS = 100000;
+
+	private static final int INSERT_RECORD = 1;
+	private static final int DELETE_RECORD = 2;
+
+	/** An insert or delete of a transaction, not yet committed */
+	private static final class Change {
+		final boolean insert;
+		final Field value;
+		final int position;
+
+		Change(boolean insert, Field value, int position) {
+			this.insert = insert;
+			this.value = value;
+			this.position = position;
+		}
+	}
+
+	private final int tableid;
+	private final int field;
+	private final File f;
+	private final File log;
+	private final Type type;
+	private final int slotsPerPage;
+	private final TreeMap<Field, RoaringBitmap> bitmaps = new TreeMap<>(IndexPredicate.KEY_ORDER);
+	private final Map<TransactionId, List<Change>> changes = new HashMap<>();
+	private int logRecords = 0;
+
+	/**
+	 * Opens the bitmap index on a field of a heap table stored in f, replaying
+	 * its log if there is one.
+	 *
+	 * @param tableid - the id of the indexed table
+	 * @param field   - the index of the indexed field in the table
+	 * @param f       - the file storing the bitmaps; empty or missing for an
+	 *                empty index
+	 */
+	public BitmapIndex(int tableid, int field, File f) throws IOException {
+		TupleDesc td = Database.getCatalog().getTupleDesc(tableid);
+		this.tableid = tableid;
+		this.field = field;
+		this.f = f;
+		this.log = new File(f.getPath() + LOG_SUFFIX);
+		this.type = td.getFieldType(field);
+		this.slotsPerPage = HeapPage.getNumTuples(td);
+		load();
+	}
+
+	/**
+	 * Create a bitmap index on a field of a heap table, build it from the
+	 * current contents of the table, and register it with the Catalog.
+	 *
+	 * @param tid     - the transaction id
+	 * @param tableid - the id of the table to index, which must be a HeapFile
+	 * @param field   - the index of the field to index
+	 * @param f       - an empty or missing file to store the index in
+	 * @return the new index
+	 * @throws DbException if the table is not a HeapFile
+	 */
+	public static BitmapIndex create(TransactionId tid, int tableid, int field, File f)
+			throws DbException, IOException, TransactionAbortedException {
+		if (!(Database.getCatalog().getDatabaseFile(tableid) instanceof HeapFile))
+			throw new DbException("bitmap indexes are only supported on heap files");
+		f.delete();
+		new File(f.getPath() + LOG_SUFFIX).delete();
+		BitmapIndex index = new BitmapIndex(tableid, field, f);
+		SeqScan scan = new SeqScan(tid, tableid);
+		scan.open();
+		while (scan.hasNext()) {
+			Tuple t = scan.next();
+			index.bitmap(t.getField(field)).add(index.position(t.getRecordId()));
+		}
+		scan.close();
+		index.checkpoint();
+		Database.getCatalog().addBitmapIndex(index);
+		return index;
+	}
+
+	/**
+	 * @return the id of the indexed table
+	 */
+	public int getTableId() {
+		return tableid;
+	}
+
+	/**
+	 * @return the index of the indexed field in the table
+	 */
+	public int getField() {
+		return field;
+	}
+
+	/**
+	 * @return the file storing the bitmaps
+	 */
+	public File getFile() {
+		return f;
+	}
+
+	/**
+	 * @return the number of distinct values with a bitmap
+	 */
+	public synchronized int numValues() {
+		return bitmaps.size();
+	}
+
+	private int position(RecordId rid) {
+		return rid.getPageId().getPageNumber() * slotsPerPage + rid.getTupleNumber();
+	}
+
+	private RoaringBitmap bitmap(Field value) {
+		return bitmaps.computeIfAbsent(value, k -> new RoaringBitmap());
+	}
+
+	/**
+	 * Set the bit of a tuple that has just been inserted into the table.
+	 *
+	 * @param tid - the transaction id
+	 * @param t   - the inserted tuple, with its RecordId set
+	 */
+	public synchronized void insertTuple(TransactionId tid, Tuple t) {
+		Change c = new Change(true, t.getField(field), position(t.getRecordId()));
+		bitmap(c.value).add(c.position);
+		changes.computeIfAbsent(tid, k -> new ArrayList<>()).add(c);
+	}
+
+	/**
+	 * Note the delete of a tuple, whose bit is cleared when the transaction
+	 * commits.
+	 *
+	 * @param tid - the transaction id
+	 * @param t   - the tuple, with its RecordId still set
+	 */
+	public synchronized void deleteTuple(TransactionId tid, Tuple t) {
+		Change c = new Change(false, t.getField(field), position(t.getRecordId()));
+		changes.computeIfAbsent(tid, k -> new ArrayList<>()).add(c);
+	}
+
+	/**
+	 * Commit or abort the changes of a transaction. Committed changes are
+	 * logged and the log is forced before this returns. Called by the
+	 * BufferPool when the transaction completes, before its locks are
+	 * released and, on commit, before any of its pages are flushed.
+	 *
+	 * @param tid    - the transaction id
+	 * @param commit - whether the transaction committed
+	 * @throws IOException if the log could not be forced, in which case the
+	 *         changes are left uncommitted, for the transaction to abort
+	 */
+	public synchronized void transactionComplete(TransactionId tid, boolean commit) throws IOException {
+		List<Change> mine = changes.get(tid);
+		if (mine == null)
+			return;
+		if (!commit) {
+			changes.remove(tid);
+			// undo in reverse, so a slot deleted and reused by the transaction
+			// ends up with the bit it had before
+			for (int i = mine.size() - 1; i >= 0; i--) {
+				Change c = mine.get(i);
+				if (c.insert)
+					remove(c.value, c.position);
+				else
+					bitmap(c.value).add(c.position);
+			}
+			return;
+		}
+
+		// checkpoint before logging, so that a failure still lets the
+		// transaction abort
+		if (logRecords >= CHECKPOINT_RECORDS)
+			checkpoint();
+		long length = log.length();
+		try (FileOutputStream fos = new FileOutputStream(log, true)) {
+			DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(fos));
+			for (Change c : mine) {
+				dos.writeByte(c.insert ? INSERT_RECORD : DELETE_RECORD);
+				c.value.serialize(dos);
+				dos.writeInt(c.position);
+			}
+			dos.flush();
+			fos.getFD().sync();
+		} catch (IOException e) {
+			// cut off any records that made it, so that replay does not commit them
+			try (RandomAccessFile raf = new RandomAccessFile(log, "rw")) {
+				raf.setLength(length);
+			} catch (IOException suppressed) {
+				e.addSuppressed(suppressed);
+			}
+			throw e;
+		}
+		changes.remove(tid);
+		for (Change c : mine)
+			apply(c);
+		logRecords += mine.size();
+	}
+
+	private void apply(Change c) {
+		if (c.insert)
+			bitmap(c.value).add(c.position);
+		else
+			remove(c.value, c.position);
+	}
+
+	private void remove(Field value, int position) {
+		RoaringBitmap b = bitmaps.get(value);
+		if (b != null) {
+			b.remove(position);
+			if (b.isEmpty())
+				bitmaps.remove(value);
+		}
+	}
+
+	/**
+	 * @param ipred - a predicate on the indexed field
+	 * @return the positions of the tuples whose indexed field matches ipred,
+	 *         as a new bitmap
+	 */
+	public synchronized RoaringBitmap matching(IndexPredicate ipred) {
+		Collection<RoaringBitmap> matches = new ArrayList<>();
+		if (ipred.getOp() == Op.EQUALS || ipred.getValues() != null) {
+			List<Field> values = ipred.getValues() != null ? ipred.getValues()
+					: Collections.singletonList(ipred.getField());
+			for (Field v : values) {
+				RoaringBitmap b = bitmaps.get(v);
+				if (b != null)
+					matches.add(b);
+			}
+		} else {
+			for (Map.Entry<Field, RoaringBitmap> e : bitmaps.entrySet()) {
+				if (ipred.matches(e.getKey()))
+					matches.add(e.getValue());
+			}
+		}
+		RoaringBitmap result = new RoaringBitmap();
+		for (RoaringBitmap b : matches)
+			result = result.or(b);
+		return result;
+	}
+
+	/**
+	 * Write the bitmaps to the index file, replacing it, and empty the log.
+	 */
+	public synchronized void checkpoint() throws IOException {
+		File tmp = new File(f.getPath() + ".tmp");
+		try (FileOutputStream fos = new FileOutputStream(tmp)) {
+			DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(fos));
+			dos.writeInt(bitmaps.size());
+			for (Map.Entry<Field, RoaringBitmap> e : bitmaps.entrySet()) {
+				e.getKey().serialize(dos);
+				e.getValue().write(dos);
+			}
+			dos.flush();
+			fos.getFD().sync();
+		}
+		if (!tmp.renameTo(f)) {
+			f.delete();
+			if (!tmp.renameTo(f))
+				throw new IOException("cannot replace " + f);
+		}
+		new FileOutputStream(log).close();
+		logRecords = 0;
+	}
+
+	/**
+	 * Read the index file and replay the log
+	 */
+	private void load() throws IOException {
+		try {
+			if (f.exists() && f.length() > 0) {
+				try (DataInputStream dis = new DataInputStream(new BufferedInputStream(new FileInputStream(f)))) {
+					int n = dis.readInt();
+					for (int i = 0; i < n; i++) {
+						Field value = type.parse(dis);
+						bitmaps.put(value, RoaringBitmap.read(dis));
+					}
+				}
+			}
+			if (!log.exists())
+				return;
+			try (DataInputStream dis = new DataInputStream(new BufferedInputStream(new FileInputStream(log)))) {
+				while (dis.available() > 0) {
+					int record = dis.readByte();
+					Field value = type.parse(dis);
+					apply(new Change(record == INSERT_RECORD, value, dis.readInt()));
+					logRecords++;
+				}
+			} catch (EOFException e) {
+				// a record cut short by a crash was never part of a commit
+			}
+		} catch (ParseException e) {
+			throw new IOException("corrupt bitmap index " + f + ": " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Get the tuples of a table that match a predicate on each of the given
+	 * bitmap indexes of the table. The bitmaps are ANDed when the iterator is
+	 * opened, and the matching tuples are then fetched in table order, so
+	 * each heap page is read at most once.
+	 *
+	 * @param tid     - the transaction id
+	 * @param indexes - bitmap indexes on fields of one table
+	 * @param preds   - the predicate on the field of each index
+	 * @return an iterator over the matching heap tuples
+	 */
+	public static DbFileIterator iterator(TransactionId tid, List<BitmapIndex> indexes, List<IndexPredicate> preds) {
+		return new BitmapIterator(tid, indexes, preds);
+	}
+
+	/**
+	 * Fetches the heap tuple at each position of the ANDed bitmaps
+	 */
+	private static class BitmapIterator extends AbstractDbFileIterator {
+		private final TransactionId tid;
+		private final List<BitmapIndex> indexes;
+		private final List<IndexPredicate> preds;
+		private PrimitiveIterator.OfInt positions = null;
+		private HeapPage page = null;
+
+		BitmapIterator(TransactionId tid, List<BitmapIndex> indexes, List<IndexPredicate> preds) {
+			this.tid = tid;
+			this.indexes = indexes;
+			this.preds = preds;
+		}
+
+		public void open() throws DbException, TransactionAbortedException {
+			RoaringBitmap result = null;
+			for (int i = 0; i < indexes.size(); i++) {
+				RoaringBitmap b = indexes.get(i).matching(preds.get(i));
+				result = result == null ? b : result.and(b);
+			}
+			positions = result == null ? new RoaringBitmap().iterator() : result.iterator();
+			page = null;
+		}
+
+		@Override
+		protected Tuple readNext() throws DbException, TransactionAbortedException {
+			if (positions == null)
+				return null;
+			int slotsPerPage = indexes.get(0).slotsPerPage;
+			int tableid = indexes.get(0).tableid;
+			while (positions.hasNext()) {
+				int pos = positions.nextInt();
+				int pgNo = pos / slotsPerPage;
+				if (page == null || page.getId().getPageNumber() != pgNo) {
+					HeapPageId pid = new HeapPageId(tableid, pgNo);
+					page = (HeapPage) Database.getBufferPool().getPage(tid, pid, Permissions.READ_ONLY);
+				}
+				Tuple t = page.getTuple(pos % slotsPerPage);
+				if (t != null && matches(t))
+					return t;
+			}
+			return null;
+		}
+
+		private boolean matches(Tuple t) {
+			for (int i = 0; i < indexes.size(); i++) {
+				if (!preds.get(i).matches(t.getField(indexes.get(i).field)))
+					return false;
+			}
+			return true;
+		}
+
+		public void rewind() throws DbException, TransactionAbortedException {
+			close();
+			open();
+		}
+
+		public void close() {
+			super.close();
+			positions = null;
+			page = null;
+		}
+	}
+}
@@ -0,0 +1,293 @@
+package simpledb.index;
+
+import java.io.*;
+import java.text.ParseException;
+import java.util.*;
+
+import simpledb.common.DbException;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionId;
+
+/**
+ * Buffers inserts into the leaf pages of a BTreeFile that are not in the
+ * BufferPool, so that an insert does not have to read a random leaf from
+ * disk. The buffered entries of a leaf are merged into it the next time the
+ * leaf is read, by {@link BTreeFile#readPage}, which is also how the
+ * background merger drains the buffer.
+ * <p>
+ * An entry is only buffered for a leaf whose free slots are known (from the
+ * last time the leaf was read or written) and not already taken by other
+ * buffered entries, so merging never has to split a page. The inserting
+ * transaction holds a write lock on the leaf without reading it, so a leaf
+ * with buffered entries is never in the BufferPool: anyone who reads it, and
+ * triggers the merge, holds a lock on it, and uncommitted entries can only
+ * be seen by the transaction that buffered them.
+ * <p>
+ * Entries of committed transactions are appended to a log next to the index
+ * file and forced before the commit completes; a merge that writes a leaf
+ * back appends a record saying so, and the log is truncated whenever the
+ * buffer has no committed entries left. Opening the buffer replays the log.
+ * Replaying is idempotent, since a merge skips entries the leaf already has.
+ *
+ * @see SecondaryIndex
+ */
+class ChangeBuffer {
+
+	/** The suffix of the log file, appended to the name of the index file. */
+	static final String LOG_SUFFIX = ".changes";
+
+	/** The maximum number of buffered entries. */
+	static final int DEFAULT_CAPACITY = 4096;
+
+	private static final int INSERT_RECORD = 1;
+	private static final int MERGE_RECORD = 2;
+
+	/** A buffered insert; tid is null once the inserting transaction commits */
+	private static final class Change {
+		TransactionId tid;
+		final Tuple entry;
+
+		Change(TransactionId tid, Tuple entry) {
+			this.tid = tid;
+			this.entry = entry;
+		}
+	}
+
+	private final BTreeFile file;
+	private final File log;
+	private final int capacity;
+	private final Map<BTreePageId, List<Change>> pending = new LinkedHashMap<>();
+	private final Map<BTreePageId, Integer> freeSlots = new HashMap<>();
+	private int size = 0;
+	private int committed = 0;
+
+	/**
+	 * Open the change buffer of a BTreeFile, replaying its log if there is one.
+	 */
+	ChangeBuffer(BTreeFile file, int capacity) throws IOException {
+		this.file = file;
+		this.log = logFile(file.getFile());
+		this.capacity = capacity;
+		replay();
+	}
+
+	/**
+	 * @return the log of the change buffer of an index stored in f
+	 */
+	static File logFile(File f) {
+		return new File(f.getPath() + LOG_SUFFIX);
+	}
+
+	/**
+	 * Buffer the insert of entry into a leaf, on behalf of a transaction that
+	 * holds a write lock on the leaf, which is not in the BufferPool.
+	 *
+	 * @return true if the entry was buffered, and false if it must be inserted
+	 *         into the leaf directly
+	 */
+	synchronized boolean add(TransactionId tid, BTreePageId leaf, Tuple entry) {
+		Integer free = freeSlots.get(leaf);
+		List<Change> changes = pending.get(leaf);
+		int taken = changes == null ? 0 : changes.size();
+		if (size >= capacity || free == null || free - taken <= 0)
+			return false;
+		pending.computeIfAbsent(leaf, k -> new ArrayList<>()).add(new Change(tid, entry));
+		size++;
+		return true;
+	}
+
+	/**
+	 * Record the number of free slots of a leaf as it is read or written.
+	 */
+	synchronized void noteLeaf(BTreeLeafPage page) {
+		freeSlots.put(page.getId(), page.getNumEmptySlots());
+	}
+
+	/**
+	 * Merge the buffered entries of a leaf that has just been read from disk.
+	 * Committed entries are merged first and the leaf is written back, so that
+	 * its image on disk stays the committed one; the entries of the
+	 * transaction holding the leaf's lock, if any, are then applied as its own
+	 * uncommitted changes.
+	 */
+	synchronized void merge(BTreeLeafPage page) throws DbException, IOException {
+		noteLeaf(page);
+		List<Change> changes = pending.remove(page.getId());
+		if (changes == null)
+			return;
+		size -= changes.size();
+
+		boolean merged = false;
+		TransactionId owner = null;
+		for (Change c : changes) {
+			if (c.tid == null) {
+				committed--;
+				if (!contains(page, c.entry))
+					page.insertTuple(c.entry);
+				merged = true;
+			}
+		}
+		if (merged) {
+			file.writePage(page);
+			page.setBeforeImage();
+			append(MERGE_RECORD, page.getId(), null);
+		}
+		for (Change c : changes) {
+			if (c.tid != null) {
+				page.insertTuple(c.entry);
+				owner = c.tid;
+			}
+		}
+		if (owner != null)
+			page.markDirty(true, owner);
+		if (committed == 0 && log.length() > 0)
+			truncate();
+	}
+
+	/**
+	 * Commit or abort the buffered entries of a transaction. Committed entries
+	 * are logged and the log is forced before this returns.
+	 *
+	 * @throws IOException if the log could not be forced, in which case the
+	 *         entries are left uncommitted, for the transaction to abort
+	 */
+	synchronized void transactionComplete(TransactionId tid, boolean commit) throws IOException {
+		Map<BTreePageId, List<Change>> mine = new LinkedHashMap<>();
+		Iterator<Map.Entry<BTreePageId, List<Change>>> it = pending.entrySet().iterator();
+		while (it.hasNext()) {
+			Map.Entry<BTreePageId, List<Change>> e = it.next();
+			for (Change c : e.getValue()) {
+				if (tid.equals(c.tid))
+					mine.computeIfAbsent(e.getKey(), k -> new ArrayList<>()).add(c);
+			}
+			if (!commit && mine.containsKey(e.getKey())) {
+				e.getValue().removeAll(mine.get(e.getKey()));
+				if (e.getValue().isEmpty())
+					it.remove();
+			}
+		}
+		if (mine.isEmpty())
+			return;
+		if (!commit) {
+			for (List<Change> changes : mine.values())
+				size -= changes.size();
+			return;
+		}
+
+		long length = log.length();
+		try (FileOutputStream fos = new FileOutputStream(log, true)) {
+			DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(fos));
+			for (Map.Entry<BTreePageId, List<Change>> e : mine.entrySet()) {
+				for (Change c : e.getValue())
+					write(dos, INSERT_RECORD, e.getKey(), c.entry);
+			}
+			dos.flush();
+			fos.getFD().sync();
+		} catch (IOException e) {
+			// cut off any records that made it, so that replay does not commit them
+			try (RandomAccessFile raf = new RandomAccessFile(log, "rw")) {
+				raf.setLength(length);
+			} catch (IOException suppressed) {
+				e.addSuppressed(suppressed);
+			}
+			throw e;
+		}
+		// only now that the log is forced do the entries count as committed
+		for (List<Change> changes : mine.values()) {
+			for (Change c : changes) {
+				c.tid = null;
+				committed++;
+			}
+		}
+	}
+
+	/**
+	 * @return the leaves with committed entries to merge, in the order they
+	 *         were first buffered
+	 */
+	synchronized List<BTreePageId> leaves() {
+		List<BTreePageId> leaves = new ArrayList<>();
+		for (Map.Entry<BTreePageId, List<Change>> e : pending.entrySet()) {
+			for (Change c : e.getValue()) {
+				if (c.tid == null) {
+					leaves.add(e.getKey());
+					break;
+				}
+			}
+		}
+		return leaves;
+	}
+
+	/**
+	 * @return the number of buffered entries
+	 */
+	synchronized int size() {
+		return size;
+	}
+
+	private static boolean contains(BTreeLeafPage page, Tuple entry) {
+		Iterator<Tuple> it = page.iterator(page.key(entry), true);
+		while (it.hasNext()) {
+			Tuple t = it.next();
+			if (!page.key(t).equals(page.key(entry)))
+				return false;
+			if (t.equals(entry))
+				return true;
+		}
+		return false;
+	}
+
+	private void append(int type, BTreePageId leaf, Tuple entry) throws IOException {
+		try (FileOutputStream fos = new FileOutputStream(log, true)) {
+			DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(fos));
+			write(dos, type, leaf, entry);
+			dos.flush();
+			fos.getFD().sync();
+		}
+	}
+
+	private static void write(DataOutputStream dos, int type, BTreePageId leaf, Tuple entry) throws IOException {
+		dos.writeByte(type);
+		dos.writeInt(leaf.getPageNumber());
+		if (entry != null) {
+			for (int i = 0; i < entry.getTupleDesc().numFields(); i++)
+				entry.getField(i).serialize(dos);
+		}
+	}
+
+	private void truncate() throws IOException {
+		new FileOutputStream(log).close();
+	}
+
+	/**
+	 * Rebuild the committed entries from the log
+	 */
+	private void replay() throws IOException {
+		if (!log.exists())
+			return;
+		TupleDesc td = file.getTupleDesc();
+		try (DataInputStream dis = new DataInputStream(new BufferedInputStream(new FileInputStream(log)))) {
+			while (dis.available() > 0) {
+				int type = dis.readByte();
+				BTreePageId leaf = new BTreePageId(file.getId(), dis.readInt(), BTreePageId.LEAF);
+				if (type == MERGE_RECORD) {
+					List<Change> merged = pending.remove(leaf);
+					if (merged != null) {
+						size -= merged.size();
+						committed -= merged.size();
+					}
+					continue;
+				}
+				Tuple entry = new Tuple(td);
+				for (int i = 0; i < td.numFields(); i++)
+					entry.setField(i, td.getFieldType(i).parse(dis));
+				pending.computeIfAbsent(leaf, k -> new ArrayList<>()).add(new Change(null, entry));
+				size++;
+				committed++;
+			}
+		} catch (ParseException | EOFException e) {
+			// a record cut short by a crash was never part of a commit
+		}
+	}
+}
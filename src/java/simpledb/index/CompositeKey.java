@@ -0,0 +1,128 @@
+package simpledb.index;
+
+import simpledb.common.Type;
+import simpledb.storage.Field;
+import simpledb.storage.IntField;
+import simpledb.storage.StringField;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The key of a B+ tree keyed on several INT fields, ordered lexicographically:
+ * by the first field, then by the second among equal first fields, and so on.
+ * <p>
+ * Keys are normalized into strings whose plain string order is the key order:
+ * each field is written as eight hex digits of its value with the sign bit
+ * flipped. The B+ tree stores and compares these like any string key, so
+ * internal pages front-code them, and the shared leading fields of
+ * neighbouring keys take almost no room. The encoding of the first k fields
+ * of a key is a prefix of the encoding of the key, so the keys that start
+ * with given values form one range of strings; see
+ * {@link simpledb.execution.IndexPredicate#prefix}.
+ */
+public class CompositeKey implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	/** The number of characters each field is encoded in */
+	static final int FIELD_LEN = 8;
+
+	/**
+	 * A character above every character of an encoding; appending it to an
+	 * encoded prefix gives a bound above every key with that prefix.
+	 */
+	public static final char HIGH = '~';
+
+	/** The most fields a key can have, leaving room for HIGH after them */
+	public static final int MAX_FIELDS = (Type.STRING_LEN - 1) / FIELD_LEN;
+
+	private static final char[] DIGITS = "0123456789ABCDEF".toCharArray();
+
+	private final int[] fields;
+
+	/**
+	 * @param td - the tuple descriptor of the indexed tuples
+	 * @param fields - the indices of the key fields, most significant first
+	 * @throws IllegalArgumentException if there are no fields or more than
+	 *         MAX_FIELDS, or a field is not an INT
+	 */
+	public CompositeKey(TupleDesc td, int... fields) {
+		if (fields.length == 0 || fields.length > MAX_FIELDS)
+			throw new IllegalArgumentException("a composite key needs 1 to " + MAX_FIELDS + " fields, got "
+					+ fields.length);
+		for (int f : fields) {
+			if (td.getFieldType(f) != Type.INT_TYPE)
+				throw new IllegalArgumentException("composite key fields must be INTs, field " + f + " is "
+						+ td.getFieldType(f));
+		}
+		this.fields = fields.clone();
+	}
+
+	/**
+	 * @return the indices of the key fields, most significant first
+	 */
+	public int[] getFields() {
+		return fields.clone();
+	}
+
+	public int numFields() {
+		return fields.length;
+	}
+
+	/**
+	 * @return the index of the i-th key field
+	 */
+	public int field(int i) {
+		return fields[i];
+	}
+
+	/**
+	 * @return the normalized key of a tuple
+	 */
+	public StringField key(Tuple t) {
+		StringBuilder sb = new StringBuilder(fields.length * FIELD_LEN);
+		for (int f : fields)
+			append(sb, ((IntField) t.getField(f)).getValue());
+		return new StringField(sb.toString(), Type.STRING_LEN);
+	}
+
+	/**
+	 * Normalize the values of the leading fields of a key.
+	 *
+	 * @param values - IntFields, most significant first
+	 * @return the encoding shared by every key that starts with values
+	 */
+	public static String encode(List<? extends Field> values) {
+		StringBuilder sb = new StringBuilder(values.size() * FIELD_LEN);
+		for (Field v : values)
+			append(sb, ((IntField) v).getValue());
+		return sb.toString();
+	}
+
+	/**
+	 * @return the field values of a normalized key, most significant first
+	 */
+	public static int[] decode(Field key) {
+		String s = ((StringField) key).getValue();
+		int[] values = new int[s.length() / FIELD_LEN];
+		for (int i = 0; i < values.length; i++)
+			values[i] = (int) Long.parseLong(s.substring(i * FIELD_LEN, (i + 1) * FIELD_LEN), 16)
+					^ Integer.MIN_VALUE;
+		return values;
+	}
+
+	private static void append(StringBuilder sb, int value) {
+		int u = value ^ Integer.MIN_VALUE;
+		for (int shift = 28; shift >= 0; shift -= 4)
+			sb.append(DIGITS[(u >>> shift) & 0xF]);
+	}
+
+	@Override
+	public String toString() {
+		return Arrays.toString(fields);
+	}
+}
@@ -0,0 +1,320 @@
+package simpledb.index;
+
+import simpledb.common.Catalog;
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Debug;
+import simpledb.common.Type;
+import simpledb.storage.*;
+import simpledb.transaction.TransactionId;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * Each instance of HashBucketPage stores the tuples of one bucket of a
+ * HashFile, or of one overflow page chained to a bucket, and implements the
+ * Page interface that is used by BufferPool.
+ *
+ * @see HashFile
+ * @see HashDirectoryPage
+ */
+public class HashBucketPage implements Page {
+	private volatile boolean dirty = false;
+	private volatile TransactionId dirtier = null;
+
+	final static int INDEX_SIZE = Type.INT_TYPE.getLen();
+
+	private final HashPageId pid;
+	private final TupleDesc td;
+	private final byte[] header;
+	private final Tuple[] tuples;
+	private final int numSlots;
+	private int numTuples;
+
+	private int localDepth; // hash bits shared by every key in the bucket
+	private int overflow; // next page of this bucket or 0
+
+	private byte[] oldData;
+	private final Object oldDataLock = new Object();
+
+	/**
+	 * Create a HashBucketPage from a set of bytes of data read from disk.
+	 * The format of a HashBucketPage is the local depth of the bucket and a
+	 * pointer to its next overflow page, followed by a set of header bytes
+	 * indicating the slots of the page that are in use, and the tuple slots.
+	 * The number of tuples is equal to: <p>
+	 *          floor((BufferPool.getPageSize()*8 - extra bytes*8) / (tuple size * 8 + 1))
+	 * <p> where tuple size is the size of tuples in this
+	 * database table, which can be determined via {@link Catalog#getTupleDesc}.
+	 *
+	 * @param id - the id of this page
+	 * @param data - the raw data of this page
+	 */
+	public HashBucketPage(HashPageId id, byte[] data) throws IOException {
+		this.pid = id;
+		this.td = Database.getCatalog().getTupleDesc(id.getTableId());
+		this.numSlots = getMaxTuples();
+		DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
+
+		localDepth = dis.readInt();
+		overflow = dis.readInt();
+
+		header = new byte[getHeaderSize()];
+		for (int i=0; i<header.length; i++)
+			header[i] = dis.readByte();
+
+		tuples = new Tuple[numSlots];
+		try {
+			for (int i=0; i<tuples.length; i++)
+				tuples[i] = readNextTuple(dis, i);
+		} catch (NoSuchElementException e) {
+			e.printStackTrace();
+		}
+		dis.close();
+
+		setBeforeImage();
+	}
+
+	/**
+	 * Retrieve the maximum number of tuples this page can hold.
+	 */
+	public int getMaxTuples() {
+		int bitsPerTupleIncludingHeader = td.getSize() * 8 + 1;
+		// extraBits are: local depth, overflow pointer
+		int extraBits = 2 * INDEX_SIZE * 8;
+		return (BufferPool.getPageSize()*8 - extraBits) / bitsPerTupleIncludingHeader;
+	}
+
+	private int getHeaderSize() {
+		return (getMaxTuples() + 7) / 8;
+	}
+
+	/** Return a view of this page before it was modified
+		-- used by recovery */
+	public HashBucketPage getBeforeImage() {
+		try {
+			byte[] oldDataRef;
+			synchronized (oldDataLock) {
+				oldDataRef = oldData;
+			}
+			return new HashBucketPage(pid, oldDataRef);
+		} catch (IOException e) {
+			e.printStackTrace();
+			//should never happen -- we parsed it OK before!
+			System.exit(1);
+		}
+		return null;
+	}
+
+	public void setBeforeImage() {
+		synchronized (oldDataLock) {
+			oldData = getPageData().clone();
+		}
+	}
+
+	/**
+	 * @return the PageId associated with this page.
+	 */
+	public HashPageId getId() {
+		return pid;
+	}
+
+	private Tuple readNextTuple(DataInputStream dis, int slotId) throws NoSuchElementException {
+		if (!isSlotUsed(slotId)) {
+			try {
+				dis.skipBytes(td.getSize());
+			} catch (IOException e) {
+				throw new NoSuchElementException("error reading empty tuple");
+			}
+			return null;
+		}
+
+		Tuple t = new Tuple(td);
+		t.setRecordId(new RecordId(pid, slotId));
+		try {
+			for (int j=0; j<td.numFields(); j++)
+				t.setField(j, td.getFieldType(j).parse(dis));
+		} catch (java.text.ParseException e) {
+			e.printStackTrace();
+			throw new NoSuchElementException("parsing error!");
+		}
+		numTuples++;
+		return t;
+	}
+
+	/**
+	 * Generates a byte array representing the contents of this page.
+	 * Used to serialize this page to disk.
+	 *
+	 * @see #HashBucketPage
+	 * @return A byte array corresponding to the bytes of this page.
+	 */
+	public byte[] getPageData() {
+		int len = BufferPool.getPageSize();
+		ByteArrayOutputStream baos = new ByteArrayOutputStream(len);
+		DataOutputStream dos = new DataOutputStream(baos);
+		try {
+			dos.writeInt(localDepth);
+			dos.writeInt(overflow);
+			dos.write(header);
+			for (int i=0; i<tuples.length; i++) {
+				if (!isSlotUsed(i)) {
+					dos.write(new byte[td.getSize()]);
+					continue;
+				}
+				for (int j=0; j<td.numFields(); j++)
+					tuples[i].getField(j).serialize(dos);
+			}
+			dos.write(new byte[len - dos.size()]);
+			dos.flush();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+		return baos.toByteArray();
+	}
+
+	/**
+	 * Marks this page as dirty/not dirty and record that transaction
+	 * that did the dirtying
+	 */
+	public void markDirty(boolean dirty, TransactionId tid) {
+		this.dirty = dirty;
+		if (dirty) this.dirtier = tid;
+	}
+
+	/**
+	 * Returns the tid of the transaction that last dirtied this page, or null if the page is not dirty
+	 */
+	public TransactionId isDirty() {
+		if (this.dirty)
+			return this.dirtier;
+		else
+			return null;
+	}
+
+	/**
+	 * @return the number of low hash bits shared by every key in this bucket
+	 */
+	public int getLocalDepth() {
+		return localDepth;
+	}
+
+	public void setLocalDepth(int depth) {
+		localDepth = depth;
+	}
+
+	/**
+	 * Get the id of the next overflow page of this bucket
+	 * @return the id of the overflow page, or null if there is none
+	 */
+	public HashPageId getOverflowId() {
+		if (overflow == 0)
+			return null;
+		return new HashPageId(pid.getTableId(), overflow, HashPageId.BUCKET);
+	}
+
+	/**
+	 * Set the id of the next overflow page of this bucket
+	 * @param id - the id of the overflow page, or null
+	 * @throws DbException if the id is not valid
+	 */
+	public void setOverflowId(HashPageId id) throws DbException {
+		if (id == null) {
+			overflow = 0;
+			return;
+		}
+		if (id.getTableId() != pid.getTableId())
+			throw new DbException("table id mismatch in setOverflowId");
+		if (id.pgcateg() != HashPageId.BUCKET)
+			throw new DbException("overflow page must be a bucket");
+		overflow = id.getPageNumber();
+	}
+
+	/**
+	 * Delete the specified tuple from the page; the tuple should be updated to reflect
+	 *   that it is no longer stored on any page.
+	 * @throws DbException if this tuple is not on this page, or tuple slot is
+	 *         already empty.
+	 * @param t The tuple to delete
+	 */
+	public void deleteTuple(Tuple t) throws DbException {
+		RecordId rid = t.getRecordId();
+		if (rid == null)
+			throw new DbException("tried to delete tuple with null rid");
+		if (!pid.equals(rid.getPageId()))
+			throw new DbException("tried to delete tuple on invalid page or table");
+		if (!isSlotUsed(rid.getTupleNumber()))
+			throw new DbException("tried to delete null tuple.");
+		markSlotUsed(rid.getTupleNumber(), false);
+		tuples[rid.getTupleNumber()] = null;
+		t.setRecordId(null);
+	}
+
+	/**
+	 * Adds the specified tuple to the page; the tuple should be updated to reflect
+	 *  that it is now stored on this page.
+	 * @throws DbException if the page is full (no empty slots) or tupledesc
+	 *         is mismatch.
+	 * @param t The tuple to add.
+	 */
+	public void insertTuple(Tuple t) throws DbException {
+		if (!t.getTupleDesc().equals(td))
+			throw new DbException("type mismatch, in addTuple");
+
+		for (int i=0; i<numSlots; i++) {
+			if (!isSlotUsed(i)) {
+				markSlotUsed(i, true);
+				Debug.log(1, "HashBucketPage.insertTuple: new tuple, tableId = %d pageId = %d slotId = %d", pid.getTableId(), pid.getPageNumber(), i);
+				t.setRecordId(new RecordId(pid, i));
+				tuples[i] = t;
+				return;
+			}
+		}
+		throw new DbException("called addTuple on page with no empty slots.");
+	}
+
+	/**
+	 * Returns the number of tuples currently stored on this page
+	 */
+	public int getNumTuples() {
+		return numTuples;
+	}
+
+	/**
+	 * Returns the number of empty slots on this page.
+	 */
+	public int getNumEmptySlots() {
+		return numSlots - numTuples;
+	}
+
+	/**
+	 * Returns true if associated slot on this page is filled.
+	 */
+	public boolean isSlotUsed(int i) {
+		return (header[i / 8] & (1 << (i % 8))) != 0;
+	}
+
+	private void markSlotUsed(int i, boolean value) {
+		if (isSlotUsed(i) == value)
+			return;
+		if (value) {
+			header[i / 8] |= 1 << (i % 8);
+			numTuples++;
+		} else {
+			header[i / 8] &= (0xFF ^ (1 << (i % 8)));
+			numTuples--;
+		}
+	}
+
+	/**
+	 * @return an iterator over all tuples on this page (calling remove on this iterator throws an UnsupportedOperationException)
+	 */
+	public Iterator<Tuple> iterator() {
+		List<Tuple> used = new ArrayList<>(numTuples);
+		for (int i=0; i<numSlots; i++)
+			if (isSlotUsed(i))
+				used.add(tuples[i]);
+		return Collections.unmodifiableList(used).iterator();
+	}
+}
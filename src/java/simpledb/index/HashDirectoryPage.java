@@ -0,0 +1,190 @@
+package simpledb.index;
+
+import simpledb.common.DbException;
+import simpledb.common.Type;
+import simpledb.storage.BufferPool;
+import simpledb.storage.Page;
+import simpledb.transaction.TransactionId;
+
+import java.io.*;
+
+/**
+ * HashDirectoryPage is the first page of a HashFile. It maps the low
+ * getGlobalDepth() bits of a key's hash to the bucket page holding that key.
+ * Several directory entries share a bucket whose local depth is less than the
+ * global depth.
+ *
+ * @see HashFile
+ * @see HashBucketPage
+ */
+public class HashDirectoryPage implements Page {
+	private volatile boolean dirty = false;
+	private volatile TransactionId dirtier = null;
+
+	final static int INDEX_SIZE = Type.INT_TYPE.getLen();
+
+	private final HashPageId pid;
+	private int globalDepth;
+	private final int[] buckets;
+
+	private byte[] oldData;
+	private final Object oldDataLock = new Object();
+
+	/**
+	 * Create a HashDirectoryPage from a set of bytes of data read from disk.
+	 * The format of a HashDirectoryPage is the global depth followed by one
+	 * bucket page number for each of the 2^(global depth) directory entries.
+	 * An all-zero page is a directory of depth 0 with no bucket yet.
+	 *
+	 * @param id - the id of this page
+	 * @param data - the raw data of this page
+	 */
+	public HashDirectoryPage(HashPageId id, byte[] data) throws IOException {
+		this.pid = id;
+		this.buckets = new int[1 << getMaxDepth()];
+		DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
+		globalDepth = dis.readInt();
+		for (int i = 0; i < (1 << globalDepth); i++)
+			buckets[i] = dis.readInt();
+		dis.close();
+
+		setBeforeImage();
+	}
+
+	/**
+	 * The deepest directory that fits on one page
+	 */
+	public static int getMaxDepth() {
+		int entries = (BufferPool.getPageSize() - INDEX_SIZE) / INDEX_SIZE;
+		return 31 - Integer.numberOfLeadingZeros(entries);
+	}
+
+	/** Return a view of this page before it was modified
+		-- used by recovery */
+	public HashDirectoryPage getBeforeImage() {
+		try {
+			byte[] oldDataRef;
+			synchronized (oldDataLock) {
+				oldDataRef = oldData;
+			}
+			return new HashDirectoryPage(pid, oldDataRef);
+		} catch (IOException e) {
+			e.printStackTrace();
+			//should never happen -- we parsed it OK before!
+			System.exit(1);
+		}
+		return null;
+	}
+
+	public void setBeforeImage() {
+		synchronized (oldDataLock) {
+			oldData = getPageData().clone();
+		}
+	}
+
+	/**
+	 * @return the PageId associated with this page.
+	 */
+	public HashPageId getId() {
+		return pid;
+	}
+
+	/**
+	 * Generates a byte array representing the contents of this page.
+	 * Used to serialize this page to disk.
+	 *
+	 * @see #HashDirectoryPage
+	 * @return A byte array corresponding to the bytes of this page.
+	 */
+	public byte[] getPageData() {
+		ByteArrayOutputStream baos = new ByteArrayOutputStream(BufferPool.getPageSize());
+		DataOutputStream dos = new DataOutputStream(baos);
+		try {
+			dos.writeInt(globalDepth);
+			for (int i = 0; i < (1 << globalDepth); i++)
+				dos.writeInt(buckets[i]);
+			dos.write(new byte[BufferPool.getPageSize() - dos.size()]);
+			dos.flush();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+		return baos.toByteArray();
+	}
+
+	/**
+	 * Marks this page as dirty/not dirty and record that transaction
+	 * that did the dirtying
+	 */
+	public void markDirty(boolean dirty, TransactionId tid) {
+		this.dirty = dirty;
+		if (dirty) this.dirtier = tid;
+	}
+
+	/**
+	 * Returns the tid of the transaction that last dirtied this page, or null if the page is not dirty
+	 */
+	public TransactionId isDirty() {
+		if (this.dirty)
+			return this.dirtier;
+		else
+			return null;
+	}
+
+	/**
+	 * @return the number of hash bits used to pick a directory entry
+	 */
+	public int getGlobalDepth() {
+		return globalDepth;
+	}
+
+	/**
+	 * @return the number of directory entries
+	 */
+	public int getNumEntries() {
+		return 1 << globalDepth;
+	}
+
+	/**
+	 * @param hash - the hash of a key
+	 * @return the directory entry the key belongs to
+	 */
+	public int entryFor(int hash) {
+		return hash & ((1 << globalDepth) - 1);
+	}
+
+	/**
+	 * @param entry - a directory entry
+	 * @return the id of the bucket the entry points to, or null if the
+	 *         directory is still empty
+	 */
+	public HashPageId getBucketId(int entry) {
+		if (buckets[entry] == 0)
+			return null;
+		return new HashPageId(pid.getTableId(), buckets[entry], HashPageId.BUCKET);
+	}
+
+	/**
+	 * Point a directory entry at a bucket
+	 * @throws DbException if the id is not a bucket of this table
+	 */
+	public void setBucketId(int entry, HashPageId id) throws DbException {
+		if (id.getTableId() != pid.getTableId())
+			throw new DbException("table id mismatch in setBucketId");
+		if (id.pgcateg() != HashPageId.BUCKET)
+			throw new DbException("directory entries must point to buckets");
+		buckets[entry] = id.getPageNumber();
+	}
+
+	/**
+	 * Double the directory, so that each new entry points to the same bucket
+	 * as the entry it differs from in the new top bit
+	 * @throws DbException if the directory is already at its maximum depth
+	 */
+	public void grow() throws DbException {
+		if (globalDepth == getMaxDepth())
+			throw new DbException("hash directory is full");
+		int n = 1 << globalDepth;
+		System.arraycopy(buckets, 0, buckets, n, n);
+		globalDepth++;
+	}
+}
@@ -0,0 +1,475 @@
+package simpledb.index;
+
+import java.io.*;
+import java.util.*;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Debug;
+import simpledb.common.Permissions;
+import simpledb.execution.IndexPredicate;
+import simpledb.execution.Predicate.Op;
+import simpledb.storage.*;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+/**
+ * HashFile is an implementation of a DbFile that stores an extendible hash
+ * index. Page 0 is a HashDirectoryPage mapping the low bits of a key's hash to
+ * a HashBucketPage; every other page is a bucket or an overflow page of one.
+ * A full bucket is split in two, doubling the directory if the bucket already
+ * uses as many hash bits as the directory does. Buckets only get overflow
+ * pages once the directory cannot grow any further.
+ * <p>
+ * Equality lookups read the directory and a single bucket, and IN lists read
+ * one bucket per value, but the tuples are in no particular order, so other
+ * predicates fall back to a full scan.
+ *
+ * @see HashDirectoryPage
+ * @see HashBucketPage
+ * @see BTreeFile
+ */
+public class HashFile implements IndexFile {
+
+	private final File f;
+	private final TupleDesc td;
+	private final int tableid;
+	private final int keyField;
+
+	/**
+	 * Constructs a hash index file backed by the specified file.
+	 *
+	 * @param f   - the file that stores the on-disk backing store for this
+	 *            hash file.
+	 * @param key - the field which index is keyed on
+	 * @param td  - the tuple descriptor of tuples in the file
+	 */
+	public HashFile(File f, int key, TupleDesc td) {
+		this.f = f;
+		this.tableid = f.getAbsoluteFile().hashCode();
+		this.keyField = key;
+		this.td = td;
+	}
+
+	/**
+	 * Returns the File backing this HashFile on disk.
+	 */
+	public File getFile() {
+		return f;
+	}
+
+	/**
+	 * Returns an ID uniquely identifying this HashFile.
+	 *
+	 * @return an ID uniquely identifying this HashFile.
+	 */
+	public int getId() {
+		return tableid;
+	}
+
+	/**
+	 * Returns the TupleDesc of the table stored in this DbFile.
+	 *
+	 * @return TupleDesc of this DbFile.
+	 */
+	public TupleDesc getTupleDesc() {
+		return td;
+	}
+
+	/**
+	 * Returns the index of the field that this hash file is keyed on
+	 */
+	public int keyField() {
+		return keyField;
+	}
+
+	/**
+	 * Returns the number of pages in this HashFile, including the directory
+	 */
+	public int numPages() {
+		return (int) (f.length() / BufferPool.getPageSize());
+	}
+
+	/**
+	 * The hash of a key. Field hash codes are spread out first, since the
+	 * directory uses only their low bits and IntField hashes to its value.
+	 */
+	static int hash(Field key) {
+		int h = key.hashCode() * 0x9E3779B9;
+		return h ^ (h >>> 16);
+	}
+
+	/**
+	 * Read a page from the file on disk. This should not be called directly
+	 * but should be called from the BufferPool via getPage()
+	 *
+	 * @param pid - the id of the page to read from disk
+	 * @return the page constructed from the contents on disk
+	 */
+	public Page readPage(PageId pid) {
+		HashPageId id = (HashPageId) pid;
+		byte[] pageBuf = new byte[BufferPool.getPageSize()];
+		try (RandomAccessFile rf = new RandomAccessFile(f, "r")) {
+			long offset = (long) id.getPageNumber() * BufferPool.getPageSize();
+			if (offset + pageBuf.length > rf.length())
+				throw new IllegalArgumentException("Read past end of table");
+			rf.seek(offset);
+			rf.readFully(pageBuf);
+			Debug.log(1, "HashFile.readPage: read page %d", id.getPageNumber());
+			if (id.pgcateg() == HashPageId.DIRECTORY)
+				return new HashDirectoryPage(id, pageBuf);
+			return new HashBucketPage(id, pageBuf);
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * Write a page to disk. This should not be called directly but should
+	 * be called from the BufferPool when pages are flushed to disk
+	 *
+	 * @param page - the page to write to disk
+	 */
+	public void writePage(Page page) throws IOException {
+		try (RandomAccessFile rf = new RandomAccessFile(f, "rw")) {
+			rf.seek((long) page.getId().getPageNumber() * BufferPool.getPageSize());
+			rf.write(page.getPageData());
+		}
+	}
+
+	/**
+	 * Method to encapsulate the process of locking/fetching a page. First the
+	 * method checks the local cache ("dirtypages"), and if it can't find the
+	 * requested page there, it fetches it from the buffer pool. It also adds
+	 * pages to the dirtypages cache if they are fetched with read-write
+	 * permission, since presumably they will soon be dirtied by this
+	 * transaction.
+	 */
+	private Page getPage(TransactionId tid, Map<PageId, Page> dirtypages, HashPageId pid, Permissions perm)
+			throws DbException, TransactionAbortedException {
+		if (dirtypages.containsKey(pid)) {
+			return dirtypages.get(pid);
+		} else {
+			Page p = Database.getBufferPool().getPage(tid, pid, perm);
+			if (perm == Permissions.READ_WRITE) {
+				dirtypages.put(pid, p);
+			}
+			return p;
+		}
+	}
+
+	/**
+	 * Lock the directory page, writing an empty one first if the file is new
+	 */
+	HashDirectoryPage getDirectory(TransactionId tid, Map<PageId, Page> dirtypages, Permissions perm)
+			throws DbException, IOException, TransactionAbortedException {
+		synchronized (this) {
+			if (f.length() == 0) {
+				try (FileOutputStream fos = new FileOutputStream(f, true)) {
+					fos.write(new byte[BufferPool.getPageSize()]);
+				}
+			}
+		}
+		HashPageId dirId = new HashPageId(tableid, 0, HashPageId.DIRECTORY);
+		return (HashDirectoryPage) getPage(tid, dirtypages, dirId, perm);
+	}
+
+	/**
+	 * Append an empty bucket page to the file and lock it for writing
+	 */
+	private HashBucketPage getEmptyBucket(TransactionId tid, Map<PageId, Page> dirtypages)
+			throws DbException, IOException, TransactionAbortedException {
+		int pgNo;
+		synchronized (this) {
+			pgNo = numPages();
+			try (FileOutputStream fos = new FileOutputStream(f, true)) {
+				fos.write(new byte[BufferPool.getPageSize()]);
+			}
+		}
+		return (HashBucketPage) getPage(tid, dirtypages, new HashPageId(tableid, pgNo, HashPageId.BUCKET),
+				Permissions.READ_WRITE);
+	}
+
+	/**
+	 * Insert a tuple into this HashFile, splitting the bucket it belongs to
+	 * as many times as needed to make room.
+	 * <p>
+	 * Most inserts find room in their bucket, so the directory is first only
+	 * locked for reading and concurrent inserters are not serialized on it.
+	 * If the bucket has to be split, the locks taken so far are given up and
+	 * the insert is retried holding a write lock on the directory from the
+	 * start: upgrading the read lock instead would deadlock with any other
+	 * inserter doing the same.
+	 *
+	 * @param tid - the transaction id
+	 * @param t   - the tuple to insert
+	 * @return a list of all pages that were dirtied by this operation
+	 */
+	public List<Page> insertTuple(TransactionId tid, Tuple t)
+			throws DbException, IOException, TransactionAbortedException {
+		Map<PageId, Page> dirtypages = new HashMap<>();
+		BufferPool bp = Database.getBufferPool();
+		int h = hash(t.getField(keyField));
+
+		HashPageId dirId = new HashPageId(tableid, 0, HashPageId.DIRECTORY);
+		boolean held = bp.holdsLock(tid, dirId);
+		HashDirectoryPage dir = getDirectory(tid, dirtypages, Permissions.READ_ONLY);
+		if (dir.getBucketId(0) != null) {
+			Set<PageId> newLocks = new HashSet<>();
+			if (insertIntoBucket(tid, dirtypages, dir, h, t, newLocks))
+				return new ArrayList<>(dirtypages.values());
+
+			// nothing was modified, so the pages this attempt locked first can go
+			for (PageId pid : newLocks) {
+				dirtypages.remove(pid);
+				bp.unsafeReleasePage(tid, pid);
+			}
+		}
+		if (!held)
+			bp.releaseShared(tid, dirId);
+
+		dir = getDirectory(tid, dirtypages, Permissions.READ_WRITE);
+		if (dir.getBucketId(0) == null)
+			dir.setBucketId(0, getEmptyBucket(tid, dirtypages).getId());
+		while (!insertIntoBucket(tid, dirtypages, dir, h, t, null)) {
+			HashBucketPage bucket = (HashBucketPage) getPage(tid, dirtypages,
+					dir.getBucketId(dir.entryFor(h)), Permissions.READ_WRITE);
+			splitBucket(tid, dirtypages, dir, bucket);
+		}
+
+		return new ArrayList<>(dirtypages.values());
+	}
+
+	/**
+	 * Insert a tuple into the bucket its hash maps to, if any page of the bucket
+	 * has room. At the maximum depth a full bucket gets a new overflow page.
+	 *
+	 * @param dir      - the directory, locked for reading at least
+	 * @param h        - the hash of the tuple's key
+	 * @param newLocks - if not null, the ids of pages of the bucket this call
+	 *                 locked for the first time are added to it
+	 * @return false if the bucket must be split first, in which case no page
+	 *         has been modified
+	 */
+	private boolean insertIntoBucket(TransactionId tid, Map<PageId, Page> dirtypages, HashDirectoryPage dir,
+			int h, Tuple t, Set<PageId> newLocks) throws DbException, IOException, TransactionAbortedException {
+		HashBucketPage bucket = lockBucketPage(tid, dirtypages, dir.getBucketId(dir.entryFor(h)), newLocks);
+
+		// any page of the bucket with room will do
+		HashBucketPage page = bucket;
+		while (page.getNumEmptySlots() == 0 && page.getOverflowId() != null)
+			page = lockBucketPage(tid, dirtypages, page.getOverflowId(), newLocks);
+		if (page.getNumEmptySlots() > 0) {
+			page.insertTuple(t);
+			return true;
+		}
+
+		if (bucket.getLocalDepth() == HashDirectoryPage.getMaxDepth()) {
+			// the directory cannot tell these keys apart any further
+			HashBucketPage next = getEmptyBucket(tid, dirtypages);
+			next.setLocalDepth(bucket.getLocalDepth());
+			page.setOverflowId(next.getId());
+			next.insertTuple(t);
+			return true;
+		}
+		return false;
+	}
+
+	private HashBucketPage lockBucketPage(TransactionId tid, Map<PageId, Page> dirtypages, HashPageId pid,
+			Set<PageId> newLocks) throws DbException, TransactionAbortedException {
+		if (newLocks != null && !dirtypages.containsKey(pid) && !Database.getBufferPool().holdsLock(tid, pid))
+			newLocks.add(pid);
+		return (HashBucketPage) getPage(tid, dirtypages, pid, Permissions.READ_WRITE);
+	}
+
+	/**
+	 * Split a full bucket on the next bit of the hash, moving the tuples with
+	 * that bit set to a new bucket and doubling the directory first if it does
+	 * not use that bit yet. The bucket has no overflow pages, since they are
+	 * only added at the maximum depth.
+	 *
+	 * @param tid        - the transaction id
+	 * @param dirtypages - the list of dirty pages which should be updated with all
+	 *                   new dirty pages
+	 * @param dir        - the directory, locked for writing
+	 * @param bucket     - the bucket to split
+	 */
+	void splitBucket(TransactionId tid, Map<PageId, Page> dirtypages, HashDirectoryPage dir,
+			HashBucketPage bucket) throws DbException, IOException, TransactionAbortedException {
+		int depth = bucket.getLocalDepth();
+		if (depth == dir.getGlobalDepth())
+			dir.grow();
+
+		HashBucketPage sibling = getEmptyBucket(tid, dirtypages);
+		bucket.setLocalDepth(depth + 1);
+		sibling.setLocalDepth(depth + 1);
+		for (int i = 0; i < dir.getNumEntries(); i++) {
+			if (bucket.getId().equals(dir.getBucketId(i)) && ((i >>> depth) & 1) == 1)
+				dir.setBucketId(i, sibling.getId());
+		}
+
+		Iterator<Tuple> it = bucket.iterator();
+		while (it.hasNext()) {
+			Tuple t = it.next();
+			if (((hash(t.getField(keyField)) >>> depth) & 1) == 1) {
+				bucket.deleteTuple(t);
+				sibling.insertTuple(t);
+			}
+		}
+	}
+
+	/**
+	 * Delete a tuple from this HashFile. Buckets are never merged.
+	 *
+	 * @param tid - the transaction id
+	 * @param t   - the tuple to delete
+	 * @return a list of all pages that were dirtied by this operation
+	 */
+	public List<Page> deleteTuple(TransactionId tid, Tuple t)
+			throws DbException, IOException, TransactionAbortedException {
+		Map<PageId, Page> dirtypages = new HashMap<>();
+		RecordId rid = t.getRecordId();
+		if (rid == null || !(rid.getPageId() instanceof HashPageId) || rid.getPageId().getTableId() != tableid)
+			throw new DbException("tried to delete tuple that is not in this hash file");
+
+		HashBucketPage page = (HashBucketPage) getPage(tid, dirtypages, (HashPageId) rid.getPageId(),
+				Permissions.READ_WRITE);
+		page.deleteTuple(t);
+		return new ArrayList<>(dirtypages.values());
+	}
+
+	/**
+	 * get the specified tuples from the file based on its IndexPredicate value on
+	 * behalf of the specified transaction. Equality predicates only read the
+	 * bucket the key hashes to; other predicates scan the whole file.
+	 *
+	 * @param tid   - the transaction id
+	 * @param ipred - the index predicate value to filter on
+	 * @return an iterator for the filtered tuples
+	 */
+	public DbFileIterator indexIterator(TransactionId tid, IndexPredicate ipred) {
+		return new HashFileIterator(this, tid, ipred);
+	}
+
+	/**
+	 * Get an iterator for all tuples in this hash file, in no particular order.
+	 *
+	 * @param tid - the transaction id
+	 * @return an iterator for all the tuples in this file
+	 */
+	public DbFileIterator iterator(TransactionId tid) {
+		return new HashFileIterator(this, tid, null);
+	}
+}
+
+/**
+ * Helper class that implements the DbFileIterator interface for HashFile.
+ * It holds a read lock on the directory, so that no bucket is split while
+ * the scan is running.
+ */
+class HashFileIterator extends AbstractDbFileIterator {
+
+	Iterator<Tuple> it = null;
+	HashPageId nextPage = null; // next page of the bucket being read
+	Iterator<HashPageId> buckets = null; // further buckets to read for an IN list
+	int nextPgNo; // next page of a full scan, or 0 for a lookup
+
+	final TransactionId tid;
+	final HashFile f;
+	final IndexPredicate ipred;
+
+	/**
+	 * Constructor for this iterator
+	 *
+	 * @param f     - the HashFile containing the tuples
+	 * @param tid   - the transaction id
+	 * @param ipred - the predicate to filter on, or null for all tuples
+	 */
+	public HashFileIterator(HashFile f, TransactionId tid, IndexPredicate ipred) {
+		this.f = f;
+		this.tid = tid;
+		this.ipred = ipred;
+	}
+
+	/**
+	 * Open this iterator by locking the directory and finding the first page
+	 * to read
+	 */
+	public void open() throws DbException, TransactionAbortedException {
+		HashDirectoryPage dir;
+		try {
+			dir = f.getDirectory(tid, new HashMap<>(), Permissions.READ_ONLY);
+		} catch (IOException e) {
+			throw new DbException(e.getMessage());
+		}
+		if (ipred != null && ipred.getOp() == Op.EQUALS) {
+			nextPgNo = 0;
+			nextPage = dir.getBucketId(dir.entryFor(HashFile.hash(ipred.getField())));
+		} else if (ipred != null && ipred.getValues() != null) {
+			// several values can share a bucket, so read each bucket once
+			Set<HashPageId> ids = new LinkedHashSet<>();
+			for (Field v : ipred.getValues())
+				ids.add(dir.getBucketId(dir.entryFor(HashFile.hash(v))));
+			nextPgNo = 0;
+			buckets = ids.iterator();
+			nextPage = buckets.hasNext() ? buckets.next() : null;
+		} else {
+			nextPgNo = 1;
+			nextPage = null;
+		}
+		it = Collections.emptyIterator();
+	}
+
+	/**
+	 * Read the next tuple matching the predicate, moving on to the next page
+	 * of the bucket or of the file when the current one runs out
+	 *
+	 * @return the next tuple matching the predicate, or null if none exists
+	 */
+	@Override
+	protected Tuple readNext() throws TransactionAbortedException, DbException {
+		while (it != null) {
+			while (it.hasNext()) {
+				Tuple t = it.next();
+				if (ipred == null || ipred.matches(t.getField(f.keyField())))
+					return t;
+			}
+
+			HashPageId pid;
+			if (nextPgNo == 0) {
+				pid = nextPage;
+				if (pid == null && buckets != null && buckets.hasNext())
+					pid = buckets.next();
+			} else {
+				pid = nextPgNo < f.numPages() ? new HashPageId(f.getId(), nextPgNo++, HashPageId.BUCKET) : null;
+			}
+			if (pid == null) {
+				it = null;
+				break;
+			}
+			HashBucketPage page = (HashBucketPage) Database.getBufferPool().getPage(tid, pid,
+					Permissions.READ_ONLY);
+			nextPage = page.getOverflowId();
+			it = page.iterator();
+		}
+		return null;
+	}
+
+	/**
+	 * rewind this iterator back to the beginning of the tuples
+	 */
+	public void rewind() throws DbException, TransactionAbortedException {
+		close();
+		open();
+	}
+
+	/**
+	 * close the iterator
+	 */
+	public void close() {
+		super.close();
+		it = null;
+		nextPage = null;
+		buckets = null;
+	}
+}
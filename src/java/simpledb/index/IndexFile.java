@@ -0,0 +1,33 @@
+package simpledb.index;
+
+import simpledb.execution.IndexPredicate;
+import simpledb.storage.DbFile;
+import simpledb.storage.DbFileIterator;
+import simpledb.transaction.TransactionId;
+
+/**
+ * A DbFile organized on one of its fields, so that tuples matching an
+ * IndexPredicate on that field can be found without reading the whole file.
+ *
+ * @see BTreeFile
+ * @see HashFile
+ */
+public interface IndexFile extends DbFile {
+
+	/**
+	 * Returns the index of the field that this file is keyed on
+	 */
+	int keyField();
+
+	/**
+	 * get the specified tuples from the file based on its IndexPredicate value on
+	 * behalf of the specified transaction. This method will acquire a read lock on
+	 * the affected pages of the file, and may block until the lock can be
+	 * acquired.
+	 *
+	 * @param tid   - the transaction id
+	 * @param ipred - the index predicate value to filter on
+	 * @return an iterator for the filtered tuples
+	 */
+	DbFileIterator indexIterator(TransactionId tid, IndexPredicate ipred);
+}
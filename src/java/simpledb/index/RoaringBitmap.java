@@ -0,0 +1,346 @@
+package simpledb.index;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * A compressed set of non-negative ints, split into chunks of 2^16 values by
+ * the high 16 bits of each value, as in Roaring bitmaps. A chunk holding
+ * fewer than ARRAY_MAX values is stored as a sorted array of their low 16
+ * bits; a denser chunk as a plain bitmap of 2^16 bits. Sparse sets take two
+ * bytes per value, dense ones one bit, and AND and OR work a chunk at a time.
+ *
+ * @see BitmapIndex
+ */
+public class RoaringBitmap {
+
+	/** Chunks with more values than this are stored as bitmaps. */
+	static final int ARRAY_MAX = 4096;
+
+	private static final int WORDS = (1 << 16) / 64;
+
+	/** The values of one chunk: exactly one of values and words is set */
+	private static final class Container {
+		char[] values;
+		long[] words;
+		int cardinality;
+
+		static Container array(int capacity) {
+			Container c = new Container();
+			c.values = new char[capacity];
+			return c;
+		}
+
+		static Container bitmap() {
+			Container c = new Container();
+			c.words = new long[WORDS];
+			return c;
+		}
+
+		boolean contains(char low) {
+			if (words != null)
+				return (words[low >>> 6] & (1L << low)) != 0;
+			return Arrays.binarySearch(values, 0, cardinality, low) >= 0;
+		}
+
+		/** @return the container holding low as well, which may be a new one */
+		Container add(char low) {
+			if (words != null) {
+				long bit = 1L << low;
+				if ((words[low >>> 6] & bit) == 0) {
+					words[low >>> 6] |= bit;
+					cardinality++;
+				}
+				return this;
+			}
+			int pos = Arrays.binarySearch(values, 0, cardinality, low);
+			if (pos >= 0)
+				return this;
+			if (cardinality == ARRAY_MAX) {
+				Container c = toBitmap();
+				return c.add(low);
+			}
+			pos = -pos - 1;
+			if (cardinality == values.length)
+				values = Arrays.copyOf(values, Math.min(Math.max(4, cardinality * 2), ARRAY_MAX));
+			System.arraycopy(values, pos, values, pos + 1, cardinality - pos);
+			values[pos] = low;
+			cardinality++;
+			return this;
+		}
+
+		/** @return the container without low, which may be a new one */
+		Container remove(char low) {
+			if (words != null) {
+				long bit = 1L << low;
+				if ((words[low >>> 6] & bit) != 0) {
+					words[low >>> 6] &= ~bit;
+					cardinality--;
+				}
+				return cardinality <= ARRAY_MAX ? toArray() : this;
+			}
+			int pos = Arrays.binarySearch(values, 0, cardinality, low);
+			if (pos >= 0) {
+				System.arraycopy(values, pos + 1, values, pos, cardinality - pos - 1);
+				cardinality--;
+			}
+			return this;
+		}
+
+		Container toBitmap() {
+			Container c = bitmap();
+			for (int i = 0; i < cardinality; i++)
+				c.words[values[i] >>> 6] |= 1L << values[i];
+			c.cardinality = cardinality;
+			return c;
+		}
+
+		Container toArray() {
+			Container c = array(cardinality);
+			int n = 0;
+			for (int w = 0; w < WORDS; w++) {
+				long word = words[w];
+				while (word != 0) {
+					c.values[n++] = (char) (w * 64 + Long.numberOfTrailingZeros(word));
+					word &= word - 1;
+				}
+			}
+			c.cardinality = n;
+			return c;
+		}
+
+		/** @return the container of the values in both, or null if there are none */
+		static Container and(Container a, Container b) {
+			if (a.words != null && b.words != null) {
+				Container c = bitmap();
+				for (int w = 0; w < WORDS; w++) {
+					c.words[w] = a.words[w] & b.words[w];
+					c.cardinality += Long.bitCount(c.words[w]);
+				}
+				return c.cardinality == 0 ? null : c.cardinality <= ARRAY_MAX ? c.toArray() : c;
+			}
+			if (a.words != null) {
+				Container t = a;
+				a = b;
+				b = t;
+			}
+			// a is an array: keep its values that are also in b
+			Container c = array(a.cardinality);
+			for (int i = 0; i < a.cardinality; i++) {
+				if (b.contains(a.values[i]))
+					c.values[c.cardinality++] = a.values[i];
+			}
+			return c.cardinality == 0 ? null : c;
+		}
+
+		static Container or(Container a, Container b) {
+			if (a.words == null && b.words == null && a.cardinality + b.cardinality <= ARRAY_MAX) {
+				// merge the two sorted arrays
+				Container c = array(a.cardinality + b.cardinality);
+				int i = 0, j = 0;
+				while (i < a.cardinality || j < b.cardinality) {
+					char v;
+					if (j == b.cardinality || i < a.cardinality && a.values[i] < b.values[j])
+						v = a.values[i++];
+					else if (i == a.cardinality || b.values[j] < a.values[i])
+						v = b.values[j++];
+					else {
+						v = a.values[i++];
+						j++;
+					}
+					c.values[c.cardinality++] = v;
+				}
+				return c;
+			}
+			Container c = a.words != null ? a.copy() : a.toBitmap();
+			if (b.words != null) {
+				c.cardinality = 0;
+				for (int w = 0; w < WORDS; w++) {
+					c.words[w] |= b.words[w];
+					c.cardinality += Long.bitCount(c.words[w]);
+				}
+			} else {
+				for (int i = 0; i < b.cardinality; i++)
+					c.add(b.values[i]);
+			}
+			return c.cardinality <= ARRAY_MAX ? c.toArray() : c;
+		}
+
+		Container copy() {
+			Container c = new Container();
+			c.values = values == null ? null : Arrays.copyOf(values, Math.max(cardinality, 1));
+			c.words = words == null ? null : words.clone();
+			c.cardinality = cardinality;
+			return c;
+		}
+	}
+
+	private final TreeMap<Integer, Container> chunks = new TreeMap<>();
+
+	/**
+	 * Add a value to the set.
+	 *
+	 * @param value - a non-negative int
+	 */
+	public void add(int value) {
+		int high = value >>> 16;
+		Container c = chunks.get(high);
+		if (c == null)
+			c = Container.array(4);
+		chunks.put(high, c.add((char) value));
+	}
+
+	/**
+	 * Remove a value from the set, if it is there.
+	 */
+	public void remove(int value) {
+		int high = value >>> 16;
+		Container c = chunks.get(high);
+		if (c == null)
+			return;
+		c = c.remove((char) value);
+		if (c.cardinality == 0)
+			chunks.remove(high);
+		else
+			chunks.put(high, c);
+	}
+
+	public boolean contains(int value) {
+		Container c = chunks.get(value >>> 16);
+		return c != null && c.contains((char) value);
+	}
+
+	/**
+	 * @return the number of values in the set
+	 */
+	public int cardinality() {
+		int n = 0;
+		for (Container c : chunks.values())
+			n += c.cardinality;
+		return n;
+	}
+
+	public boolean isEmpty() {
+		return chunks.isEmpty();
+	}
+
+	/**
+	 * @return a new set of the values in both this set and other
+	 */
+	public RoaringBitmap and(RoaringBitmap other) {
+		RoaringBitmap result = new RoaringBitmap();
+		for (Map.Entry<Integer, Container> e : chunks.entrySet()) {
+			Container o = other.chunks.get(e.getKey());
+			if (o != null) {
+				Container c = Container.and(e.getValue(), o);
+				if (c != null)
+					result.chunks.put(e.getKey(), c);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * @return a new set of the values in this set or other
+	 */
+	public RoaringBitmap or(RoaringBitmap other) {
+		RoaringBitmap result = copy();
+		for (Map.Entry<Integer, Container> e : other.chunks.entrySet()) {
+			Container c = result.chunks.get(e.getKey());
+			result.chunks.put(e.getKey(), c == null ? e.getValue().copy() : Container.or(c, e.getValue()));
+		}
+		return result;
+	}
+
+	public RoaringBitmap copy() {
+		RoaringBitmap result = new RoaringBitmap();
+		for (Map.Entry<Integer, Container> e : chunks.entrySet())
+			result.chunks.put(e.getKey(), e.getValue().copy());
+		return result;
+	}
+
+	/**
+	 * @return the values of the set in ascending order
+	 */
+	public PrimitiveIterator.OfInt iterator() {
+		return new PrimitiveIterator.OfInt() {
+			private final Iterator<Map.Entry<Integer, Container>> it = chunks.entrySet().iterator();
+			private int high;
+			private Container c = null;
+			private int pos = 0; // index into values, or bit position in words
+
+			public boolean hasNext() {
+				while (true) {
+					if (c != null) {
+						if (c.words == null) {
+							if (pos < c.cardinality)
+								return true;
+						} else {
+							while (pos < (1 << 16) && (c.words[pos >>> 6] >>> pos) == 0)
+								pos = (pos | 63) + 1;
+							if (pos < (1 << 16)) {
+								pos += Long.numberOfTrailingZeros(c.words[pos >>> 6] >>> pos);
+								return true;
+							}
+						}
+					}
+					if (!it.hasNext())
+						return false;
+					Map.Entry<Integer, Container> e = it.next();
+					high = e.getKey();
+					c = e.getValue();
+					pos = 0;
+				}
+			}
+
+			public int nextInt() {
+				if (!hasNext())
+					throw new NoSuchElementException();
+				int low = c.words == null ? c.values[pos] : pos;
+				pos++;
+				return high << 16 | low;
+			}
+		};
+	}
+
+	/**
+	 * Write the set in a form {@link #read} can read back.
+	 */
+	public void write(DataOutputStream dos) throws IOException {
+		dos.writeInt(chunks.size());
+		for (Map.Entry<Integer, Container> e : chunks.entrySet()) {
+			Container c = e.getValue();
+			dos.writeChar(e.getKey());
+			dos.writeInt(c.cardinality);
+			if (c.words == null) {
+				for (int i = 0; i < c.cardinality; i++)
+					dos.writeChar(c.values[i]);
+			} else {
+				for (long w : c.words)
+					dos.writeLong(w);
+			}
+		}
+	}
+
+	public static RoaringBitmap read(DataInputStream dis) throws IOException {
+		RoaringBitmap result = new RoaringBitmap();
+		int n = dis.readInt();
+		for (int i = 0; i < n; i++) {
+			int high = dis.readChar();
+			int cardinality = dis.readInt();
+			Container c;
+			if (cardinality <= ARRAY_MAX) {
+				c = Container.array(Math.max(cardinality, 1));
+				for (int j = 0; j < cardinality; j++)
+					c.values[j] = dis.readChar();
+			} else {
+				c = Container.bitmap();
+				for (int j = 0; j < WORDS; j++)
+					c.words[j] = dis.readLong();
+			}
+			c.cardinality = cardinality;
+			result.chunks.put(high, c);
+		}
+		return result;
+	}
+}
@@ -0,0 +1,356 @@
+package simpledb.index;
+
+import java.io.*;
+import java.util.*;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Permissions;
+import simpledb.common.Type;
+import simpledb.execution.IndexPredicate;
+import simpledb.execution.OpIterator;
+import simpledb.execution.Operator;
+import simpledb.execution.Predicate.Op;
+import simpledb.execution.SeqScan;
+import simpledb.storage.*;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+/**
+ * SecondaryIndex is a B+ tree over one field of a HeapFile table. Each entry
+ * of the tree holds a key and the RecordId of the heap tuple with that key,
+ * stored as (key, page number, slot), so lookups return the heap tuples
+ * themselves by fetching them through the BufferPool.
+ * <p>
+ * Indexes are registered with {@link simpledb.common.Catalog#addIndex} and
+ * kept up to date by BufferPool.insertTuple and BufferPool.deleteTuple.
+ * Inserts into leaves that are not in the BufferPool are held in the tree's
+ * change buffer and merged when the leaf is next read, or by
+ * {@link #mergeChanges}, so that random inserts do not each read a leaf.
+ * Deletes always go to the leaf, since entries with equal keys are not kept
+ * in RecordId order and the leaf holding an entry is only known by reading
+ * it.
+ *
+ * @see BTreeFile
+ * @see HeapFile
+ */
+public class SecondaryIndex {
+
+	private final int tableid;
+	private final int field;
+	private final BTreeFile file;
+
+	// the transaction that created and loaded the index, until it completes
+	private volatile TransactionId creator = null;
+
+	/**
+	 * Constructs a secondary index on a field of a heap table, stored in a
+	 * B+ tree whose tuples have the layout given by {@link #getEntryDesc}.
+	 *
+	 * @param tableid - the id of the indexed table
+	 * @param field   - the index of the indexed field in the table
+	 * @param file    - the B+ tree storing the entries, keyed on field 0
+	 * @throws IOException if the log of the tree's change buffer cannot be
+	 *                     replayed
+	 */
+	public SecondaryIndex(int tableid, int field, BTreeFile file) throws IOException {
+		this.tableid = tableid;
+		this.field = field;
+		this.file = file;
+		file.enableChangeBuffer();
+	}
+
+	/**
+	 * Create an index on a field of a heap table, build it from the current
+	 * contents of the table, and register it with the Catalog. The index is
+	 * registered before it is loaded, so that inserts into the table wait for
+	 * the load rather than miss the index. If the load fails, or tid later
+	 * aborts, the index is dropped from the Catalog and its file emptied.
+	 *
+	 * @param tid     - the transaction id
+	 * @param tableid - the id of the table to index, which must be a HeapFile
+	 * @param field   - the index of the field to index
+	 * @param f       - the file to store the index in; anything already in it,
+	 *                such as a load cut short by a crash, is discarded
+	 * @return the new index
+	 * @throws DbException if the table is not a HeapFile
+	 */
+	public static SecondaryIndex create(TransactionId tid, int tableid, int field, File f)
+			throws DbException, IOException, TransactionAbortedException {
+		if (!(Database.getCatalog().getDatabaseFile(tableid) instanceof HeapFile))
+			throw new DbException("secondary indexes are only supported on heap files");
+		TupleDesc desc = getEntryDesc(Database.getCatalog().getTupleDesc(tableid).getFieldType(field));
+		BTreeFile bf = new BTreeFile(f, 0, desc);
+		bf.discardAllPages();
+		ChangeBuffer.logFile(f).delete();
+		SecondaryIndex index = new SecondaryIndex(tableid, field, bf);
+		index.creator = tid;
+		Database.getCatalog().addIndex(index);
+		try {
+			index.file.bulkLoad(tid, index.new EntryScan(new SeqScan(tid, tableid)),
+					BTreeBulkLoader.DEFAULT_FILL_FACTOR);
+		} catch (DbException | TransactionAbortedException e) {
+			Database.getCatalog().removeIndex(index);
+			throw e;
+		}
+		return index;
+	}
+
+	/**
+	 * @param keyType - the type of the indexed field
+	 * @return the layout of the entries of an index on a field of that type
+	 */
+	public static TupleDesc getEntryDesc(Type keyType) {
+		return new TupleDesc(new Type[] { keyType, Type.INT_TYPE, Type.INT_TYPE },
+				new String[] { "key", "page", "slot" });
+	}
+
+	/**
+	 * @return the id of the indexed table
+	 */
+	public int getTableId() {
+		return tableid;
+	}
+
+	/**
+	 * @return the index of the indexed field in the table
+	 */
+	public int getField() {
+		return field;
+	}
+
+	/**
+	 * @return the B+ tree storing the entries of this index
+	 */
+	public BTreeFile getFile() {
+		return file;
+	}
+
+	/**
+	 * @param t - a tuple stored in the indexed table
+	 * @return the index entry for t
+	 */
+	Tuple entryFor(Tuple t) {
+		RecordId rid = t.getRecordId();
+		Tuple entry = new Tuple(file.getTupleDesc());
+		entry.setField(0, t.getField(field));
+		entry.setField(1, new IntField(rid.getPageId().getPageNumber()));
+		entry.setField(2, new IntField(rid.getTupleNumber()));
+		return entry;
+	}
+
+	/**
+	 * Add the entry for a tuple that has just been inserted into the table.
+	 *
+	 * @param tid - the transaction id
+	 * @param t   - the inserted tuple, with its RecordId set
+	 * @return a list of all pages that were dirtied by this operation
+	 */
+	public List<Page> insertTuple(TransactionId tid, Tuple t)
+			throws DbException, IOException, TransactionAbortedException {
+		Tuple entry = entryFor(t);
+		if (file.bufferInsert(tid, entry))
+			return Collections.emptyList();
+		return file.insertTuple(tid, entry);
+	}
+
+	/**
+	 * Remove the entry for a tuple that is about to be deleted from the table.
+	 *
+	 * @param tid - the transaction id
+	 * @param t   - the tuple, with its RecordId still set
+	 * @return a list of all pages that were dirtied by this operation
+	 * @throws DbException if the index has no entry for the tuple
+	 */
+	public List<Page> deleteTuple(TransactionId tid, Tuple t)
+			throws DbException, IOException, TransactionAbortedException {
+		Tuple target = entryFor(t);
+		DbFileIterator it = file.indexIterator(tid, new IndexPredicate(Op.EQUALS, target.getField(0)));
+		it.open();
+		try {
+			while (it.hasNext()) {
+				Tuple entry = it.next();
+				if (entry.getField(1).equals(target.getField(1)) && entry.getField(2).equals(target.getField(2)))
+					return file.deleteTuple(tid, entry);
+			}
+		} finally {
+			it.close();
+		}
+		throw new DbException("no index entry for tuple " + t.getRecordId());
+	}
+
+	/**
+	 * Commit or abort the index entries a transaction left in the change
+	 * buffer, and drop the index if the transaction created it and aborted.
+	 * Called by the BufferPool when the transaction completes, before its
+	 * locks are released and, on commit, before any of its pages are flushed.
+	 *
+	 * @param tid    - the transaction id
+	 * @param commit - whether the transaction committed
+	 * @throws IOException if the change buffer log could not be forced, in
+	 *         which case the transaction must abort instead
+	 */
+	public void transactionComplete(TransactionId tid, boolean commit) throws IOException {
+		file.changesComplete(tid, commit);
+		if (tid.equals(creator)) {
+			creator = null;
+			if (!commit) {
+				// the load bypassed the BufferPool, so it is undone here; tid still
+				// holds the root pointer page lock, keeping others out of the tree
+				Database.getCatalog().removeIndex(this);
+				file.discardAllPages();
+			}
+		}
+	}
+
+	/**
+	 * Merge buffered entries into their leaves, reading each leaf in a
+	 * transaction of its own.
+	 *
+	 * @param maxLeaves - the most leaves to merge
+	 * @return the number of leaves merged
+	 */
+	public int mergeChanges(int maxLeaves) throws DbException {
+		return file.mergeChanges(maxLeaves);
+	}
+
+	/**
+	 * Start a daemon thread that merges buffered entries in the background,
+	 * up to maxLeaves leaves every intervalMillis milliseconds, until it is
+	 * interrupted.
+	 *
+	 * @return the merger thread
+	 */
+	public Thread startMerger(long intervalMillis, int maxLeaves) {
+		Thread merger = new Thread(() -> {
+			try {
+				while (!Thread.currentThread().isInterrupted()) {
+					Thread.sleep(intervalMillis);
+					try {
+						mergeChanges(maxLeaves);
+					} catch (DbException e) {
+						e.printStackTrace();
+					}
+				}
+			} catch (InterruptedException e) {
+				// stopped
+			}
+		}, "change buffer merger");
+		merger.setDaemon(true);
+		merger.start();
+		return merger;
+	}
+
+	/**
+	 * Get the tuples of the indexed table whose indexed field matches a
+	 * predicate, by searching the index and fetching each matching tuple from
+	 * its heap page.
+	 *
+	 * @param tid   - the transaction id
+	 * @param ipred - the predicate on the indexed field
+	 * @return an iterator over the matching heap tuples
+	 */
+	public DbFileIterator iterator(TransactionId tid, IndexPredicate ipred) {
+		return new SecondaryIndexIterator(tid, file.indexIterator(tid, ipred));
+	}
+
+	/**
+	 * Get the tuples of the indexed table whose indexed field matches a
+	 * predicate, largest value first.
+	 *
+	 * @param tid   - the transaction id
+	 * @param ipred - the predicate on the indexed field, or null for all tuples
+	 * @return an iterator over the matching heap tuples
+	 * @see BTreeFile#reverseIndexIterator
+	 */
+	public DbFileIterator reverseIterator(TransactionId tid, IndexPredicate ipred) {
+		return new SecondaryIndexIterator(tid, file.reverseIndexIterator(tid, ipred));
+	}
+
+	/**
+	 * Fetches the heap tuple each index entry points to
+	 */
+	private class SecondaryIndexIterator extends AbstractDbFileIterator {
+		private final TransactionId tid;
+		private final DbFileIterator entries;
+
+		SecondaryIndexIterator(TransactionId tid, DbFileIterator entries) {
+			this.tid = tid;
+			this.entries = entries;
+		}
+
+		public void open() throws DbException, TransactionAbortedException {
+			entries.open();
+		}
+
+		@Override
+		protected Tuple readNext() throws DbException, TransactionAbortedException {
+			if (!entries.hasNext())
+				return null;
+			Tuple entry = entries.next();
+			HeapPageId pid = new HeapPageId(tableid, ((IntField) entry.getField(1)).getValue());
+			HeapPage page = (HeapPage) Database.getBufferPool().getPage(tid, pid, Permissions.READ_ONLY);
+			Tuple t = page.getTuple(((IntField) entry.getField(2)).getValue());
+			if (t == null)
+				throw new DbException("index entry points to an empty slot on " + pid.getPageNumber());
+			return t;
+		}
+
+		public void rewind() throws DbException, TransactionAbortedException {
+			close();
+			open();
+		}
+
+		public void close() {
+			super.close();
+			entries.close();
+		}
+	}
+
+	/**
+	 * Turns the tuples of the table into index entries, to bulk load the index
+	 */
+	private class EntryScan extends Operator {
+		private static final long serialVersionUID = 1L;
+
+		private OpIterator child;
+
+		EntryScan(OpIterator child) {
+			this.child = child;
+		}
+
+		public void open() throws DbException, TransactionAbortedException {
+			child.open();
+			super.open();
+		}
+
+		public void close() {
+			super.close();
+			child.close();
+		}
+
+		public void rewind() throws DbException, TransactionAbortedException {
+			child.rewind();
+		}
+
+		@Override
+		protected Tuple fetchNext() throws DbException, TransactionAbortedException {
+			return child.hasNext() ? entryFor(child.next()) : null;
+		}
+
+		@Override
+		public OpIterator[] getChildren() {
+			return new OpIterator[] { child };
+		}
+
+		@Override
+		public void setChildren(OpIterator[] children) {
+			child = children[0];
+		}
+
+		@Override
+		public TupleDesc getTupleDesc() {
+			return file.getTupleDesc();
+		}
+	}
+}
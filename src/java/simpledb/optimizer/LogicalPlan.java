@@ -4,6 +4,12 @@ import simpledb.common.Database;
 import simpledb.ParsingException;
 import simpledb.common.Type;
 import simpledb.execution.*;
+import simpledb.index.BTreeFile;
+import simpledb.index.BitmapIndex;
+import simpledb.index.BTreeScan;
+import simpledb.index.CompositeKey;
+import simpledb.index.IndexFile;
+import simpledb.index.SecondaryIndex;
 import simpledb.storage.*;
 import simpledb.transaction.TransactionId;
 
@@ -179,6 +185,8 @@ public class LogicalPlan {
     */
     public void addProjectField(String fname, String aggOp) throws ParsingException {
         fname=disambiguateName(fname);
+        if (fname.equals("*") && "COUNT".equalsIgnoreCase(aggOp))
+            fname=countStarField();
         if (fname.equals("*"))
             fname="null.*";
         System.out.println("Added select list field " + fname);
@@ -198,6 +206,8 @@ public class LogicalPlan {
     */
     public void addAggregate(String op, String afield, String gfield) throws ParsingException {
         afield=disambiguateName(afield);
+        if (afield.equals("*") && "COUNT".equalsIgnoreCase(op))
+            afield=countStarField();
         if (gfield!=null)
             gfield=disambiguateName(gfield);
         aggOp = op;
@@ -219,6 +229,14 @@ public class LogicalPlan {
         hasOrderBy = true;
     }
 
+    /** @return the field to count for COUNT(*); fields are never null, so any field will do */
+    private String countStarField() throws ParsingException {
+        if (tables.isEmpty())
+            throw new ParsingException("COUNT(*) needs a table in the FROM clause");
+        LogicalScanNode table = tables.get(0);
+        return table.alias + "." + Database.getCatalog().getTupleDesc(table.t).getFieldName(0);
+    }
+
     /** Given a name of a field, try to figure out what table it belongs to by looking
      *   through all of the tables added via {@link #addScan}. 
      *  @return A fully qualified name of the form tableAlias.name.  If the name parameter is already qualified
@@ -274,6 +292,463 @@ public class LogicalPlan {
         throw new ParsingException("Unknown predicate " + s);
     }
 
+    /** @return true if field (a pure field name) is the primary key of the table with the given alias */
+    private boolean isPkey(String tableAlias, String field) {
+        Integer tableId = getTableId(tableAlias);
+        return tableId != null && field.equals(Database.getCatalog().getPrimaryKey(tableId));
+    }
+
+    /** Collect, for each table alias, the pure names of the fields the query
+     *  references anywhere in the plan (select list, filters, joins,
+     *  aggregate, group by and order by).  Columns outside these sets never
+     *  need to leave the scan.
+     *  @return a map from table alias to referenced field names, or null if
+     *    the query needs every column (e.g., SELECT *)
+     */
+    private Map<String,Set<String>> referencedFields() {
+        Map<String,Set<String>> fields = new HashMap<>();
+        List<String> names = new ArrayList<>();
+        for (LogicalSelectListNode si : selectList)
+            names.add(si.fname);
+        for (LogicalFilterNode lf : filters)
+            names.add(lf.fieldQuantifiedName);
+        for (LogicalJoinNode lj : joins) {
+            names.add(lj.f1QuantifiedName);
+            if (!(lj instanceof LogicalSubplanJoinNode))
+                names.add(lj.f2QuantifiedName);
+        }
+        if (hasAgg) {
+            names.add(aggField);
+            if (groupByField != null)
+                names.add(groupByField);
+        }
+        if (hasOrderBy)
+            names.add(oByField);
+
+        for (String name : names) {
+            String[] parts = name.split("[.]");
+            if (parts.length != 2 || parts[1].equals("*"))
+                return null;
+            fields.computeIfAbsent(parts[0], k -> new HashSet<>()).add(parts[1]);
+        }
+        return fields;
+    }
+
+    /** Map a set of referenced field names onto indices of td, in table order.
+     *  @return the indices to keep, or null if no pruning is possible
+     */
+    private static int[] prunedFields(TupleDesc td, Set<String> names) {
+        if (names == null || names.isEmpty())
+            return null;
+        List<Integer> keep = new ArrayList<>();
+        for (int i = 0; i < td.numFields(); i++) {
+            if (names.contains(td.getFieldName(i)))
+                keep.add(i);
+        }
+        if (keep.isEmpty() || keep.size() == td.numFields())
+            return null;
+        int[] out = new int[keep.size()];
+        for (int i = 0; i < out.length; i++)
+            out[i] = keep.get(i);
+        return out;
+    }
+
+    /** The predicates a B+ tree index can answer without scanning every entry */
+    private static final Set<Predicate.Op> INDEX_OPS = EnumSet.of(Predicate.Op.EQUALS,
+            Predicate.Op.GREATER_THAN, Predicate.Op.GREATER_THAN_OR_EQ,
+            Predicate.Op.LESS_THAN, Predicate.Op.LESS_THAN_OR_EQ);
+
+    /** Pages charged for descending an index to the first matching entry */
+    static final int INDEX_PROBE_PAGES = 3;
+
+    /** A predicate an index could answer, made of one or two filters on the same field */
+    private static class IndexCandidate {
+        final int field;
+        final IndexPredicate ipred;
+        final List<LogicalFilterNode> filters;
+        final double selectivity;
+
+        IndexCandidate(int field, IndexPredicate ipred, List<LogicalFilterNode> filters,
+                double selectivity) {
+            this.field = field;
+            this.ipred = ipred;
+            this.filters = filters;
+            this.selectivity = selectivity;
+        }
+    }
+
+    /** Find the predicates an index on one of the table's fields could answer: each equality
+     *  filter on its own, and the tightest lower and upper bound on each field, combined into a
+     *  single range when the field has both.
+     *  @param stats the statistics of the table
+     */
+    private List<IndexCandidate> indexCandidates(LogicalScanNode table, TupleDesc td, TableStats stats) {
+        List<IndexCandidate> candidates = new ArrayList<>();
+        Map<Integer, LogicalFilterNode> lowers = new LinkedHashMap<>();
+        Map<Integer, LogicalFilterNode> uppers = new LinkedHashMap<>();
+        for (LogicalFilterNode lf : filters) {
+            if (!lf.tableAlias.equals(table.alias) || !INDEX_OPS.contains(lf.p))
+                continue;
+            int field;
+            try {
+                field = td.fieldNameToIndex(lf.fieldPureName);
+            } catch (NoSuchElementException e) {
+                continue;
+            }
+            Field c = filterConstant(lf, td.getFieldType(field));
+            switch (lf.p) {
+            case EQUALS:
+                candidates.add(new IndexCandidate(field, new IndexPredicate(lf.p, c),
+                        Collections.singletonList(lf), selectivity(stats, field, lf, c)));
+                break;
+            case GREATER_THAN:
+            case GREATER_THAN_OR_EQ:
+                lowers.merge(field, lf, (a, b) -> tighter(td.getFieldType(field), a, b, Predicate.Op.GREATER_THAN));
+                break;
+            default:
+                uppers.merge(field, lf, (a, b) -> tighter(td.getFieldType(field), a, b, Predicate.Op.LESS_THAN));
+            }
+        }
+
+        Set<Integer> fields = new LinkedHashSet<>(lowers.keySet());
+        fields.addAll(uppers.keySet());
+        for (int field : fields) {
+            Type ftyp = td.getFieldType(field);
+            LogicalFilterNode lo = lowers.get(field), hi = uppers.get(field);
+            if (lo != null && hi != null) {
+                Field loc = filterConstant(lo, ftyp), hic = filterConstant(hi, ftyp);
+                IndexPredicate ipred = IndexPredicate.range(loc, lo.p == Predicate.Op.GREATER_THAN_OR_EQ,
+                        hic, hi.p == Predicate.Op.LESS_THAN_OR_EQ);
+                // the fraction of keys above lo that are also below hi
+                double sel = Math.max(0, selectivity(stats, field, lo, loc) + selectivity(stats, field, hi, hic) - 1);
+                candidates.add(new IndexCandidate(field, ipred, Arrays.asList(lo, hi), sel));
+            } else {
+                LogicalFilterNode lf = lo != null ? lo : hi;
+                Field c = filterConstant(lf, ftyp);
+                candidates.add(new IndexCandidate(field, new IndexPredicate(lf.p, c),
+                        Collections.singletonList(lf), selectivity(stats, field, lf, c)));
+            }
+        }
+        return candidates;
+    }
+
+    /** Find the predicate a B+ tree with a composite key could answer: equality filters on as many
+     *  leading key fields as have them, then the tightest bounds on the next key field, if any.
+     *  @param stats the statistics of the table
+     *  @return the candidate, whose field is the key field the lookup returns its tuples in the
+     *    order of, or null if the filters do not bound the first key field
+     */
+    private IndexCandidate prefixCandidate(LogicalScanNode table, TupleDesc td, CompositeKey key,
+            TableStats stats) {
+        Map<Integer, List<LogicalFilterNode>> byField = new HashMap<>();
+        for (LogicalFilterNode lf : filters) {
+            if (!lf.tableAlias.equals(table.alias) || !INDEX_OPS.contains(lf.p))
+                continue;
+            try {
+                byField.computeIfAbsent(td.fieldNameToIndex(lf.fieldPureName), k -> new ArrayList<>()).add(lf);
+            } catch (NoSuchElementException e) {
+                // not a field of this table
+            }
+        }
+
+        List<Field> prefix = new ArrayList<>();
+        List<LogicalFilterNode> used = new ArrayList<>();
+        double sel = 1;
+        int i = 0;
+        for (; i < key.numFields(); i++) {
+            int field = key.field(i);
+            LogicalFilterNode eq = null, lo = null, hi = null;
+            for (LogicalFilterNode lf : byField.getOrDefault(field, Collections.emptyList())) {
+                if (lf.p == Predicate.Op.EQUALS)
+                    eq = lf;
+                else if (lf.p == Predicate.Op.GREATER_THAN || lf.p == Predicate.Op.GREATER_THAN_OR_EQ)
+                    lo = lo == null ? lf : tighter(Type.INT_TYPE, lo, lf, Predicate.Op.GREATER_THAN);
+                else
+                    hi = hi == null ? lf : tighter(Type.INT_TYPE, hi, lf, Predicate.Op.LESS_THAN);
+            }
+            if (eq != null) {
+                Field c = filterConstant(eq, Type.INT_TYPE);
+                prefix.add(c);
+                used.add(eq);
+                sel *= selectivity(stats, field, eq, c);
+                continue;
+            }
+            if (lo == null && hi == null)
+                break;
+            Field loc = lo == null ? null : filterConstant(lo, Type.INT_TYPE);
+            Field hic = hi == null ? null : filterConstant(hi, Type.INT_TYPE);
+            double loSel = lo == null ? 1 : selectivity(stats, field, lo, loc);
+            double hiSel = hi == null ? 1 : selectivity(stats, field, hi, hic);
+            if (lo != null)
+                used.add(lo);
+            if (hi != null)
+                used.add(hi);
+            IndexPredicate ipred = IndexPredicate.prefix(prefix,
+                    loc, lo != null && lo.p == Predicate.Op.GREATER_THAN_OR_EQ,
+                    hic, hi != null && hi.p == Predicate.Op.LESS_THAN_OR_EQ);
+            return new IndexCandidate(field, ipred, used, sel * Math.max(0, loSel + hiSel - 1));
+        }
+        if (prefix.isEmpty())
+            return null;
+        return new IndexCandidate(key.field(Math.min(i, key.numFields() - 1)), IndexPredicate.prefix(prefix),
+                used, sel);
+    }
+
+    /** Find a lookup on the table's own key, for planning without statistics: the prefix
+     *  candidate of a composite key, or else the first candidate on the key field, equality
+     *  filters coming first.
+     *  @param composite the table's composite key, or null if it has none
+     *  @param stats the statistics of the table, or null if there are none
+     *  @return the lookup, or null if the table is not an index file or no filter is on its key
+     */
+    private IndexCandidate keyLookup(LogicalScanNode table, DbFile f, CompositeKey composite,
+            TableStats stats) {
+        if (!(f instanceof IndexFile))
+            return null;
+        if (composite != null)
+            return prefixCandidate(table, f.getTupleDesc(), composite, stats);
+        int keyField = ((IndexFile) f).keyField();
+        for (IndexCandidate cand : indexCandidates(table, f.getTupleDesc(), stats)) {
+            if (cand.field == keyField
+                    && (f instanceof BTreeFile || cand.ipred.getOp() == Predicate.Op.EQUALS))
+                return cand;
+        }
+        return null;
+    }
+
+    /** @return whichever of two bounds on the same field excludes more keys */
+    private static LogicalFilterNode tighter(Type ftyp, LogicalFilterNode a, LogicalFilterNode b, Predicate.Op dir) {
+        Field ac = filterConstant(a, ftyp), bc = filterConstant(b, ftyp);
+        if (ac.compare(Predicate.Op.EQUALS, bc))
+            return a.p == dir ? a : b;
+        return ac.compare(dir, bc) ? a : b;
+    }
+
+    private static double selectivity(TableStats stats, int field, LogicalFilterNode lf, Field c) {
+        return stats == null ? 1.0 : stats.estimateSelectivity(field, lf.p, c);
+    }
+
+    /** An order on one field of a table that the table's scan should produce, if an index can */
+    private static class RequiredOrder {
+        final int field;
+        final boolean asc;
+        /** only the first tuple in this order will be read, as for MIN and MAX */
+        final boolean firstOnly;
+
+        RequiredOrder(int field, boolean asc, boolean firstOnly) {
+            this.field = field;
+            this.asc = asc;
+            this.firstOnly = firstOnly;
+        }
+    }
+
+    /** Choose how to read a table: a full scan, or an index lookup that answers some of its
+     *  filters. An index lookup is either a scan of the table itself, if it is an
+     *  {@link IndexFile} keyed on the filtered field, or a scan of a {@link SecondaryIndex}.
+     *  A lower and an upper bound on the same field are answered together by one range search.
+     *  <p>
+     *  With statistics, each lookup is costed from the filter's selectivity: a lookup on the
+     *  table's own key reads that fraction of its pages, while a secondary index reads that
+     *  fraction of its entries and then fetches each matching tuple from the table, reading each
+     *  table page at most once. The cheapest path wins, and ties go to the full scan. Without
+     *  statistics a lookup on the table's own key is still used, preferring equality filters,
+     *  since it never reads more pages than the full scan; a secondary or bitmap index is not,
+     *  since a wrong guess at a filter's selectivity can cost far more than the full scan it
+     *  replaces.
+     *  <p>
+     *  A B+ tree table with a composite key answers equality filters on its leading key fields
+     *  and bounds on the key field after them with one range search, costed like a lookup on a
+     *  single key field.
+     *  <p>
+     *  If the query wants its output ordered on a field, B+ tree scans on that field return
+     *  their tuples in that order, and a B+ tree table keyed on the field is read in key order
+     *  instead of by a plain scan. Such ordered paths win ties, since they save a sort. If only
+     *  the first tuple in that order is needed, an ordered path only costs the descent to its
+     *  first entry, and a secondary index on the field is also worth reading from one end.
+     *  These ordered paths are used even without statistics, since they never read more than
+     *  a full scan does.
+     *  <p>
+     *  Filters on fields with bitmap indexes are answered together, by one {@link BitmapScan}
+     *  that ANDs their bitmaps. It is costed as a page per bitmap plus a table page per tuple in
+     *  the combined selectivity of the filters, taken to be independent.
+     *  <p>
+     *  A full scan is given the filters on INT fields, so that it can skip the pages of a heap
+     *  file whose zone map rules them out. The filters still run above the scan.
+     *
+     *  @param table the table to read
+     *  @param outFields the fields the scan should return, or null for all of them
+     *  @param stats the statistics of the table, or null if there are none
+     *  @param indexedFilters the filters answered by the returned operator are added here
+     *  @param order the order the output should have, or null
+     *  @param orderedAliases the table's alias is added here if the returned operator
+     *    produces the requested order
+     *  @return the scan operator for the table
+     */
+    private OpIterator accessPath(TransactionId t, LogicalScanNode table, int[] outFields, TableStats stats,
+            Set<LogicalFilterNode> indexedFilters, RequiredOrder order, Set<String> orderedAliases) {
+        DbFile f = Database.getCatalog().getDatabaseFile(table.t);
+        boolean costed = stats != null && stats.totalTuples() > 0;
+        double io = costed ? stats.getIoCostPerPage() : 0;
+        double scanCost = costed ? stats.estimateScanCost() : Double.MAX_VALUE;
+        double pages = io > 0 ? scanCost / io : 0;
+        int orderField = order == null ? -1 : order.field;
+        boolean reverse = order != null && !order.asc;
+        double firstCost = INDEX_PROBE_PAGES * io;
+
+        double bestCost = scanCost;
+        boolean bestOrdered = false;
+        OpIterator best = null;
+        List<LogicalFilterNode> bestFilters = Collections.emptyList();
+        if (f instanceof BTreeFile && ((BTreeFile) f).keyField() == orderField) {
+            bestCost = order.firstOnly ? firstCost : scanCost;
+            bestOrdered = true;
+            best = new BTreeScan(t, table.t, table.alias, outFields, null, reverse);
+        } else if (order != null && order.firstOnly && Database.getCatalog().getIndex(table.t, orderField) != null) {
+            bestCost = firstCost;
+            bestOrdered = true;
+            best = new IndexScan(t, table.t, table.alias, outFields, Database.getCatalog().getIndex(table.t, orderField),
+                    IndexPredicate.range(null, false, null, false), reverse);
+        }
+
+        CompositeKey composite = f instanceof BTreeFile ? ((BTreeFile) f).getCompositeKey() : null;
+        if (!costed) {
+            IndexCandidate lookup = keyLookup(table, f, composite, stats);
+            if (lookup != null) {
+                boolean ordered = f instanceof BTreeFile && lookup.field == orderField;
+                // an unordered lookup still beats reading the whole table in order, unless only
+                // the first tuple in that order is needed
+                if (!bestOrdered || ordered || !order.firstOnly) {
+                    bestOrdered = ordered;
+                    best = new BTreeScan(t, table.t, table.alias, outFields, lookup.ipred, ordered && reverse);
+                    bestFilters = lookup.filters;
+                }
+            }
+            if (best == null)
+                return fullScan(t, table, f, outFields);
+            indexedFilters.addAll(bestFilters);
+            if (bestOrdered)
+                orderedAliases.add(table.alias);
+            return best;
+        }
+
+        IndexCandidate prefixCand = composite == null ? null
+                : prefixCandidate(table, f.getTupleDesc(), composite, stats);
+        if (prefixCand != null) {
+            double cost = INDEX_PROBE_PAGES * io + prefixCand.selectivity * scanCost;
+            boolean ordered = prefixCand.field == orderField;
+            if (ordered && order.firstOnly)
+                cost = firstCost;
+            if (cost < bestCost || cost == bestCost && ordered && !bestOrdered) {
+                bestCost = cost;
+                bestOrdered = ordered;
+                best = new BTreeScan(t, table.t, table.alias, outFields, prefixCand.ipred, ordered && reverse);
+                bestFilters = prefixCand.filters;
+            }
+        }
+
+        for (IndexCandidate cand : indexCandidates(table, f.getTupleDesc(), stats)) {
+            double sel = cand.selectivity;
+            boolean ordered = cand.field == orderField;
+
+            // the table is organized on this field
+            if (f instanceof IndexFile && ((IndexFile) f).keyField() == cand.field && composite == null
+                    && (f instanceof BTreeFile || cand.ipred.getOp() == Predicate.Op.EQUALS)) {
+                double cost = INDEX_PROBE_PAGES * io + sel * scanCost;
+                ordered &= f instanceof BTreeFile;
+                if (ordered && order.firstOnly)
+                    cost = firstCost;
+                if (cost < bestCost || cost == bestCost && ordered && !bestOrdered) {
+                    bestCost = cost;
+                    bestOrdered = ordered;
+                    best = new BTreeScan(t, table.t, table.alias, outFields, cand.ipred, ordered && reverse);
+                    bestFilters = cand.filters;
+                }
+            }
+
+            SecondaryIndex index = Database.getCatalog().getIndex(table.t, cand.field);
+            if (index != null) {
+                double cost = (INDEX_PROBE_PAGES + sel * index.getFile().numPages()
+                        + Math.min(sel * stats.totalTuples(), pages)) * io;
+                ordered = cand.field == orderField;
+                if (ordered && order.firstOnly)
+                    cost = firstCost;
+                if (cost < bestCost || cost == bestCost && ordered && !bestOrdered) {
+                    bestCost = cost;
+                    bestOrdered = ordered;
+                    best = new IndexScan(t, table.t, table.alias, outFields, index, cand.ipred, ordered && reverse);
+                    bestFilters = cand.filters;
+                }
+            }
+        }
+
+        List<BitmapIndex> bitmapIndexes = new ArrayList<>();
+        List<IndexPredicate> bitmapPreds = new ArrayList<>();
+        List<LogicalFilterNode> bitmapFilters = new ArrayList<>();
+        double bitmapSel = 1;
+        for (LogicalFilterNode lf : filters) {
+            if (!lf.tableAlias.equals(table.alias) || lf.p == Predicate.Op.LIKE)
+                continue;
+            int field;
+            try {
+                field = f.getTupleDesc().fieldNameToIndex(lf.fieldPureName);
+            } catch (NoSuchElementException e) {
+                continue;
+            }
+            BitmapIndex index = Database.getCatalog().getBitmapIndex(table.t, field);
+            if (index != null) {
+                Field c = filterConstant(lf, f.getTupleDesc().getFieldType(field));
+                bitmapIndexes.add(index);
+                bitmapPreds.add(new IndexPredicate(lf.p, c));
+                bitmapFilters.add(lf);
+                bitmapSel *= selectivity(stats, field, lf, c);
+            }
+        }
+        if (!bitmapFilters.isEmpty()) {
+            double cost = (bitmapIndexes.size() + Math.min(bitmapSel * stats.totalTuples(), pages)) * io;
+            if (cost < bestCost) {
+                bestCost = cost;
+                bestOrdered = false;
+                best = new BitmapScan(t, table.t, table.alias, outFields, bitmapIndexes, bitmapPreds);
+                bestFilters = bitmapFilters;
+            }
+        }
+
+        if (best == null)
+            return fullScan(t, table, f, outFields);
+        indexedFilters.addAll(bestFilters);
+        if (bestOrdered)
+            orderedAliases.add(table.alias);
+        return best;
+    }
+
+    /** @return a SeqScan of the table, given the table's filters on INT fields to check
+     *    against the zone maps of its pages */
+    private SeqScan fullScan(TransactionId t, LogicalScanNode table, DbFile f, int[] outFields) {
+        SeqScan scan = new SeqScan(t, table.t, table.alias, outFields);
+        TupleDesc td = f.getTupleDesc();
+        for (LogicalFilterNode lf : filters) {
+            if (!lf.tableAlias.equals(table.alias))
+                continue;
+            int field;
+            try {
+                field = td.fieldNameToIndex(lf.fieldPureName);
+            } catch (NoSuchElementException e) {
+                continue;
+            }
+            if (td.getFieldType(field) == Type.INT_TYPE)
+                scan.addPagePredicate(new Predicate(field, lf.p, filterConstant(lf, Type.INT_TYPE)));
+        }
+        return scan;
+    }
+
+    /** @return the constant of a filter, as a field of the filtered field's type */
+    private static Field filterConstant(LogicalFilterNode lf, Type ftyp) {
+        if (ftyp == Type.INT_TYPE)
+            return new IntField(Integer.parseInt(lf.c));
+        else
+            return new StringField(lf.c, Type.STRING_LEN);
+    }
+
     /** Convert this LogicalPlan into a physicalPlan represented by a {@link OpIterator}.  Attempts to
      *   find the optimal plan by using {@link JoinOptimizer#orderJoins} to order the joins in the plan.
      *  @param t The transaction that the returned OpIterator will run as a part of
@@ -292,18 +767,51 @@ public class LogicalPlan {
         Map<String,String> equivMap = new HashMap<>();
         Map<String,Double> filterSelectivities = new HashMap<>();
         Map<String,TableStats> statsMap = new HashMap<>();
+        Map<String,Set<String>> referencedFields = referencedFields();
+
+        // filters answered by an index scan rather than a Filter operator
+        Set<LogicalFilterNode> indexedFilters = new HashSet<>();
+
+        // a query over a single table can take its ORDER BY from the order of an index, and
+        // an ungrouped MIN or MAX from the first tuple in the order of the aggregate field
+        boolean singleTable = tables.size() == 1 && joins.isEmpty();
+        Aggregator.Op aop = hasAgg ? getAggOp(aggOp) : null;
+        boolean minMax = singleTable && groupByField == null
+                && (aop == Aggregator.Op.MIN || aop == Aggregator.Op.MAX);
+        String orderAlias = null, orderBy = null;
+        boolean orderAsc = true;
+        if (minMax) {
+            orderAlias = tables.get(0).alias;
+            orderBy = aggField;
+            orderAsc = aop == Aggregator.Op.MIN;
+        } else if (hasOrderBy && !hasAgg && singleTable) {
+            orderAlias = tables.get(0).alias;
+            orderBy = oByField;
+            orderAsc = oByAsc;
+        }
+        Set<String> orderedAliases = new HashSet<>();
 
         while (tableIt.hasNext()) {
             LogicalScanNode table = tableIt.next();
-            SeqScan ss = null;
+            String baseTableName = Database.getCatalog().getTableName(table.t);
+            OpIterator ss = null;
             try {
-                 ss = new SeqScan(t, Database.getCatalog().getDatabaseFile(table.t).getId(), table.alias);
+                 DbFile f = Database.getCatalog().getDatabaseFile(table.t);
+                 int[] outFields = referencedFields == null ? null
+                         : prunedFields(f.getTupleDesc(), referencedFields.get(table.alias));
+                 RequiredOrder order = null;
+                 if (table.alias.equals(orderAlias) && orderBy.startsWith(table.alias + ".")) {
+                     int field = f.getTupleDesc().fieldNameToIndex(orderBy.substring(table.alias.length() + 1));
+                     if (!minMax || f.getTupleDesc().getFieldType(field) == Type.INT_TYPE)
+                         order = new RequiredOrder(field, orderAsc, minMax);
+                 }
+                 ss = accessPath(t, table, outFields, baseTableStats.get(baseTableName), indexedFilters,
+                         order, orderedAliases);
             } catch (NoSuchElementException e) {
                 throw new ParsingException("Unknown table " + table.t);
             }
             
             subplanMap.put(table.alias,ss);
-            String baseTableName = Database.getCatalog().getTableName(table.t);
             statsMap.put(baseTableName, baseTableStats.get(baseTableName));
             filterSelectivities.put(table.alias, 1.0);
 
@@ -324,22 +832,24 @@ public class LogicalPlan {
             } catch (NoSuchElementException e) {
                 throw new ParsingException("Unknown field in filter expression " + lf.fieldQuantifiedName);
             }
-            if (ftyp == Type.INT_TYPE)
-                f = new IntField(new Integer(lf.c));
-            else
-                f = new StringField(lf.c, Type.STRING_LEN);
+            f = filterConstant(lf, ftyp);
 
-            Predicate p = null;
-            try {
-                p = new Predicate(subplan.getTupleDesc().fieldNameToIndex(lf.fieldQuantifiedName), lf.p, f);
-            } catch (NoSuchElementException e) {
-                throw new ParsingException("Unknown field " + lf.fieldQuantifiedName);
+            if (!indexedFilters.contains(lf)) {
+                Predicate p = null;
+                try {
+                    p = new Predicate(subplan.getTupleDesc().fieldNameToIndex(lf.fieldQuantifiedName), lf.p, f);
+                } catch (NoSuchElementException e) {
+                    throw new ParsingException("Unknown field " + lf.fieldQuantifiedName);
+                }
+                subplanMap.put(lf.tableAlias, new Filter(p, subplan));
             }
-            subplanMap.put(lf.tableAlias, new Filter(p, subplan));
 
             TableStats s = statsMap.get(Database.getCatalog().getTableName(this.getTableId(lf.tableAlias)));
 
-            double sel = s.estimateSelectivity(subplan.getTupleDesc().fieldNameToIndex(lf.fieldQuantifiedName), lf.p, f);
+            // table statistics are indexed by the base table's fields, which may differ
+            // from the (pruned) scan's field order
+            int baseField = Database.getCatalog().getTupleDesc(this.getTableId(lf.tableAlias)).fieldNameToIndex(lf.fieldPureName);
+            double sel = s == null ? 1.0 : s.estimateSelectivity(baseField, lf.p, f);
             filterSelectivities.put(lf.tableAlias, filterSelectivities.get(lf.tableAlias) * sel);
 
             //s.addSelectivityFactor(estimateFilterSelectivity(lf,statsMap));
@@ -349,6 +859,13 @@ public class LogicalPlan {
 
         joins = jo.orderJoins(statsMap,filterSelectivities,explain);
 
+        // estimated output cardinality of each subplan, keyed like subplanMap
+        Map<String,Integer> cardinalities = new HashMap<>();
+        for (LogicalScanNode table : tables) {
+            TableStats s = statsMap.get(Database.getCatalog().getTableName(table.t));
+            cardinalities.put(table.alias, s == null ? 0 : s.estimateTableCardinality(filterSelectivities.get(table.alias)));
+        }
+
         for (LogicalJoinNode lj : joins) {
             OpIterator plan1;
             OpIterator plan2;
@@ -380,10 +897,28 @@ public class LogicalPlan {
             if (plan2 == null)
                 throw new ParsingException("Unknown table in WHERE clause " + lj.t2Alias);
 
+            int card1 = cardinalities.getOrDefault(t1name, 0);
+
+            // the inner side is rewound once per outer tuple by a nested loops
+            // join, and once per build chunk by a hash join; cache it unless it
+            // is a plain scan, which the buffer pool already caches
+            boolean innerRewound = lj.p != Predicate.Op.EQUALS || card1 > HashEquiJoin.MAP_SIZE;
+            if (innerRewound && !(plan2 instanceof SeqScan))
+                plan2 = new Materialize(plan2);
+
             OpIterator j;
             j = JoinOptimizer.instantiateJoin(lj, plan1, plan2);
             subplanMap.put(t1name, j);
 
+            if (j instanceof HashEquiJoin)
+                ((HashEquiJoin) j).setExpectedBuildCardinality(card1);
+            if (isSubqueryJoin) {
+                cardinalities.put(t1name, jo.estimateJoinCardinality(lj, card1, 0, false, false, statsMap));
+            } else {
+                cardinalities.put(t1name, jo.estimateJoinCardinality(lj, card1, cardinalities.getOrDefault(t2name, 0),
+                        isPkey(lj.t1Alias, lj.f1PureName), isPkey(lj.t2Alias, lj.f2PureName), statsMap));
+            }
+
             if (!isSubqueryJoin) {
                 subplanMap.remove(t2name);
                 equivMap.put(t2name, t1name);  //keep track of the fact that this new node contains both tables
@@ -459,19 +994,32 @@ public class LogicalPlan {
 
         if (hasAgg) {
             TupleDesc td = node.getTupleDesc();
+            LogicalScanNode table = tables.get(0);
             Aggregate aggNode;
             try {
-                aggNode = new Aggregate(node,
+                if (minMax && orderedAliases.contains(orderAlias)) {
+                    // the first tuple of the ordered scan holds the answer
+                    aggNode = new OrderedMinMax(node, td.fieldNameToIndex(aggField), aop);
+                } else if (singleTable && groupByField == null && aop == Aggregator.Op.COUNT && filters.isEmpty()
+                        && Database.getCatalog().getDatabaseFile(table.t) instanceof HeapFile) {
+                    // fields are never null, so this counts the tuples in the table
+                    TupleDesc baseTd = Database.getCatalog().getTupleDesc(table.t);
+                    aggNode = new HeapCount(t, table.t, table.alias,
+                            baseTd.fieldNameToIndex(aggField.substring(table.alias.length() + 1)));
+                } else {
+                    aggNode = new Aggregate(node,
                                         td.fieldNameToIndex(aggField),
                                         groupByField == null?Aggregator.NO_GROUPING:td.fieldNameToIndex(groupByField),
-                                getAggOp(aggOp));
+                                aop);
+                }
             } catch (NoSuchElementException | IllegalArgumentException e) {
                 throw new simpledb.ParsingException(e);
             }
             node = aggNode;
         }
 
-        if (hasOrderBy) {
+        // filters and projections keep the order their input arrives in
+        if (hasOrderBy && !orderedAliases.contains(orderAlias)) {
             node = new OrderBy(node.getTupleDesc().fieldNameToIndex(oByField), oByAsc, node);
         }
 
@@ -68,6 +68,8 @@ public class TableStats {
      */
     static final int NUM_HIST_BINS = 100;
 
+    private final int ioCostPerPage;
+
     /**
      * Create a new TableStats object, that keeps track of statistics on each
      * column of a table
@@ -87,6 +89,14 @@ public class TableStats {
         // necessarily have to (for example) do everything
         // in a single scan of the table.
         // some code goes here
+        this.ioCostPerPage = ioCostPerPage;
+    }
+
+    /**
+     * @return the cost of reading one page, as given to the constructor
+     */
+    public int getIoCostPerPage() {
+        return ioCostPerPage;
     }
 
     /**
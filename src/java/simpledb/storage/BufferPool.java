@@ -4,6 +4,8 @@ import simpledb.common.Database;
 import simpledb.common.Permissions;
 import simpledb.common.DbException;
 import simpledb.common.DeadlockException;
+import simpledb.index.BitmapIndex;
+import simpledb.index.SecondaryIndex;
 import simpledb.transaction.TransactionAbortedException;
 import simpledb.transaction.TransactionId;
 
@@ -35,10 +37,13 @@ public class BufferPool {
 
     private static int pageSize = DEFAULT_PAGE_SIZE;
 
+    /** Deadlock policy of the lock managers of new buffer pools. */
+    private static DeadlockPolicy deadlockPolicy = DeadlockPolicy.fromSystemProperty();
+
     // Instance fields
     private final int numPages;
     private final Map<PageId, Page> pageCache = new ConcurrentHashMap<>();
-    private final LockManager lockManager = new LockManager();
+    private final LockManager lockManager = new LockManager(deadlockPolicy);
 
     /**
      * Default number of pages passed to the constructor. This is used by
@@ -81,6 +86,27 @@ public class BufferPool {
         BufferPool.pageSize = DEFAULT_PAGE_SIZE;
     }
 
+    public static DeadlockPolicy getDeadlockPolicy() {
+        return deadlockPolicy;
+    }
+
+    /**
+     * Choose the deadlock policy of buffer pools created from now on, such as
+     * by {@link simpledb.common.Database#resetBufferPool}; the policy of a
+     * buffer pool is fixed once it is created.
+     */
+    public static void setDeadlockPolicy(DeadlockPolicy deadlockPolicy) {
+        BufferPool.deadlockPolicy = deadlockPolicy;
+    }
+
+    /**
+     * Go back to the deadlock policy given by the system property
+     * simpledb.storage.DeadlockPolicy.
+     */
+    public static void resetDeadlockPolicy() {
+        BufferPool.deadlockPolicy = DeadlockPolicy.fromSystemProperty();
+    }
+
     /**
      * Retrieve the specified page with the associated permissions.
      * Will acquire a lock and may block if that lock is held by another
@@ -134,6 +160,108 @@ public class BufferPool {
                 break;
         }
 
+        return loadPage(tid, pid, perm);
+    }
+
+    /**
+     * Retrieve the specified page for reading without waiting on other
+     * transactions. If a shared lock can be granted immediately, tid acquires
+     * it and the cached page is returned. Otherwise no lock is acquired and the
+     * last committed image of the page is returned instead; that image is a
+     * private copy and must not be modified.
+     * <p>
+     * Used by B+ tree readers to descend through internal pages that a writer
+     * is restructuring.
+     *
+     * @param tid the ID of the transaction requesting the page
+     * @param pid the ID of the requested page
+     */
+    public Page getPageNoWait(TransactionId tid, PageId pid) throws DbException {
+        if (lockManager.tryAcquireShared(tid, pid))
+            return loadPage(tid, pid, Permissions.READ_ONLY);
+        Page page = pageCache.get(pid);
+        if (page != null)
+            return page.getBeforeImage();
+        // NO STEAL: the disk holds the last committed version
+        return Database.getCatalog().getDatabaseFile(pid.getTableId()).readPage(pid);
+    }
+
+    /**
+     * Acquire a lock on the specified page without reading it, for callers
+     * that can make do with the page's committed image on disk. Since the
+     * buffer pool never writes uncommitted pages to disk, a page that is not
+     * cached is the same on disk as in memory.
+     *
+     * @param tid  the ID of the transaction requesting the lock
+     * @param pid  the ID of the page to lock
+     * @param perm the requested permissions on the page
+     * @return the cached page, or null if the page is not in the buffer pool
+     */
+    public Page lockPage(TransactionId tid, PageId pid, Permissions perm)
+            throws TransactionAbortedException, DbException {
+        switch (perm) {
+            case READ_ONLY:
+                lockManager.acquireShared(tid, pid);
+                break;
+            case READ_WRITE:
+                lockManager.acquireExclusive(tid, pid);
+                break;
+        }
+        return pageCache.get(pid);
+    }
+
+    /**
+     * Lock a whole table, so that tid needs no page locks to read (or, with
+     * READ_WRITE, write) its pages. Will block if another transaction holds
+     * conflicting locks on the table or any of its pages.
+     *
+     * @param tid     the ID of the transaction requesting the lock
+     * @param tableId the table to lock
+     * @param perm    the requested permissions on the table
+     */
+    public void lockTable(TransactionId tid, int tableId, Permissions perm)
+            throws TransactionAbortedException {
+        lockManager.acquireTable(tid, tableId,
+                perm == Permissions.READ_ONLY ? TableLock.Mode.S : TableLock.Mode.X);
+    }
+
+    /**
+     * Set the number of page locks a transaction may hold in one table before
+     * they are escalated to a lock on the table.
+     *
+     * @see LockManager#DEFAULT_ESCALATION_THRESHOLD
+     */
+    public void setLockEscalationThreshold(int pages) {
+        lockManager.setEscalationThreshold(pages);
+    }
+
+    /**
+     * Detect deadlocks in a background thread every intervalMillis ms rather
+     * than whenever a transaction is about to wait; 0 switches back to the
+     * latter.
+     *
+     * @see LockManager#setDeadlockDetectionInterval
+     */
+    public void setDeadlockDetectionInterval(long intervalMillis) {
+        lockManager.setDeadlockDetectionInterval(intervalMillis);
+    }
+
+    /**
+     * Set how long a transaction may wait for a lock under the TIMEOUT
+     * deadlock policy, in ms.
+     *
+     * @see LockManager#DEFAULT_LOCK_TIMEOUT
+     */
+    public void setLockTimeout(long timeoutMillis) {
+        lockManager.setLockTimeout(timeoutMillis);
+    }
+
+    /**
+     * Look up the specified page in the cache, reading it from disk if it is
+     * not there. The caller already holds a lock on the page with the given
+     * permissions; it is released if the page cannot be loaded.
+     */
+    private Page loadPage(TransactionId tid, PageId pid, Permissions perm) throws DbException {
         // Check cache
         AtomicReference<DbException> dbException = new AtomicReference<>(null);
         AtomicReference<IllegalArgumentException> illegalArgumentException = new AtomicReference<>(null);
@@ -180,6 +308,17 @@ public class BufferPool {
         lockManager.releaseExclusive(tid, pid);
     }
 
+    /**
+     * Releases a shared lock that tid holds on a page, e.g. one a B+ tree
+     * reader no longer needs once it has moved on to a child page.
+     *
+     * @param tid the ID of the transaction requesting the unlock
+     * @param pid the ID of the page to unlock
+     */
+    public void releaseShared(TransactionId tid, PageId pid) {
+        lockManager.releaseShared(tid, pid);
+    }
+
     /**
      * Releases the lock on a page.
      * Calling this is very risky, and may result in wrong behavior. Think hard
@@ -221,6 +360,15 @@ public class BufferPool {
         // some code goes here
         // not necessary for lab1|lab2
         if (commit) {
+            // force the index logs before any page of tid reaches disk, so a
+            // crash in between cannot leave committed tuples unindexed
+            try {
+                completeIndexes(tid, true);
+            } catch (IOException e) {
+                transactionComplete(tid, false);
+                throw new RuntimeException("transaction " + tid.getId()
+                        + " aborted: could not force an index log", e);
+            }
             for (Map.Entry<PageId, Page> entry : pageCache.entrySet()) {
                 Page page = entry.getValue();
                 if (page.isDirty() != null && page.isDirty().equals(tid)) {
@@ -229,22 +377,81 @@ public class BufferPool {
                     } catch (IOException e) {
                         e.printStackTrace();
                     }
+                    // the flushed version is now the committed one
+                    page.markDirty(false, null);
+                    page.setBeforeImage();
                 }
             }
         } else {
+            // An operation aborted halfway may have modified pages in place
+            // before marking them dirty, so drop every page tid could write
             Iterator<Map.Entry<PageId, Page>> iterator = pageCache.entrySet().iterator();
             while (iterator.hasNext()) {
                 Map.Entry<PageId, Page> entry = iterator.next();
                 Page page = entry.getValue();
-                if (page.isDirty() != null && page.isDirty().equals(tid)) {
+                if (page.isDirty() != null ? page.isDirty().equals(tid)
+                        : lockManager.holdsExclusiveLock(tid, entry.getKey())) {
                     iterator.remove();
                 }
             }
+            try {
+                completeIndexes(tid, false);
+            } catch (IOException e) {
+                lockManager.releaseAllLocks(tid);
+                throw new RuntimeException("could not abort the index changes of transaction "
+                        + tid.getId(), e);
+            }
         }
 
         lockManager.releaseAllLocks(tid);
     }
 
+    /**
+     * Commit or abort the index changes a transaction made outside of pages:
+     * inserts left in change buffers, which are protected by the leaf locks,
+     * and bitmap index changes, protected by the heap page locks. A commit
+     * stops at the first index whose log cannot be forced, leaving the rest
+     * for the abort that follows; an abort completes every index even if one
+     * of them fails.
+     *
+     * @throws IOException the first failure, with any later ones suppressed
+     */
+    private void completeIndexes(TransactionId tid, boolean commit) throws IOException {
+        IOException failure = null;
+        Iterator<Integer> tables = Database.getCatalog().tableIdIterator();
+        while (tables.hasNext()) {
+            int tableId = tables.next();
+            for (SecondaryIndex index : Database.getCatalog().getIndexes(tableId)) {
+                try {
+                    index.transactionComplete(tid, commit);
+                } catch (IOException e) {
+                    if (commit)
+                        throw e;
+                    failure = addFailure(failure, e);
+                }
+            }
+            for (BitmapIndex index : Database.getCatalog().getBitmapIndexes(tableId)) {
+                try {
+                    index.transactionComplete(tid, commit);
+                } catch (IOException e) {
+                    if (commit)
+                        throw e;
+                    failure = addFailure(failure, e);
+                }
+            }
+        }
+        if (failure != null)
+            throw failure;
+    }
+
+    /** @return the first of two failures, with the second suppressed by it */
+    private static IOException addFailure(IOException first, IOException e) {
+        if (first == null)
+            return e;
+        first.addSuppressed(e);
+        return first;
+    }
+
     /**
      * Add a tuple to the specified table on behalf of transaction tid. Will
      * acquire a write lock on the page the tuple is added to and any other
@@ -268,10 +475,19 @@ public class BufferPool {
     public void insertTuple(TransactionId tid, int tableId, Tuple t)
             throws DbException, IOException, TransactionAbortedException {
         DbFile file = Database.getCatalog().getDatabaseFile(tableId);
-        List<Page> dirtiedPages = file.insertTuple(tid, t);
-
+        markDirtied(tid, file.insertTuple(tid, t));
+        for (SecondaryIndex index : Database.getCatalog().getIndexes(tableId))
+            markDirtied(tid, index.insertTuple(tid, t));
+        for (BitmapIndex index : Database.getCatalog().getBitmapIndexes(tableId))
+            index.insertTuple(tid, t);
+    }
 
-        // Mark all dirtied pages as dirty and update cache
+    /**
+     * Mark pages dirtied by an insert or delete as dirty and update the cache,
+     * before anything else is read that could evict them. Also used by index
+     * maintenance that modifies pages outside insertTuple and deleteTuple.
+     */
+    public void markDirtied(TransactionId tid, List<Page> dirtiedPages) {
         for (Page page : dirtiedPages) {
             page.markDirty(true, tid);
             pageCache.put(page.getId(), page);
@@ -296,14 +512,12 @@ public class BufferPool {
             throws DbException, IOException, TransactionAbortedException {
         int tableId = t.getRecordId().getPageId().getTableId();
         DbFile file = Database.getCatalog().getDatabaseFile(tableId);
-        List<Page> dirtiedPages = file.deleteTuple(tid, t);
-
-
-        // Mark all dirtied pages as dirty and update cache
-        for (Page page : dirtiedPages) {
-            page.markDirty(true, tid);
-            pageCache.put(page.getId(), page);
-        }
+        // remove the index entries first, while t still has its RecordId
+        for (SecondaryIndex index : Database.getCatalog().getIndexes(tableId))
+            markDirtied(tid, index.deleteTuple(tid, t));
+        for (BitmapIndex index : Database.getCatalog().getBitmapIndexes(tableId))
+            index.deleteTuple(tid, t);
+        markDirtied(tid, file.deleteTuple(tid, t));
     }
 
     /**
@@ -327,8 +541,7 @@ public class BufferPool {
      * are removed from the cache so they can be reused safely
      */
     public synchronized void discardPage(PageId pid) {
-        // some code goes here
-        // not necessary for lab1
+        pageCache.remove(pid);
     }
 
     /**
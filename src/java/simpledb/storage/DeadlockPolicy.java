@@ -0,0 +1,54 @@
+package simpledb.storage;
+
+/**
+ * How the {@link LockManager} keeps transactions from waiting for each other
+ * forever. The policy of new buffer pools is read from the system property
+ * simpledb.storage.DeadlockPolicy, e.g. -Dsimpledb.storage.DeadlockPolicy=WAIT_DIE,
+ * and can be changed with {@link BufferPool#setDeadlockPolicy}.
+ * <p>
+ * The timestamp policies order transactions by
+ * {@link simpledb.transaction.TransactionId#isOlderThan}. A transaction they
+ * abort should be restarted with
+ * {@link simpledb.transaction.TransactionId#TransactionId(simpledb.transaction.TransactionId)},
+ * which keeps its timestamp: as it only grows older, it eventually outlives
+ * every transaction that can make it abort. Restarted under a fresh id, it
+ * could keep losing to newer transactions forever.
+ */
+public enum DeadlockPolicy {
+    /**
+     * Keep a wait-for graph and abort a transaction whose wait would close
+     * a cycle in it, or, with a detection interval, the youngest waiter of
+     * each cycle found in the background.
+     */
+    DETECT,
+
+    /**
+     * An older transaction waits for younger ones; a younger transaction
+     * that would wait for an older one aborts ("dies") instead.
+     */
+    WAIT_DIE,
+
+    /**
+     * An older transaction aborts ("wounds") the younger ones it would wait
+     * for, which give up at once if waiting and otherwise at their next lock
+     * request; a younger transaction waits for older ones.
+     */
+    WOUND_WAIT,
+
+    /**
+     * Wait for no longer than the lock timeout, and abort if the lock could
+     * not be had by then, deadlocked or not.
+     */
+    TIMEOUT;
+
+    /**
+     * @return the policy named by the system property
+     *         simpledb.storage.DeadlockPolicy, or DETECT if it is not set
+     */
+    public static DeadlockPolicy fromSystemProperty() {
+        String policy = System.getProperty("simpledb.storage.DeadlockPolicy");
+        if (policy == null || policy.isEmpty())
+            return DETECT;
+        return valueOf(policy.toUpperCase());
+    }
+}
@@ -4,6 +4,7 @@ import simpledb.common.Database;
 import simpledb.common.DbException;
 import simpledb.common.Debug;
 import simpledb.common.Permissions;
+import simpledb.execution.Predicate;
 import simpledb.transaction.TransactionAbortedException;
 import simpledb.transaction.TransactionId;
 
@@ -18,6 +19,11 @@ import java.util.*;
  * collection of those pages. HeapFile works closely with HeapPage. The format
  * of HeapPages is
  * described in the HeapPage constructor.
+ * <p>
+ * The file keeps a zone map in memory: the range of each INT field on each
+ * page, recorded as pages are read and widened as tuples are inserted.
+ * {@link #iterator(TransactionId, List)} uses it to skip pages that cannot
+ * hold a tuple satisfying its predicates, without going to the buffer pool.
  * 
  * @see HeapPage#HeapPage
  * @author Sam Madden
@@ -28,6 +34,7 @@ public class HeapFile implements DbFile {
     private final TupleDesc td;
     private final int tableId;
     private final Object writePageLock = new Object();
+    private final ZoneMap zoneMap;
 
     /**
      * Constructs a heap file backed by the specified file.
@@ -39,6 +46,7 @@ public class HeapFile implements DbFile {
         this.file = f;
         this.td = td;
         this.tableId = f.getAbsoluteFile().hashCode();
+        this.zoneMap = new ZoneMap(td);
     }
 
     /**
@@ -106,6 +114,40 @@ public class HeapFile implements DbFile {
         raf.seek(offset);
         raf.write(data);
         raf.close();
+        // the page now holds what is on disk
+        zoneMap.record((HeapPage) page);
+    }
+
+    /**
+     * Count the tuples in this file from the slot bitmaps in the page headers,
+     * without decoding any tuples. Each page is locked READ_ONLY; pages in the
+     * buffer pool are counted from memory, and the rest by reading only their
+     * headers from disk.
+     *
+     * @param tid the transaction counting the tuples
+     * @return the number of tuples in the file
+     */
+    public int countTuples(TransactionId tid) throws DbException, TransactionAbortedException {
+        int pageSize = BufferPool.getPageSize();
+        int numSlots = HeapPage.getNumTuples(td);
+        byte[] header = new byte[HeapPage.getHeaderSize(td)];
+        int count = 0;
+        int numPages = numPages();
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            for (int i = 0; i < numPages; i++) {
+                Page page = Database.getBufferPool().lockPage(tid, new HeapPageId(tableId, i), Permissions.READ_ONLY);
+                if (page != null) {
+                    count += numSlots - ((HeapPage) page).getNumEmptySlots();
+                } else {
+                    raf.seek((long) i * pageSize);
+                    raf.readFully(header);
+                    count += HeapPage.countUsedSlots(header, numSlots);
+                }
+            }
+        } catch (IOException e) {
+            throw new DbException("could not read " + file + ": " + e.getMessage());
+        }
+        return count;
     }
 
     /**
@@ -128,6 +170,7 @@ public class HeapFile implements DbFile {
             page = (HeapPage) bufferPool.getPage(tid, pageId, Permissions.READ_WRITE);
             if (page.getNumEmptySlots() > 0) {
                 page.insertTuple(t);
+                zoneMap.insert(i, t);
                 results.add(page);
                 break;
             }
@@ -142,6 +185,7 @@ public class HeapFile implements DbFile {
             page = (HeapPage) bufferPool.getPage(tid, heapPageId, Permissions.READ_WRITE);
             if (page.getNumEmptySlots() > 0) {
                 page.insertTuple(t);
+                zoneMap.insert(numPages, t);
                 results.add(page);
             } else {
                 bufferPool.releaseExclusive(tid, heapPageId);
@@ -164,35 +208,85 @@ public class HeapFile implements DbFile {
 
     // see DbFile.java for javadocs
     public DbFileIterator iterator(TransactionId tid) {
-        return new HeapFileIterator(this, tid);
+        return new HeapFileIterator(this, tid, Collections.emptyList());
+    }
+
+    /**
+     * Returns an iterator over the tuples of the pages that may hold a tuple
+     * satisfying all of the given predicates. Pages the zone map rules out are
+     * neither read nor locked. The tuples of the other pages are all
+     * returned, so the predicates must still be applied by the caller.
+     *
+     * @param tid the transaction reading the file
+     * @param preds predicates whose fields are indices in this file's
+     *            TupleDesc; predicates on fields that are not INTs never rule
+     *            out a page
+     */
+    public DbFileIterator iterator(TransactionId tid, List<Predicate> preds) {
+        return new HeapFileIterator(this, tid, preds);
+    }
+
+    /**
+     * Summarize every page of the file in the zone map again, narrowing the
+     * ranges left wide by aborted inserts. Pages the transaction has modified
+     * itself are left as they are.
+     *
+     * @param tid the transaction reading the pages
+     */
+    public void rebuildZoneMap(TransactionId tid) throws DbException, TransactionAbortedException {
+        int numPages = numPages();
+        for (int i = 0; i < numPages; i++) {
+            HeapPage page = (HeapPage) Database.getBufferPool().getPage(tid, new HeapPageId(tableId, i),
+                    Permissions.READ_ONLY);
+            if (page.isDirty() == null)
+                zoneMap.record(page);
+        }
     }
 
     private static class HeapFileIterator implements DbFileIterator {
         private final HeapFile heapFile;
         private final TransactionId tid;
+        private final List<Predicate> preds;
         private Iterator<Tuple> tupleIterator;
         private int currentPage;
 
-        public HeapFileIterator(HeapFile heapFile, TransactionId tid) {
+        public HeapFileIterator(HeapFile heapFile, TransactionId tid, List<Predicate> preds) {
             this.heapFile = heapFile;
             this.tid = tid;
+            this.preds = preds;
         }
 
         @Override
         public void open() throws DbException, TransactionAbortedException {
             currentPage = 0;
-            tupleIterator = getPageTuples(currentPage);
+            tupleIterator = getPageTuples();
         }
 
-        private Iterator<Tuple> getPageTuples(int pageNumber)
+        /**
+         * Read the first page from currentPage on that the zone map does not
+         * rule out, leaving currentPage on it.
+         *
+         * @return the tuples of the page, or null if there are no more pages
+         */
+        private Iterator<Tuple> getPageTuples()
                 throws TransactionAbortedException, DbException {
-            if (pageNumber >= 0 && pageNumber < heapFile.numPages()) {
-                HeapPageId pid = new HeapPageId(heapFile.getId(), pageNumber);
-                HeapPage page = (HeapPage) Database.getBufferPool().getPage(tid, pid,
-                        Permissions.READ_ONLY);
-                return page.iterator();
+            int numPages = heapFile.numPages();
+            if (!preds.isEmpty()) {
+                while (currentPage < numPages && heapFile.zoneMap.excludes(currentPage, preds)) {
+                    currentPage++;
+                }
+            }
+            if (currentPage >= numPages) {
+                return null;
+            }
+            HeapPageId pid = new HeapPageId(heapFile.getId(), currentPage);
+            HeapPage page = (HeapPage) Database.getBufferPool().getPage(tid, pid,
+                    Permissions.READ_ONLY);
+            // a clean page matches the disk, so scans fill in the zone map
+            if (page.isDirty() == null && !heapFile.zoneMap.isKnown(currentPage)) {
+                heapFile.zoneMap.record(page);
             }
-            return null;
+            return page.iterator();
         }
 
         @Override
@@ -203,10 +297,10 @@ public class HeapFile implements DbFile {
 
             while (!tupleIterator.hasNext()) {
                 currentPage++;
-                if (currentPage >= heapFile.numPages()) {
+                tupleIterator = getPageTuples();
+                if (tupleIterator == null) {
                     return false;
                 }
-                tupleIterator = getPageTuples(currentPage);
             }
             return true;
         }
@@ -79,11 +79,36 @@ public class HeapPage implements Page {
      */
     private int getNumTuples() {
         // some code goes here
+        return getNumTuples(td);
+    }
+
+    /**
+     * @return the number of tuple slots on a page of a table with the given
+     *         TupleDesc
+     */
+    public static int getNumTuples(TupleDesc td) {
         int pageSize = BufferPool.getPageSize();
         int tupleSize = td.getSize();
         return (int) Math.floor((pageSize * 8.0) / (tupleSize * 8 + 1));
     }
 
+    /**
+     * Counts the used slots in a page header, as read from the start of the
+     * page data, without decoding the tuples.
+     *
+     * @param header   the header bytes of a page
+     * @param numSlots the number of slots on the page
+     * @return the number of tuples on the page
+     */
+    static int countUsedSlots(byte[] header, int numSlots) {
+        int count = 0;
+        for (int i = 0; i < numSlots / 8; i++)
+            count += Integer.bitCount(header[i] & 0xFF);
+        if (numSlots % 8 != 0)
+            count += Integer.bitCount(header[numSlots / 8] & ((1 << (numSlots % 8)) - 1));
+        return count;
+    }
+
     /**
      * Computes the number of bytes in the header of a page in a HeapFile with each tuple occupying
      * tupleSize bytes
@@ -93,8 +118,16 @@ public class HeapPage implements Page {
      */
     private int getHeaderSize() {
         // some code goes here
-        return (int) Math.ceil(getNumTuples() / 8.0);
+        return getHeaderSize(td);
+
+    }
 
+    /**
+     * @return the number of bytes in the header of a page of a table with the
+     *         given TupleDesc
+     */
+    static int getHeaderSize(TupleDesc td) {
+        return (int) Math.ceil(getNumTuples(td) / 8.0);
     }
 
     /**
@@ -309,14 +342,7 @@ public class HeapPage implements Page {
      */
     public int getNumEmptySlots() {
         // some code goes here
-        int count = 0;
-        for (int i = 0; i < numSlots; i++) {
-            if (!isSlotUsed(i)) {
-                count++;
-            }
-        }
-
-        return count;
+        return numSlots - countUsedSlots(header, numSlots);
     }
 
     /**
@@ -329,6 +355,13 @@ public class HeapPage implements Page {
         return (header[byteIndex] & (1 << bitOffset)) != 0;
     }
 
+    /**
+     * @return the tuple in slot i, or null if the slot is empty
+     */
+    public Tuple getTuple(int i) {
+        return isSlotUsed(i) ? tuples[i] : null;
+    }
+
     /**
      * Abstraction to fill or clear a slot on this page.
      */
@@ -5,29 +5,418 @@ import simpledb.transaction.TransactionAbortedException;
 import simpledb.transaction.TransactionId;
 
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
 import java.util.Set;
 import java.util.ArrayList;
-import java.util.HashSet;
-import java.util.Iterator;
 import java.util.List;
 
 /**
  * LockManager handles lock acquisition and release for pages in the BufferPool.
  * It supports shared (READ_ONLY) and exclusive (READ_WRITE) locks.
+ * <p>
+ * Page locks sit below table locks with the modes of {@link TableLock.Mode}:
+ * before locking a page, a transaction takes an intention lock on the page's
+ * table (IS before a shared, IX before an exclusive page lock), and a
+ * transaction holding its table in S, SIX or X takes no page locks that mode
+ * already covers. Whole tables are locked with {@link #acquireTable}. Once a
+ * transaction holds a multiple of the escalation threshold page locks in one
+ * table, its table lock is escalated to S if it only reads the table and to X
+ * otherwise, provided that can be granted without waiting, and its page locks
+ * in the table are dropped. Large scans thus keep a bounded number of locks.
+ * <p>
+ * Deadlocks are dealt with by one of the {@link DeadlockPolicy} policies,
+ * chosen when the lock manager is created. Only DETECT keeps a wait-for graph;
+ * the timestamp policies WAIT_DIE and WOUND_WAIT decide from the ids of the
+ * transactions a waiter would wait for, and TIMEOUT from the time it waits.
  */
 public class LockManager {
 
+    /**
+     * Default number of page locks a transaction may hold in one table before
+     * they are escalated to a table lock.
+     */
+    public static final int DEFAULT_ESCALATION_THRESHOLD = 1000;
+
+    /**
+     * Default time in ms a transaction may wait for a lock under the TIMEOUT
+     * policy before it aborts.
+     */
+    public static final long DEFAULT_LOCK_TIMEOUT = 500;
+
     // Map from PageId to PageLock
     private final ConcurrentHashMap<PageId, PageLock> pageLocks;
 
+    // Map from table id to TableLock; these are never removed
+    private final ConcurrentHashMap<Integer, TableLock> tableLocks;
+
     // Map from TransactionId to set of PageIds it holds locks on
     private final ConcurrentHashMap<TransactionId, Set<PageId>> transactionLocks;
+
+    // Map from TransactionId to the number of page locks it holds per table
+    private final ConcurrentHashMap<TransactionId, Map<Integer, Integer>> tablePageCounts;
+
+    // Map from TransactionId to set of table ids it holds table locks on
+    private final ConcurrentHashMap<TransactionId, Set<Integer>> transactionTables;
     private final WaitForGraph wfg;
+    private volatile int escalationThreshold;
+
+    // Map from a waiting TransactionId to the PageLock or TableLock it waits on
+    private final ConcurrentHashMap<TransactionId, Object> waitingOn;
+
+    // Transactions aborted by the detector while waiting on a TableLock
+    private final Set<TransactionId> victims;
+
+    // The background deadlock detector, or null to detect on every wait
+    private volatile Thread detector;
+
+    private final DeadlockPolicy deadlockPolicy;
+    private volatile long lockTimeoutMillis;
+
+    // Transactions wounded by older ones, to abort at their next lock request
+    private final Set<TransactionId> wounded;
+
+    // Aborts wounded waiters; a wounder cannot do so itself, as it holds the
+    // lock it is about to wait on and the victim's lock may be held by
+    // another wounder
+    private final ExecutorService wounder;
 
     public LockManager() {
+        this(DeadlockPolicy.DETECT);
+    }
+
+    public LockManager(DeadlockPolicy deadlockPolicy) {
         this.pageLocks = new ConcurrentHashMap<>();
+        this.tableLocks = new ConcurrentHashMap<>();
         this.transactionLocks = new ConcurrentHashMap<>();
+        this.tablePageCounts = new ConcurrentHashMap<>();
+        this.transactionTables = new ConcurrentHashMap<>();
         this.wfg = new WaitForGraph();
+        this.escalationThreshold = DEFAULT_ESCALATION_THRESHOLD;
+        this.waitingOn = new ConcurrentHashMap<>();
+        this.victims = ConcurrentHashMap.newKeySet();
+        this.detector = null;
+        this.deadlockPolicy = deadlockPolicy;
+        this.lockTimeoutMillis = DEFAULT_LOCK_TIMEOUT;
+        this.wounded = ConcurrentHashMap.newKeySet();
+        this.wounder = deadlockPolicy != DeadlockPolicy.WOUND_WAIT ? null
+                : Executors.newSingleThreadExecutor(r -> {
+                    Thread t = new Thread(r, "deadlock-wounder");
+                    t.setDaemon(true);
+                    return t;
+                });
+    }
+
+    public DeadlockPolicy getDeadlockPolicy() {
+        return deadlockPolicy;
+    }
+
+    /**
+     * Set how long a transaction may wait for a lock under the TIMEOUT
+     * policy, in ms.
+     */
+    public void setLockTimeout(long lockTimeoutMillis) {
+        if (lockTimeoutMillis <= 0)
+            throw new IllegalArgumentException("lock timeout must be positive");
+        this.lockTimeoutMillis = lockTimeoutMillis;
+    }
+
+    /**
+     * Set the number of page locks in one table after which a transaction's
+     * locks on the table are escalated.
+     */
+    public void setEscalationThreshold(int escalationThreshold) {
+        if (escalationThreshold <= 0)
+            throw new IllegalArgumentException("escalation threshold must be positive");
+        this.escalationThreshold = escalationThreshold;
+    }
+
+    /**
+     * Choose how deadlocks are detected. With an interval of 0, the default,
+     * a transaction about to wait checks whether the new edges of the
+     * wait-for graph close a cycle and aborts if so. With a positive interval,
+     * transactions wait without checking, and a background thread searches
+     * the graph every interval ms, aborting the youngest waiter of each cycle
+     * it finds. This takes detection off the lock-acquire path, at the cost of
+     * deadlocks lasting up to an interval. Only used by the DETECT policy.
+     */
+    public synchronized void setDeadlockDetectionInterval(long intervalMillis) {
+        if (intervalMillis < 0)
+            throw new IllegalArgumentException("detection interval must not be negative");
+        if (deadlockPolicy != DeadlockPolicy.DETECT) {
+            if (intervalMillis > 0)
+                throw new IllegalStateException("no deadlock detection under " + deadlockPolicy);
+            return;
+        }
+        Thread old = detector;
+        if (old != null) {
+            old.interrupt();
+            detector = null;
+        }
+        if (intervalMillis == 0) {
+            // Deadlocks formed while nobody checked are still waiting
+            detectDeadlocks();
+            return;
+        }
+        Thread t = new Thread(() -> {
+            while (detector == Thread.currentThread()) {
+                try {
+                    Thread.sleep(intervalMillis);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                detectDeadlocks();
+            }
+        }, "deadlock-detector");
+        t.setDaemon(true);
+        detector = t;
+        t.start();
+    }
+
+    /**
+     * Abort waiting transactions until the wait-for graph has no cycles,
+     * choosing the youngest transaction of each cycle.
+     *
+     * @return the number of transactions aborted
+     */
+    public int detectDeadlocks() {
+        int aborted = 0;
+        List<TransactionId> cycle;
+        while ((cycle = wfg.findCycle()) != null) {
+            TransactionId victim = cycle.get(0);
+            for (TransactionId transactionId : cycle) {
+                if (victim.isOlderThan(transactionId))
+                    victim = transactionId;
+            }
+            // The victim may have stopped waiting meanwhile; if so, its edges
+            // are about to go, and we look again next time
+            if (!abortWaiter(victim))
+                break;
+            aborted++;
+        }
+        return aborted;
+    }
+
+    /**
+     * Make a waiting transaction give up waiting and abort.
+     *
+     * @return false if it is not waiting
+     */
+    private boolean abortWaiter(TransactionId transactionId) {
+        Object lock = waitingOn.get(transactionId);
+        if (lock instanceof PageLock) {
+            PageLock pageLock = (PageLock) lock;
+            pageLock.synchronize();
+            try {
+                if (waitingOn.get(transactionId) != pageLock || !pageLock.abortWaiter(transactionId))
+                    return false;
+                wfg.removeNode(transactionId);
+                return true;
+            } finally {
+                pageLock.desynchronize();
+            }
+        } else if (lock instanceof TableLock) {
+            TableLock tableLock = (TableLock) lock;
+            tableLock.synchronize();
+            try {
+                if (waitingOn.get(transactionId) != tableLock)
+                    return false;
+                victims.add(transactionId);
+                wfg.removeNode(transactionId);
+                tableLock.wakeAll();
+                return true;
+            } finally {
+                tableLock.desynchronize();
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return true if the edges just added out of transactionId close a cycle
+     *         that it must abort for; always false when the background
+     *         detector runs
+     */
+    private boolean closesCycle(TransactionId transactionId) {
+        return detector == null && wfg.hasCycleFrom(transactionId);
+    }
+
+    /**
+     * Decide by the deadlock policy whether a transaction may wait on a lock
+     * for the given transactions, and if so, record that it waits. Called
+     * while synchronized on the lock.
+     *
+     * @return false if the transaction must abort instead
+     */
+    private boolean beforeWait(TransactionId transactionId, Object lock,
+            Collection<TransactionId> transactionsToBeWaitedOn) {
+        switch (deadlockPolicy) {
+            case DETECT:
+                for (TransactionId transactionToBeWaitedOn : transactionsToBeWaitedOn)
+                    wfg.incrementWait(transactionId, transactionToBeWaitedOn);
+                if (closesCycle(transactionId)) {
+                    wfg.removeNode(transactionId);
+                    return false;
+                }
+                break;
+            case WAIT_DIE:
+                // Die rather than wait for an older transaction
+                for (TransactionId transactionToBeWaitedOn : transactionsToBeWaitedOn) {
+                    if (transactionToBeWaitedOn.isOlderThan(transactionId))
+                        return false;
+                }
+                break;
+            case WOUND_WAIT:
+                for (TransactionId transactionToBeWaitedOn : transactionsToBeWaitedOn) {
+                    if (transactionId.isOlderThan(transactionToBeWaitedOn))
+                        wound(transactionToBeWaitedOn);
+                }
+                break;
+            case TIMEOUT:
+                break;
+        }
+        waitingOn.put(transactionId, lock);
+        // A wounder that missed us in waitingOn left us this
+        if (wounded.contains(transactionId)) {
+            waitingOn.remove(transactionId);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Undo what {@link #beforeWait} recorded, once the wait is over.
+     */
+    private void afterWait(TransactionId transactionId, Collection<TransactionId> transactionsToBeWaitedOn) {
+        if (deadlockPolicy == DeadlockPolicy.DETECT) {
+            for (TransactionId transactionToBeWaitedOn : transactionsToBeWaitedOn)
+                wfg.decrementWait(transactionId, transactionToBeWaitedOn);
+        }
+    }
+
+    /**
+     * Make a younger transaction abort, now if it is waiting and otherwise at
+     * its next lock request.
+     */
+    private void wound(TransactionId transactionId) {
+        if (wounded.add(transactionId))
+            wounder.execute(() -> abortWaiter(transactionId));
+    }
+
+    private void checkWounded(TransactionId transactionId) throws TransactionAbortedException {
+        if (wounded.contains(transactionId))
+            throw new TransactionAbortedException();
+    }
+
+    /**
+     * @return how long to wait for a page lock, in ns, or 0 for no limit
+     */
+    private long waitTimeout() {
+        return deadlockPolicy == DeadlockPolicy.TIMEOUT ? TimeUnit.MILLISECONDS.toNanos(lockTimeoutMillis) : 0;
+    }
+
+    private TableLock getTableLock(int tableId) {
+        return tableLocks.computeIfAbsent(tableId, TableLock::new);
+    }
+
+    private static boolean covers(TableLock tableLock, TransactionId transactionId, TableLock.Mode mode) {
+        TableLock.Mode held = tableLock.getMode(transactionId);
+        return held != null && held.covers(mode);
+    }
+
+    /**
+     * Acquire a lock on a whole table. This method will block until the lock
+     * can be granted, and aborts the transaction if waiting would deadlock.
+     *
+     * @param mode - the mode to hold the table in, on top of any mode the
+     *             transaction holds already
+     */
+    public void acquireTable(TransactionId transactionId, int tableId, TableLock.Mode mode)
+            throws TransactionAbortedException {
+        checkWounded(transactionId);
+        acquireTable(transactionId, getTableLock(tableId), mode);
+    }
+
+    private void acquireTable(TransactionId transactionId, TableLock tableLock, TableLock.Mode mode)
+            throws TransactionAbortedException {
+        if (covers(tableLock, transactionId, mode))
+            return;
+        tableLock.synchronize();
+        Set<TransactionId> transactionsToBeWaitedOn = Collections.emptySet();
+        long timeout = waitTimeout();
+        long deadline = timeout == 0 ? 0 : System.nanoTime() + timeout;
+        try {
+            while (true) {
+                afterWait(transactionId, transactionsToBeWaitedOn);
+                transactionsToBeWaitedOn = tableLock.getBlockers(transactionId, mode);
+                if (transactionsToBeWaitedOn.isEmpty())
+                    break;
+                if (deadline != 0 && deadline - System.nanoTime() <= 0) {
+                    transactionsToBeWaitedOn = Collections.emptySet();
+                    throw new TransactionAbortedException();
+                }
+
+                // The policy is asked again after every wake-up, as the
+                // blockers may have changed
+                if (!beforeWait(transactionId, tableLock, transactionsToBeWaitedOn)) {
+                    transactionsToBeWaitedOn = Collections.emptySet();
+                    throw new TransactionAbortedException();
+                }
+                try {
+                    if (deadline == 0)
+                        tableLock.await();
+                    else
+                        tableLock.awaitNanos(deadline - System.nanoTime());
+                } finally {
+                    waitingOn.remove(transactionId);
+                }
+                if (victims.remove(transactionId)) {
+                    // the detector or a wounder removed our edges
+                    transactionsToBeWaitedOn = Collections.emptySet();
+                    throw new TransactionAbortedException();
+                }
+            }
+            tableLock.acquire(transactionId, mode);
+            transactionTables.computeIfAbsent(transactionId, k -> ConcurrentHashMap.newKeySet())
+                    .add(tableLock.getTableId());
+        } catch (InterruptedException e) {
+            afterWait(transactionId, transactionsToBeWaitedOn);
+            Thread.currentThread().interrupt();
+            throw new TransactionAbortedException();
+        } finally {
+            tableLock.desynchronize();
+        }
+    }
+
+    /**
+     * Grant a table lock only if it can be granted without waiting.
+     */
+    private boolean tryAcquireTable(TransactionId transactionId, TableLock tableLock, TableLock.Mode mode) {
+        if (covers(tableLock, transactionId, mode))
+            return true;
+        tableLock.synchronize();
+        try {
+            if (!tableLock.getBlockers(transactionId, mode).isEmpty())
+                return false;
+            tableLock.acquire(transactionId, mode);
+        } finally {
+            tableLock.desynchronize();
+        }
+        transactionTables.computeIfAbsent(transactionId, k -> ConcurrentHashMap.newKeySet())
+                .add(tableLock.getTableId());
+        return true;
+    }
+
+    /**
+     * @return the mode the transaction holds a table in, or null
+     */
+    public TableLock.Mode getTableMode(TransactionId transactionId, int tableId) {
+        TableLock tableLock = tableLocks.get(tableId);
+        return tableLock == null ? null : tableLock.getMode(transactionId);
     }
 
     /**
@@ -67,103 +456,186 @@ public class LockManager {
     // would get very long.
 
     public void acquireShared(TransactionId transactionId, PageId pageId) throws TransactionAbortedException {
+        checkWounded(transactionId);
+        TableLock tableLock = getTableLock(pageId.getTableId());
+        if (covers(tableLock, transactionId, TableLock.Mode.S))
+            return;
+        acquireTable(transactionId, tableLock, TableLock.Mode.IS);
+        // Sync on pageLock
+        PageLock pageLock = synchronizePageLock(pageId);
         try {
-            // Sync on pageLock
-            PageLock pageLock = pageLocks.computeIfAbsent(pageId, k -> new PageLock());
-            pageLock.synchronize();
-
             // Add edge if need to wait
-            TransactionId transactionToBeWaitedOn = null;
+            Collection<TransactionId> transactionsToBeWaitedOn = null;
             if (!pageLock.canAcquireSharedLock(transactionId)) {
-                transactionToBeWaitedOn = pageLock.getLastWaitingTransactionId();
-                if (transactionToBeWaitedOn == null)
-                    transactionToBeWaitedOn = pageLock.getExclusiveTransactionId();
-                wfg.incrementWait(transactionId, transactionToBeWaitedOn);
-                if (wfg.hasCycle()) {
-                    wfg.removeNode(transactionId);
+                transactionsToBeWaitedOn = pageLock.getBlockers(transactionId);
+                if (!beforeWait(transactionId, pageLock, transactionsToBeWaitedOn)) {
                     pageLock.desynchronize();
                     throw new TransactionAbortedException();
                 }
             }
 
             // Acquire shared lock
-            pageLock.acquireSharedLock(transactionId);
+            boolean granted = pageLock.acquireSharedLock(transactionId, waitTimeout());
+            waitingOn.remove(transactionId);
+            if (!granted) {
+                // Aborted by the detector, which removed our edges, or timed out
+                pageLock.desynchronize();
+                throw new TransactionAbortedException();
+            }
 
             // Remove edge if present
-            if (transactionToBeWaitedOn != null) {
-                final TransactionId finalTransactionToBeWaitedOn = transactionToBeWaitedOn;
-                wfg.decrementWait(transactionId, finalTransactionToBeWaitedOn);
-            }
+            if (transactionsToBeWaitedOn != null)
+                afterWait(transactionId, transactionsToBeWaitedOn);
 
             // Desync on pageLock
             pageLock.desynchronize();
 
             // Add to lockedPages
-            transactionLocks.computeIfAbsent(transactionId, k -> ConcurrentHashMap.newKeySet())
-                    .add(pageId);
+            addTransactionLock(transactionId, pageId);
         } catch (InterruptedException e) {
+            // Give up waiting and abort, as in acquireTable
+            waitingOn.remove(transactionId);
+            wfg.removeNode(transactionId);
+            pageLock.desynchronize();
+            Thread.currentThread().interrupt();
+            throw new TransactionAbortedException();
         }
     }
 
     public void acquireExclusive(TransactionId transactionId, PageId pageId) throws TransactionAbortedException {
+        checkWounded(transactionId);
+        TableLock tableLock = getTableLock(pageId.getTableId());
+        if (covers(tableLock, transactionId, TableLock.Mode.X))
+            return;
+        acquireTable(transactionId, tableLock, TableLock.Mode.IX);
+        // Sync on pageLock
+        PageLock pageLock = synchronizePageLock(pageId);
         try {
-            // Sync on pageLock
-            PageLock pageLock = pageLocks.computeIfAbsent(pageId, k -> new PageLock());
-            pageLock.synchronize();
-
             // Add edge if need to wait
-            Set<TransactionId> transactionsToBeWaitedOn = null;
+            Collection<TransactionId> transactionsToBeWaitedOn = null;
             if (!pageLock.canAcquireExclusiveLock(transactionId)) {
-                transactionsToBeWaitedOn = getTransactionsToBeWaitedOnIfCannotAcquireExclusive(pageLock);
-                for (TransactionId transactionToBeWaitedOn : transactionsToBeWaitedOn) {
-                    wfg.incrementWait(transactionId, transactionToBeWaitedOn);
-                    if (wfg.hasCycle()) {
-                        wfg.removeNode(transactionId);
-                        pageLock.desynchronize();
-                        throw new TransactionAbortedException();
-                    }
+                transactionsToBeWaitedOn = pageLock.getBlockers(transactionId);
+                if (!beforeWait(transactionId, pageLock, transactionsToBeWaitedOn)) {
+                    pageLock.desynchronize();
+                    throw new TransactionAbortedException();
                 }
             }
 
             // Acquire exclusive lock
-            pageLock.acquireExclusiveLock(transactionId);
+            boolean granted = pageLock.acquireExclusiveLock(transactionId, waitTimeout());
+            waitingOn.remove(transactionId);
+            if (!granted) {
+                // Aborted by the detector, which removed our edges, or timed out
+                pageLock.desynchronize();
+                throw new TransactionAbortedException();
+            }
 
             // Remove edge if present
             if (transactionsToBeWaitedOn != null)
-                for (TransactionId transactionToBeWaitedOn : transactionsToBeWaitedOn)
-                    wfg.decrementWait(transactionId, transactionToBeWaitedOn);
+                afterWait(transactionId, transactionsToBeWaitedOn);
 
             // Desync on pageLock
             pageLock.desynchronize();
 
             // Add to lockedPages
-            transactionLocks.computeIfAbsent(transactionId, k -> ConcurrentHashMap.newKeySet())
-                    .add(pageId);
+            addTransactionLock(transactionId, pageId);
         } catch (InterruptedException e) {
+            // Give up waiting and abort, as in acquireTable
+            waitingOn.remove(transactionId);
+            wfg.removeNode(transactionId);
+            pageLock.desynchronize();
+            Thread.currentThread().interrupt();
+            throw new TransactionAbortedException();
         }
     }
 
-    private Set<TransactionId> getTransactionsToBeWaitedOnIfCannotAcquireExclusive(PageLock pageLock) {
-        Set<TransactionId> transactionsToBeWaitedOn = new HashSet<>();
-        TransactionId lastTransactionId = pageLock.getLastWaitingTransactionId();
-        if (lastTransactionId == null) {
-            switch (pageLock.getPageLockState()) {
-                case EXCLUSIVE:
-                    transactionsToBeWaitedOn.add(pageLock.getExclusiveTransactionId());
-                    break;
-                case SHARED:
-                    Iterator<TransactionId> iterator = pageLock.getSharedTransactionIds().iterator();
-                    while (iterator.hasNext())
-                        transactionsToBeWaitedOn.add(iterator.next());
-                    break;
-                default:
-                    System.err.println("Unknown lock state");
-                    break;
+    /**
+     * Acquire a shared lock on the given page only if it can be granted without
+     * waiting.
+     *
+     * @return true if the transaction now holds a shared lock on the page
+     */
+    public boolean tryAcquireShared(TransactionId transactionId, PageId pageId) {
+        TableLock tableLock = getTableLock(pageId.getTableId());
+        if (covers(tableLock, transactionId, TableLock.Mode.S))
+            return true;
+        if (!tryAcquireTable(transactionId, tableLock, TableLock.Mode.IS))
+            return false;
+        PageLock pageLock = synchronizePageLock(pageId);
+        try {
+            if (!pageLock.canAcquireSharedLock(transactionId))
+                return false;
+            pageLock.acquireSharedLock(transactionId);
+        } catch (InterruptedException e) {
+            return false;
+        } finally {
+            pageLock.desynchronize();
+        }
+
+        // Add to lockedPages
+        addTransactionLock(transactionId, pageId);
+        return true;
+    }
+
+    /**
+     * Synchronize on the lock of a page, creating it if there is none. A lock
+     * may be dropped by a releasing transaction between being looked up and
+     * synchronized on, in which case it is looked up again.
+     */
+    private PageLock synchronizePageLock(PageId pageId) {
+        while (true) {
+            PageLock pageLock = pageLocks.computeIfAbsent(pageId, k -> new PageLock());
+            pageLock.synchronize();
+            if (pageLocks.get(pageId) == pageLock)
+                return pageLock;
+            pageLock.desynchronize();
+        }
+    }
+
+    private void addTransactionLock(TransactionId transactionId, PageId pageId) {
+        if (!transactionLocks.computeIfAbsent(transactionId, k -> ConcurrentHashMap.newKeySet()).add(pageId))
+            return;
+        int count = tablePageCounts.computeIfAbsent(transactionId, k -> new ConcurrentHashMap<>())
+                .merge(pageId.getTableId(), 1, Integer::sum);
+        if (count % escalationThreshold == 0)
+            escalate(transactionId, pageId.getTableId());
+    }
+
+    private void removeTransactionLock(TransactionId transactionId, PageId pageId) {
+        transactionLocks.computeIfPresent(transactionId, (k, v) -> {
+            if (v.remove(pageId)) {
+                tablePageCounts.computeIfPresent(transactionId, (kk, counts) -> {
+                    counts.computeIfPresent(pageId.getTableId(), (kkk, count) -> count > 1 ? count - 1 : null);
+                    return counts.isEmpty() ? null : counts;
+                });
             }
-        } else {
-            transactionsToBeWaitedOn.add(lastTransactionId);
+            return v.isEmpty() ? null : v;
+        });
+    }
+
+    /**
+     * Replace a transaction's page locks in a table by a lock on the table,
+     * S if it only reads the table and X if it writes it, if that can be
+     * granted without waiting.
+     *
+     * @return true if the locks were escalated
+     */
+    private boolean escalate(TransactionId transactionId, int tableId) {
+        TableLock tableLock = getTableLock(tableId);
+        TableLock.Mode held = tableLock.getMode(transactionId);
+        TableLock.Mode target = held == TableLock.Mode.IS ? TableLock.Mode.S : TableLock.Mode.X;
+        if (!tryAcquireTable(transactionId, tableLock, target))
+            return false;
+
+        // The table lock covers all of them now
+        Set<PageId> pages = transactionLocks.get(transactionId);
+        if (pages == null)
+            return true;
+        for (PageId pageId : new ArrayList<>(pages)) {
+            if (pageId.getTableId() == tableId)
+                releaseLock(transactionId, pageId);
         }
-        return transactionsToBeWaitedOn;
+        return true;
     }
 
     /**
@@ -187,40 +659,31 @@ public class LockManager {
             });
             pageLock.desynchronize();
         }
+        removeTransactionLock(tid, pageId);
     }
     // yufeng: need to be able to release shared or specific
 
     public void releaseShared(TransactionId transactionId, PageId pageId) {
+        // there is no page lock if the table lock covers the page
         PageLock pageLock = pageLocks.get(pageId);
+        if (pageLock == null)
+            return;
         pageLock.synchronize();
-        if (pageLock != null) {
-            pageLock.releaseShared(transactionId);
-            if (!pageLock.hasAnyLock(transactionId)) {
-                transactionLocks.compute(transactionId, (k, v) -> {
-                    v.remove(pageId);
-                    if (v.isEmpty())
-                        return null;
-                    return v;
-                });
-            }
-        }
+        pageLock.releaseShared(transactionId);
+        if (!pageLock.hasAnyLock(transactionId))
+            removeTransactionLock(transactionId, pageId);
         pageLock.desynchronize();
     }
 
     public void releaseExclusive(TransactionId transactionId, PageId pageId) {
+        // there is no page lock if the table lock covers the page
         PageLock pageLock = pageLocks.get(pageId);
+        if (pageLock == null)
+            return;
         pageLock.synchronize();
-        if (pageLock != null) {
-            pageLock.releaseExclusive(transactionId);
-            if (!pageLock.hasAnyLock(transactionId)) {
-                transactionLocks.compute(transactionId, (k, v) -> {
-                    v.remove(pageId);
-                    if (v.isEmpty())
-                        return null;
-                    return v;
-                });
-            }
-        }
+        pageLock.releaseExclusive(transactionId);
+        if (!pageLock.hasAnyLock(transactionId))
+            removeTransactionLock(transactionId, pageId);
         pageLock.desynchronize();
     }
 
@@ -228,6 +691,7 @@ public class LockManager {
      * Release all locks held by a transaction.
      */
     public void releaseAllLocks(TransactionId tid) {
+        tablePageCounts.remove(tid);
         Set<PageId> pages = transactionLocks.remove(tid);
         if (pages != null) {
             for (PageId pageId : pages) {
@@ -238,12 +702,24 @@ public class LockManager {
 
                     // Clean up empty lock entries
                     if (pageLock.isEmpty()) {
-                        pageLocks.remove(pageId);
+                        pageLocks.remove(pageId, pageLock);
                     }
                     pageLock.desynchronize();
                 }
             }
         }
+        Set<Integer> tables = transactionTables.remove(tid);
+        if (tables != null) {
+            for (int tableId : tables) {
+                TableLock tableLock = tableLocks.get(tableId);
+                tableLock.synchronize();
+                tableLock.release(tid);
+                tableLock.desynchronize();
+            }
+        }
+        // Only now that no lock of ours is left can nobody wound us any more
+        wounded.remove(tid);
+        victims.remove(tid);
         // transactionLocks.computeIfPresent(tid, (k, v) -> {
         // for (PageId pageId : v) {
         // pageLocks.computeIfPresent(pageId, (kk, vv) -> {
@@ -259,9 +735,13 @@ public class LockManager {
     }
 
     /**
-     * Check if a transaction holds any lock on the given page.
+     * Check if a transaction holds any lock on the given page, either on the
+     * page itself or on its whole table.
      */
     public boolean holdsLock(TransactionId tid, PageId pageId) {
+        TableLock tableLock = tableLocks.get(pageId.getTableId());
+        if (tableLock != null && covers(tableLock, tid, TableLock.Mode.S))
+            return true;
         PageLock pageLock = pageLocks.get(pageId);
         if (pageLock == null) {
             return false;
@@ -272,6 +752,28 @@ public class LockManager {
         return result;
     }
 
+    /**
+     * Check if a transaction may write the given page, holding an exclusive
+     * lock on the page itself or on its whole table.
+     */
+    public boolean holdsExclusiveLock(TransactionId tid, PageId pageId) {
+        TableLock tableLock = tableLocks.get(pageId.getTableId());
+        if (tableLock != null && covers(tableLock, tid, TableLock.Mode.X))
+            return true;
+        PageLock pageLock = pageLocks.get(pageId);
+        if (pageLock == null) {
+            return false;
+        }
+        pageLock.synchronize();
+        boolean result = pageLock.hasExclusiveLock(tid);
+        pageLock.desynchronize();
+        return result;
+    }
+
+    /**
+     * @return the pages the transaction holds page locks on, not counting
+     *         pages covered by table locks, or null if there are none
+     */
     public Set<PageId> getPagesLockedByTransaction(TransactionId transactionId) {
         return transactionLocks.get(transactionId);
     }
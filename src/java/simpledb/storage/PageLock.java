@@ -1,8 +1,8 @@
 package simpledb.storage;
 
+import java.util.Deque;
 import java.util.HashSet;
 import java.util.LinkedList;
-import java.util.Queue;
 import java.util.Set;
 import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.ReentrantLock;
@@ -22,11 +22,14 @@ public class PageLock {
     private final Set<TransactionId> sharedLocks;
     private TransactionId exclusiveLock;
     private PageLockState pageLockState;
-    private final Queue<Waiter> waiters;
+    private final Deque<Waiter> waiters;
     private TransactionId lastWaitingTransactionId;
+    // Threads in wait, including polled waiters that have yet to wake up
+    private int waiting;
+    // Polled waiters that have yet to wake up and take the lock
+    private final Set<Waiter> woken;
     private final ReentrantLock reentrantLock;
     private final Condition condition;
-    private TransactionId nextTransactionId;
 
     public PageLock() {
         this.sharedLocks = new HashSet<>();
@@ -34,9 +37,10 @@ public class PageLock {
         this.pageLockState = PageLockState.NONE;
         this.waiters = new LinkedList<>();
         this.lastWaitingTransactionId = null;
+        this.waiting = 0;
+        this.woken = new HashSet<>();
         this.reentrantLock = new ReentrantLock(true);
         this.condition = reentrantLock.newCondition();
-        this.nextTransactionId = null;
     }
 
     public boolean hasSharedLock(TransactionId tid) {
@@ -57,8 +61,8 @@ public class PageLock {
         // 2. The requesting transaction already holds the exclusive lock
         // return exclusiveLock == null || exclusiveLock.equals(tid);
         // yufeng: kept above logic but took into account new properties
-        if (!waiters.isEmpty())
-            return false;
+        if (waiting > 0)
+            return holdsShared(tid);
         switch (pageLockState) {
             case NONE:
                 return true;
@@ -83,8 +87,8 @@ public class PageLock {
         // return sharedLocks.isEmpty() || (sharedLocks.size() == 1 &&
         // sharedLocks.contains(tid));
         // yufeng: kept above logic but took into account new properties
-        if (!waiters.isEmpty())
-            return false;
+        if (waiting > 0)
+            return holdsExclusive(tid);
         switch (pageLockState) {
             case NONE:
                 return true;
@@ -98,35 +102,84 @@ public class PageLock {
         }
     }
 
-    public void acquireSharedLock(TransactionId tid) throws InterruptedException {
+    /**
+     * @return true if tid holds a lock that lets it read, so that it need not
+     *         queue up behind the waiters
+     */
+    private boolean holdsShared(TransactionId tid) {
+        return hasAnyLock(tid);
+    }
+
+    /**
+     * @return true if tid holds the exclusive lock, or is the only holder of
+     *         the shared lock and can upgrade it without queueing up behind
+     *         waiters that wait for it
+     */
+    private boolean holdsExclusive(TransactionId tid) {
+        return hasExclusiveLock(tid) || pageLockState == PageLockState.SHARED
+                && sharedLocks.size() == 1 && sharedLocks.contains(tid);
+    }
+
+    public boolean acquireSharedLock(TransactionId tid) throws InterruptedException {
+        return acquireSharedLock(tid, 0);
+    }
+
+    /**
+     * @param timeoutNanos - how long to wait at most, or 0 to wait for as
+     *                     long as it takes
+     * @return false if the wait timed out or was cut short by
+     *         {@link #abortWaiter}
+     */
+    public boolean acquireSharedLock(TransactionId tid, long timeoutNanos) throws InterruptedException {
         // if (!canAcquireSharedLock(tid)) {
         // throw new IllegalStateException("Cannot acquire shared lock");
         // }
         // sharedLocks.add(tid);
         // yufeng: ex5 requires blocking
-        if (!waiters.isEmpty())
-            wait(tid, WaiterType.SHARED);
+        long deadline = deadline(timeoutNanos);
+        boolean waited = false;
+        if (waiting > 0 && !holdsShared(tid)) {
+            if (!wait(tid, WaiterType.SHARED, deadline))
+                return false;
+            waited = true;
+        }
         while (true) {
             switch (pageLockState) {
                 case NONE:
                     pageLockState = PageLockState.SHARED;
                     sharedLocks.add(tid);
-                    return;
+                    if (waited)
+                        pollSharedWaiters();
+                    return true;
                 case SHARED:
                     sharedLocks.add(tid);
-                    return;
+                    if (waited)
+                        pollSharedWaiters();
+                    return true;
                 case EXCLUSIVE:
                     if (exclusiveLock.equals(tid)) {
                         sharedLocks.add(tid);
-                        return;
+                        return true;
                     }
-                    wait(tid, WaiterType.SHARED);
+                    if (!wait(tid, WaiterType.SHARED, deadline))
+                        return false;
+                    waited = true;
                     break;
             }
         }
     }
 
-    public void acquireExclusiveLock(TransactionId tid) throws InterruptedException {
+    public boolean acquireExclusiveLock(TransactionId tid) throws InterruptedException {
+        return acquireExclusiveLock(tid, 0);
+    }
+
+    /**
+     * @param timeoutNanos - how long to wait at most, or 0 to wait for as
+     *                     long as it takes
+     * @return false if the wait timed out or was cut short by
+     *         {@link #abortWaiter}
+     */
+    public boolean acquireExclusiveLock(TransactionId tid, long timeoutNanos) throws InterruptedException {
         // if (!canAcquireExclusiveLock(tid)) {
         // throw new IllegalStateException("Cannot acquire exclusive lock");
         // }
@@ -134,37 +187,110 @@ public class PageLock {
         // sharedLocks.remove(tid);
         // exclusiveLock = tid;
         // yufeng: ex5 requires that the shared lock be kept
-        if (!waiters.isEmpty())
-            wait(tid, WaiterType.EXCLUSIVE);
+        long deadline = deadline(timeoutNanos);
+        if (waiting > 0 && !holdsExclusive(tid) && !wait(tid, WaiterType.EXCLUSIVE, deadline))
+            return false;
         while (true) {
             switch (pageLockState) {
                 case NONE:
                     pageLockState = PageLockState.EXCLUSIVE;
                     exclusiveLock = tid;
-                    return;
+                    return true;
                 case SHARED:
                     if (sharedLocks.size() == 1
                             && sharedLocks.contains(tid)) {
                         pageLockState = PageLockState.EXCLUSIVE;
                         exclusiveLock = tid;
-                        return;
+                        return true;
                     }
-                    wait(tid, WaiterType.EXCLUSIVE);
+                    if (!wait(tid, WaiterType.EXCLUSIVE, deadline))
+                        return false;
                     break;
                 case EXCLUSIVE:
                     if (exclusiveLock.equals(tid))
-                        return;
-                    wait(tid, WaiterType.EXCLUSIVE);
+                        return true;
+                    if (!wait(tid, WaiterType.EXCLUSIVE, deadline))
+                        return false;
                     break;
             }
         }
     }
 
-    private void wait(TransactionId transactionId, WaiterType waiterType) throws InterruptedException {
+    private static long deadline(long timeoutNanos) {
+        return timeoutNanos > 0 ? System.nanoTime() + timeoutNanos : 0;
+    }
+
+    /**
+     * Queue up and wait to be polled. Until the waiter has woken up, no
+     * newcomer may take the lock, so a polled waiter always finds it free.
+     *
+     * @param deadline - the System.nanoTime to give up at, or 0 for none
+     * @return false if the wait timed out or was aborted
+     */
+    private boolean wait(TransactionId transactionId, WaiterType waiterType, long deadline)
+            throws InterruptedException {
         lastWaitingTransactionId = transactionId;
-        waiters.add(new Waiter(transactionId, waiterType));
-        while (!transactionId.equals(nextTransactionId))
-            condition.await();
+        Waiter waiter = new Waiter(transactionId, waiterType);
+        waiters.add(waiter);
+        // Each waiter is woken by its own flag, as several may be polled at once
+        waiting++;
+        try {
+            while (!waiter.polled && !waiter.aborted) {
+                if (deadline == 0) {
+                    condition.await();
+                } else {
+                    long left = deadline - System.nanoTime();
+                    if (left <= 0) {
+                        leaveQueue(waiter);
+                        return false;
+                    }
+                    condition.awaitNanos(left);
+                }
+            }
+        } catch (InterruptedException e) {
+            // Leave the queue, or pass our turn on if we were just polled
+            if (!leaveQueue(waiter) && waiter.polled)
+                pollQueueAndSignalOne();
+            throw e;
+        } finally {
+            woken.remove(waiter);
+            if (--waiting == 0 && waiters.isEmpty())
+                lastWaitingTransactionId = null;
+        }
+        return !waiter.aborted;
+    }
+
+    /**
+     * @return false if the waiter was not in the queue
+     */
+    private boolean leaveQueue(Waiter waiter) {
+        if (!waiters.remove(waiter))
+            return false;
+        if (!waiters.isEmpty())
+            lastWaitingTransactionId = waiters.peekLast().getTransactionId();
+        // Readers queued behind a writer that gave up can join the holders,
+        // unless a polled upgrader is about to take the lock
+        if (pageLockState == PageLockState.SHARED && woken.isEmpty())
+            pollSharedWaiters();
+        return true;
+    }
+
+    /**
+     * Take a transaction out of the queue of waiters, making it give up
+     * waiting, as a deadlock victim.
+     *
+     * @return false if the transaction is not waiting
+     */
+    public boolean abortWaiter(TransactionId transactionId) {
+        for (Waiter waiter : waiters) {
+            if (waiter.getTransactionId().equals(transactionId)) {
+                leaveQueue(waiter);
+                waiter.aborted = true;
+                condition.signalAll();
+                return true;
+            }
+        }
+        return false;
     }
 
     public void releaseShared(TransactionId transactionId) {
@@ -205,8 +331,7 @@ public class PageLock {
                     exclusiveLock = null;
                     if (sharedLocks.contains(transactionId)) {
                         pageLockState = PageLockState.SHARED;
-                        while (waiters.peek() != null && waiters.peek().getWaiterType().equals(WaiterType.SHARED))
-                            pollQueueAndSignalOne();
+                        pollSharedWaiters();
                     } else {
                         pageLockState = PageLockState.NONE;
                         pollQueueAndSignalOne();
@@ -221,13 +346,20 @@ public class PageLock {
     private void pollQueueAndSignalOne() {
         Waiter polledWaiter = waiters.poll();
         if (polledWaiter != null) {
-            nextTransactionId = polledWaiter.getTransactionId();
-            if (waiters.isEmpty())
-                lastWaitingTransactionId = null;
-            condition.signal();
+            polledWaiter.polled = true;
+            woken.add(polledWaiter);
+            condition.signalAll();
         }
     }
 
+    /**
+     * Let the shared waiters at the head of the queue share the lock too.
+     */
+    private void pollSharedWaiters() {
+        while (waiters.peek() != null && waiters.peek().getWaiterType().equals(WaiterType.SHARED))
+            pollQueueAndSignalOne();
+    }
+
     public void releaseAllLocks(TransactionId tid) {
         // sharedLocks.remove(tid);
         // if (exclusiveLock != null && exclusiveLock.equals(tid)) {
@@ -238,8 +370,12 @@ public class PageLock {
         releaseExclusive(tid);
     }
 
+    /**
+     * @return true if no transaction holds or waits for this lock, so that it
+     *         can be dropped
+     */
     public boolean isEmpty() {
-        return sharedLocks.isEmpty() && exclusiveLock == null;
+        return sharedLocks.isEmpty() && exclusiveLock == null && waiting == 0;
     }
 
     public PageLockState getPageLockState() {
@@ -266,6 +402,21 @@ public class PageLock {
         return lastWaitingTransactionId;
     }
 
+    /**
+     * @return every other transaction that a newcomer tid would wait for:
+     *         the holders, the waiters ahead in the queue and the polled
+     *         waiters about to take the lock
+     */
+    public Set<TransactionId> getBlockers(TransactionId tid) {
+        Set<TransactionId> result = new HashSet<>(getTransactionsThatAcquired());
+        for (Waiter waiter : waiters)
+            result.add(waiter.getTransactionId());
+        for (Waiter waiter : woken)
+            result.add(waiter.getTransactionId());
+        result.remove(tid);
+        return result;
+    }
+
     public Set<TransactionId> getTransactionsThatAcquired() {
         Set<TransactionId> result = new HashSet<>();
         switch (pageLockState) {
@@ -287,6 +438,8 @@ public class PageLock {
     private class Waiter {
         private TransactionId transactionId;
         private WaiterType waiterType;
+        private boolean polled;
+        private boolean aborted;
 
         private Waiter(TransactionId transactionId, WaiterType waiterType) {
             this.transactionId = transactionId;
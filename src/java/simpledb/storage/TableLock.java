@@ -0,0 +1,166 @@
+package simpledb.storage;
+
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import simpledb.transaction.TransactionId;
+
+/**
+ * A lock on a whole table, above the {@link PageLock}s of its pages. Page
+ * locks are taken under an intention lock on their table (IS for shared, IX
+ * for exclusive page locks), and a transaction holding S, SIX or X on a table
+ * needs no page locks for what that mode covers.
+ * <p>
+ * To be accessed by only {@link LockManager}, which synchronizes manually
+ * using {@link TableLock#synchronize} and {@link TableLock#desynchronize}
+ * around everything but {@link TableLock#getMode}, as for {@link PageLock}.
+ */
+public class TableLock {
+
+    /** Lock modes, from weakest to strongest */
+    public static enum Mode {
+        IS, IX, S, SIX, X;
+
+        /**
+         * @return true if one transaction may hold this mode while another
+         *         holds other
+         */
+        public boolean isCompatible(Mode other) {
+            switch (this) {
+                case IS:
+                    return other != X;
+                case IX:
+                    return other == IS || other == IX;
+                case S:
+                    return other == IS || other == S;
+                case SIX:
+                    return other == IS;
+                default:
+                    return false;
+            }
+        }
+
+        /**
+         * @return true if holding this mode grants everything other does
+         */
+        public boolean covers(Mode other) {
+            switch (this) {
+                case IS:
+                    return other == IS;
+                case IX:
+                    return other == IS || other == IX;
+                case S:
+                    return other == IS || other == S;
+                case SIX:
+                    return other != X;
+                default:
+                    return true;
+            }
+        }
+
+        /**
+         * @return the weakest mode covering both this mode and other
+         */
+        public Mode join(Mode other) {
+            if (covers(other))
+                return this;
+            if (other.covers(this))
+                return other;
+            // only S and IX are incomparable
+            return SIX;
+        }
+    }
+
+    private final int tableId;
+    private final Map<TransactionId, Mode> granted;
+    private final ReentrantLock reentrantLock;
+    private final Condition condition;
+
+    public TableLock(int tableId) {
+        this.tableId = tableId;
+        this.granted = new ConcurrentHashMap<>();
+        this.reentrantLock = new ReentrantLock(true);
+        this.condition = reentrantLock.newCondition();
+    }
+
+    public int getTableId() {
+        return tableId;
+    }
+
+    /**
+     * @return the mode tid holds, or null. Safe to call without synchronizing
+     *         for a transaction's own mode, which only it changes until it
+     *         completes.
+     */
+    public Mode getMode(TransactionId tid) {
+        return granted.get(tid);
+    }
+
+    /**
+     * @return the other transactions whose modes keep tid from holding mode
+     *         on top of what it holds already
+     */
+    public Set<TransactionId> getBlockers(TransactionId tid, Mode mode) {
+        Mode held = granted.get(tid);
+        Mode wanted = held == null ? mode : held.join(mode);
+        Set<TransactionId> blockers = new HashSet<>();
+        for (Map.Entry<TransactionId, Mode> e : granted.entrySet()) {
+            if (!e.getKey().equals(tid) && !wanted.isCompatible(e.getValue()))
+                blockers.add(e.getKey());
+        }
+        return blockers;
+    }
+
+    /**
+     * Grant mode to tid, on top of what it holds already; the caller has
+     * checked there are no blockers.
+     */
+    public void acquire(TransactionId tid, Mode mode) {
+        granted.merge(tid, mode, Mode::join);
+    }
+
+    /**
+     * Wait until some transaction releases its lock.
+     */
+    public void await() throws InterruptedException {
+        condition.await();
+    }
+
+    /**
+     * Wait until some transaction releases its lock, or for at most
+     * nanosTimeout ns.
+     *
+     * @return an estimate of the time left, as for {@link Condition#awaitNanos}
+     */
+    public long awaitNanos(long nanosTimeout) throws InterruptedException {
+        return condition.awaitNanos(nanosTimeout);
+    }
+
+    /**
+     * Wake every waiting transaction, to let one that was aborted notice.
+     */
+    public void wakeAll() {
+        condition.signalAll();
+    }
+
+    public void release(TransactionId tid) {
+        if (granted.remove(tid) != null)
+            condition.signalAll();
+    }
+
+    public boolean isEmpty() {
+        return granted.isEmpty();
+    }
+
+    public void synchronize() {
+        this.reentrantLock.lock();
+    }
+
+    public void desynchronize() {
+        this.reentrantLock.unlock();
+    }
+}
@@ -1,6 +1,11 @@
 package simpledb.storage;
 
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
@@ -8,6 +13,17 @@ import java.util.concurrent.atomic.AtomicInteger;
 
 import simpledb.transaction.TransactionId;
 
+/**
+ * The wait-for graph of the transactions waiting for locks: an edge from one
+ * transaction to another counts the waits of the first on the second, and a
+ * cycle is a deadlock.
+ * <p>
+ * As long as every new wait is checked with {@link #hasCycleFrom} before the
+ * waiter blocks, the graph stays acyclic, so any cycle a new edge closes runs
+ * through the waiter: the check only searches what the waiter can reach, not
+ * the whole graph. A background detector that lets waiters block without
+ * checking uses {@link #findCycle} instead.
+ */
 public class WaitForGraph {
     private final Map<TransactionId, Map<TransactionId, Integer>> graph = new ConcurrentHashMap<>();
 
@@ -36,7 +52,7 @@ public class WaitForGraph {
                 return result;
             }
             v.compute(to, (kk, vv) -> {
-                return vv + 1;
+                return vv == null ? 1 : vv + 1;
             });
             return v;
         });
@@ -49,17 +65,17 @@ public class WaitForGraph {
             if (v == null)
                 return null;
             v.compute(to, (kk, vv) -> {
-                if (vv == null)
+                if (vv == null || vv <= 1)
                     return null;
                 return vv - 1;
             });
-            return v;
+            return v.isEmpty() ? null : v;
         });
     }
 
     public int getWait(TransactionId from, TransactionId to) {
         AtomicInteger atomicInteger = new AtomicInteger(0);
-        graph.computeIfPresent(to, (k, v) -> {
+        graph.computeIfPresent(from, (k, v) -> {
             if (v == null)
                 return null;
             atomicInteger.set(v.getOrDefault(to, 0));
@@ -88,6 +104,65 @@ public class WaitForGraph {
         return false;
     }
 
+    /**
+     * @return true if node waits, directly or not, on itself. When the graph
+     *         had no cycles before edges out of node were added, this tells
+     *         whether those edges closed one.
+     */
+    public boolean hasCycleFrom(TransactionId node) {
+        Set<TransactionId> visited = new HashSet<>();
+        Deque<TransactionId> stack = new ArrayDeque<>();
+        stack.push(node);
+        while (!stack.isEmpty()) {
+            Map<TransactionId, Integer> edges = graph.get(stack.pop());
+            if (edges == null)
+                continue;
+            for (TransactionId neighbor : edges.keySet()) {
+                if (neighbor.equals(node))
+                    return true;
+                if (visited.add(neighbor))
+                    stack.push(neighbor);
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return the transactions of some cycle in the graph, each waiting on
+     *         the next and the last on the first, or null if there is none
+     */
+    public List<TransactionId> findCycle() {
+        Set<TransactionId> visited = new HashSet<>();
+        for (TransactionId node : graph.keySet()) {
+            if (visited.contains(node))
+                continue;
+            // Iterative DFS, keeping the path from node on the stack
+            List<TransactionId> path = new ArrayList<>();
+            Set<TransactionId> onPath = new HashSet<>();
+            Deque<Iterator<TransactionId>> stack = new ArrayDeque<>();
+            visited.add(node);
+            path.add(node);
+            onPath.add(node);
+            stack.push(graph.getOrDefault(node, Map.of()).keySet().iterator());
+            while (!stack.isEmpty()) {
+                if (!stack.peek().hasNext()) {
+                    stack.pop();
+                    onPath.remove(path.remove(path.size() - 1));
+                    continue;
+                }
+                TransactionId neighbor = stack.peek().next();
+                if (onPath.contains(neighbor))
+                    return new ArrayList<>(path.subList(path.indexOf(neighbor), path.size()));
+                if (visited.add(neighbor)) {
+                    path.add(neighbor);
+                    onPath.add(neighbor);
+                    stack.push(graph.getOrDefault(neighbor, Map.of()).keySet().iterator());
+                }
+            }
+        }
+        return null;
+    }
+
     private boolean dfsHasCycle(TransactionId node, Set<TransactionId> visited, Set<TransactionId> recStack) {
         // Base cases
         if (recStack.contains(node))
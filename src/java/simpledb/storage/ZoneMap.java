@@ -0,0 +1,129 @@
+package simpledb.storage;
+
+import simpledb.common.Type;
+import simpledb.execution.Predicate;
+
+import java.util.*;
+
+/**
+ * The smallest and largest value of each INT field on each page of a
+ * {@link HeapFile}, used to skip pages that cannot hold a tuple satisfying a
+ * predicate without reading them.
+ * <p>
+ * A page's summary is only recorded from a copy of the page that matches
+ * what is on disk, and is then kept covering every version of the page a
+ * transaction might see: inserts widen it, and it only narrows when the page
+ * is written or summarized again, so an aborted insert leaves it wider than
+ * it needs to be. Pages without a summary are never skipped, so the map can
+ * be (re)built by simply reading pages.
+ */
+class ZoneMap {
+
+    /** The slot of each field in a summary, or -1 for fields that are not INTs */
+    private final int[] slots;
+    private final int numInts;
+    /** For each page: the min and max of each INT field, or null if unknown */
+    private final List<int[]> pages = new ArrayList<>();
+
+    ZoneMap(TupleDesc td) {
+        slots = new int[td.numFields()];
+        int n = 0;
+        for (int i = 0; i < slots.length; i++)
+            slots[i] = td.getFieldType(i) == Type.INT_TYPE ? n++ : -1;
+        numInts = n;
+    }
+
+    /** @return a summary covering no values, as for an empty page */
+    private int[] empty() {
+        int[] zone = new int[2 * numInts];
+        for (int i = 0; i < numInts; i++) {
+            zone[2 * i] = Integer.MAX_VALUE;
+            zone[2 * i + 1] = Integer.MIN_VALUE;
+        }
+        return zone;
+    }
+
+    private void widen(int[] zone, Tuple t) {
+        for (int i = 0; i < slots.length; i++) {
+            if (slots[i] < 0)
+                continue;
+            int v = ((IntField) t.getField(i)).getValue();
+            zone[2 * slots[i]] = Math.min(zone[2 * slots[i]], v);
+            zone[2 * slots[i] + 1] = Math.max(zone[2 * slots[i] + 1], v);
+        }
+    }
+
+    /**
+     * @return true if the given page has a summary
+     */
+    synchronized boolean isKnown(int pageNo) {
+        return pageNo < pages.size() && pages.get(pageNo) != null;
+    }
+
+    /**
+     * Summarize a page from its tuples, replacing any summary it had. The
+     * page must hold what is on disk.
+     */
+    synchronized void record(HeapPage page) {
+        int pageNo = page.getId().getPageNumber();
+        int[] zone = empty();
+        Iterator<Tuple> it = page.iterator();
+        while (it.hasNext())
+            widen(zone, it.next());
+        while (pages.size() <= pageNo)
+            pages.add(null);
+        pages.set(pageNo, zone);
+    }
+
+    /**
+     * Widen the summary of a page to cover a tuple being inserted into it.
+     */
+    synchronized void insert(int pageNo, Tuple t) {
+        if (pageNo < pages.size() && pages.get(pageNo) != null)
+            widen(pages.get(pageNo), t);
+    }
+
+    /**
+     * @return true if the page has a summary, and it shows that no tuple on
+     *         the page satisfies all of preds. Predicate fields are indices
+     *         in the file's TupleDesc.
+     */
+    synchronized boolean excludes(int pageNo, List<Predicate> preds) {
+        if (pageNo >= pages.size() || pages.get(pageNo) == null)
+            return false;
+        int[] zone = pages.get(pageNo);
+        for (Predicate p : preds) {
+            int slot = slots[p.getField()];
+            if (slot >= 0 && !mayMatch(zone[2 * slot], zone[2 * slot + 1], p.getOp(),
+                    ((IntField) p.getOperand()).getValue()))
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * @return false if no value in [min, max] satisfies op with c; an empty
+     *         range (min > max) satisfies nothing
+     */
+    private static boolean mayMatch(int min, int max, Predicate.Op op, int c) {
+        if (min > max)
+            return false;
+        switch (op) {
+        case EQUALS:
+        case LIKE:
+            return min <= c && c <= max;
+        case NOT_EQUALS:
+            return min != c || max != c;
+        case GREATER_THAN:
+            return max > c;
+        case GREATER_THAN_OR_EQ:
+            return max >= c;
+        case LESS_THAN:
+            return min < c;
+        case LESS_THAN_OR_EQ:
+            return min <= c;
+        default:
+            return true;
+        }
+    }
+}
@@ -12,15 +12,45 @@ public class TransactionId implements Serializable {
 
     static final AtomicLong counter = new AtomicLong(0);
     final long myid;
+    final long timestamp;
 
     public TransactionId() {
         myid = counter.getAndIncrement();
+        timestamp = myid;
+    }
+
+    /**
+     * Create the id of a transaction that restarts an aborted one. It gets a
+     * new id but keeps the timestamp of the first attempt, so that it does
+     * not lose its place among older and younger transactions.
+     *
+     * @param aborted the id of the attempt being restarted
+     */
+    public TransactionId(TransactionId aborted) {
+        myid = counter.getAndIncrement();
+        timestamp = aborted.timestamp;
     }
 
     public long getId() {
         return myid;
     }
 
+    /**
+     * @return when the transaction first started, as the id of its first
+     *         attempt; a smaller timestamp means an older transaction
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    /**
+     * @return true if this transaction started before the other one, by
+     *         timestamp and then, for two attempts of the same one, by id
+     */
+    public boolean isOlderThan(TransactionId other) {
+        return timestamp != other.timestamp ? timestamp < other.timestamp : myid < other.myid;
+    }
+
     @Override
 	public boolean equals(Object obj) {
 		if (this == obj)
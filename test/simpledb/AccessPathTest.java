@@ -0,0 +1,308 @@
+package simpledb;
+
+import simpledb.common.Database;
+import simpledb.execution.*;
+import simpledb.execution.Predicate.Op;
+import simpledb.index.BTreeFile;
+import simpledb.index.BTreeScan;
+import simpledb.index.BTreeUtility;
+import simpledb.index.SecondaryIndex;
+import simpledb.optimizer.LogicalPlan;
+import simpledb.optimizer.TableStats;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import java.io.File;
+import java.util.*;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class AccessPathTest extends SimpleDbTestBase {
+	private static final int ROWS = 3000;
+	private static final int MAX_VALUE = 1000;
+
+	private TransactionId tid;
+
+	@Before
+	public void setUp() {
+		Database.resetBufferPool(1000);
+		tid = new TransactionId();
+	}
+
+	@After
+	public void tearDown() {
+		Database.getBufferPool().transactionComplete(tid);
+	}
+
+	/**
+	 * Statistics for a table whose field values are uniform in [0, MAX_VALUE)
+	 */
+	private static TableStats uniformStats(int tableid, int pages) {
+		return new TableStats(tableid, 1000) {
+			@Override
+			public int totalTuples() {
+				return ROWS;
+			}
+
+			@Override
+			public double estimateScanCost() {
+				return pages * 1000.0;
+			}
+
+			@Override
+			public double estimateSelectivity(int field, Op op, Field constant) {
+				double v = ((IntField) constant).getValue() / (double) MAX_VALUE;
+				switch (op) {
+				case EQUALS:
+					return 1.0 / MAX_VALUE;
+				case GREATER_THAN:
+				case GREATER_THAN_OR_EQ:
+					return 1 - v;
+				default:
+					return v;
+				}
+			}
+		};
+	}
+
+	/**
+	 * Plans a query, checks which operator reads the table, and checks the
+	 * query's results
+	 * 
+	 * @return the operator that reads the table
+	 */
+	private OpIterator checkPlan(String query, Class<?> scanClass, List<List<Integer>> expected) throws Exception {
+		LogicalPlan lp = new Parser().generateLogicalPlan(tid, query);
+		OpIterator plan = lp.physicalPlan(tid, TableStats.getStatsMap(), false);
+
+		OpIterator scan = null;
+		List<OpIterator> ops = new ArrayList<>(Collections.singletonList(plan));
+		while (!ops.isEmpty()) {
+			OpIterator op = ops.remove(ops.size() - 1);
+			if (op instanceof SeqScan || op instanceof BTreeScan)
+				scan = op;
+			else if (op instanceof Operator)
+				ops.addAll(Arrays.asList(((Operator) op).getChildren()));
+		}
+		assertNotNull(scan);
+		assertEquals(scanClass, scan.getClass());
+
+		List<List<Integer>> actual = new ArrayList<>();
+		plan.open();
+		while (plan.hasNext())
+			actual.add(SystemTestUtil.tupleToList(plan.next()));
+		plan.close();
+		Comparator<List<Integer>> order = Comparator.<List<Integer>, Integer>comparing(l -> l.get(0))
+				.thenComparing(l -> l.get(1));
+		expected.sort(order);
+		actual.sort(order);
+		assertEquals(expected, actual);
+		return scan;
+	}
+
+	private static List<List<Integer>> matching(List<List<Integer>> tuples, int field, Op op, int value) {
+		List<List<Integer>> result = new ArrayList<>();
+		for (List<Integer> t : tuples)
+			if (new IntField(t.get(field)).compare(op, new IntField(value)))
+				result.add(t);
+		return result;
+	}
+
+	/**
+	 * A selective range on the key of a B+ tree table is answered by the
+	 * tree, an unselective one by a full scan
+	 */
+	@Test
+	public void primaryIndex() throws Exception {
+		List<List<Integer>> tuples = new ArrayList<>();
+		BTreeFile f = BTreeUtility.createRandomBTreeFile(2, ROWS, MAX_VALUE, null, tuples, 0);
+		BTreeFile bf = BTreeUtility.openBTreeFile(2, "c", f.getFile(), 0);
+		Database.getCatalog().addTable(bf, "ordered");
+		TableStats.setTableStats("ordered", uniformStats(bf.getId(), 20));
+
+		checkPlan("SELECT * FROM ordered WHERE ordered.c0 > 950;", BTreeScan.class,
+				matching(tuples, 0, Op.GREATER_THAN, 950));
+		checkPlan("SELECT * FROM ordered WHERE ordered.c0 > 50;", SeqScan.class,
+				matching(tuples, 0, Op.GREATER_THAN, 50));
+		// neither bound alone is worth a lookup, but the range between them is
+		List<List<Integer>> between = matching(matching(tuples, 0, Op.GREATER_THAN, 100), 0, Op.LESS_THAN, 900);
+		checkPlan("SELECT * FROM ordered WHERE ordered.c0 > 100 AND ordered.c0 < 900;", BTreeScan.class, between);
+		// filters on other fields cannot use the tree
+		checkPlan("SELECT * FROM ordered WHERE ordered.c1 = 7;", SeqScan.class,
+				matching(tuples, 1, Op.EQUALS, 7));
+	}
+
+	/**
+	 * A lookup on the key of a B+ tree table only returns the fields the
+	 * query references
+	 */
+	@Test
+	public void primaryIndexProjection() throws Exception {
+		List<List<Integer>> tuples = new ArrayList<>();
+		BTreeFile f = BTreeUtility.createRandomBTreeFile(3, ROWS, MAX_VALUE, null, tuples, 0);
+		BTreeFile bf = BTreeUtility.openBTreeFile(3, "c", f.getFile(), 0);
+		Database.getCatalog().addTable(bf, "ordered");
+		TableStats.setTableStats("ordered", uniformStats(bf.getId(), 20));
+
+		List<List<Integer>> expected = new ArrayList<>();
+		for (List<Integer> t : matching(tuples, 0, Op.GREATER_THAN, 950))
+			expected.add(Arrays.asList(t.get(0), t.get(2)));
+		OpIterator scan = checkPlan("SELECT ordered.c0, ordered.c2 FROM ordered WHERE ordered.c0 > 950;",
+				BTreeScan.class, expected);
+		assertArrayEquals(new int[] { 0, 2 }, ((BTreeScan) scan).getOutFields());
+		assertEquals(2, scan.getTupleDesc().numFields());
+	}
+
+	/**
+	 * Without statistics a lookup on the key of a B+ tree table is still used,
+	 * since it never reads more pages than a full scan, and a B+ tree table is
+	 * read in key order rather than sorted; a secondary index is not used
+	 */
+	@Test
+	public void noStatistics() throws Exception {
+		List<List<Integer>> tuples = new ArrayList<>();
+		BTreeFile f = BTreeUtility.createRandomBTreeFile(2, ROWS, MAX_VALUE, null, tuples, 0);
+		BTreeFile bf = BTreeUtility.openBTreeFile(2, "c", f.getFile(), 0);
+		Database.getCatalog().addTable(bf, "ordered");
+		TableStats.setTableStats("ordered", new TableStats(bf.getId(), 1000));
+
+		checkPlan("SELECT * FROM ordered WHERE ordered.c0 = 42;", BTreeScan.class,
+				matching(tuples, 0, Op.EQUALS, 42));
+		checkPlan("SELECT * FROM ordered WHERE ordered.c0 > 100 AND ordered.c0 < 900;", BTreeScan.class,
+				matching(matching(tuples, 0, Op.GREATER_THAN, 100), 0, Op.LESS_THAN, 900));
+		checkPlan("SELECT * FROM ordered WHERE ordered.c1 = 7;", SeqScan.class,
+				matching(tuples, 1, Op.EQUALS, 7));
+		checkOrderedPlan("SELECT ordered.c0 FROM ordered ORDER BY ordered.c0;", false, column(tuples, 0, true));
+
+		List<List<Integer>> heapTuples = new ArrayList<>();
+		HeapFile hf = SystemTestUtil.createRandomHeapFile(2, ROWS, MAX_VALUE, null, heapTuples, "c");
+		Database.getCatalog().addTable(hf, "indexed");
+		File idx = File.createTempFile("secondary", ".dat");
+		idx.deleteOnExit();
+		SecondaryIndex.create(tid, hf.getId(), 1, idx);
+		TableStats.setTableStats("indexed", new TableStats(hf.getId(), 1000));
+
+		checkPlan("SELECT * FROM indexed WHERE indexed.c1 = 42;", SeqScan.class,
+				matching(heapTuples, 1, Op.EQUALS, 42));
+	}
+
+	/**
+	 * A table with no entry in the statistics map at all is planned like one
+	 * whose statistics are empty
+	 */
+	@Test
+	public void absentStatistics() throws Exception {
+		List<List<Integer>> tuples = new ArrayList<>();
+		BTreeFile f = BTreeUtility.createRandomBTreeFile(2, ROWS, MAX_VALUE, null, tuples, 0);
+		BTreeFile bf = BTreeUtility.openBTreeFile(2, "c", f.getFile(), 0);
+		Database.getCatalog().addTable(bf, "unstated");
+		TableStats.getStatsMap().remove("unstated");
+
+		checkPlan("SELECT * FROM unstated WHERE unstated.c0 = 42;", BTreeScan.class,
+				matching(tuples, 0, Op.EQUALS, 42));
+		checkPlan("SELECT * FROM unstated WHERE unstated.c0 >= 900;", BTreeScan.class,
+				matching(tuples, 0, Op.GREATER_THAN_OR_EQ, 900));
+		checkPlan("SELECT * FROM unstated WHERE unstated.c1 = 7;", SeqScan.class,
+				matching(tuples, 1, Op.EQUALS, 7));
+	}
+
+	/**
+	 * A secondary index pays a page read per matching tuple, so it is only
+	 * chosen for very selective filters
+	 */
+	@Test
+	public void secondaryIndex() throws Exception {
+		List<List<Integer>> tuples = new ArrayList<>();
+		HeapFile hf = SystemTestUtil.createRandomHeapFile(2, ROWS, MAX_VALUE, null, tuples, "c");
+		Database.getCatalog().addTable(hf, "indexed");
+		File f = File.createTempFile("secondary", ".dat");
+		f.deleteOnExit();
+		SecondaryIndex.create(tid, hf.getId(), 1, f);
+		TableStats.setTableStats("indexed", uniformStats(hf.getId(), 50));
+
+		checkPlan("SELECT * FROM indexed WHERE indexed.c1 = 42;", IndexScan.class,
+				matching(tuples, 1, Op.EQUALS, 42));
+		checkPlan("SELECT * FROM indexed WHERE indexed.c1 < 500;", SeqScan.class,
+				matching(tuples, 1, Op.LESS_THAN, 500));
+	}
+
+	/**
+	 * Plans a query and checks that no OrderBy is needed to return its
+	 * results in the expected order
+	 */
+	private void checkOrderedPlan(String query, boolean sorted, List<Integer> expected) throws Exception {
+		LogicalPlan lp = new Parser().generateLogicalPlan(tid, query);
+		OpIterator plan = lp.physicalPlan(tid, TableStats.getStatsMap(), false);
+
+		boolean sorts = false;
+		List<OpIterator> ops = new ArrayList<>(Collections.singletonList(plan));
+		while (!ops.isEmpty()) {
+			OpIterator op = ops.remove(ops.size() - 1);
+			sorts |= op instanceof OrderBy;
+			if (op instanceof Operator)
+				ops.addAll(Arrays.asList(((Operator) op).getChildren()));
+		}
+		assertEquals(sorted, sorts);
+
+		List<Integer> actual = new ArrayList<>();
+		plan.open();
+		while (plan.hasNext())
+			actual.add(((IntField) plan.next().getField(0)).getValue());
+		plan.close();
+		assertEquals(expected, actual);
+	}
+
+	private static List<Integer> column(List<List<Integer>> tuples, int field, boolean asc) {
+		List<Integer> values = new ArrayList<>();
+		for (List<Integer> t : tuples)
+			values.add(t.get(field));
+		values.sort(asc ? Comparator.naturalOrder() : Comparator.reverseOrder());
+		return values;
+	}
+
+	/**
+	 * ORDER BY on the key of a B+ tree table, or on a field with a secondary
+	 * index used by the plan, is answered by the order of the index
+	 */
+	@Test
+	public void indexOrder() throws Exception {
+		List<List<Integer>> tuples = new ArrayList<>();
+		BTreeFile f = BTreeUtility.createRandomBTreeFile(2, ROWS, MAX_VALUE, null, tuples, 0);
+		BTreeFile bf = BTreeUtility.openBTreeFile(2, "c", f.getFile(), 0);
+		Database.getCatalog().addTable(bf, "ordered");
+		TableStats.setTableStats("ordered", uniformStats(bf.getId(), 20));
+
+		checkOrderedPlan("SELECT ordered.c0 FROM ordered ORDER BY ordered.c0;", false, column(tuples, 0, true));
+		checkOrderedPlan("SELECT ordered.c0 FROM ordered ORDER BY ordered.c0 DESC;", false, column(tuples, 0, false));
+		checkOrderedPlan("SELECT ordered.c0 FROM ordered WHERE ordered.c0 > 900 ORDER BY ordered.c0 DESC;", false,
+				column(matching(tuples, 0, Op.GREATER_THAN, 900), 0, false));
+		checkOrderedPlan("SELECT ordered.c1 FROM ordered ORDER BY ordered.c1;", true, column(tuples, 1, true));
+
+		List<List<Integer>> heapTuples = new ArrayList<>();
+		HeapFile hf = SystemTestUtil.createRandomHeapFile(2, ROWS, MAX_VALUE, null, heapTuples, "c");
+		Database.getCatalog().addTable(hf, "indexed");
+		File idx = File.createTempFile("secondary", ".dat");
+		idx.deleteOnExit();
+		SecondaryIndex.create(tid, hf.getId(), 0, idx);
+		TableStats.setTableStats("indexed", uniformStats(hf.getId(), 50));
+
+		checkOrderedPlan("SELECT indexed.c0 FROM indexed WHERE indexed.c0 < 5 ORDER BY indexed.c0 DESC;", false,
+				column(matching(heapTuples, 0, Op.LESS_THAN, 5), 0, false));
+		// a full scan of the heap is cheaper than fetching every tuple through the index
+		checkOrderedPlan("SELECT indexed.c0 FROM indexed ORDER BY indexed.c0;", true, column(heapTuples, 0, true));
+	}
+
+	/**
+	 * JUnit suite target
+	 */
+	public static junit.framework.Test suite() {
+		return new JUnit4TestAdapter(AccessPathTest.class);
+	}
+}
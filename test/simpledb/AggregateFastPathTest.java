@@ -0,0 +1,151 @@
+package simpledb;
+
+import simpledb.common.Database;
+import simpledb.execution.*;
+import simpledb.index.BTreeFile;
+import simpledb.index.BTreeUtility;
+import simpledb.index.SecondaryIndex;
+import simpledb.optimizer.LogicalPlan;
+import simpledb.optimizer.TableStats;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import java.io.File;
+import java.util.*;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class AggregateFastPathTest extends SimpleDbTestBase {
+	private static final int ROWS = 3000;
+	private static final int MAX_VALUE = 1000;
+
+	private TransactionId tid;
+
+	@Before
+	public void setUp() {
+		Database.resetBufferPool(1000);
+		tid = new TransactionId();
+	}
+
+	@After
+	public void tearDown() {
+		Database.getBufferPool().transactionComplete(tid);
+	}
+
+	/**
+	 * Plans and runs an aggregate query, checks the class of the operator
+	 * computing the aggregate, and returns the query's single result
+	 */
+	private int aggregate(String query, Class<?> aggClass) throws Exception {
+		LogicalPlan lp = new Parser().generateLogicalPlan(tid, query);
+		OpIterator plan = lp.physicalPlan(tid, TableStats.getStatsMap(), false);
+		assertEquals(aggClass, ((Operator) plan).getChildren()[0].getClass());
+
+		plan.open();
+		assertTrue(plan.hasNext());
+		int result = ((IntField) plan.next().getField(0)).getValue();
+		assertFalse(plan.hasNext());
+		plan.close();
+		return result;
+	}
+
+	private static int max(List<List<Integer>> tuples, int field) {
+		int max = Integer.MIN_VALUE;
+		for (List<Integer> t : tuples)
+			max = Math.max(max, t.get(field));
+		return max;
+	}
+
+	private static int min(List<List<Integer>> tuples, int field) {
+		int min = Integer.MAX_VALUE;
+		for (List<Integer> t : tuples)
+			min = Math.min(min, t.get(field));
+		return min;
+	}
+
+	/**
+	 * Counting from the page headers sees the transaction's own uncommitted
+	 * changes in cached pages, and committed ones on disk
+	 */
+	@Test
+	public void countFromHeaders() throws Exception {
+		List<List<Integer>> tuples = new ArrayList<>();
+		HeapFile hf = SystemTestUtil.createRandomHeapFile(2, ROWS, MAX_VALUE, null, tuples, "c");
+		Database.getCatalog().addTable(hf, "counted");
+		TableStats.setTableStats("counted", new TableStats(hf.getId(), 1000));
+		assertEquals(ROWS, hf.countTuples(tid));
+
+		for (int i = 0; i < 100; i++) {
+			Tuple t = new Tuple(hf.getTupleDesc());
+			t.setField(0, new IntField(MAX_VALUE));
+			t.setField(1, new IntField(i));
+			Database.getBufferPool().insertTuple(tid, hf.getId(), t);
+		}
+		List<Tuple> toDelete = new ArrayList<>();
+		DbFileIterator it = hf.iterator(tid);
+		it.open();
+		while (it.hasNext() && toDelete.size() < 250)
+			toDelete.add(it.next());
+		it.close();
+		for (Tuple t : toDelete)
+			Database.getBufferPool().deleteTuple(tid, t);
+		assertEquals(ROWS - 150, hf.countTuples(tid));
+
+		Database.getBufferPool().transactionComplete(tid);
+		Database.resetBufferPool(1000);
+		tid = new TransactionId();
+		assertEquals(ROWS - 150, aggregate("SELECT count(*) FROM counted;", HeapCount.class));
+		assertEquals(ROWS - 150, aggregate("SELECT count(counted.c1) FROM counted;", HeapCount.class));
+		assertEquals(100, aggregate("SELECT count(*) FROM counted WHERE counted.c0 = 1000;", Aggregate.class));
+	}
+
+	/**
+	 * Ungrouped MIN and MAX on the key of a B+ tree table, or on a field with
+	 * a secondary index, read one end of the index
+	 */
+	@Test
+	public void minMaxFromIndex() throws Exception {
+		List<List<Integer>> tuples = new ArrayList<>();
+		BTreeFile f = BTreeUtility.createRandomBTreeFile(2, ROWS, MAX_VALUE, null, tuples, 0);
+		BTreeFile bf = BTreeUtility.openBTreeFile(2, "c", f.getFile(), 0);
+		Database.getCatalog().addTable(bf, "ordered");
+		TableStats.setTableStats("ordered", new TableStats(bf.getId(), 1000));
+
+		assertEquals(max(tuples, 0), aggregate("SELECT max(ordered.c0) FROM ordered;", OrderedMinMax.class));
+		assertEquals(min(tuples, 0), aggregate("SELECT min(ordered.c0) FROM ordered;", OrderedMinMax.class));
+		// filters on other fields are applied on the way
+		List<List<Integer>> small = new ArrayList<>();
+		for (List<Integer> t : tuples)
+			if (t.get(1) < 10)
+				small.add(t);
+		assertEquals(max(small, 0),
+				aggregate("SELECT max(ordered.c0) FROM ordered WHERE ordered.c1 < 10;", OrderedMinMax.class));
+		assertEquals(max(tuples, 1), aggregate("SELECT max(ordered.c1) FROM ordered;", Aggregate.class));
+
+		List<List<Integer>> heapTuples = new ArrayList<>();
+		HeapFile hf = SystemTestUtil.createRandomHeapFile(2, ROWS, MAX_VALUE, null, heapTuples, "c");
+		Database.getCatalog().addTable(hf, "indexed");
+		File idx = File.createTempFile("secondary", ".dat");
+		idx.deleteOnExit();
+		SecondaryIndex.create(tid, hf.getId(), 1, idx);
+		TableStats.setTableStats("indexed", new TableStats(hf.getId(), 1000));
+
+		assertEquals(max(heapTuples, 1), aggregate("SELECT max(indexed.c1) FROM indexed;", OrderedMinMax.class));
+		assertEquals(min(heapTuples, 1), aggregate("SELECT min(indexed.c1) FROM indexed;", OrderedMinMax.class));
+		assertEquals(max(heapTuples, 0), aggregate("SELECT max(indexed.c0) FROM indexed;", Aggregate.class));
+	}
+
+	/**
+	 * JUnit suite target
+	 */
+	public static junit.framework.Test suite() {
+		return new JUnit4TestAdapter(AggregateFastPathTest.class);
+	}
+}
@@ -0,0 +1,215 @@
+package simpledb;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Permissions;
+import simpledb.common.Utility;
+import simpledb.execution.OpIterator;
+import simpledb.index.*;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+
+import java.io.File;
+import java.util.*;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+public class BTreeBulkLoadTest extends SimpleDbTestBase {
+	private TransactionId tid;
+
+	@Before
+	public void setUp() {
+		tid = new TransactionId();
+	}
+
+	@After
+	public void tearDown() {
+		Database.getBufferPool().transactionComplete(tid);
+	}
+
+	private static BTreeFile emptyBTreeFile() throws Exception {
+		File f = File.createTempFile("bulkload", ".dat");
+		f.deleteOnExit();
+		return BTreeUtility.createEmptyBTreeFile(f.getAbsolutePath(), 2, 0);
+	}
+
+	private static TupleIterator source(List<Tuple> tuples) {
+		return new TupleIterator(Utility.getTupleDesc(2), tuples);
+	}
+
+	/** Scan the tree and check it holds exactly the given tuples, in key order */
+	private void assertContains(BTreeFile bf, List<Tuple> tuples) throws Exception {
+		List<Integer> expected = new ArrayList<>();
+		for (Tuple t : tuples)
+			expected.add(((IntField) t.getField(0)).getValue());
+		Collections.sort(expected);
+
+		List<Integer> actual = new ArrayList<>();
+		DbFileIterator it = bf.iterator(tid);
+		it.open();
+		while (it.hasNext())
+			actual.add(((IntField) it.next().getField(0)).getValue());
+		it.close();
+		assertEquals(expected, actual);
+	}
+
+	/**
+	 * A full load packs leaves and builds every level above them
+	 */
+	@Test
+	public void loadPacksPages() throws Exception {
+		BTreeFile bf = emptyBTreeFile();
+		// more leaves than fit under one internal page
+		List<Tuple> tuples = BTreeUtility.generateRandomTuples(2, 260000, 0, BTreeUtility.MAX_RAND_VALUE);
+		assertEquals(tuples.size(), bf.bulkLoad(tid, source(tuples), 1.0));
+
+		BTreeChecker.checkRep(bf, tid, new HashMap<>(), true);
+		assertContains(bf, tuples);
+		// 518 full leaves, two internal pages and the root
+		assertEquals(521, bf.numPages());
+
+		BTreeRootPtrPage rootPtr = (BTreeRootPtrPage) Database.getBufferPool().getPage(tid,
+				BTreeRootPtrPage.getId(bf.getId()), Permissions.READ_ONLY);
+		assertEquals(521, rootPtr.getRootId().getPageNumber());
+	}
+
+	/**
+	 * Input larger than the sort budget is sorted in spilled runs and merged
+	 */
+	@Test
+	public void externalSort() throws Exception {
+		BTreeFile bf = emptyBTreeFile();
+		List<Tuple> tuples = BTreeUtility.generateRandomTuples(2, 20000, 0, BTreeUtility.MAX_RAND_VALUE);
+		// room for 1000 tuples at a time
+		BTreeBulkLoader loader = new BTreeBulkLoader(bf, 0.9, 1000 * 8);
+		assertEquals(tuples.size(), loader.load(tid, source(tuples)));
+
+		BTreeChecker.checkRep(bf, tid, new HashMap<>(), true);
+		assertContains(bf, tuples);
+	}
+
+	/**
+	 * Pages loaded below full take later inserts without splitting
+	 */
+	@Test
+	public void fillFactorLeavesRoom() throws Exception {
+		BTreeFile bf = emptyBTreeFile();
+		List<Tuple> tuples = BTreeUtility.generateRandomTuples(2, 20000, 0, BTreeUtility.MAX_RAND_VALUE);
+		bf.bulkLoad(tid, source(tuples), 0.5);
+		// 79 leaves just over half full (80 would leave them under) and the root
+		assertEquals(80, bf.numPages());
+
+		List<Tuple> more = BTreeUtility.generateRandomTuples(2, 1000, 0, BTreeUtility.MAX_RAND_VALUE);
+		Database.resetBufferPool(500);
+		for (Tuple t : more)
+			Database.getBufferPool().insertTuple(tid, bf.getId(), t);
+		assertEquals(80, bf.numPages());
+
+		List<Tuple> all = new ArrayList<>(tuples);
+		all.addAll(more);
+		BTreeChecker.checkRep(bf, tid, new HashMap<>(), true);
+		assertContains(bf, all);
+	}
+
+	/**
+	 * Small loads end with a single leaf as the root
+	 */
+	@Test
+	public void loadSingleLeaf() throws Exception {
+		BTreeFile bf = emptyBTreeFile();
+		List<Tuple> tuples = BTreeUtility.generateRandomTuples(2, 100, 0, BTreeUtility.MAX_RAND_VALUE);
+		bf.bulkLoad(tid, source(tuples), 0.9);
+		assertEquals(1, bf.numPages());
+		assertContains(bf, tuples);
+	}
+
+	/**
+	 * A source that aborts after a number of tuples, as a scan of the table
+	 * being indexed does when its transaction is chosen as a deadlock victim
+	 */
+	private static class AbortingSource implements OpIterator {
+		private static final long serialVersionUID = 1L;
+		private final OpIterator source;
+		private int remaining;
+
+		AbortingSource(OpIterator source, int remaining) {
+			this.source = source;
+			this.remaining = remaining;
+		}
+
+		public void open() throws DbException, TransactionAbortedException {
+			source.open();
+		}
+
+		public boolean hasNext() throws DbException, TransactionAbortedException {
+			if (remaining == 0)
+				throw new TransactionAbortedException();
+			return source.hasNext();
+		}
+
+		public Tuple next() throws DbException, TransactionAbortedException {
+			remaining--;
+			return source.next();
+		}
+
+		public void rewind() throws DbException, TransactionAbortedException {
+			source.rewind();
+		}
+
+		public TupleDesc getTupleDesc() {
+			return source.getTupleDesc();
+		}
+
+		public void close() {
+			source.close();
+		}
+	}
+
+	/**
+	 * A load that aborts part way, after sorted runs have been spilled, leaves
+	 * the tree empty and ready to be loaded again
+	 */
+	@Test
+	public void abortedLoadLeavesEmptyTree() throws Exception {
+		BTreeFile bf = emptyBTreeFile();
+		List<Tuple> tuples = BTreeUtility.generateRandomTuples(2, 20000, 0, BTreeUtility.MAX_RAND_VALUE);
+		BTreeBulkLoader loader = new BTreeBulkLoader(bf, 0.9, 1000 * 8);
+		try {
+			loader.load(tid, new AbortingSource(source(tuples), 15000));
+			fail("expected the load to abort");
+		} catch (TransactionAbortedException e) {
+			// expected
+		}
+		Database.getBufferPool().transactionComplete(tid, false);
+		tid = new TransactionId();
+		assertContains(bf, new ArrayList<>());
+
+		assertEquals(tuples.size(), bf.bulkLoad(tid, source(tuples), 0.9));
+		BTreeChecker.checkRep(bf, tid, new HashMap<>(), true);
+		assertContains(bf, tuples);
+	}
+
+	/**
+	 * Only empty trees can be bulk loaded
+	 */
+	@Test(expected = DbException.class)
+	public void rejectNonEmptyTree() throws Exception {
+		BTreeFile bf = BTreeUtility.createRandomBTreeFile(2, 10, null, null, 0);
+		List<Tuple> tuples = BTreeUtility.generateRandomTuples(2, 10, 0, BTreeUtility.MAX_RAND_VALUE);
+		bf.bulkLoad(tid, source(tuples), 0.9);
+	}
+
+	/**
+	 * JUnit suite target
+	 */
+	public static junit.framework.Test suite() {
+		return new JUnit4TestAdapter(BTreeBulkLoadTest.class);
+	}
+}
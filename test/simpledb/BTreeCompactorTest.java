@@ -0,0 +1,194 @@
+package simpledb;
+
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.common.Utility;
+import simpledb.index.*;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.transaction.TransactionId;
+
+import java.io.File;
+import java.util.*;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class BTreeCompactorTest extends SimpleDbTestBase {
+	private static final int ROWS = 20000;
+
+	private TransactionId tid;
+	private BTreeFile bf;
+	private List<Tuple> tuples;
+
+	/**
+	 * Loads ROWS random tuples into full leaves, 40 of them under the root
+	 */
+	@Before
+	public void setUp() throws Exception {
+		Database.resetBufferPool(500);
+		tid = new TransactionId();
+		File f = File.createTempFile("compact", ".dat");
+		f.deleteOnExit();
+		bf = BTreeUtility.createEmptyBTreeFile(f.getAbsolutePath(), 2, 0);
+		tuples = BTreeUtility.generateRandomTuples(2, ROWS, 0, BTreeUtility.MAX_RAND_VALUE);
+		bf.bulkLoad(tid, new TupleIterator(Utility.getTupleDesc(2), tuples), 1.0);
+		commit();
+	}
+
+	@After
+	public void tearDown() {
+		Database.getBufferPool().transactionComplete(tid);
+	}
+
+	private void commit() {
+		Database.getBufferPool().transactionComplete(tid);
+		tid = new TransactionId();
+	}
+
+	/** Scan the tree and check it holds exactly the given tuples, in key order */
+	private void assertContains(List<Tuple> expectedTuples) throws Exception {
+		List<Integer> expected = new ArrayList<>();
+		for (Tuple t : expectedTuples)
+			expected.add(((IntField) t.getField(0)).getValue());
+		Collections.sort(expected);
+
+		List<Integer> actual = new ArrayList<>();
+		DbFileIterator it = bf.iterator(tid);
+		it.open();
+		while (it.hasNext())
+			actual.add(((IntField) it.next().getField(0)).getValue());
+		it.close();
+		assertEquals(expected, actual);
+	}
+
+	/** Count the leaves by following the sibling pointers */
+	private int numLeaves() throws Exception {
+		BufferPool bp = Database.getBufferPool();
+		BTreeRootPtrPage rootPtr = (BTreeRootPtrPage) bp.getPage(tid, BTreeRootPtrPage.getId(bf.getId()),
+				Permissions.READ_ONLY);
+		BTreePageId pid = rootPtr.getRootId();
+		while (pid.pgcateg() == BTreePageId.INTERNAL)
+			pid = ((BTreeInternalPage) bp.getPage(tid, pid, Permissions.READ_ONLY)).iterator().next().getLeftChild();
+		int leaves = 0;
+		while (pid != null) {
+			leaves++;
+			pid = ((BTreeLeafPage) bp.getPage(tid, pid, Permissions.READ_ONLY)).getRightSiblingId();
+		}
+		return leaves;
+	}
+
+	/**
+	 * Delete every other tuple in key order, leaving the leaves about half full
+	 *
+	 * @return the tuples left
+	 */
+	private List<Tuple> deleteEveryOther() throws Exception {
+		List<Tuple> all = new ArrayList<>();
+		DbFileIterator it = bf.iterator(tid);
+		it.open();
+		while (it.hasNext())
+			all.add(it.next());
+		it.close();
+
+		List<Tuple> left = new ArrayList<>();
+		for (int i = 0; i < all.size(); i++) {
+			if (i % 2 == 0)
+				Database.getBufferPool().deleteTuple(tid, all.get(i));
+			else
+				left.add(all.get(i));
+		}
+		commit();
+		return left;
+	}
+
+	/**
+	 * Half full leaves are repacked to the fill factor, and the leaves freed
+	 * are reused by later inserts
+	 */
+	@Test
+	public void repacksSparseLeaves() throws Exception {
+		List<Tuple> left = deleteEveryOther();
+		int pages = bf.numPages();
+		int leaves = numLeaves();
+		commit();
+
+		BTreeCompactor compactor = new BTreeCompactor(bf, 0.9);
+		compactor.run();
+		// 10000 tuples fit in 23 leaves at 90%
+		assertEquals(23, numLeaves());
+		assertEquals(leaves - 23, compactor.leavesFreed());
+		BTreeChecker.checkRep(bf, tid, new HashMap<>(), true);
+		assertContains(left);
+		commit();
+
+		// a second pass finds nothing to do
+		compactor.restart();
+		compactor.run();
+		assertEquals(leaves - 23, compactor.leavesFreed());
+
+		List<Tuple> more = BTreeUtility.generateRandomTuples(2, 5000, 0, BTreeUtility.MAX_RAND_VALUE);
+		for (Tuple t : more)
+			Database.getBufferPool().insertTuple(tid, bf.getId(), t);
+		commit();
+		// new leaves take the 17 pages freed by the deletes and the compaction
+		// before the file grows
+		int split = numLeaves() - 23;
+		assertEquals(pages + Math.max(0, split - 17), bf.numPages());
+		left.addAll(more);
+		BTreeChecker.checkRep(bf, tid, new HashMap<>(), true);
+		assertContains(left);
+	}
+
+	/**
+	 * Free pages at the end of the file are cut off, and the file grows again
+	 * when they are needed
+	 */
+	@Test
+	public void truncatesFreePages() throws Exception {
+		List<Tuple> left = deleteEveryOther();
+		new BTreeCompactor(bf).run();
+
+		// grow the file past the header page, then free the new pages again
+		List<Tuple> high = new ArrayList<>();
+		for (int i = 0; i < 10000; i++) {
+			Tuple t = new Tuple(Utility.getTupleDesc(2));
+			t.setField(0, new IntField(BTreeUtility.MAX_RAND_VALUE + i));
+			t.setField(1, new IntField(i));
+			Database.getBufferPool().insertTuple(tid, bf.getId(), t);
+			high.add(t);
+		}
+		commit();
+		int grown = bf.numPages();
+		for (Tuple t : high)
+			Database.getBufferPool().deleteTuple(tid, t);
+		commit();
+		assertEquals(grown, bf.numPages());
+
+		int removed = new BTreeCompactor(bf).truncate();
+		assertTrue(removed > 10);
+		assertEquals(grown - removed, bf.numPages());
+		assertEquals(bf.getFile().length(),
+				BTreeRootPtrPage.getPageSize() + (long) bf.numPages() * BufferPool.getPageSize());
+		BTreeChecker.checkRep(bf, tid, new HashMap<>(), true);
+		assertContains(left);
+
+		for (Tuple t : high)
+			Database.getBufferPool().insertTuple(tid, bf.getId(), t);
+		commit();
+		left.addAll(high);
+		BTreeChecker.checkRep(bf, tid, new HashMap<>(), true);
+		assertContains(left);
+	}
+
+	/**
+	 * JUnit suite target
+	 */
+	public static junit.framework.Test suite() {
+		return new JUnit4TestAdapter(BTreeCompactorTest.class);
+	}
+}
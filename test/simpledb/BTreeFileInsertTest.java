@@ -1,6 +1,8 @@
 package simpledb;
 
 import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.execution.IndexPredicate;
 import simpledb.index.*;
 import simpledb.storage.*;
 import simpledb.systemtest.SimpleDbTestBase;
@@ -176,6 +178,72 @@ public class BTreeFileInsertTest extends SimpleDbTestBase {
 		assertTrue(page.getId().getPageNumber() == 2 || otherPage.getId().getPageNumber() == 2);
 	}
 
+	@Test
+	public void testCrabbingReleasesInternalLocks() throws Exception {
+		// a two-level tree with full leaves
+		BTreeFile bf = BTreeUtility.createRandomBTreeFile(2, 2000, null, null, 0);
+		BufferPool bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+
+		// make room in one leaf
+		TransactionId deleter = new TransactionId();
+		DbFileIterator it = bf.iterator(deleter);
+		it.open();
+		Tuple victim = it.next();
+		it.close();
+		bp.deleteTuple(deleter, victim);
+		BTreeRootPtrPage rootPtr = (BTreeRootPtrPage) bp.getPage(deleter,
+				BTreeRootPtrPage.getId(bf.getId()), Permissions.READ_ONLY);
+		BTreePageId rootId = rootPtr.getRootId();
+		assertEquals(BTreePageId.INTERNAL, rootId.pgcateg());
+		bp.transactionComplete(deleter);
+
+		// a reader keeps only its leaf locked
+		TransactionId reader = new TransactionId();
+		it = bf.indexIterator(reader, new IndexPredicate(Op.EQUALS, victim.getField(0)));
+		it.open();
+		it.hasNext();
+		assertFalse(bp.holdsLock(reader, rootId));
+		it.close();
+		bp.transactionComplete(reader);
+
+		// an insert that fits in the leaf does not lock the root for writing
+		List<Page> dirtied = bf.insertTuple(tid, victim);
+		assertEquals(1, dirtied.size());
+		assertEquals(BTreePageId.LEAF, ((BTreePageId) dirtied.get(0).getId()).pgcateg());
+		assertTrue(bp.holdsLock(tid, dirtied.get(0).getId()));
+		assertFalse(bp.holdsLock(tid, rootId));
+	}
+
+	@Test
+	public void testFileGrowsByExtents() throws Exception {
+		File emptyFile = File.createTempFile("empty", ".dat");
+		emptyFile.deleteOnExit();
+		Database.reset();
+		BTreeFile empty = BTreeUtility.createEmptyBTreeFile(emptyFile.getAbsolutePath(), 2, 0, 1);
+		Map<PageId, Page> dirtypages = new HashMap<>();
+
+		// the first new page extends the file by a whole extent
+		long length = emptyFile.length();
+		assertEquals(2, empty.getEmptyPageNo(tid, dirtypages));
+		assertEquals(2, empty.numPages());
+		long grown = emptyFile.length();
+		assertEquals(length + (long) BTreeFile.EXTENT_PAGES * BufferPool.getPageSize(), grown);
+
+		// later pages come out of the extent
+		for (int i = 3; i <= BTreeFile.EXTENT_PAGES + 1; i++)
+			assertEquals(i, empty.getEmptyPageNo(tid, dirtypages));
+		assertEquals(grown, emptyFile.length());
+		assertEquals(BTreeFile.EXTENT_PAGES + 1, empty.numPages());
+		assertEquals(BTreeFile.EXTENT_PAGES + 2, empty.getEmptyPageNo(tid, dirtypages));
+		assertTrue(emptyFile.length() > grown);
+
+		// freed pages are reused before the file grows
+		empty.setEmptyPage(tid, dirtypages, 5);
+		int pages = empty.numPages();
+		assertEquals(5, empty.getEmptyPageNo(tid, dirtypages));
+		assertEquals(pages + 1, empty.getEmptyPageNo(tid, dirtypages));
+	}
+
 	/**
 	 * JUnit suite target
 	 */
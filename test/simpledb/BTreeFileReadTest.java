@@ -1,6 +1,7 @@
 package simpledb;
 
 import simpledb.common.Database;
+import simpledb.common.Permissions;
 import simpledb.common.Utility;
 import simpledb.execution.IndexPredicate;
 import simpledb.index.*;
@@ -207,6 +208,261 @@ public class BTreeFileReadTest extends SimpleDbTestBase {
 
 	}
 
+	private int count(DbFileIterator it) throws Exception {
+		it.open();
+		int n = 0;
+		while (it.hasNext()) {
+			it.next();
+			n++;
+		}
+		it.close();
+		return n;
+	}
+
+	/**
+	 * @return the number of leaf pages of bf that tid has locked
+	 */
+	private int lockedLeaves(BTreeFile bf) {
+		int n = 0;
+		for (int i = 1; i <= bf.numPages(); i++) {
+			if (Database.getBufferPool().holdsLock(tid, new BTreePageId(bf.getId(), i, BTreePageId.LEAF)))
+				n++;
+		}
+		return n;
+	}
+
+	/**
+	 * Two-sided ranges find the keys between their bounds, and stop reading
+	 * at the upper bound
+	 */
+	@Test public void indexIteratorRange() throws Exception {
+		List<List<Integer>> tuples = new ArrayList<>();
+		BTreeFile bf = BTreeUtility.createRandomBTreeFile(2, 10000, 2000, null, tuples, 0);
+		int[][] bounds = { { 100, 200 }, { 0, 0 }, { 150, 151 }, { 1990, 3000 }, { 500, 400 } };
+		for (int[] b : bounds) {
+			for (int inc = 0; inc < 4; inc++) {
+				boolean loInc = (inc & 1) != 0, hiInc = (inc & 2) != 0;
+				int expected = 0;
+				for (List<Integer> t : tuples) {
+					int k = t.get(0);
+					if ((loInc ? k >= b[0] : k > b[0]) && (hiInc ? k <= b[1] : k < b[1]))
+						expected++;
+				}
+				IndexPredicate ipred = IndexPredicate.range(new IntField(b[0]), loInc, new IntField(b[1]), hiInc);
+				assertEquals(expected, count(bf.indexIterator(tid, ipred)));
+			}
+		}
+		// one-sided ranges through the same interface
+		int below = 0;
+		for (List<Integer> t : tuples)
+			if (t.get(0) < 300)
+				below++;
+		assertEquals(below, count(bf.indexIterator(tid, IndexPredicate.range(null, false, new IntField(300), false))));
+
+		// a narrow range at the start of the file only reads the leaves it needs
+		Database.getBufferPool().transactionComplete(tid);
+		tid = new TransactionId();
+		count(bf.indexIterator(tid, IndexPredicate.range(new IntField(10), true, new IntField(20), true)));
+		assertTrue(lockedLeaves(bf) <= 2);
+	}
+
+	/**
+	 * IN lists find every tuple with one of the values, in key order,
+	 * whatever order the values are given in
+	 */
+	@Test public void indexIteratorInList() throws Exception {
+		List<List<Integer>> tuples = new ArrayList<>();
+		BTreeFile bf = BTreeUtility.createRandomBTreeFile(2, 10000, 2000, null, tuples, 0);
+		List<Field> values = new ArrayList<>();
+		for (int v : new int[] { 1500, 3, 3, 2500, 700, 701, -5, 1999, 0 })
+			values.add(new IntField(v));
+		Set<Integer> wanted = new HashSet<>(Arrays.asList(1500, 3, 2500, 700, 701, -5, 1999, 0));
+		int expected = 0;
+		for (List<Integer> t : tuples)
+			if (wanted.contains(t.get(0)))
+				expected++;
+
+		DbFileIterator it = bf.indexIterator(tid, IndexPredicate.in(values));
+		it.open();
+		int n = 0, last = Integer.MIN_VALUE;
+		while (it.hasNext()) {
+			int k = ((IntField) it.next().getField(0)).getValue();
+			assertTrue(wanted.contains(k));
+			assertTrue(k >= last);
+			last = k;
+			n++;
+		}
+		it.close();
+		assertEquals(expected, n);
+
+		assertEquals(0, count(bf.indexIterator(tid, IndexPredicate.in(Collections.emptyList()))));
+	}
+
+	private List<Integer> inList(BTreeFile bf, int... values) throws Exception {
+		List<Field> fields = new ArrayList<>();
+		for (int v : values)
+			fields.add(new IntField(v));
+		return keys(bf.indexIterator(tid, IndexPredicate.in(fields)));
+	}
+
+	/**
+	 * IN list values missing from the tree match nothing, even when the key
+	 * after them is on the same leaf
+	 */
+	@Test public void indexIteratorInListSparse() throws Exception {
+		BTreeFile small = BTreeUtility.createRandomBTreeFile(2, 0, null, null, 0);
+		for (int k = 2; k <= 20; k += 2)
+			Database.getBufferPool().insertTuple(tid, small.getId(), BTreeUtility.getBTreeTuple(new int[] { k, 0 }));
+		assertEquals(Arrays.asList(2, 12), inList(small, 2, 3, 9, 12));
+		assertEquals(Collections.emptyList(), inList(small, 1, 3, 21));
+
+		// keys every 10 over many leaves
+		BTreeFile large = BTreeUtility.createRandomBTreeFile(2, 0, null, null, 0);
+		for (int k = 0; k < 20000; k += 10)
+			Database.getBufferPool().insertTuple(tid, large.getId(), BTreeUtility.getBTreeTuple(new int[] { k, 0 }));
+		assertEquals(Arrays.asList(20, 90, 120, 5010, 19990),
+				inList(large, 20, 25, 90, 95, 96, 120, 5005, 5010, 19990, 30000));
+	}
+
+	private List<Integer> keys(DbFileIterator it) throws Exception {
+		List<Integer> keys = new ArrayList<>();
+		it.open();
+		while (it.hasNext())
+			keys.add(((IntField) it.next().getField(0)).getValue());
+		it.close();
+		return keys;
+	}
+
+	/**
+	 * Reverse scans return the same tuples as forward scans, largest key
+	 * first
+	 */
+	@Test public void reverseIndexIterator() throws Exception {
+		BTreeFile bf = BTreeUtility.createRandomBTreeFile(2, 10000, 500, null, null, 0);
+		IndexPredicate[] preds = {
+				null,
+				new IndexPredicate(Op.EQUALS, new IntField(250)),
+				new IndexPredicate(Op.LESS_THAN, new IntField(100)),
+				new IndexPredicate(Op.GREATER_THAN_OR_EQ, new IntField(400)),
+				new IndexPredicate(Op.NOT_EQUALS, new IntField(7)),
+				IndexPredicate.range(new IntField(100), false, new IntField(300), true),
+				IndexPredicate.range(new IntField(600), true, new IntField(700), true),
+				IndexPredicate.in(Arrays.asList(new IntField(3), new IntField(499), new IntField(250))),
+		};
+		for (IndexPredicate ipred : preds) {
+			List<Integer> forward = keys(ipred == null ? bf.iterator(tid) : bf.indexIterator(tid, ipred));
+			Collections.reverse(forward);
+			assertEquals(forward, keys(bf.reverseIndexIterator(tid, ipred)));
+		}
+
+		// a range at the end of the file only reads the leaves it needs
+		Database.getBufferPool().transactionComplete(tid);
+		tid = new TransactionId();
+		keys(bf.reverseIndexIterator(tid, IndexPredicate.range(new IntField(495), true, null, false)));
+		assertTrue(lockedLeaves(bf) <= 2);
+	}
+
+	/**
+	 * Readers do not wait for a writer that holds the root pointer and the
+	 * internal pages above the leaves
+	 */
+	@Test public void indexIteratorDoesNotWaitForInternalPages() throws Exception {
+		BTreeFile twoLeafPageFile = BTreeUtility.createBTreeFile(2, 520,
+				null, null, 0);
+		BufferPool bp = Database.getBufferPool();
+		TransactionId writer = new TransactionId();
+		BTreeRootPtrPage rootPtr = (BTreeRootPtrPage) bp.getPage(writer,
+				BTreeRootPtrPage.getId(twoLeafPageFile.getId()), Permissions.READ_WRITE);
+		BTreePageId rootId = rootPtr.getRootId();
+		assertEquals(BTreePageId.INTERNAL, rootId.pgcateg());
+		bp.getPage(writer, rootId, Permissions.READ_WRITE);
+
+		final int[] count = new int[1];
+		final Exception[] error = new Exception[1];
+		Thread reader = new Thread(() -> {
+			try {
+				DbFileIterator it = twoLeafPageFile.indexIterator(tid,
+						new IndexPredicate(Op.EQUALS, new IntField(300)));
+				it.open();
+				while (it.hasNext()) {
+					it.next();
+					count[0]++;
+				}
+				it.close();
+			} catch (Exception e) {
+				error[0] = e;
+			}
+		});
+		reader.start();
+		reader.join(5000);
+		boolean waited = reader.isAlive();
+		bp.transactionComplete(writer);
+		reader.join();
+
+		assertFalse(waited);
+		assertNull(error[0]);
+		assertEquals(1, count[0]);
+		assertFalse(bp.holdsLock(tid, rootId));
+	}
+
+	/**
+	 * Repeated equality searches are answered from the adaptive hash index,
+	 * and still find the right tuples after the leaves split and merge
+	 */
+	@Test public void adaptiveHashIndex() throws Exception {
+		List<List<Integer>> tuples = new ArrayList<>();
+		BTreeFile bf = BTreeUtility.createRandomBTreeFile(2, 10000, 2000, null, tuples, 0);
+		int[] counts = new int[2000];
+		for (List<Integer> t : tuples)
+			counts[t.get(0)]++;
+
+		for (int round = 0; round < 5; round++) {
+			for (int key = 0; key < 2000; key += 20)
+				assertEquals(counts[key], count(bf.indexIterator(tid, new IndexPredicate(Op.EQUALS, new IntField(key)))));
+		}
+		long hits = bf.hashIndexHits();
+		assertTrue(hits > 0);
+
+		// split the leaves holding hot keys
+		Database.getBufferPool().transactionComplete(tid);
+		tid = new TransactionId();
+		for (int i = 0; i < 2000; i++) {
+			int key = (i % 100) * 20;
+			bf.insertTuple(tid, BTreeUtility.getBTreeTuple(key, 2));
+			counts[key]++;
+		}
+		Database.getBufferPool().transactionComplete(tid);
+		tid = new TransactionId();
+		for (int round = 0; round < 5; round++) {
+			for (int key = 0; key < 2000; key += 20)
+				assertEquals(counts[key], count(bf.indexIterator(tid, new IndexPredicate(Op.EQUALS, new IntField(key)))));
+		}
+		assertTrue(bf.hashIndexHits() > hits);
+		hits = bf.hashIndexHits();
+
+		// merge and redistribute them
+		List<Tuple> toDelete = new ArrayList<>();
+		DbFileIterator it = bf.iterator(tid);
+		it.open();
+		while (it.hasNext()) {
+			Tuple t = it.next();
+			if (((IntField) t.getField(0)).getValue() % 10 != 0)
+				toDelete.add(t);
+		}
+		it.close();
+		Database.getBufferPool().transactionComplete(tid);
+		tid = new TransactionId();
+		for (Tuple t : toDelete)
+			bf.deleteTuple(tid, t);
+		Database.getBufferPool().transactionComplete(tid);
+		tid = new TransactionId();
+		for (int round = 0; round < 5; round++) {
+			for (int key = 0; key < 2000; key += 20)
+				assertEquals(counts[key], count(bf.indexIterator(tid, new IndexPredicate(Op.EQUALS, new IntField(key)))));
+		}
+		assertTrue(bf.hashIndexHits() > hits);
+	}
+
 	/**
 	 * JUnit suite target
 	 */
@@ -112,6 +112,29 @@ public class BTreeHeaderPageTest extends SimpleDbTestBase {
 		assertEquals(50, page.getEmptySlot());
 	}
 
+	/**
+	 * Unit test for BTreeHeaderPage.getEmptySlot() across word boundaries
+	 */
+	@Test public void getEmptySlotWords() throws Exception {
+		BTreeHeaderPage page = new BTreeHeaderPage(pid, EXAMPLE_DATA);
+		page.init();
+		page.markSlotUsed(32703, false);
+		assertEquals(32703, page.getEmptySlot());
+		page.markSlotUsed(64, false);
+		assertEquals(64, page.getEmptySlot());
+		page.markSlotUsed(64, true);
+		assertEquals(32703, page.getEmptySlot());
+
+		// freeing an earlier slot is seen again
+		page.markSlotUsed(63, false);
+		assertEquals(63, page.getEmptySlot());
+		page.markSlotUsed(63, true);
+		page.markSlotUsed(32703, true);
+		assertEquals(-1, page.getEmptySlot());
+		page.markSlotUsed(7, false);
+		assertEquals(7, page.getEmptySlot());
+	}
+
 	/**
 	 * Unit test for BTreeHeaderPage.isSlotUsed() and BTreeHeaderPage.markSlotUsed()
 	 */
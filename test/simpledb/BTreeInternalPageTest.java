@@ -321,6 +321,39 @@ public class BTreeInternalPageTest extends SimpleDbTestBase {
 		}
 	}
 
+	/**
+	 * Unit test for BTreeInternalPage.findChild()
+	 */
+	@Test public void findChild() throws Exception {
+		BTreeInternalPage page = new BTreeInternalPage(pid, EXAMPLE_DATA, 0);
+
+		// punch some holes in the page so the used slots are not contiguous
+		Iterator<BTreeEntry> it = page.iterator();
+		List<BTreeEntry> entries = new ArrayList<>();
+		while (it.hasNext())
+			entries.add(it.next());
+		for (int i = 1; i < entries.size(); i += 4)
+			page.deleteKeyAndRightChild(entries.get(i));
+
+		assertEquals(page.iterator().next().getLeftChild(), page.findChild(null));
+		for (int probe = 0; probe <= 70000; probe += 997) {
+			IntField f = new IntField(probe);
+			BTreePageId expected = null;
+			BTreeEntry last = null;
+			it = page.iterator();
+			while (it.hasNext()) {
+				last = it.next();
+				if (last.getKey().compare(simpledb.execution.Predicate.Op.GREATER_THAN_OR_EQ, f)) {
+					expected = last.getLeftChild();
+					break;
+				}
+			}
+			if (expected == null)
+				expected = last.getRightChild();
+			assertEquals(expected, page.findChild(f));
+		}
+	}
+
 	/**
 	 * JUnit suite target
 	 */
@@ -347,6 +347,42 @@ public class BTreeLeafPageTest extends SimpleDbTestBase {
 		}
 	}
 
+	/**
+	 * Unit test for BTreeLeafPage.lowerBound(), upperBound() and iterator(Field, boolean)
+	 */
+	@Test public void binarySearch() throws Exception {
+		BTreeLeafPage page = new BTreeLeafPage(pid, EXAMPLE_DATA, 0);
+
+		// punch some holes in the page so the used slots are not contiguous
+		Iterator<Tuple> it = page.iterator();
+		List<Tuple> tuples = new ArrayList<>();
+		while (it.hasNext())
+			tuples.add(it.next());
+		for (int i = 0; i < tuples.size(); i += 3)
+			page.deleteTuple(tuples.get(i));
+
+		List<Integer> keys = new ArrayList<>();
+		it = page.iterator();
+		while (it.hasNext())
+			keys.add(((IntField) it.next().getField(0)).getValue());
+
+		for (int probe = 0; probe <= 70000; probe += 997) {
+			int lower = 0, upper = 0;
+			for (int k : keys) {
+				if (k < probe) lower++;
+				if (k <= probe) upper++;
+			}
+			IntField f = new IntField(probe);
+			assertEquals(lower, page.lowerBound(f));
+			assertEquals(upper, page.upperBound(f));
+
+			it = page.iterator(f, true);
+			for (int i = lower; i < keys.size(); i++)
+				assertEquals(keys.get(i).intValue(), ((IntField) it.next().getField(0)).getValue());
+			assertFalse(it.hasNext());
+		}
+	}
+
 	/**
 	 * JUnit suite target
 	 */
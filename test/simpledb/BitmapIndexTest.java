@@ -0,0 +1,348 @@
+package simpledb;
+
+import simpledb.common.Database;
+import simpledb.execution.*;
+import simpledb.execution.Predicate.Op;
+import simpledb.index.BitmapIndex;
+import simpledb.index.RoaringBitmap;
+import simpledb.index.SecondaryIndex;
+import simpledb.optimizer.LogicalPlan;
+import simpledb.optimizer.TableStats;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import java.io.*;
+import java.util.*;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class BitmapIndexTest extends SimpleDbTestBase {
+	private static final int ROWS = 5000;
+	private static final int VALUES = 4;
+
+	private TransactionId tid;
+	private HeapFile hf;
+	private List<List<Integer>> tuples;
+
+	@Before
+	public void setUp() throws Exception {
+		Database.resetBufferPool(1000);
+		tid = new TransactionId();
+		tuples = new ArrayList<>();
+		hf = SystemTestUtil.createRandomHeapFile(3, ROWS, VALUES, null, tuples, "c");
+		Database.getCatalog().addTable(hf, "flags");
+	}
+
+	@After
+	public void tearDown() {
+		Database.getBufferPool().transactionComplete(tid);
+	}
+
+	private static File tempFile() throws IOException {
+		File f = File.createTempFile("bitmap", ".dat");
+		f.deleteOnExit();
+		new File(f.getPath() + ".log").deleteOnExit();
+		return f;
+	}
+
+	private static Set<Integer> toSet(RoaringBitmap b) {
+		Set<Integer> s = new TreeSet<>();
+		PrimitiveIterator.OfInt it = b.iterator();
+		while (it.hasNext())
+			s.add(it.nextInt());
+		return s;
+	}
+
+	/**
+	 * Sparse and dense chunks give the same answers as a plain set
+	 */
+	@Test
+	public void roaringBitmap() throws Exception {
+		Random rand = new Random(7);
+		RoaringBitmap[] bitmaps = new RoaringBitmap[2];
+		List<Set<Integer>> sets = new ArrayList<>();
+		for (int i = 0; i < 2; i++) {
+			bitmaps[i] = new RoaringBitmap();
+			sets.add(new TreeSet<>());
+			// a dense first chunk, shared sparse chunks, and one of each's own
+			for (int j = 0; j < 20000; j++) {
+				int v = rand.nextInt(1 << 16);
+				bitmaps[i].add(v);
+				sets.get(i).add(v);
+			}
+			for (int j = 0; j < 500; j++) {
+				int v = (1 << 16) + rand.nextInt(1 << 17) + i * (1 << 20);
+				bitmaps[i].add(v);
+				sets.get(i).add(v);
+			}
+			// dropping below the array threshold again
+			for (int j = 0; j < 17000; j++) {
+				int v = rand.nextInt(1 << 16);
+				bitmaps[i].remove(v);
+				sets.get(i).remove(v);
+			}
+			assertEquals(sets.get(i), toSet(bitmaps[i]));
+			assertEquals(sets.get(i).size(), bitmaps[i].cardinality());
+		}
+
+		Set<Integer> and = new TreeSet<>(sets.get(0));
+		and.retainAll(sets.get(1));
+		assertEquals(and, toSet(bitmaps[0].and(bitmaps[1])));
+		Set<Integer> or = new TreeSet<>(sets.get(0));
+		or.addAll(sets.get(1));
+		assertEquals(or, toSet(bitmaps[0].or(bitmaps[1])));
+		assertEquals(sets.get(0), toSet(bitmaps[0]));
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		bitmaps[0].or(bitmaps[1]).write(new DataOutputStream(bytes));
+		RoaringBitmap read = RoaringBitmap.read(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+		assertEquals(or, toSet(read));
+	}
+
+	/**
+	 * Statistics for a large table whose fields each take VALUES values
+	 */
+	private TableStats stats() {
+		return new TableStats(hf.getId(), 1000) {
+			@Override
+			public int totalTuples() {
+				return ROWS;
+			}
+
+			@Override
+			public double estimateScanCost() {
+				return 500 * 1000.0;
+			}
+
+			@Override
+			public double estimateSelectivity(int field, Op op, Field constant) {
+				return op == Op.EQUALS ? 1.0 / VALUES : 0.5;
+			}
+		};
+	}
+
+	private List<List<Integer>> run(OpIterator plan) throws Exception {
+		List<List<Integer>> actual = new ArrayList<>();
+		plan.open();
+		while (plan.hasNext())
+			actual.add(SystemTestUtil.tupleToList(plan.next()));
+		plan.close();
+		return actual;
+	}
+
+	/**
+	 * @return the operators of a plan, from the root down
+	 */
+	private List<OpIterator> operators(OpIterator plan) {
+		List<OpIterator> result = new ArrayList<>();
+		List<OpIterator> ops = new ArrayList<>(Collections.singletonList(plan));
+		while (!ops.isEmpty()) {
+			OpIterator op = ops.remove(ops.size() - 1);
+			result.add(op);
+			if (op instanceof Operator)
+				ops.addAll(Arrays.asList(((Operator) op).getChildren()));
+		}
+		return result;
+	}
+
+	private static <T> long count(List<OpIterator> ops, Class<T> c) {
+		return ops.stream().filter(c::isInstance).count();
+	}
+
+	private List<List<Integer>> matching(int c0, int c1, int c2Below) {
+		List<List<Integer>> result = new ArrayList<>();
+		for (List<Integer> t : tuples)
+			if (t.get(0) == c0 && t.get(1) == c1 && t.get(2) < c2Below)
+				result.add(t);
+		return result;
+	}
+
+	/**
+	 * Equality filters on indexed fields are answered together by one bitmap
+	 * scan; a single one is not selective enough to beat a full scan
+	 */
+	@Test
+	public void conjunctionPlan() throws Exception {
+		BitmapIndex.create(tid, hf.getId(), 0, tempFile());
+		BitmapIndex.create(tid, hf.getId(), 1, tempFile());
+		TableStats.setTableStats("flags", stats());
+
+		String query = "SELECT * FROM flags WHERE flags.c0 = 1 AND flags.c1 = 2 AND flags.c2 < 2;";
+		LogicalPlan lp = new Parser().generateLogicalPlan(tid, query);
+		OpIterator plan = lp.physicalPlan(tid, TableStats.getStatsMap(), false);
+		List<OpIterator> ops = operators(plan);
+		assertEquals(1, count(ops, BitmapScan.class));
+		// only the filter on the unindexed field is left
+		assertEquals(1, count(ops, Filter.class));
+		Comparator<List<Integer>> order = Comparator.comparing(Object::toString);
+		List<List<Integer>> expected = matching(1, 2, 2);
+		List<List<Integer>> actual = run(plan);
+		expected.sort(order);
+		actual.sort(order);
+		assertEquals(expected, actual);
+
+		lp = new Parser().generateLogicalPlan(tid, "SELECT * FROM flags WHERE flags.c0 = 1;");
+		ops = operators(lp.physicalPlan(tid, TableStats.getStatsMap(), false));
+		assertEquals(0, count(ops, BitmapScan.class));
+	}
+
+	private int scanCount(BitmapIndex i0, BitmapIndex i1, int c0, int c1) throws Exception {
+		BitmapScan scan = new BitmapScan(tid, hf.getId(), "flags", null, Arrays.asList(i0, i1),
+				Arrays.asList(new IndexPredicate(Op.EQUALS, new IntField(c0)),
+						new IndexPredicate(Op.EQUALS, new IntField(c1))));
+		return run(scan).size();
+	}
+
+	/**
+	 * Inserts are seen by their own transaction, aborted deletes leave their
+	 * bits, and committed changes survive reopening the index from its log
+	 */
+	@Test
+	public void maintenance() throws Exception {
+		File f0 = tempFile();
+		BitmapIndex i0 = BitmapIndex.create(tid, hf.getId(), 0, f0);
+		BitmapIndex i1 = BitmapIndex.create(tid, hf.getId(), 1, tempFile());
+		int before = matching(3, 3, VALUES).size();
+		assertEquals(before, scanCount(i0, i1, 3, 3));
+
+		for (int i = 0; i < 100; i++) {
+			Tuple t = new Tuple(hf.getTupleDesc());
+			t.setField(0, new IntField(3));
+			t.setField(1, new IntField(3));
+			t.setField(2, new IntField(i));
+			Database.getBufferPool().insertTuple(tid, hf.getId(), t);
+		}
+		assertEquals(before + 100, scanCount(i0, i1, 3, 3));
+		Database.getBufferPool().transactionComplete(tid);
+		tid = new TransactionId();
+
+		List<Tuple> threes = new ArrayList<>();
+		DbFileIterator it = BitmapIndex.iterator(tid, Collections.singletonList(i0),
+				Collections.singletonList(new IndexPredicate(Op.EQUALS, new IntField(3))));
+		it.open();
+		while (it.hasNext())
+			threes.add(it.next());
+		it.close();
+		for (Tuple t : threes)
+			Database.getBufferPool().deleteTuple(tid, t);
+		assertEquals(0, scanCount(i0, i1, 3, 3));
+		Database.getBufferPool().transactionComplete(tid, false);
+		tid = new TransactionId();
+		assertEquals(before + 100, scanCount(i0, i1, 3, 3));
+
+		BitmapIndex reopened = new BitmapIndex(hf.getId(), 0, f0);
+		assertEquals(toSet(i0.matching(new IndexPredicate(Op.GREATER_THAN, new IntField(0)))),
+				toSet(reopened.matching(new IndexPredicate(Op.GREATER_THAN, new IntField(0)))));
+		assertEquals(i0.numValues(), reopened.numValues());
+
+		for (Tuple t : threes)
+			Database.getBufferPool().deleteTuple(tid, t);
+		Database.getBufferPool().transactionComplete(tid);
+		tid = new TransactionId();
+		assertEquals(0, scanCount(i0, i1, 3, 3));
+		reopened = new BitmapIndex(hf.getId(), 0, f0);
+		assertTrue(reopened.matching(new IndexPredicate(Op.EQUALS, new IntField(3))).isEmpty());
+	}
+
+	/**
+	 * A commit whose bitmap index log cannot be forced aborts instead, and
+	 * writes no heap pages
+	 */
+	@Test
+	public void unforcedLogAbortsCommit() throws Exception {
+		File f = tempFile();
+		BitmapIndex index = BitmapIndex.create(tid, hf.getId(), 0, f);
+		Database.getBufferPool().transactionComplete(tid);
+		int before = (int) tuples.stream().filter(t -> t.get(0) == 3).count();
+
+		// a directory in place of the log cannot be appended to
+		File log = new File(f.getPath() + ".log");
+		log.delete();
+		assertTrue(log.mkdir());
+		try {
+			tid = new TransactionId();
+			DbFileIterator it = BitmapIndex.iterator(tid, Collections.singletonList(index),
+					Collections.singletonList(new IndexPredicate(Op.EQUALS, new IntField(3))));
+			List<Tuple> threes = new ArrayList<>();
+			it.open();
+			while (it.hasNext())
+				threes.add(it.next());
+			it.close();
+			assertEquals(before, threes.size());
+			for (Tuple t : threes)
+				Database.getBufferPool().deleteTuple(tid, t);
+			try {
+				Database.getBufferPool().transactionComplete(tid);
+				fail("expected the commit to fail");
+			} catch (RuntimeException e) {
+				// expected
+			}
+		} finally {
+			log.delete();
+		}
+
+		assertEquals(before, index.matching(new IndexPredicate(Op.EQUALS, new IntField(3))).cardinality());
+		Database.resetBufferPool(1000);
+		tid = new TransactionId();
+		SystemTestUtil.matchTuples(hf, tid, tuples);
+	}
+
+	/**
+	 * A commit that fails on the log of a secondary index of the table still
+	 * rolls back the table's bitmap index changes, and writes no heap pages
+	 */
+	@Test
+	public void failedCommitAbortsBitmapChanges() throws Exception {
+		BitmapIndex bitmap = BitmapIndex.create(tid, hf.getId(), 1, tempFile());
+		File f = tempFile();
+		SecondaryIndex secondary = SecondaryIndex.create(tid, hf.getId(), 0, f);
+		Database.getBufferPool().transactionComplete(tid);
+		Database.resetBufferPool(1000);
+
+		// a directory in place of the change buffer log cannot be appended to
+		File log = new File(f.getPath() + ".changes");
+		log.delete();
+		assertTrue(log.mkdir());
+		try {
+			// one insert per key, so no leaf is read back while it has
+			// buffered entries
+			tid = new TransactionId();
+			for (int i = 0; i < VALUES; i++) {
+				Tuple t = new Tuple(hf.getTupleDesc());
+				t.setField(0, new IntField(i));
+				t.setField(1, new IntField(VALUES));
+				t.setField(2, new IntField(i));
+				Database.getBufferPool().insertTuple(tid, hf.getId(), t);
+			}
+			assertTrue(secondary.getFile().bufferedChanges() > 0);
+			assertFalse(bitmap.matching(new IndexPredicate(Op.EQUALS, new IntField(VALUES))).isEmpty());
+			try {
+				Database.getBufferPool().transactionComplete(tid);
+				fail("expected the commit to fail");
+			} catch (RuntimeException e) {
+				// expected
+			}
+		} finally {
+			log.delete();
+		}
+
+		assertTrue(bitmap.matching(new IndexPredicate(Op.EQUALS, new IntField(VALUES))).isEmpty());
+		Database.resetBufferPool(1000);
+		tid = new TransactionId();
+		SystemTestUtil.matchTuples(hf, tid, tuples);
+	}
+
+	/**
+	 * JUnit suite target
+	 */
+	public static junit.framework.Test suite() {
+		return new JUnit4TestAdapter(BitmapIndexTest.class);
+	}
+}
@@ -0,0 +1,58 @@
+package simpledb;
+
+import org.junit.Test;
+
+import simpledb.execution.BloomFilter;
+import simpledb.storage.IntField;
+import simpledb.systemtest.SimpleDbTestBase;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+
+public class BloomFilterTest extends SimpleDbTestBase {
+
+  /**
+   * Every added value is reported as present
+   */
+  @Test public void noFalseNegatives() {
+    BloomFilter bf = new BloomFilter(1000);
+    for (int i = 0; i < 1000; i++)
+      bf.add(new IntField(i * 7));
+    for (int i = 0; i < 1000; i++)
+      assertTrue(bf.mightContain(new IntField(i * 7)));
+  }
+
+  /**
+   * Values that were not added are mostly reported as absent
+   */
+  @Test public void falsePositiveRate() {
+    BloomFilter bf = new BloomFilter(1000, 0.01);
+    for (int i = 0; i < 1000; i++)
+      bf.add(new IntField(i));
+    int falsePositives = 0;
+    for (int i = 1000; i < 11000; i++) {
+      if (bf.mightContain(new IntField(i)))
+        falsePositives++;
+    }
+    // sized for 1%; allow some slack
+    assertTrue(falsePositives < 300);
+  }
+
+  /**
+   * clear() empties the filter
+   */
+  @Test public void clear() {
+    BloomFilter bf = new BloomFilter(10);
+    bf.add(new IntField(42));
+    assertTrue(bf.mightContain(new IntField(42)));
+    bf.clear();
+    assertFalse(bf.mightContain(new IntField(42)));
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(BloomFilterTest.class);
+  }
+}
@@ -149,6 +149,27 @@ public class BufferPoolWriteTest extends TestUtil.CreateHeapFile {
 		assertEquals(10, count);
 	}
 
+	/**
+	 * An abort drops pages that were modified in place but never marked dirty,
+	 * as by an operation aborted halfway
+	 */
+	@Test
+	public void abortDropsUnmarkedPages() throws Exception {
+		HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 10, null, null);
+		Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+		HeapPageId pid = new HeapPageId(hf.getId(), 0);
+
+		TransactionId writer = new TransactionId();
+		HeapPage p = (HeapPage) Database.getBufferPool().getPage(writer, pid, Permissions.READ_WRITE);
+		int emptySlots = p.getNumEmptySlots();
+		p.deleteTuple(p.iterator().next());
+		assertEquals(emptySlots + 1, p.getNumEmptySlots());
+		Database.getBufferPool().transactionComplete(writer, false);
+
+		p = (HeapPage) Database.getBufferPool().getPage(tid, pid, Permissions.READ_ONLY);
+		assertEquals(emptySlots, p.getNumEmptySlots());
+	}
+
 	/**
 	 * JUnit suite target
 	 */
@@ -0,0 +1,249 @@
+package simpledb;
+
+import simpledb.common.Database;
+import simpledb.common.Utility;
+import simpledb.execution.*;
+import simpledb.execution.Predicate.Op;
+import simpledb.index.*;
+import simpledb.optimizer.TableStats;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import java.io.File;
+import java.util.*;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class CompositeKeyTest extends SimpleDbTestBase {
+	private static final int ROWS = 3000;
+	private static final int TENANTS = 20;
+
+	/** Orders (tenant, created, payload) lists by tenant, then created */
+	private static final Comparator<List<Integer>> KEY_ORDER = Comparator.<List<Integer>, Integer>comparing(
+			l -> l.get(0)).thenComparing(l -> l.get(1));
+
+	private TransactionId tid;
+	private BTreeFile bf;
+	private List<List<Integer>> tuples;
+
+	/**
+	 * An empty tree of (tenant, created, payload) tuples keyed on (tenant, created)
+	 */
+	@Before
+	public void setUp() throws Exception {
+		Database.resetBufferPool(1000);
+		tid = new TransactionId();
+		File f = File.createTempFile("composite", ".dat");
+		f.deleteOnExit();
+		TupleDesc td = Utility.getTupleDesc(3, "c");
+		bf = new BTreeFile(f, new CompositeKey(td, 0, 1), td);
+		Database.getCatalog().addTable(bf, "events");
+
+		Random rand = new Random(11);
+		tuples = new ArrayList<>();
+		for (int i = 0; i < ROWS; i++)
+			tuples.add(Arrays.asList(rand.nextInt(TENANTS), rand.nextInt(2000) - 1000, i));
+	}
+
+	@After
+	public void tearDown() {
+		Database.getBufferPool().transactionComplete(tid);
+	}
+
+	private void insertAll() throws Exception {
+		for (List<Integer> l : tuples) {
+			Database.getBufferPool().insertTuple(tid, bf.getId(), tuple(l));
+		}
+		Database.getBufferPool().transactionComplete(tid);
+		tid = new TransactionId();
+	}
+
+	private Tuple tuple(List<Integer> l) {
+		Tuple t = new Tuple(bf.getTupleDesc());
+		for (int i = 0; i < l.size(); i++)
+			t.setField(i, new IntField(l.get(i)));
+		return t;
+	}
+
+	private List<List<Integer>> run(OpIterator it) throws Exception {
+		List<List<Integer>> result = new ArrayList<>();
+		it.open();
+		while (it.hasNext())
+			result.add(SystemTestUtil.tupleToList(it.next()));
+		it.close();
+		return result;
+	}
+
+	/** @return the tuples of a tenant with created in [from, to], in key order */
+	private List<List<Integer>> expected(int tenant, int from, int to) {
+		List<List<Integer>> result = new ArrayList<>();
+		for (List<Integer> l : tuples) {
+			if (l.get(0) == tenant && l.get(1) >= from && l.get(1) <= to)
+				result.add(l);
+		}
+		result.sort(KEY_ORDER);
+		return result;
+	}
+
+	/** Compare key order only, since tuples with equal keys may come in any order */
+	private static void assertKeys(List<List<Integer>> expected, List<List<Integer>> actual) {
+		assertEquals(expected.size(), actual.size());
+		for (int i = 0; i < expected.size(); i++)
+			assertEquals(0, KEY_ORDER.compare(expected.get(i), actual.get(i)));
+	}
+
+	/**
+	 * Normalized keys compare as strings in the order of their fields
+	 */
+	@Test
+	public void encoding() {
+		int[] values = { Integer.MIN_VALUE, -65536, -2, -1, 0, 1, 15, 16, 65535, Integer.MAX_VALUE };
+		TupleDesc td = Utility.getTupleDesc(2);
+		CompositeKey key = new CompositeKey(td, 1, 0);
+		List<String> encoded = new ArrayList<>();
+		for (int a : values) {
+			for (int b : values) {
+				// field 1 is the most significant
+				StringField k = key.key(Utility.getHeapTuple(new int[] { b, a }));
+				assertArrayEquals(new int[] { a, b }, CompositeKey.decode(k));
+				encoded.add(k.getValue());
+			}
+		}
+		List<String> sorted = new ArrayList<>(encoded);
+		Collections.sort(sorted);
+		assertEquals(encoded, sorted);
+
+		try {
+			new CompositeKey(Utility.getTupleDesc(CompositeKey.MAX_FIELDS + 1), new int[CompositeKey.MAX_FIELDS + 1]);
+			fail("too many key fields");
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+	}
+
+	/**
+	 * Inserted tuples come back in key order, and prefix predicates find the
+	 * tuples of one tenant, optionally in a range of creation times
+	 */
+	@Test
+	public void prefixScans() throws Exception {
+		insertAll();
+		BTreeChecker.checkRep(bf, tid, new HashMap<>(), true);
+
+		List<List<Integer>> all = new ArrayList<>(tuples);
+		all.sort(KEY_ORDER);
+		assertKeys(all, run(new BTreeScan(tid, bf.getId(), "events", null)));
+
+		List<Field> tenant = Collections.singletonList(new IntField(7));
+		assertKeys(expected(7, Integer.MIN_VALUE, Integer.MAX_VALUE),
+				run(new BTreeScan(tid, bf.getId(), "events", IndexPredicate.prefix(tenant))));
+		IntField lo = new IntField(100), hi = new IntField(500);
+		assertKeys(expected(7, 100, 500), run(new BTreeScan(tid, bf.getId(), "events",
+				IndexPredicate.prefix(tenant, lo, true, hi, true))));
+		assertKeys(expected(7, 101, 499), run(new BTreeScan(tid, bf.getId(), "events",
+				IndexPredicate.prefix(tenant, lo, false, hi, false))));
+		assertKeys(expected(7, Integer.MIN_VALUE, 499), run(new BTreeScan(tid, bf.getId(), "events",
+				IndexPredicate.prefix(tenant, null, false, hi, false))));
+		assertKeys(expected(7, 101, Integer.MAX_VALUE), run(new BTreeScan(tid, bf.getId(), "events",
+				IndexPredicate.prefix(tenant, lo, false, null, false))));
+
+		List<List<Integer>> reversed = expected(7, 100, 500);
+		Collections.reverse(reversed);
+		assertKeys(reversed, run(new BTreeScan(tid, bf.getId(), "events",
+				IndexPredicate.prefix(tenant, lo, true, hi, true), true)));
+
+		// a full key
+		List<Integer> one = tuples.get(0);
+		List<Field> full = Arrays.asList(new IntField(one.get(0)), new IntField(one.get(1)));
+		assertKeys(expected(one.get(0), one.get(1), one.get(1)),
+				run(new BTreeScan(tid, bf.getId(), "events", IndexPredicate.prefix(full))));
+
+		// deleting a tenant's tuples empties its range and leaves the rest
+		DbFileIterator it = bf.indexIterator(tid, IndexPredicate.prefix(tenant));
+		List<Tuple> doomed = new ArrayList<>();
+		it.open();
+		while (it.hasNext())
+			doomed.add(it.next());
+		it.close();
+		for (Tuple t : doomed)
+			Database.getBufferPool().deleteTuple(tid, t);
+		assertTrue(run(new BTreeScan(tid, bf.getId(), "events", IndexPredicate.prefix(tenant))).isEmpty());
+		assertKeys(expected(8, Integer.MIN_VALUE, Integer.MAX_VALUE), run(new BTreeScan(tid, bf.getId(), "events",
+				IndexPredicate.prefix(Collections.singletonList(new IntField(8))))));
+		BTreeChecker.checkRep(bf, tid, new HashMap<>(), true);
+	}
+
+	/**
+	 * A bulk load sorts on the whole key
+	 */
+	@Test
+	public void bulkLoad() throws Exception {
+		List<Tuple> source = new ArrayList<>();
+		for (List<Integer> l : tuples)
+			source.add(tuple(l));
+		bf.bulkLoad(tid, new TupleIterator(bf.getTupleDesc(), source), 0.9);
+		BTreeChecker.checkRep(bf, tid, new HashMap<>(), true);
+		List<List<Integer>> all = new ArrayList<>(tuples);
+		all.sort(KEY_ORDER);
+		assertKeys(all, run(new BTreeScan(tid, bf.getId(), "events", null)));
+		assertKeys(expected(3, -50, 50), run(new BTreeScan(tid, bf.getId(), "events",
+				IndexPredicate.prefix(Collections.singletonList(new IntField(3)), new IntField(-50), true,
+						new IntField(50), true))));
+	}
+
+	/**
+	 * The planner answers an equality on the tenant and a range of creation
+	 * times with one range search, and no Filter
+	 */
+	@Test
+	public void plannedPrefixRange() throws Exception {
+		insertAll();
+		TableStats.setTableStats("events", new TableStats(bf.getId(), 1000) {
+			@Override
+			public int totalTuples() {
+				return ROWS;
+			}
+
+			@Override
+			public double estimateScanCost() {
+				return 30 * 1000.0;
+			}
+
+			@Override
+			public double estimateSelectivity(int field, Op op, Field constant) {
+				return op == Op.EQUALS ? 1.0 / TENANTS : 0.5;
+			}
+		});
+
+		String query = "SELECT * FROM events WHERE events.c0 = 4 AND events.c1 > 0 AND events.c1 <= 600;";
+		OpIterator plan = new Parser().generateLogicalPlan(tid, query).physicalPlan(tid,
+				TableStats.getStatsMap(), false);
+		List<OpIterator> ops = new ArrayList<>(Collections.singletonList(plan));
+		boolean scan = false;
+		while (!ops.isEmpty()) {
+			OpIterator op = ops.remove(ops.size() - 1);
+			assertFalse(op instanceof Filter);
+			scan |= op instanceof BTreeScan;
+			if (op instanceof Operator)
+				ops.addAll(Arrays.asList(((Operator) op).getChildren()));
+		}
+		assertTrue(scan);
+		List<List<Integer>> actual = run(plan);
+		actual.sort(KEY_ORDER);
+		assertKeys(expected(4, 1, 600), actual);
+	}
+
+	/**
+	 * JUnit suite target
+	 */
+	public static junit.framework.Test suite() {
+		return new JUnit4TestAdapter(CompositeKeyTest.class);
+	}
+}
@@ -0,0 +1,173 @@
+package simpledb;
+
+import simpledb.TestUtil.LockGrabber;
+
+import java.util.List;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.common.Utility;
+import simpledb.storage.BufferPool;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.PageId;
+import simpledb.storage.WaitForGraph;
+import simpledb.transaction.TransactionId;
+
+public class DeadlockDetectionTest extends TestUtil.CreateHeapFile {
+  private PageId p0, p1;
+  private TransactionId tid1, tid2;
+
+  /** Interval of the background detector, in ms */
+  private static final int INTERVAL = 300;
+  private static final int POLL_INTERVAL = 50;
+
+  private BufferPool bp;
+
+  /**
+   * A heap file of three pages, as in DeadlockTest
+   */
+  @Before public void setUp() throws Exception {
+    super.setUp();
+    bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+    TransactionId tid = new TransactionId();
+    for (int i = 0; i < 1025; ++i) {
+      empty.insertTuple(tid, Utility.getHeapTuple(i, 2));
+    }
+    assertEquals(3, empty.numPages());
+
+    this.p0 = new HeapPageId(empty.getId(), 0);
+    this.p1 = new HeapPageId(empty.getId(), 1);
+    PageId p2 = new HeapPageId(empty.getId(), 2);
+    this.tid1 = new TransactionId();
+    this.tid2 = new TransactionId();
+    bp.getPage(tid, p0, Permissions.READ_WRITE).markDirty(true, tid);
+    bp.getPage(tid, p1, Permissions.READ_WRITE).markDirty(true, tid);
+    bp.getPage(tid, p2, Permissions.READ_WRITE).markDirty(true, tid);
+    bp.flushAllPages();
+    bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+  }
+
+  @After public void tearDown() {
+    bp.setDeadlockDetectionInterval(0);
+  }
+
+  public LockGrabber startGrabber(TransactionId tid, PageId pid, Permissions perm) {
+    LockGrabber lg = new LockGrabber(tid, pid, perm);
+    lg.start();
+    return lg;
+  }
+
+  /** Wait for a grabber to fail, for up to ten detector intervals */
+  private void awaitError(LockGrabber lg) throws Exception {
+    for (int waited = 0; lg.getError() == null && waited < 10 * INTERVAL; waited += POLL_INTERVAL)
+      Thread.sleep(POLL_INTERVAL);
+    assertNotNull(lg.getError());
+  }
+
+  /**
+   * Cycles are found from the node whose edges close them, and edges whose
+   * waits are all over leave the graph
+   */
+  @Test public void graph() {
+    WaitForGraph wfg = new WaitForGraph();
+    TransactionId a = new TransactionId(), b = new TransactionId(), c = new TransactionId();
+    wfg.incrementWait(a, b);
+    wfg.incrementWait(b, c);
+    wfg.incrementWait(b, c);
+    assertFalse(wfg.hasCycleFrom(a));
+    assertNull(wfg.findCycle());
+
+    wfg.incrementWait(c, a);
+    assertTrue(wfg.hasCycleFrom(c));
+    assertTrue(wfg.hasCycleFrom(a));
+    List<TransactionId> cycle = wfg.findCycle();
+    assertEquals(3, cycle.size());
+    assertTrue(cycle.contains(a) && cycle.contains(b) && cycle.contains(c));
+
+    wfg.decrementWait(c, a);
+    assertEquals(0, wfg.getWait(c, a));
+    assertFalse(wfg.hasCycleFrom(c));
+    assertFalse(wfg.hasCycle());
+    assertNull(wfg.findCycle());
+
+    // one of two waits of b on c is over
+    wfg.decrementWait(b, c);
+    assertEquals(1, wfg.getWait(b, c));
+    wfg.incrementWait(c, a);
+    assertTrue(wfg.hasCycle());
+  }
+
+  /**
+   * With the background detector, a deadlock is not noticed by the
+   * transactions waiting, but broken by aborting the younger of them
+   */
+  @Test public void backgroundDetection() throws Exception {
+    bp.setDeadlockDetectionInterval(INTERVAL);
+    LockGrabber lg1Write0 = startGrabber(tid1, p0, Permissions.READ_WRITE);
+    LockGrabber lg2Write1 = startGrabber(tid2, p1, Permissions.READ_WRITE);
+    Thread.sleep(POLL_INTERVAL);
+    assertTrue(lg1Write0.acquired() && lg2Write1.acquired());
+
+    LockGrabber lg1Write1 = startGrabber(tid1, p1, Permissions.READ_WRITE);
+    Thread.sleep(POLL_INTERVAL);
+    LockGrabber lg2Write0 = startGrabber(tid2, p0, Permissions.READ_WRITE);
+    Thread.sleep(POLL_INTERVAL);
+    assertNull(lg1Write1.getError());
+    assertNull(lg2Write0.getError());
+
+    awaitError(lg2Write0);
+    lg1Write1.join(1000);
+    assertTrue(lg1Write1.acquired());
+    assertNull(lg1Write1.getError());
+  }
+
+  /**
+   * The background detector also aborts transactions waiting for table locks
+   */
+  @Test public void tableLockVictim() throws Exception {
+    bp.setDeadlockDetectionInterval(INTERVAL);
+    bp.getPage(tid1, p0, Permissions.READ_WRITE);
+    bp.getPage(tid2, p1, Permissions.READ_WRITE);
+    LockGrabber lg1Write1 = startGrabber(tid1, p1, Permissions.READ_WRITE);
+    Thread.sleep(POLL_INTERVAL);
+
+    TableLockTest.TableGrabber tg2 = new TableLockTest.TableGrabber(tid2, empty.getId(),
+        Permissions.READ_ONLY);
+    tg2.start();
+    tg2.join(10 * INTERVAL);
+    assertFalse(tg2.acquired);
+    assertNotNull(tg2.error);
+    lg1Write1.join(1000);
+    assertTrue(lg1Write1.acquired());
+  }
+
+  /**
+   * Switching back to detection on wait breaks the deadlocks that formed
+   * while nobody was looking
+   */
+  @Test public void switchBack() throws Exception {
+    bp.setDeadlockDetectionInterval(60 * 1000);
+    bp.getPage(tid1, p0, Permissions.READ_ONLY);
+    bp.getPage(tid2, p0, Permissions.READ_ONLY);
+    LockGrabber lg1Write = startGrabber(tid1, p0, Permissions.READ_WRITE);
+    LockGrabber lg2Write = startGrabber(tid2, p0, Permissions.READ_WRITE);
+    Thread.sleep(POLL_INTERVAL);
+    assertFalse(lg1Write.acquired() || lg2Write.acquired());
+
+    bp.setDeadlockDetectionInterval(0);
+    awaitError(lg2Write);
+    lg1Write.join(1000);
+    assertTrue(lg1Write.acquired());
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(DeadlockDetectionTest.class);
+  }
+}
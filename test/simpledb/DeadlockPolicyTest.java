@@ -0,0 +1,314 @@
+package simpledb;
+
+import simpledb.TestUtil.LockGrabber;
+
+import java.util.Random;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.common.Utility;
+import simpledb.storage.BufferPool;
+import simpledb.storage.DeadlockPolicy;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.PageId;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+public class DeadlockPolicyTest extends TestUtil.CreateHeapFile {
+  private PageId p0, p1;
+  private TransactionId tid1, tid2;
+
+  private static final int POLL_INTERVAL = 100;
+
+  /** Lock timeout of the TIMEOUT policy, in ms */
+  private static final int LOCK_TIMEOUT = 200;
+
+  /** Threads and transactions per thread of the contended workload */
+  private static final int THREADS = 8;
+  private static final int TRANSACTIONS = 25;
+
+  /**
+   * Bound on the restarts of any one transaction of the contended workload
+   * under the timestamp policies, which soon make a restarted transaction
+   * the oldest one running
+   */
+  private static final int MAX_RESTARTS = 30;
+
+  /**
+   * A heap file of three pages, as in DeadlockTest; each test then chooses
+   * its policy with {@link #usePolicy}
+   */
+  @Before public void setUp() throws Exception {
+    super.setUp();
+    BufferPool bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+    TransactionId tid = new TransactionId();
+    for (int i = 0; i < 1025; ++i) {
+      empty.insertTuple(tid, Utility.getHeapTuple(i, 2));
+    }
+    assertEquals(3, empty.numPages());
+
+    this.p0 = new HeapPageId(empty.getId(), 0);
+    this.p1 = new HeapPageId(empty.getId(), 1);
+    PageId p2 = new HeapPageId(empty.getId(), 2);
+    bp.getPage(tid, p0, Permissions.READ_WRITE).markDirty(true, tid);
+    bp.getPage(tid, p1, Permissions.READ_WRITE).markDirty(true, tid);
+    bp.getPage(tid, p2, Permissions.READ_WRITE).markDirty(true, tid);
+    bp.flushAllPages();
+  }
+
+  @After public void tearDown() {
+    BufferPool.resetDeadlockPolicy();
+    Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+  }
+
+  /** Start from a fresh buffer pool with the given policy; tid1 is older than tid2 */
+  private BufferPool usePolicy(DeadlockPolicy policy) {
+    BufferPool.setDeadlockPolicy(policy);
+    BufferPool bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+    this.tid1 = new TransactionId();
+    this.tid2 = new TransactionId();
+    return bp;
+  }
+
+  private LockGrabber startGrabber(TransactionId tid, PageId pid, Permissions perm) {
+    LockGrabber lg = new LockGrabber(tid, pid, perm);
+    lg.start();
+    return lg;
+  }
+
+  private void assertAborts(BufferPool bp, TransactionId tid, PageId pid, Permissions perm)
+      throws Exception {
+    try {
+      bp.getPage(tid, pid, perm);
+      fail("expected an abort");
+    } catch (TransactionAbortedException e) {
+      // expected
+    }
+    bp.transactionComplete(tid, false);
+  }
+
+  /**
+   * A younger transaction dies rather than wait for an older one, while an
+   * older one waits for a younger one
+   */
+  @Test public void waitDie() throws Exception {
+    BufferPool bp = usePolicy(DeadlockPolicy.WAIT_DIE);
+    bp.getPage(tid1, p0, Permissions.READ_WRITE);
+    assertAborts(bp, tid2, p0, Permissions.READ_ONLY);
+
+    TransactionId tid3 = new TransactionId();
+    bp.getPage(tid3, p1, Permissions.READ_WRITE);
+    LockGrabber lg1 = startGrabber(tid1, p1, Permissions.READ_ONLY);
+    Thread.sleep(POLL_INTERVAL);
+    assertFalse(lg1.acquired());
+    assertNull(lg1.getError());
+    bp.transactionComplete(tid3);
+    lg1.join(1000);
+    assertTrue(lg1.acquired());
+  }
+
+  /**
+   * An older transaction wounds the younger one it would wait for, which
+   * aborts at its next lock request
+   */
+  @Test public void woundWaitRunning() throws Exception {
+    BufferPool bp = usePolicy(DeadlockPolicy.WOUND_WAIT);
+    bp.getPage(tid2, p0, Permissions.READ_WRITE);
+    LockGrabber lg1 = startGrabber(tid1, p0, Permissions.READ_WRITE);
+    Thread.sleep(POLL_INTERVAL);
+    assertFalse(lg1.acquired());
+
+    assertAborts(bp, tid2, p1, Permissions.READ_ONLY);
+    lg1.join(1000);
+    assertTrue(lg1.acquired());
+  }
+
+  /**
+   * A wounded transaction that is waiting gives up at once, breaking the
+   * deadlock; the younger one waits for the older one
+   */
+  @Test public void woundWaitWaiting() throws Exception {
+    BufferPool bp = usePolicy(DeadlockPolicy.WOUND_WAIT);
+    bp.getPage(tid1, p1, Permissions.READ_WRITE);
+    bp.getPage(tid2, p0, Permissions.READ_WRITE);
+    LockGrabber lg2 = startGrabber(tid2, p1, Permissions.READ_WRITE);
+    Thread.sleep(POLL_INTERVAL);
+    assertFalse(lg2.acquired());
+    assertNull(lg2.getError());
+
+    LockGrabber lg1 = startGrabber(tid1, p0, Permissions.READ_WRITE);
+    lg1.join(1000);
+    assertTrue(lg1.acquired());
+    lg2.join(1000);
+    assertFalse(lg2.acquired());
+    assertNotNull(lg2.getError());
+  }
+
+  /**
+   * A transaction gives up waiting after the lock timeout
+   */
+  @Test public void timeout() throws Exception {
+    BufferPool bp = usePolicy(DeadlockPolicy.TIMEOUT);
+    bp.setLockTimeout(LOCK_TIMEOUT);
+    bp.getPage(tid1, p0, Permissions.READ_ONLY);
+    long start = System.currentTimeMillis();
+    assertAborts(bp, tid2, p0, Permissions.READ_WRITE);
+    assertTrue(System.currentTimeMillis() - start >= LOCK_TIMEOUT);
+
+    // shared locks do not time out on each other
+    bp.getPage(tid2, p0, Permissions.READ_ONLY);
+  }
+
+  /**
+   * A transaction restarted after dying keeps its timestamp, so it waits
+   * for a transaction that started after its first attempt instead of
+   * dying again
+   */
+  @Test public void waitDieRestartKeepsTimestamp() throws Exception {
+    BufferPool bp = usePolicy(DeadlockPolicy.WAIT_DIE);
+    bp.getPage(tid1, p0, Permissions.READ_WRITE);
+    assertAborts(bp, tid2, p0, Permissions.READ_WRITE);
+
+    TransactionId tid3 = new TransactionId();
+    bp.getPage(tid3, p1, Permissions.READ_WRITE);
+    TransactionId restarted = new TransactionId(tid2);
+    assertTrue(restarted.isOlderThan(tid3));
+    LockGrabber lg = startGrabber(restarted, p1, Permissions.READ_WRITE);
+    Thread.sleep(POLL_INTERVAL);
+    assertFalse(lg.acquired());
+    assertNull(lg.getError());
+    bp.transactionComplete(tid3);
+    lg.join(1000);
+    assertTrue(lg.acquired());
+  }
+
+  /**
+   * A restarted transaction keeps its timestamp, so it wounds a transaction
+   * that started after its first attempt
+   */
+  @Test public void woundWaitRestartKeepsTimestamp() throws Exception {
+    BufferPool bp = usePolicy(DeadlockPolicy.WOUND_WAIT);
+    bp.transactionComplete(tid2, false);
+    TransactionId tid3 = new TransactionId();
+    bp.getPage(tid3, p0, Permissions.READ_WRITE);
+    LockGrabber lg = startGrabber(new TransactionId(tid2), p0, Permissions.READ_WRITE);
+    Thread.sleep(POLL_INTERVAL);
+    assertFalse(lg.acquired());
+
+    assertAborts(bp, tid3, p1, Permissions.READ_ONLY);
+    lg.join(1000);
+    assertTrue(lg.acquired());
+  }
+
+  /**
+   * Every policy resolves an upgrade deadlock on one page; only with
+   * TIMEOUT may both transactions give up
+   */
+  @Test public void upgradeDeadlock() throws Exception {
+    for (DeadlockPolicy policy : DeadlockPolicy.values()) {
+      BufferPool bp = usePolicy(policy);
+      bp.setLockTimeout(LOCK_TIMEOUT);
+      bp.getPage(tid1, p0, Permissions.READ_ONLY);
+      bp.getPage(tid2, p0, Permissions.READ_ONLY);
+      LockGrabber lg1 = startGrabber(tid1, p0, Permissions.READ_WRITE);
+      LockGrabber lg2 = startGrabber(tid2, p0, Permissions.READ_WRITE);
+      lg1.join(5 * LOCK_TIMEOUT);
+      lg2.join(5 * LOCK_TIMEOUT);
+      assertFalse(policy.toString(), lg1.isAlive() || lg2.isAlive());
+      if (policy != DeadlockPolicy.TIMEOUT)
+        assertTrue(policy.toString(), lg1.acquired() || lg2.acquired());
+      bp.transactionComplete(tid1);
+      bp.transactionComplete(tid2);
+    }
+  }
+
+  /**
+   * Runs transactions that read both pages and write one, restarting them
+   * with their timestamp on abort
+   */
+  private class Worker extends Thread {
+    private final BufferPool bp;
+    private final Random rand = new Random();
+    volatile Exception error;
+    /** the number of aborts, over all transactions */
+    volatile int aborts;
+    /** the most times one transaction was restarted */
+    volatile int maxRestarts;
+
+    Worker(BufferPool bp) {
+      this.bp = bp;
+    }
+
+    public void run() {
+      try {
+        for (int i = 0; i < TRANSACTIONS; i++) {
+          TransactionId tid = new TransactionId();
+          for (int restarts = 0; ; restarts++) {
+            maxRestarts = Math.max(maxRestarts, restarts);
+            boolean swap = rand.nextBoolean();
+            try {
+              bp.getPage(tid, swap ? p1 : p0, Permissions.READ_ONLY);
+              bp.getPage(tid, swap ? p0 : p1, Permissions.READ_ONLY);
+              Thread.sleep(1);
+              bp.getPage(tid, rand.nextBoolean() ? p0 : p1, Permissions.READ_WRITE);
+              bp.transactionComplete(tid);
+              break;
+            } catch (TransactionAbortedException e) {
+              aborts++;
+              bp.transactionComplete(tid, false);
+              tid = new TransactionId(tid);
+              // give someone else a chance before retrying
+              Thread.sleep(1);
+            }
+          }
+        }
+      } catch (Exception e) {
+        error = e;
+      }
+    }
+  }
+
+  /**
+   * Benchmark of the policies on a workload that deadlocks often: every
+   * transaction commits in the end under each of them, the timestamp
+   * policies do not keep aborting the same transaction, and their abort
+   * rates and throughput are printed for comparison
+   */
+  @Test public void contendedWorkload() throws Exception {
+    for (DeadlockPolicy policy : DeadlockPolicy.values()) {
+      BufferPool bp = usePolicy(policy);
+      bp.setLockTimeout(10);
+      Worker[] workers = new Worker[THREADS];
+      long start = System.nanoTime();
+      for (int i = 0; i < workers.length; i++) {
+        workers[i] = new Worker(bp);
+        workers[i].start();
+      }
+      int aborts = 0;
+      for (Worker worker : workers) {
+        worker.join(60 * 1000);
+        assertFalse(policy + " hung", worker.isAlive());
+        assertNull(worker.error);
+        if (policy == DeadlockPolicy.WAIT_DIE || policy == DeadlockPolicy.WOUND_WAIT)
+          assertTrue(policy + ": restarted " + worker.maxRestarts + " times",
+              worker.maxRestarts < MAX_RESTARTS);
+        aborts += worker.aborts;
+      }
+      double seconds = (System.nanoTime() - start) / 1e9;
+      int commits = THREADS * TRANSACTIONS;
+      System.out.printf("%s: %d commits, %d aborts (%.2f per commit), %.0f commits/s%n",
+          policy, commits, aborts, (double) aborts / commits, commits / seconds);
+    }
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(DeadlockPolicyTest.class);
+  }
+}
@@ -0,0 +1,223 @@
+package simpledb;
+
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.common.Utility;
+import simpledb.execution.IndexPredicate;
+import simpledb.execution.Predicate.Op;
+import simpledb.index.*;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+
+import java.io.File;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+public class HashFileTest extends SimpleDbTestBase {
+	private TransactionId tid;
+	private HashFile hf;
+
+	@Before
+	public void setUp() throws Exception {
+		Database.resetBufferPool(1000);
+		File f = File.createTempFile("hash", ".dat");
+		f.deleteOnExit();
+		hf = new HashFile(f, 0, Utility.getTupleDesc(2));
+		Database.getCatalog().addTable(hf, UUID.randomUUID().toString());
+		tid = new TransactionId();
+	}
+
+	@After
+	public void tearDown() {
+		Database.getBufferPool().transactionComplete(tid);
+		BufferPool.resetDeadlockPolicy();
+	}
+
+	private int count(DbFileIterator it) throws Exception {
+		it.open();
+		int n = 0;
+		while (it.hasNext()) {
+			it.next();
+			n++;
+		}
+		it.close();
+		return n;
+	}
+
+	private int lookup(int key) throws Exception {
+		return count(hf.indexIterator(tid, new IndexPredicate(Op.EQUALS, new IntField(key))));
+	}
+
+	private Map<Integer, Integer> insertRandom(int rows, int maxValue) throws Exception {
+		Map<Integer, Integer> counts = new HashMap<>();
+		for (Tuple t : BTreeUtility.generateRandomTuples(2, rows, 0, maxValue)) {
+			Database.getBufferPool().insertTuple(tid, hf.getId(), t);
+			counts.merge(((IntField) t.getField(0)).getValue(), 1, Integer::sum);
+		}
+		return counts;
+	}
+
+	/**
+	 * Buckets split as they fill, and lookups find every matching tuple
+	 */
+	@Test
+	public void insertAndLookup() throws Exception {
+		Map<Integer, Integer> counts = insertRandom(20000, 100000);
+		assertEquals(20000, count(hf.iterator(tid)));
+
+		HashDirectoryPage dir = (HashDirectoryPage) Database.getBufferPool().getPage(tid,
+				new HashPageId(hf.getId(), 0, HashPageId.DIRECTORY), Permissions.READ_ONLY);
+		assertTrue(dir.getGlobalDepth() > 0);
+		// the directory plus buckets that are not much emptier than half full
+		int perPage = new HashBucketPage(new HashPageId(hf.getId(), 1, HashPageId.BUCKET),
+				new byte[BufferPool.getPageSize()]).getMaxTuples();
+		assertTrue(hf.numPages() <= 1 + 4 * 20000 / perPage);
+
+		for (int key = 0; key < 100000; key += 101)
+			assertEquals((int) counts.getOrDefault(key, 0), lookup(key));
+		for (int key : counts.keySet())
+			assertEquals((int) counts.get(key), lookup(key));
+
+		// other predicates scan the whole file
+		int less = 0;
+		for (Map.Entry<Integer, Integer> e : counts.entrySet())
+			if (e.getKey() < 50000)
+				less += e.getValue();
+		assertEquals(less, count(hf.indexIterator(tid, new IndexPredicate(Op.LESS_THAN, new IntField(50000)))));
+	}
+
+	/**
+	 * Deleted tuples are no longer found, and everything survives a commit
+	 */
+	@Test
+	public void deleteAndReload() throws Exception {
+		insertRandom(5000, 1000);
+		List<Tuple> toDelete = new ArrayList<>();
+		DbFileIterator it = hf.indexIterator(tid, new IndexPredicate(Op.LESS_THAN, new IntField(500)));
+		it.open();
+		while (it.hasNext())
+			toDelete.add(it.next());
+		it.close();
+		for (Tuple t : toDelete)
+			Database.getBufferPool().deleteTuple(tid, t);
+
+		Database.getBufferPool().transactionComplete(tid);
+		Database.resetBufferPool(1000);
+		tid = new TransactionId();
+
+		assertEquals(5000 - toDelete.size(), count(hf.iterator(tid)));
+		for (int key = 0; key < 500; key++)
+			assertEquals(0, lookup(key));
+	}
+
+	/**
+	 * Keys the directory cannot tell apart go to overflow pages
+	 */
+	@Test
+	public void duplicateKeysOverflow() throws Exception {
+		for (int i = 0; i < 3000; i++)
+			Database.getBufferPool().insertTuple(tid, hf.getId(), BTreeUtility.getBTreeTuple(new int[] { 7, i }));
+		Database.getBufferPool().insertTuple(tid, hf.getId(), BTreeUtility.getBTreeTuple(new int[] { 8, 0 }));
+		assertEquals(3000, lookup(7));
+		assertEquals(1, lookup(8));
+		assertEquals(3001, count(hf.iterator(tid)));
+	}
+
+	/**
+	 * IN lists read the bucket of each value
+	 */
+	@Test
+	public void inListLookup() throws Exception {
+		Map<Integer, Integer> counts = insertRandom(5000, 1000);
+		List<Field> values = new ArrayList<>();
+		int expected = 0;
+		for (int v = 0; v < 1000; v += 97) {
+			values.add(new IntField(v));
+			expected += counts.getOrDefault(v, 0);
+		}
+		values.add(new IntField(0));
+		assertEquals(expected, count(hf.indexIterator(tid, IndexPredicate.in(values))));
+	}
+
+	/**
+	 * BTreeScan runs equality lookups against a hash index too
+	 */
+	@Test
+	public void scanOperator() throws Exception {
+		Map<Integer, Integer> counts = insertRandom(1000, 100);
+		int key = counts.keySet().iterator().next();
+		BTreeScan scan = new BTreeScan(tid, hf.getId(), "h", new IndexPredicate(Op.EQUALS, new IntField(key)));
+		scan.open();
+		int n = 0;
+		while (scan.hasNext()) {
+			assertEquals(new IntField(key), scan.next().getField(0));
+			n++;
+		}
+		scan.close();
+		assertEquals((int) counts.get(key), n);
+	}
+
+	/**
+	 * Concurrent inserters that split buckets do not deadlock on the
+	 * directory. With the TIMEOUT policy and a long timeout, only an inserter
+	 * that would wait forever gives up.
+	 */
+	@Test
+	public void concurrentInserts() throws Exception {
+		Database.getBufferPool().transactionComplete(tid);
+		BufferPool.setDeadlockPolicy(DeadlockPolicy.TIMEOUT);
+		Database.resetBufferPool(1000).setLockTimeout(10 * 1000);
+		AtomicInteger aborts = new AtomicInteger();
+		Thread[] threads = new Thread[4];
+		Exception[] errors = new Exception[threads.length];
+		for (int i = 0; i < threads.length; i++) {
+			final int thread = i;
+			threads[i] = new Thread(() -> {
+				Random rand = new Random(thread);
+				try {
+					for (int n = 0; n < 500; n++) {
+						Tuple t = BTreeUtility.getBTreeTuple(new int[] { rand.nextInt(100000), thread });
+						TransactionId insertTid = new TransactionId();
+						try {
+							Database.getBufferPool().insertTuple(insertTid, hf.getId(), t);
+							Database.getBufferPool().transactionComplete(insertTid);
+						} catch (TransactionAbortedException e) {
+							aborts.incrementAndGet();
+							Database.getBufferPool().transactionComplete(insertTid, false);
+							n--;
+						}
+					}
+				} catch (Exception e) {
+					errors[thread] = e;
+				}
+			});
+			threads[i].start();
+		}
+		for (Thread thread : threads) {
+			thread.join(60 * 1000);
+			assertFalse(thread.isAlive());
+		}
+		for (Exception e : errors)
+			assertNull(e);
+
+		assertEquals(0, aborts.get());
+		tid = new TransactionId();
+		assertEquals(threads.length * 500, count(hf.iterator(tid)));
+	}
+
+	/**
+	 * JUnit suite target
+	 */
+	public static junit.framework.Test suite() {
+		return new JUnit4TestAdapter(HashFileTest.class);
+	}
+}
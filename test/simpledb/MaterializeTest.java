@@ -0,0 +1,114 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.common.Utility;
+import simpledb.execution.Materialize;
+import simpledb.execution.OpIterator;
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class MaterializeTest extends SimpleDbTestBase {
+
+  /**
+   * A MockScan that counts how many times it has been rewound
+   */
+  static class CountingScan extends TestUtil.MockScan {
+    private static final long serialVersionUID = 1L;
+    int rewinds = 0;
+
+    CountingScan(int low, int high, int width) {
+      super(low, high, width);
+    }
+
+    public void rewind() {
+      rewinds++;
+      super.rewind();
+    }
+  }
+
+  /**
+   * Unit test for Materialize.getTupleDesc()
+   */
+  @Test public void getTupleDesc() {
+    Materialize op = new Materialize(new TestUtil.MockScan(0, 10, 3));
+    assertEquals(Utility.getTupleDesc(3), op.getTupleDesc());
+  }
+
+  /**
+   * Rewinding replays the cached tuples without touching the child
+   */
+  @Test public void rewindReplaysCache() throws Exception {
+    CountingScan child = new CountingScan(0, 100, 2);
+    Materialize op = new Materialize(child);
+    op.open();
+    TestUtil.compareDbIterators(new TestUtil.MockScan(0, 100, 2), op);
+    assertTrue(op.isComplete());
+    for (int i = 0; i < 3; i++) {
+      op.rewind();
+      TestUtil.compareDbIterators(new TestUtil.MockScan(0, 100, 2), op);
+    }
+    assertEquals(0, child.rewinds);
+    assertEquals(0, op.numSpilled());
+    op.close();
+  }
+
+  /**
+   * Rewinding part way through the first pass caches the rest of the child
+   */
+  @Test public void rewindBeforeComplete() throws Exception {
+    Materialize op = new Materialize(new TestUtil.MockScan(0, 50, 1));
+    op.open();
+    for (int i = 0; i < 10; i++)
+      op.next();
+    op.rewind();
+    assertTrue(op.isComplete());
+    TestUtil.compareDbIterators(new TestUtil.MockScan(0, 50, 1), op);
+    op.close();
+  }
+
+  /**
+   * Once a fresh Materialize is exhausted, polling hasNext() again does not
+   * replay the cache; only rewind() does
+   */
+  @Test public void exhaustedStaysExhausted() throws Exception {
+    // room for 10 of the 20 tuples in memory, so both halves of the cache count
+    Materialize op = new Materialize(new TestUtil.MockScan(0, 20, 1), 10 * 4);
+    op.open();
+    TestUtil.compareDbIterators(new TestUtil.MockScan(0, 20, 1), op);
+    assertFalse(op.hasNext());
+    assertFalse(op.hasNext());
+    op.rewind();
+    TestUtil.compareDbIterators(new TestUtil.MockScan(0, 20, 1), op);
+    assertFalse(op.hasNext());
+    op.close();
+  }
+
+  /**
+   * Tuples past the memory budget are spilled and replayed from disk
+   */
+  @Test public void spill() throws Exception {
+    OpIterator child = new TestUtil.MockScan(0, 1000, 2);
+    // room for 100 two-int tuples in memory
+    Materialize op = new Materialize(child, 100 * 8);
+    op.open();
+    TestUtil.compareDbIterators(new TestUtil.MockScan(0, 1000, 2), op);
+    assertEquals(900, op.numSpilled());
+    op.rewind();
+    TestUtil.compareDbIterators(new TestUtil.MockScan(0, 1000, 2), op);
+    op.rewind();
+    TestUtil.compareDbIterators(new TestUtil.MockScan(0, 1000, 2), op);
+    op.close();
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(MaterializeTest.class);
+  }
+}
@@ -0,0 +1,90 @@
+package simpledb;
+
+import org.junit.Test;
+
+import simpledb.common.Type;
+import simpledb.common.Utility;
+import simpledb.execution.JoinPredicate;
+import simpledb.execution.Predicate;
+import simpledb.execution.PredicateCompiler;
+import simpledb.storage.Field;
+import simpledb.storage.StringField;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.systemtest.SimpleDbTestBase;
+import static org.junit.Assert.assertEquals;
+import junit.framework.JUnit4TestAdapter;
+
+public class PredicateCompilerTest extends SimpleDbTestBase {
+
+  private static Tuple stringTuple(String s) {
+    Tuple t = new Tuple(new TupleDesc(new Type[] { Type.STRING_TYPE }));
+    t.setField(0, new StringField(s, Type.STRING_LEN));
+    return t;
+  }
+
+  /**
+   * Compiled integer predicates agree with Field.compare for every operator
+   */
+  @Test public void compileIntPredicate() {
+    int[] vals = new int[] { -1, 0, 1 };
+
+    for (Predicate.Op op : Predicate.Op.values()) {
+      for (int i : vals) {
+        Field operand = TestUtil.getField(i);
+        PredicateCompiler.CompiledPredicate c =
+            PredicateCompiler.compile(new Predicate(0, op, operand));
+        for (int j = i - 1; j <= i + 1; j++) {
+          Tuple t = Utility.getHeapTuple(j);
+          assertEquals(t.getField(0).compare(op, operand), c.test(t));
+        }
+      }
+    }
+  }
+
+  /**
+   * Compiled string predicates agree with Field.compare for every operator
+   */
+  @Test public void compileStringPredicate() {
+    String[] vals = new String[] { "a", "ab", "abc", "b" };
+
+    for (Predicate.Op op : Predicate.Op.values()) {
+      for (String operand : vals) {
+        Field f = new StringField(operand, Type.STRING_LEN);
+        PredicateCompiler.CompiledPredicate c =
+            PredicateCompiler.compile(new Predicate(0, op, f));
+        for (String v : vals) {
+          Tuple t = stringTuple(v);
+          assertEquals(t.getField(0).compare(op, f), c.test(t));
+        }
+      }
+    }
+  }
+
+  /**
+   * Compiled join predicates agree with JoinPredicate.filter
+   */
+  @Test public void compileJoinPredicate() {
+    int[] vals = new int[] { -1, 0, 1 };
+    TupleDesc td = Utility.getTupleDesc(1);
+
+    for (Predicate.Op op : Predicate.Op.values()) {
+      JoinPredicate p = new JoinPredicate(0, op, 0);
+      PredicateCompiler.CompiledJoinPredicate c = PredicateCompiler.compile(p, td, td);
+      for (int i : vals) {
+        for (int j = i - 1; j <= i + 1; j++) {
+          Tuple t1 = Utility.getHeapTuple(i);
+          Tuple t2 = Utility.getHeapTuple(j);
+          assertEquals(p.filter(t1, t2), c.test(t1, t2));
+        }
+      }
+    }
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(PredicateCompilerTest.class);
+  }
+}
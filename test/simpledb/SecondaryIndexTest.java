@@ -0,0 +1,345 @@
+package simpledb;
+
+import simpledb.common.Database;
+import simpledb.execution.*;
+import simpledb.execution.Predicate.Op;
+import simpledb.index.BTreeFile;
+import simpledb.index.BTreeRootPtrPage;
+import simpledb.index.SecondaryIndex;
+import simpledb.optimizer.LogicalPlan;
+import simpledb.optimizer.TableStats;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import java.io.File;
+import java.util.*;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class SecondaryIndexTest extends SimpleDbTestBase {
+	private static final int ROWS = 3000;
+	private static final int MAX_VALUE = 500;
+
+	private TransactionId tid;
+	private HeapFile table;
+	private List<List<Integer>> tuples;
+	private SecondaryIndex index;
+
+	@Before
+	public void setUp() throws Exception {
+		Database.resetBufferPool(1000);
+		tuples = new ArrayList<>();
+		table = SystemTestUtil.createRandomHeapFile(2, ROWS, MAX_VALUE, null, tuples, "c");
+		Database.getCatalog().addTable(table, "indexed");
+		tid = new TransactionId();
+
+		File f = File.createTempFile("secondary", ".dat");
+		f.deleteOnExit();
+		index = SecondaryIndex.create(tid, table.getId(), 1, f);
+	}
+
+	@After
+	public void tearDown() {
+		Database.getBufferPool().transactionComplete(tid);
+	}
+
+	private List<List<Integer>> matching(Op op, int value) {
+		List<List<Integer>> result = new ArrayList<>();
+		for (List<Integer> t : tuples)
+			if (new IntField(t.get(1)).compare(op, new IntField(value)))
+				result.add(t);
+		return result;
+	}
+
+	private List<List<Integer>> lookup(Op op, int value) throws Exception {
+		List<List<Integer>> result = new ArrayList<>();
+		DbFileIterator it = index.iterator(tid, new IndexPredicate(op, new IntField(value)));
+		it.open();
+		while (it.hasNext()) {
+			Tuple t = it.next();
+			assertEquals(table.getId(), t.getRecordId().getPageId().getTableId());
+			result.add(SystemTestUtil.tupleToList(t));
+		}
+		it.close();
+		return result;
+	}
+
+	private static void assertSameTuples(List<List<Integer>> expected, List<List<Integer>> actual) {
+		Comparator<List<Integer>> order = Comparator.<List<Integer>, Integer>comparing(l -> l.get(0))
+				.thenComparing(l -> l.get(1));
+		expected = new ArrayList<>(expected);
+		actual = new ArrayList<>(actual);
+		expected.sort(order);
+		actual.sort(order);
+		assertEquals(expected, actual);
+	}
+
+	/**
+	 * An index built over an existing table finds the same tuples as a scan
+	 */
+	@Test
+	public void lookupsMatchScan() throws Exception {
+		assertSame(index, Database.getCatalog().getIndex(table.getId(), 1));
+		assertNull(Database.getCatalog().getIndex(table.getId(), 0));
+		for (int v = 0; v < MAX_VALUE; v += 37)
+			assertSameTuples(matching(Op.EQUALS, v), lookup(Op.EQUALS, v));
+		assertSameTuples(matching(Op.LESS_THAN, 100), lookup(Op.LESS_THAN, 100));
+		assertSameTuples(matching(Op.GREATER_THAN_OR_EQ, 400), lookup(Op.GREATER_THAN_OR_EQ, 400));
+	}
+
+	/**
+	 * The index file can be read through the Catalog but is not listed as a
+	 * table, so per-table work such as computing statistics skips it
+	 */
+	@Test
+	public void indexFileIsNotATable() throws Exception {
+		int indexFileId = index.getFile().getId();
+		assertSame(index.getFile(), Database.getCatalog().getDatabaseFile(indexFileId));
+		Iterator<Integer> tables = Database.getCatalog().tableIdIterator();
+		while (tables.hasNext())
+			assertNotEquals(indexFileId, (int) tables.next());
+
+		TableStats.computeStatistics();
+		assertNotNull(TableStats.getTableStats("indexed"));
+	}
+
+	/**
+	 * An index whose creating transaction aborts is dropped, and the table can
+	 * be indexed again
+	 */
+	@Test
+	public void abortedCreateDropsIndex() throws Exception {
+		Database.getBufferPool().transactionComplete(tid, false);
+		tid = new TransactionId();
+		assertNull(Database.getCatalog().getIndex(table.getId(), 1));
+		// an empty tree is left: the root pointer page and an empty root leaf
+		long emptyLength = index.getFile().getFile().length();
+		assertEquals(BTreeRootPtrPage.getPageSize() + BufferPool.getPageSize(), emptyLength);
+
+		// inserts no longer go to the dropped index
+		tuples.add(SystemTestUtil.tupleToList(insertRandom(new Random(7))));
+		assertEquals(emptyLength, index.getFile().getFile().length());
+
+		File f = File.createTempFile("secondary", ".dat");
+		f.deleteOnExit();
+		index = SecondaryIndex.create(tid, table.getId(), 1, f);
+		assertSame(index, Database.getCatalog().getIndex(table.getId(), 1));
+		assertSameTuples(matching(Op.LESS_THAN, 100), lookup(Op.LESS_THAN, 100));
+	}
+
+	/**
+	 * Creating an index over a file left by a load that never committed, as
+	 * after a crash, discards what is in it
+	 */
+	@Test
+	public void createDiscardsLeftoverFile() throws Exception {
+		// the Catalog does not survive a crash, nor does the BufferPool
+		Database.getCatalog().removeIndex(index);
+		Database.resetBufferPool(1000);
+		tid = new TransactionId();
+
+		index = SecondaryIndex.create(tid, table.getId(), 0, index.getFile().getFile());
+		List<List<Integer>> expected = new ArrayList<>();
+		for (List<Integer> t : tuples)
+			if (t.get(0) < 100)
+				expected.add(t);
+		assertSameTuples(expected, lookup(Op.LESS_THAN, 100));
+	}
+
+	/**
+	 * Inserts and deletes through the BufferPool keep the index in sync
+	 */
+	@Test
+	public void maintainedByBufferPool() throws Exception {
+		for (int i = 0; i < 200; i++) {
+			Tuple t = new Tuple(table.getTupleDesc());
+			t.setField(0, new IntField(-i));
+			t.setField(1, new IntField(7));
+			Database.getBufferPool().insertTuple(tid, table.getId(), t);
+			tuples.add(Arrays.asList(-i, 7));
+		}
+
+		List<Tuple> toDelete = new ArrayList<>();
+		DbFileIterator it = table.iterator(tid);
+		it.open();
+		while (it.hasNext()) {
+			Tuple t = it.next();
+			if (((IntField) t.getField(1)).getValue() < 50)
+				toDelete.add(t);
+		}
+		it.close();
+		for (Tuple t : toDelete)
+			Database.getBufferPool().deleteTuple(tid, t);
+		tuples.removeIf(t -> t.get(1) < 50);
+
+		// everything survives a commit and a cold cache
+		Database.getBufferPool().transactionComplete(tid);
+		Database.resetBufferPool(1000);
+		tid = new TransactionId();
+
+		assertSameTuples(matching(Op.EQUALS, 7), lookup(Op.EQUALS, 7));
+		assertTrue(lookup(Op.LESS_THAN, 50).isEmpty());
+		assertSameTuples(matching(Op.LESS_THAN, 100), lookup(Op.LESS_THAN, 100));
+	}
+
+	private Tuple insertRandom(Random r) throws Exception {
+		Tuple t = new Tuple(table.getTupleDesc());
+		t.setField(0, new IntField(r.nextInt(MAX_VALUE)));
+		t.setField(1, new IntField(r.nextInt(MAX_VALUE)));
+		Database.getBufferPool().insertTuple(tid, table.getId(), t);
+		return t;
+	}
+
+	/**
+	 * Inserts into leaves that are not cached are buffered, seen by their own
+	 * transaction, logged at commit, dropped on abort, and merged when the
+	 * leaf is read
+	 */
+	@Test
+	public void changeBuffer() throws Exception {
+		BTreeFile bf = index.getFile();
+		File log = new File(bf.getFile().getPath() + ".changes");
+		Random r = new Random(42);
+		for (int i = 0; i < 200; i++)
+			tuples.add(SystemTestUtil.tupleToList(insertRandom(r)));
+		assertTrue(bf.bufferedChanges() > 0);
+		assertFalse(log.exists() && log.length() > 0);
+		// the inserting transaction sees its own entries
+		assertSameTuples(matching(Op.LESS_THAN, 50), lookup(Op.LESS_THAN, 50));
+
+		// committed entries are logged until they are merged; the lookup above
+		// only merged the leaves of the smallest keys
+		Database.getBufferPool().transactionComplete(tid);
+		int buffered = bf.bufferedChanges();
+		assertTrue(buffered > 0);
+		assertTrue(log.length() > 0);
+		BTreeFile reopened = new BTreeFile(bf.getFile(), 0, bf.getTupleDesc());
+		assertEquals(buffered, new SecondaryIndex(table.getId(), 1, reopened).getFile().bufferedChanges());
+		Database.resetBufferPool(1000);
+		tid = new TransactionId();
+		for (int i = 0; i < 200; i++)
+			tuples.add(SystemTestUtil.tupleToList(insertRandom(r)));
+		Database.getBufferPool().transactionComplete(tid);
+
+		// aborted entries are dropped
+		Database.resetBufferPool(1000);
+		tid = new TransactionId();
+		for (int i = 0; i < 100; i++)
+			insertRandom(r);
+		buffered = bf.bufferedChanges();
+		Database.getBufferPool().transactionComplete(tid, false);
+		assertTrue(bf.bufferedChanges() < buffered);
+
+		tid = new TransactionId();
+		assertSameTuples(matching(Op.GREATER_THAN_OR_EQ, 250), lookup(Op.GREATER_THAN_OR_EQ, 250));
+		Database.getBufferPool().transactionComplete(tid);
+		index.mergeChanges(Integer.MAX_VALUE);
+		assertEquals(0, bf.bufferedChanges());
+		assertEquals(0, log.length());
+
+		Database.resetBufferPool(1000);
+		tid = new TransactionId();
+		for (int v = 0; v < MAX_VALUE; v += 37)
+			assertSameTuples(matching(Op.EQUALS, v), lookup(Op.EQUALS, v));
+		assertSameTuples(tuples, lookup(Op.GREATER_THAN_OR_EQ, 0));
+	}
+
+	/**
+	 * A commit whose change buffer log cannot be forced aborts instead, before
+	 * any of its heap pages reach disk
+	 */
+	@Test
+	public void unforcedLogAbortsCommit() throws Exception {
+		Database.getBufferPool().transactionComplete(tid);
+		Database.resetBufferPool(1000);
+		BTreeFile bf = index.getFile();
+		int buffered = bf.bufferedChanges();
+		// a directory in place of the log cannot be appended to
+		File log = new File(bf.getFile().getPath() + ".changes");
+		log.delete();
+		assertTrue(log.mkdir());
+		try {
+			tid = new TransactionId();
+			Random r = new Random(42);
+			for (int i = 0; i < 200; i++)
+				insertRandom(r);
+			assertTrue(bf.bufferedChanges() > buffered);
+			try {
+				Database.getBufferPool().transactionComplete(tid);
+				fail("expected the commit to fail");
+			} catch (RuntimeException e) {
+				// expected
+			}
+			assertEquals(buffered, bf.bufferedChanges());
+		} finally {
+			log.delete();
+		}
+
+		Database.resetBufferPool(1000);
+		tid = new TransactionId();
+		SystemTestUtil.matchTuples(table, tid, tuples);
+		assertSameTuples(tuples, lookup(Op.GREATER_THAN_OR_EQ, 0));
+	}
+
+	/**
+	 * The planner answers a selective filter on an indexed field with an
+	 * index scan
+	 */
+	@Test
+	public void plannerUsesIndex() throws Exception {
+		TableStats.setTableStats("indexed", new TableStats(table.getId(), 1000) {
+			@Override
+			public int totalTuples() {
+				return ROWS;
+			}
+
+			@Override
+			public double estimateScanCost() {
+				return 50 * 1000.0;
+			}
+
+			@Override
+			public double estimateSelectivity(int field, Op op, Field constant) {
+				return op == Op.EQUALS ? 1.0 / MAX_VALUE : 0.5;
+			}
+		});
+		Parser p = new Parser();
+		LogicalPlan lp = p.generateLogicalPlan(tid, "SELECT * FROM indexed WHERE indexed.c1 = 42 AND indexed.c0 > 100;");
+		OpIterator plan = lp.physicalPlan(tid, TableStats.getStatsMap(), false);
+
+		boolean usesIndex = false;
+		List<OpIterator> ops = new ArrayList<>(Collections.singletonList(plan));
+		while (!ops.isEmpty()) {
+			OpIterator op = ops.remove(ops.size() - 1);
+			usesIndex |= op instanceof IndexScan;
+			if (op instanceof Operator)
+				ops.addAll(Arrays.asList(((Operator) op).getChildren()));
+		}
+		assertTrue(usesIndex);
+
+		List<List<Integer>> expected = new ArrayList<>();
+		for (List<Integer> t : matching(Op.EQUALS, 42))
+			if (t.get(0) > 100)
+				expected.add(t);
+		List<List<Integer>> actual = new ArrayList<>();
+		plan.open();
+		while (plan.hasNext())
+			actual.add(SystemTestUtil.tupleToList(plan.next()));
+		plan.close();
+		assertSameTuples(expected, actual);
+	}
+
+	/**
+	 * JUnit suite target
+	 */
+	public static junit.framework.Test suite() {
+		return new JUnit4TestAdapter(SecondaryIndexTest.class);
+	}
+}
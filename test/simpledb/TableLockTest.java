@@ -0,0 +1,218 @@
+package simpledb;
+
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.common.Utility;
+import simpledb.storage.BufferPool;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.LockManager;
+import simpledb.storage.PageId;
+import simpledb.storage.TableLock.Mode;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+public class TableLockTest extends TestUtil.CreateHeapFile {
+  private PageId p0, p1, p2;
+  private TransactionId tid1, tid2;
+
+  /** Time to wait before checking the state of lock contention, in ms */
+  private static final int TIMEOUT = 100;
+
+  private BufferPool bp;
+
+  /**
+   * A heap file of three pages, as in LockingTest
+   */
+  @Before public void setUp() throws Exception {
+    super.setUp();
+    bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+    TransactionId tid = new TransactionId();
+    for (int i = 0; i < 1025; ++i) {
+      empty.insertTuple(tid, Utility.getHeapTuple(i, 2));
+    }
+    assertEquals(3, empty.numPages());
+
+    this.p0 = new HeapPageId(empty.getId(), 0);
+    this.p1 = new HeapPageId(empty.getId(), 1);
+    this.p2 = new HeapPageId(empty.getId(), 2);
+    this.tid1 = new TransactionId();
+    this.tid2 = new TransactionId();
+    bp.getPage(tid, p0, Permissions.READ_WRITE).markDirty(true, tid);
+    bp.getPage(tid, p1, Permissions.READ_WRITE).markDirty(true, tid);
+    bp.getPage(tid, p2, Permissions.READ_WRITE).markDirty(true, tid);
+    bp.flushAllPages();
+    bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+  }
+
+  /** Locks a whole table in a thread of its own */
+  static class TableGrabber extends Thread {
+    final TransactionId tid;
+    final int tableId;
+    final Permissions perm;
+    volatile boolean acquired;
+    volatile Exception error;
+
+    TableGrabber(TransactionId tid, int tableId, Permissions perm) {
+      this.tid = tid;
+      this.tableId = tableId;
+      this.perm = perm;
+    }
+
+    public void run() {
+      try {
+        Database.getBufferPool().lockTable(tid, tableId, perm);
+        acquired = true;
+      } catch (Exception e) {
+        error = e;
+        Database.getBufferPool().transactionComplete(tid, false);
+      }
+    }
+  }
+
+  private void grabPage(TransactionId tid, PageId pid, Permissions perm, boolean expected)
+      throws Exception {
+    TestUtil.LockGrabber t = new TestUtil.LockGrabber(tid, pid, perm);
+    t.start();
+    Thread.sleep(TIMEOUT);
+    assertEquals(expected, t.acquired());
+    t.interrupt();
+  }
+
+  private TableGrabber grabTable(TransactionId tid, Permissions perm) throws Exception {
+    TableGrabber t = new TableGrabber(tid, empty.getId(), perm);
+    t.start();
+    Thread.sleep(TIMEOUT);
+    return t;
+  }
+
+  /**
+   * The compatibility and strength of the table lock modes
+   */
+  @Test public void modes() {
+    assertTrue(Mode.IS.isCompatible(Mode.SIX));
+    assertTrue(Mode.IX.isCompatible(Mode.IX));
+    assertFalse(Mode.IX.isCompatible(Mode.S));
+    assertTrue(Mode.S.isCompatible(Mode.S));
+    assertFalse(Mode.SIX.isCompatible(Mode.IX));
+    assertFalse(Mode.X.isCompatible(Mode.IS));
+    for (Mode a : Mode.values()) {
+      for (Mode b : Mode.values()) {
+        assertEquals(a.isCompatible(b), b.isCompatible(a));
+        assertTrue(a.join(b).covers(a) && a.join(b).covers(b));
+      }
+    }
+    assertEquals(Mode.SIX, Mode.S.join(Mode.IX));
+    assertEquals(Mode.X, Mode.SIX.join(Mode.X));
+  }
+
+  /**
+   * A shared table lock covers reading every page and keeps out writers,
+   * but not readers
+   */
+  @Test public void sharedTableLock() throws Exception {
+    bp.lockTable(tid1, empty.getId(), Permissions.READ_ONLY);
+    assertTrue(bp.holdsLock(tid1, p2));
+    bp.getPage(tid1, p0, Permissions.READ_ONLY);
+    grabPage(tid2, p0, Permissions.READ_ONLY, true);
+    grabPage(tid2, p1, Permissions.READ_WRITE, false);
+  }
+
+  /**
+   * A page lock held for writing keeps out a table lock, until it is released
+   */
+  @Test public void pageLockBlocksTableLock() throws Exception {
+    bp.getPage(tid1, p0, Permissions.READ_WRITE);
+    TableGrabber t = grabTable(tid2, Permissions.READ_ONLY);
+    assertFalse(t.acquired);
+    bp.transactionComplete(tid1);
+    t.join(1000);
+    assertTrue(t.acquired);
+    assertTrue(bp.holdsLock(tid2, p1));
+  }
+
+  /**
+   * Two writers that each want to read the whole table deadlock, and one of
+   * them is aborted
+   */
+  @Test public void deadlockAcrossLevels() throws Exception {
+    bp.getPage(tid1, p0, Permissions.READ_WRITE);
+    bp.getPage(tid2, p1, Permissions.READ_WRITE);
+    TableGrabber t = grabTable(tid1, Permissions.READ_ONLY);
+    assertFalse(t.acquired);
+    try {
+      bp.lockTable(tid2, empty.getId(), Permissions.READ_ONLY);
+      fail("expected a deadlock");
+    } catch (TransactionAbortedException e) {
+      // expected
+    }
+    bp.transactionComplete(tid2, false);
+    t.join(1000);
+    assertTrue(t.acquired);
+    assertNull(t.error);
+  }
+
+  /**
+   * Reading many pages of a table escalates to a shared table lock, which
+   * keeps out writers of the pages not read yet
+   */
+  @Test public void escalation() throws Exception {
+    bp.setLockEscalationThreshold(2);
+    bp.getPage(tid1, p0, Permissions.READ_ONLY);
+    assertFalse(bp.holdsLock(tid1, p2));
+    bp.getPage(tid1, p1, Permissions.READ_ONLY);
+    assertTrue(bp.holdsLock(tid1, p2));
+    grabPage(tid2, p2, Permissions.READ_ONLY, true);
+    TestUtil.LockGrabber t = new TestUtil.LockGrabber(tid2, p2, Permissions.READ_WRITE);
+    t.start();
+    Thread.sleep(TIMEOUT);
+    assertFalse(t.acquired());
+    bp.transactionComplete(tid1);
+    t.join(1000);
+    assertTrue(t.acquired());
+    bp.transactionComplete(tid2);
+
+    // escalating to X would have to wait for a reader, so it is not done
+    TransactionId reader = new TransactionId(), writer = new TransactionId();
+    bp.getPage(reader, p2, Permissions.READ_ONLY);
+    bp.getPage(writer, p0, Permissions.READ_WRITE);
+    bp.getPage(writer, p1, Permissions.READ_WRITE);
+    assertFalse(bp.holdsLock(writer, p2));
+    grabPage(reader, p2, Permissions.READ_WRITE, true);
+  }
+
+  /**
+   * A scan of a large table keeps a bounded number of page locks
+   */
+  @Test public void boundedLockTable() throws Exception {
+    LockManager lm = new LockManager();
+    lm.setEscalationThreshold(100);
+    for (int i = 0; i < 1000; i++)
+      lm.acquireShared(tid1, new HeapPageId(7, i));
+    assertNull(lm.getPagesLockedByTransaction(tid1));
+    assertEquals(Mode.S, lm.getTableMode(tid1, 7));
+    assertTrue(lm.holdsLock(tid1, new HeapPageId(7, 5000)));
+
+    // writes to another table escalate to X
+    for (int i = 0; i < 150; i++)
+      lm.acquireExclusive(tid1, new HeapPageId(8, i));
+    assertNull(lm.getPagesLockedByTransaction(tid1));
+    assertEquals(Mode.X, lm.getTableMode(tid1, 8));
+    lm.acquireExclusive(tid1, new HeapPageId(9, 0));
+    assertEquals(1, lm.getPagesLockedByTransaction(tid1).size());
+    assertEquals(Mode.IX, lm.getTableMode(tid1, 9));
+    lm.releaseAllLocks(tid1);
+    assertNull(lm.getTableMode(tid1, 7));
+    assertFalse(lm.holdsLock(tid1, new HeapPageId(8, 0)));
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(TableLockTest.class);
+  }
+}
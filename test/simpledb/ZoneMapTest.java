@@ -0,0 +1,222 @@
+package simpledb;
+
+import simpledb.common.Database;
+import simpledb.common.Utility;
+import simpledb.execution.*;
+import simpledb.execution.Predicate.Op;
+import simpledb.optimizer.LogicalPlan;
+import simpledb.optimizer.TableStats;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import java.io.File;
+import java.util.*;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class ZoneMapTest extends SimpleDbTestBase {
+	private static final int ROWS = 10000;
+
+	private TransactionId tid;
+	private File file;
+	private HeapFile hf;
+
+	/**
+	 * A table clustered on its first field: tuple i is (i, i % 7)
+	 */
+	@Before
+	public void setUp() throws Exception {
+		List<List<Integer>> tuples = new ArrayList<>();
+		for (int i = 0; i < ROWS; i++)
+			tuples.add(Arrays.asList(i, i % 7));
+		file = File.createTempFile("zones", ".dat");
+		file.deleteOnExit();
+		HeapFileEncoder.convert(tuples, file, BufferPool.getPageSize(), 2);
+		hf = Utility.openHeapFile(2, "c", file);
+		Database.getCatalog().addTable(hf, "events");
+		Database.resetBufferPool(1000);
+		tid = new TransactionId();
+	}
+
+	@After
+	public void tearDown() {
+		Database.getBufferPool().transactionComplete(tid);
+	}
+
+	/** Commit, and start the next transaction with an empty buffer pool */
+	private void restart() {
+		Database.getBufferPool().transactionComplete(tid);
+		Database.resetBufferPool(1000);
+		tid = new TransactionId();
+	}
+
+	private int pagesLocked() {
+		int n = 0;
+		for (int i = 0; i < hf.numPages(); i++) {
+			if (Database.getBufferPool().holdsLock(tid, new HeapPageId(hf.getId(), i)))
+				n++;
+		}
+		return n;
+	}
+
+	/** @return the first fields of the tuples returned that satisfy preds */
+	private List<Integer> scan(HeapFile f, Predicate... preds) throws Exception {
+		List<Integer> result = new ArrayList<>();
+		DbFileIterator it = f.iterator(tid, Arrays.asList(preds));
+		it.open();
+		while (it.hasNext()) {
+			Tuple t = it.next();
+			boolean match = true;
+			for (Predicate p : preds)
+				match &= p.filter(t);
+			if (match)
+				result.add(((IntField) t.getField(0)).getValue());
+		}
+		it.close();
+		Collections.sort(result);
+		return result;
+	}
+
+	private static List<Integer> range(int from, int to) {
+		List<Integer> result = new ArrayList<>();
+		for (int i = from; i < to; i++)
+			result.add(i);
+		return result;
+	}
+
+	/**
+	 * A first scan summarizes the pages, and later scans only read the pages
+	 * that can hold the requested range
+	 */
+	@Test
+	public void skipsPagesOutsideRange() throws Exception {
+		Predicate lo = new Predicate(0, Op.GREATER_THAN_OR_EQ, new IntField(1000));
+		Predicate hi = new Predicate(0, Op.LESS_THAN, new IntField(1100));
+		assertEquals(range(1000, 1100), scan(hf, lo, hi));
+		assertEquals(hf.numPages(), pagesLocked());
+		restart();
+
+		assertEquals(range(1000, 1100), scan(hf, lo, hi));
+		assertTrue(pagesLocked() <= 2);
+		restart();
+
+		// a predicate on a field whose pages all overlap rules nothing out
+		assertEquals(ROWS / 7 + 1, scan(hf, new Predicate(1, Op.EQUALS, new IntField(0))).size());
+		assertEquals(hf.numPages(), pagesLocked());
+		restart();
+		assertEquals(Collections.singletonList(ROWS - 1),
+				scan(hf, new Predicate(0, Op.EQUALS, new IntField(ROWS - 1)), new Predicate(1, Op.LESS_THAN, new IntField(7))));
+		assertEquals(1, pagesLocked());
+		restart();
+		assertEquals(Collections.emptyList(), scan(hf, new Predicate(0, Op.GREATER_THAN, new IntField(ROWS))));
+		assertEquals(0, pagesLocked());
+	}
+
+	/**
+	 * Inserted tuples are found by later scans, including in the inserting
+	 * transaction. Deletes narrow a page's range when the page is written, and
+	 * aborted inserts only once the map is rebuilt
+	 */
+	@Test
+	public void maintainedByInsertsAndDeletes() throws Exception {
+		hf.rebuildZoneMap(tid);
+		restart();
+
+		Predicate high = new Predicate(0, Op.GREATER_THAN_OR_EQ, new IntField(ROWS + 100));
+		Tuple t = new Tuple(hf.getTupleDesc());
+		t.setField(0, new IntField(ROWS + 100));
+		t.setField(1, new IntField(0));
+		Database.getBufferPool().insertTuple(tid, hf.getId(), t);
+		assertEquals(Collections.singletonList(ROWS + 100), scan(hf, high));
+		restart();
+		assertEquals(Collections.singletonList(ROWS + 100), scan(hf, high));
+		assertEquals(1, pagesLocked());
+		restart();
+
+		// an aborted insert leaves its page's range wide, which is safe
+		Predicate higher = new Predicate(0, Op.GREATER_THAN_OR_EQ, new IntField(5 * ROWS));
+		Tuple aborted = new Tuple(hf.getTupleDesc());
+		aborted.setField(0, new IntField(5 * ROWS));
+		aborted.setField(1, new IntField(0));
+		Database.getBufferPool().insertTuple(tid, hf.getId(), aborted);
+		Database.getBufferPool().transactionComplete(tid, false);
+		Database.resetBufferPool(1000);
+		tid = new TransactionId();
+		assertEquals(Collections.emptyList(), scan(hf, higher));
+		assertEquals(1, pagesLocked());
+		restart();
+		hf.rebuildZoneMap(tid);
+		restart();
+		assertEquals(Collections.emptyList(), scan(hf, higher));
+		assertEquals(0, pagesLocked());
+
+		DbFileIterator it = hf.iterator(tid, Collections.singletonList(high));
+		it.open();
+		Tuple found = null;
+		while (it.hasNext()) {
+			Tuple next = it.next();
+			if (high.filter(next))
+				found = next;
+		}
+		it.close();
+		Database.getBufferPool().deleteTuple(tid, found);
+		assertEquals(Collections.emptyList(), scan(hf, high));
+		restart();
+		assertEquals(Collections.emptyList(), scan(hf, high));
+		assertEquals(0, pagesLocked());
+
+		// a heap file opened afresh has no summaries to go on
+		HeapFile reopened = Utility.openHeapFile(2, "c", file);
+		assertEquals(range(0, 10), scan(reopened, new Predicate(0, Op.LESS_THAN, new IntField(10))));
+		assertEquals(reopened.numPages(), pagesLocked());
+	}
+
+	/**
+	 * A planned full scan gets the query's filters on INT fields
+	 */
+	@Test
+	public void plannedScan() throws Exception {
+		List<List<Integer>> tuples = new ArrayList<>();
+		for (int i = 0; i < ROWS; i++)
+			tuples.add(Arrays.asList(i, i % 7));
+		SystemTestUtil.matchTuples(hf, tid, tuples);
+		restart();
+		TableStats.setTableStats("events", new TableStats(hf.getId(), 1000) {
+			@Override
+			public int totalTuples() {
+				return ROWS;
+			}
+
+			@Override
+			public double estimateSelectivity(int field, Op op, Field constant) {
+				return 0.5;
+			}
+		});
+
+		String query = "SELECT events.c0 FROM events WHERE events.c0 > 4000 AND events.c0 <= 4010;";
+		LogicalPlan lp = new Parser().generateLogicalPlan(tid, query);
+		OpIterator plan = lp.physicalPlan(tid, TableStats.getStatsMap(), false);
+		List<Integer> actual = new ArrayList<>();
+		plan.open();
+		while (plan.hasNext())
+			actual.add(((IntField) plan.next().getField(0)).getValue());
+		plan.close();
+		Collections.sort(actual);
+		assertEquals(range(4001, 4011), actual);
+		assertEquals(1, pagesLocked());
+	}
+
+	/**
+	 * JUnit suite target
+	 */
+	public static junit.framework.Test suite() {
+		return new JUnit4TestAdapter(ZoneMapTest.class);
+	}
+}
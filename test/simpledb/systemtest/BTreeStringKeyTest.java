@@ -0,0 +1,176 @@
+package simpledb.systemtest;
+
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.common.Type;
+import simpledb.execution.IndexPredicate;
+import simpledb.execution.Predicate.Op;
+import simpledb.index.*;
+import simpledb.storage.BufferPool;
+import simpledb.storage.DbFileIterator;
+import simpledb.storage.IntField;
+import simpledb.storage.StringField;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionId;
+
+import java.io.File;
+import java.util.*;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class BTreeStringKeyTest extends SimpleDbTestBase {
+	private static final int PAGE_SIZE = 1024;
+	private static final int NUM_TUPLES = 3000;
+
+	private TransactionId tid;
+	private BTreeFile bf;
+	private TupleDesc td;
+
+	@Before
+	public void setUp() throws Exception {
+		BufferPool.setPageSize(PAGE_SIZE);
+		Database.reset();
+		Database.resetBufferPool(2000);
+
+		File f = File.createTempFile("btree-strings", ".dat");
+		f.deleteOnExit();
+		td = new TupleDesc(new Type[] { Type.STRING_TYPE, Type.INT_TYPE });
+		bf = new BTreeFile(f, 0, td);
+		Database.getCatalog().addTable(bf, UUID.randomUUID().toString());
+		tid = new TransactionId();
+	}
+
+	@After
+	public void tearDown() {
+		Database.getBufferPool().transactionComplete(tid);
+
+		// set the page size back to the default
+		BufferPool.resetPageSize();
+		Database.reset();
+	}
+
+	/** Long keys sharing a long prefix, as in URLs or composite identifiers */
+	private static String key(int i) {
+		return String.format("https://example.com/customers/%08d/orders", i * 7919 % NUM_TUPLES);
+	}
+
+	private Tuple tuple(int i) {
+		Tuple t = new Tuple(td);
+		t.setField(0, new StringField(key(i), Type.STRING_LEN));
+		t.setField(1, new IntField(i));
+		return t;
+	}
+
+	private int count(IndexPredicate ipred) throws Exception {
+		DbFileIterator it = ipred == null ? bf.iterator(tid) : bf.indexIterator(tid, ipred);
+		it.open();
+		int n = 0;
+		while (it.hasNext()) {
+			it.next();
+			n++;
+		}
+		it.close();
+		return n;
+	}
+
+	@Test
+	public void testInsertLookupAndDelete() throws Exception {
+		for (int i = 0; i < NUM_TUPLES; i++)
+			Database.getBufferPool().insertTuple(tid, bf.getId(), tuple(i));
+		BTreeChecker.checkRep(bf, tid, new HashMap<>(), false);
+		assertEquals(NUM_TUPLES, count(null));
+
+		// separators are truncated and front-coded, so the root holds far more
+		// entries than the handful of full-length keys a page has room for
+		BTreeRootPtrPage rootPtr = (BTreeRootPtrPage) Database.getBufferPool().getPage(tid,
+				BTreeRootPtrPage.getId(bf.getId()), Permissions.READ_ONLY);
+		BTreeInternalPage root = (BTreeInternalPage) Database.getBufferPool().getPage(tid,
+				rootPtr.getRootId(), Permissions.READ_ONLY);
+		int fullKeysPerPage = PAGE_SIZE / (Type.STRING_TYPE.getLen() + Type.INT_TYPE.getLen());
+		assertTrue(root.getNumEntries() > fullKeysPerPage);
+
+		for (int i = 0; i < NUM_TUPLES; i += 97) {
+			StringField k = new StringField(key(i), Type.STRING_LEN);
+			assertEquals(1, count(new IndexPredicate(Op.EQUALS, k)));
+		}
+		StringField middle = new StringField(key(0).replace("00000000", "00001500"), Type.STRING_LEN);
+		assertEquals(1500, count(new IndexPredicate(Op.LESS_THAN, middle)));
+
+		// flush through the page layout and read everything back
+		Database.getBufferPool().transactionComplete(tid);
+		Database.resetBufferPool(2000);
+		tid = new TransactionId();
+		assertEquals(NUM_TUPLES, count(null));
+
+		// delete two thirds of the tuples, merging and redistributing pages
+		DbFileIterator it = bf.iterator(tid);
+		it.open();
+		List<Tuple> toDelete = new ArrayList<>();
+		int n = 0;
+		while (it.hasNext()) {
+			Tuple t = it.next();
+			if (n++ % 3 != 0)
+				toDelete.add(t);
+		}
+		it.close();
+		for (Tuple t : toDelete)
+			Database.getBufferPool().deleteTuple(tid, t);
+		BTreeChecker.checkRep(bf, tid, new HashMap<>(), false);
+		assertEquals(NUM_TUPLES - toDelete.size(), count(null));
+		for (Tuple t : toDelete)
+			assertEquals(0, count(new IndexPredicate(Op.EQUALS, t.getField(0))));
+	}
+
+	/**
+	 * Keys of very different lengths make separators differ in size, so a parent
+	 * may have no room for the longer separator of a redistribution, and a
+	 * shorter one may leave it less than half full. Internal pages must still
+	 * meet the minimum occupancy throughout a mix of inserts and deletes.
+	 */
+	@Test
+	public void testOccupancyWithVariableLengthKeys() throws Exception {
+		Random rand = new Random(4711);
+		String[] stems = { "a", "https://example.com/", "https://example.com/customers/",
+				"https://example.com/customers/orders/archive/" };
+		Set<String> used = new HashSet<>();
+		List<Tuple> live = new ArrayList<>();
+		for (int round = 0; round < 4; round++) {
+			for (int i = 0; i < NUM_TUPLES; i++) {
+				StringBuilder k;
+				do {
+					k = new StringBuilder(stems[rand.nextInt(stems.length)]);
+					int len = k.length() + rand.nextInt(Type.STRING_LEN - k.length());
+					while (k.length() < len)
+						k.append((char) ('a' + rand.nextInt(26)));
+				} while (!used.add(k.toString()));
+				Tuple t = new Tuple(td);
+				t.setField(0, new StringField(k.toString(), Type.STRING_LEN));
+				t.setField(1, new IntField(i));
+				Database.getBufferPool().insertTuple(tid, bf.getId(), t);
+				live.add(t);
+			}
+			BTreeChecker.checkRep(bf, tid, new HashMap<>(), true);
+
+			Collections.shuffle(live, rand);
+			List<Tuple> toDelete = live.subList(0, live.size() * 3 / 4);
+			for (Tuple t : toDelete)
+				Database.getBufferPool().deleteTuple(tid, t);
+			toDelete.clear();
+			BTreeChecker.checkRep(bf, tid, new HashMap<>(), true);
+			assertEquals(live.size(), count(null));
+		}
+	}
+
+	/**
+	 * JUnit suite target
+	 */
+	public static junit.framework.Test suite() {
+		return new JUnit4TestAdapter(BTreeStringKeyTest.class);
+	}
+}
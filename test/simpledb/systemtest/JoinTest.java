@@ -1,20 +1,27 @@
 package simpledb.systemtest;
 
+import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
 import org.junit.Test;
+import static org.junit.Assert.assertEquals;
 
 import simpledb.common.Database;
 import simpledb.common.DbException;
+import simpledb.common.Utility;
+import simpledb.execution.HashEquiJoin;
 import simpledb.execution.Join;
 import simpledb.execution.JoinPredicate;
 import simpledb.execution.Predicate;
 import simpledb.execution.SeqScan;
+import simpledb.storage.BufferPool;
 import simpledb.storage.HeapFile;
+import simpledb.storage.HeapFileEncoder;
 import simpledb.transaction.TransactionAbortedException;
 import simpledb.transaction.TransactionId;
 
@@ -79,6 +86,95 @@ public class JoinTest extends SimpleDbTestBase {
         validateJoin(1, 3, 1, 3);
     }
 
+    /** HashEquiJoin pushes a runtime filter down to the probe side scan; the
+     * join result must not change, and the scan must return every tuple again
+     * once the join is closed. */
+    @Test public void testHashJoinRuntimeFilter()
+            throws IOException, DbException, TransactionAbortedException {
+        List<List<Integer>> t1Tuples = new ArrayList<>();
+        HeapFile table1 = SystemTestUtil.createRandomHeapFile(
+                COLUMNS, 50, 100, null, t1Tuples);
+        List<List<Integer>> t2Tuples = new ArrayList<>();
+        HeapFile table2 = SystemTestUtil.createRandomHeapFile(
+                COLUMNS, 2000, 1000, null, t2Tuples);
+
+        List<List<Integer>> expectedResults = new ArrayList<>();
+        for (List<Integer> t1 : t1Tuples) {
+            for (List<Integer> t2 : t2Tuples) {
+                if (t1.get(0).equals(t2.get(0))) {
+                    List<Integer> out = new ArrayList<>(t1);
+                    out.addAll(t2);
+                    expectedResults.add(out);
+                }
+            }
+        }
+
+        TransactionId tid = new TransactionId();
+        SeqScan ss1 = new SeqScan(tid, table1.getId(), "t1");
+        SeqScan ss2 = new SeqScan(tid, table2.getId(), "t2");
+        JoinPredicate p = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+        HashEquiJoin joinOp = new HashEquiJoin(p, ss1, ss2);
+        SystemTestUtil.matchTuples(joinOp, expectedResults);
+        joinOp.close();
+
+        SystemTestUtil.matchTuples(ss2, t2Tuples);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** A runtime filter pushed through a nested HashEquiJoin must hold the
+     * keys of the current build chunk when the nested join rebuilds, so every
+     * chunk of a build side larger than MAP_SIZE still finds its matches. */
+    @Test public void testNestedHashJoinRuntimeFilter()
+            throws IOException, DbException, TransactionAbortedException {
+        int rows = HashEquiJoin.MAP_SIZE + 5;
+        List<List<Integer>> aTuples = new ArrayList<>();
+        for (int i = 0; i < rows; i++)
+            aTuples.add(Arrays.asList(i, i));
+        List<List<Integer>> bTuples = new ArrayList<>();
+        for (int i = 0; i < 10; i++)
+            bTuples.add(Arrays.asList(i, i));
+        for (int i = rows - 4; i < rows; i++)
+            bTuples.add(Arrays.asList(i, i));
+
+        HeapFile a = createHeapFile(aTuples);
+        HeapFile b = createHeapFile(bTuples);
+        HeapFile c = createHeapFile(bTuples);
+
+        List<List<Integer>> expectedResults = new ArrayList<>();
+        for (List<Integer> t : bTuples) {
+            List<Integer> out = new ArrayList<>(t);
+            out.addAll(t);
+            out.addAll(t);
+            expectedResults.add(out);
+        }
+
+        TransactionId tid = new TransactionId();
+        JoinPredicate p = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+        HashEquiJoin inner = new HashEquiJoin(p,
+                new SeqScan(tid, b.getId(), "b"), new SeqScan(tid, c.getId(), "c"));
+        HashEquiJoin outer = new HashEquiJoin(p, new SeqScan(tid, a.getId(), "a"), inner);
+        SystemTestUtil.matchTuples(outer, expectedResults);
+
+        // and again after a rewind, which reloads the first chunk
+        outer.open();
+        outer.rewind();
+        int count = 0;
+        while (outer.hasNext()) {
+            outer.next();
+            count++;
+        }
+        outer.close();
+        assertEquals(expectedResults.size(), count);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    private static HeapFile createHeapFile(List<List<Integer>> tuples) throws IOException {
+        File temp = File.createTempFile("table", ".dat");
+        temp.deleteOnExit();
+        HeapFileEncoder.convert(tuples, temp, BufferPool.getPageSize(), COLUMNS);
+        return Utility.openHeapFile(COLUMNS, temp);
+    }
+
     /** Make test compatible with older version of ant. */
     public static junit.framework.Test suite() {
         return new junit.framework.JUnit4TestAdapter(JoinTest.class);
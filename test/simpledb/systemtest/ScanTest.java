@@ -134,6 +134,39 @@ public class ScanTest extends SimpleDbTestBase {
         }
     }
 
+    /** Verifies that a SeqScan with a column subset only returns those columns,
+     * in the requested order, with record ids intact. */
+    @Test public void testProjectedScan() throws IOException, DbException, TransactionAbortedException {
+        List<List<Integer>> tuples = new ArrayList<>();
+        HeapFile f = SystemTestUtil.createRandomHeapFile(4, 1000, null, tuples, "test");
+
+        TransactionId tid = new TransactionId();
+        SeqScan scan = new SeqScan(tid, f.getId(), "t", new int[]{3, 1});
+        TupleDesc td = scan.getTupleDesc();
+        assertEquals(2, td.numFields());
+        assertEquals("t." + f.getTupleDesc().getFieldName(3), td.getFieldName(0));
+        assertEquals("t." + f.getTupleDesc().getFieldName(1), td.getFieldName(1));
+
+        List<List<Integer>> expected = new ArrayList<>();
+        for (List<Integer> tuple : tuples) {
+            List<Integer> projected = new ArrayList<>();
+            projected.add(tuple.get(3));
+            projected.add(tuple.get(1));
+            expected.add(projected);
+        }
+
+        scan.open();
+        for (List<Integer> tuple : expected) {
+            assertTrue(scan.hasNext());
+            Tuple t = scan.next();
+            assertEquals(tuple, SystemTestUtil.tupleToList(t));
+            assertNotNull(t.getRecordId());
+        }
+        assertFalse(scan.hasNext());
+        scan.close();
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
     /** Make test compatible with older version of ant. */
     public static junit.framework.Test suite() {
         return new junit.framework.JUnit4TestAdapter(ScanTest.class);